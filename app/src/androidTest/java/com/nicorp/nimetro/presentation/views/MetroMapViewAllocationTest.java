@@ -0,0 +1,181 @@
+package com.nicorp.nimetro.presentation.views;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.nicorp.nimetro.R;
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.Station;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Проверяет, что кадр панорамирования карты после прогрева не создаёт объектов:
+ * просто карта, карта с маршрутом и положением пользователя, карта с выбранной станцией
+ * и карта, уведённая с экрана, когда к линиям рисуются стрелки.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetroMapViewAllocationTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final long TILE_WAIT_MS = 100;
+    // ART считает выделенную память порциями буфера потока (TLAB), а не по объектам:
+    // кадров столько, чтобы даже мелкое выделение на каждом кадре исчерпало буфер
+    private static final int MEASURED_FRAMES = 2000;
+    private static final long PATH_CACHE_TIMEOUT_MS = 5000;
+    // Сдвиг, уводящий все линии тестовой карты за край экрана
+    private static final float OFF_SCREEN_SHIFT = 20000f;
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+    private final List<Station> metroStations = new ArrayList<>();
+
+    @Test
+    public void panFrameAllocatesNothingAfterWarmup() {
+        MetroMapView view = createView();
+        assertPanFramesAllocateNothing(view, 0f);
+    }
+
+    @Test
+    public void routeFrameAllocatesNothingAfterWarmup() {
+        MetroMapView view = createView();
+        instrumentation.runOnMainSync(() -> {
+            List<Station> route = new ArrayList<>(metroStations.subList(1, 6));
+            view.setRoute(route);
+            view.updateUserPosition(route.get(0));
+        });
+        awaitPathCache(view);
+        assertPanFramesAllocateNothing(view, 0f);
+    }
+
+    @Test
+    public void selectedStationFrameAllocatesNothingAfterWarmup() {
+        MetroMapView view = createView();
+        instrumentation.runOnMainSync(() -> view.selectedStation = metroStations.get(3));
+        assertPanFramesAllocateNothing(view, 0f);
+    }
+
+    @Test
+    public void offScreenFrameAllocatesNothingAfterWarmup() {
+        MetroMapView view = createView();
+        assertPanFramesAllocateNothing(view, OFF_SCREEN_SHIFT);
+    }
+
+    private MetroMapView createView() {
+        MetroMapView[] views = new MetroMapView[1];
+        instrumentation.runOnMainSync(() -> {
+            Context context = new ContextThemeWrapper(instrumentation.getTargetContext(), R.style.Base_Theme_NIMetro);
+            MetroMapView view = new MetroMapView(context);
+
+            List<Line> lines = new ArrayList<>();
+            buildLine("1", "#D6083B", 0, lines, metroStations);
+            buildLine("2", "#0078C9", 1, lines, metroStations);
+            List<Line> suburbanLines = new ArrayList<>();
+            List<Station> suburbanStations = new ArrayList<>();
+            buildLine("S1", "#9E9E9E", 2, suburbanLines, suburbanStations);
+
+            // Метро активно, пригородный слой рисуется серым
+            view.setData(lines, metroStations, null, null, null,
+                    suburbanLines, suburbanStations, null, null, null,
+                    null, null, null, null, null,
+                    null, null, null, null, null,
+                    true, false, false, false);
+            view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            view.layout(0, 0, WIDTH, HEIGHT);
+            views[0] = view;
+        });
+        awaitPathCache(views[0]);
+        return views[0];
+    }
+
+    private void assertPanFramesAllocateNothing(MetroMapView view, float shift) {
+        instrumentation.runOnMainSync(() -> {
+            Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(bitmap);
+            try {
+                // Прогрев: Picture статического слоя записывается на первом кадре,
+                // тайлы всех положений карты фоновый поток дорисовывает между кругами
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    for (int i = 0; i < 10; i++) {
+                        panAndDraw(view, canvas, i, shift);
+                    }
+                    SystemClock.sleep(TILE_WAIT_MS);
+                }
+
+                long before = bytesAllocated();
+                for (int i = 0; i < MEASURED_FRAMES; i++) {
+                    panAndDraw(view, canvas, i, shift);
+                }
+                long allocated = bytesAllocated() - before;
+                assertEquals("Байты, выделенные за " + MEASURED_FRAMES + " кадров", 0, allocated);
+            } finally {
+                bitmap.recycle();
+            }
+        });
+    }
+
+    private static long bytesAllocated() {
+        return Long.parseLong(Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    /**
+     * Ждёт снимок кэша путей: он собирается в фоне и подменяется через главный поток.
+     */
+    private void awaitPathCache(MetroMapView view) {
+        long deadline = SystemClock.uptimeMillis() + PATH_CACHE_TIMEOUT_MS;
+        boolean[] pending = {true};
+        while (pending[0] && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+            instrumentation.runOnMainSync(() -> pending[0] = view.isPathCacheBuildPending());
+        }
+        assertFalse("Кэш путей не собран за " + PATH_CACHE_TIMEOUT_MS + " мс", pending[0]);
+    }
+
+    /**
+     * Сдвигает карту через setTranslateX/setTranslateY на shift и ещё немного от кадра к кадру и рисует кадр.
+     * При нулевом shift линии остаются на экране.
+     */
+    private static void panAndDraw(MetroMapView view, Canvas canvas, int frame, float shift) {
+        float offset = (frame % 10) * 15f;
+        view.setTranslateX(shift - offset);
+        view.setTranslateY(shift - offset);
+        view.draw(canvas);
+    }
+
+    /**
+     * Диагональная линия из восьми станций; row сдвигает линию, чтобы линии не совпадали.
+     */
+    private static void buildLine(String id, String color, int row, List<Line> lines, List<Station> stations) {
+        Line line = new Line(id, "Линия " + id, color, false, "single", null, id, "CIRCLE");
+        Station previous = null;
+        for (int i = 0; i < 8; i++) {
+            Station station = new Station(id + "_" + i, "Станция " + id + "-" + i,
+                    40 + i * 30, 40 + row * 60 + i * 20, null, color, null, 1);
+            if (previous != null) {
+                previous.addNeighbor(new Station.Neighbor(station, 2));
+                station.addNeighbor(new Station.Neighbor(previous, 2));
+            }
+            line.getStations().add(station);
+            stations.add(station);
+            previous = station;
+        }
+        lines.add(line);
+    }
+}
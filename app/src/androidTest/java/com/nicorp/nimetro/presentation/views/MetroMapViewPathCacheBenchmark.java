@@ -0,0 +1,104 @@
+package com.nicorp.nimetro.presentation.views;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nicorp.nimetro.R;
+import com.nicorp.nimetro.domain.routing.MetroMapFixture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Время полной сборки кэша путей карты (updatePathCache → drawColoredMap) на metromap_1:
+ * метро активно, пригородный слой рисуется серым, как при открытии карты.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MetroMapViewPathCacheBenchmark {
+    private static final String MAP_ASSET = "raw/metromap_1.json";
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+    private static final long PATH_CACHE_TIMEOUT_MS = 10000;
+
+    @Rule
+    public final BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+
+    @Test
+    public void buildMapPathCache() throws IOException {
+        MetroMapFixture metro = loadLayer("metro_map");
+        MetroMapFixture suburban = loadLayer("suburban_map");
+        MetroMapView view = createView(metro, suburban);
+
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            view.buildMapPathCacheForBenchmark();
+        }
+    }
+
+    /**
+     * Загружает только указанный слой карты: MetroMapFixture читает все слои, поэтому лишние удаляются из JSON.
+     */
+    private MetroMapFixture loadLayer(String layerName) throws IOException {
+        Context context = instrumentation.getTargetContext();
+        JsonObject root;
+        try (Reader reader = new InputStreamReader(context.getAssets().open(MAP_ASSET), StandardCharsets.UTF_8)) {
+            root = JsonParser.parseReader(reader).getAsJsonObject();
+        }
+        JsonObject layerOnly = new JsonObject();
+        layerOnly.add(layerName, root.get(layerName));
+        return MetroMapFixture.load(new StringReader(layerOnly.toString()));
+    }
+
+    private MetroMapView createView(MetroMapFixture metro, MetroMapFixture suburban) {
+        MetroMapView[] views = new MetroMapView[1];
+        instrumentation.runOnMainSync(() -> {
+            Context context = new ContextThemeWrapper(instrumentation.getTargetContext(), R.style.Base_Theme_NIMetro);
+            MetroMapView view = new MetroMapView(context);
+            view.setData(metro.lines, metro.stations, metro.transfers, null, null,
+                    suburban.lines, suburban.stations, suburban.transfers, null, null,
+                    null, null, null, null, null,
+                    null, null, null, null, null,
+                    true, false, false, false);
+            view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+            view.layout(0, 0, WIDTH, HEIGHT);
+            views[0] = view;
+        });
+        awaitPathCache(views[0]);
+        return views[0];
+    }
+
+    /**
+     * Ждёт фоновую сборку, запущенную setData: замер идёт, когда рабочий поток свободен.
+     */
+    private void awaitPathCache(MetroMapView view) {
+        long deadline = SystemClock.uptimeMillis() + PATH_CACHE_TIMEOUT_MS;
+        boolean[] pending = {true};
+        while (pending[0] && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+            instrumentation.runOnMainSync(() -> pending[0] = view.isPathCacheBuildPending());
+        }
+        assertFalse("Кэш путей не собран за " + PATH_CACHE_TIMEOUT_MS + " мс", pending[0]);
+    }
+}
@@ -20,6 +20,7 @@ import java.util.List;
 public class LocalMapCache {
     private static final String TAG = "LocalMapCache";
     private static final String MAPS_DIR = "maps";
+    private static final String ROUTING_DIR = "routing";
     private final Context context;
     private final File mapsDirectory;
     private final Gson gson;
@@ -134,6 +135,27 @@ public class LocalMapCache {
         return mapIds;
     }
 
+    /**
+     * Файл с предобработанным графом маршрутов для карты. Имя включает версию карты,
+     * поэтому после обновления карты старый кеш не читается.
+     */
+    public File getRoutingCacheFile(String mapId, String mapVersion) {
+        return getRoutingFile(mapId, mapVersion, ".ch");
+    }
+
+    /**
+     * Файл с матрицей времён в пути между станциями метро; как и кеш графа, зависит от версии карты.
+     */
+    public File getTravelTimeMatrixFile(String mapId, String mapVersion) {
+        return getRoutingFile(mapId, mapVersion, ".ttm");
+    }
+
+    private File getRoutingFile(String mapId, String mapVersion, String extension) {
+        File routingDirectory = new File(mapsDirectory, ROUTING_DIR);
+        String version = mapVersion != null ? mapVersion.replaceAll("[^A-Za-z0-9._-]", "_") : "0";
+        return new File(routingDirectory, mapId + "-" + version + extension);
+    }
+
     public long getMapLastModified(String mapId) {
         if (mapId == null) {
             return 0;
@@ -16,6 +16,7 @@ import com.nicorp.nimetro.data.api.dto.ApiMapData;
 import com.nicorp.nimetro.data.api.dto.ApiMapItem;
 import com.nicorp.nimetro.data.exceptions.ApiException;
 import com.nicorp.nimetro.data.repositories.LocalMapCache;
+import com.nicorp.nimetro.domain.routing.RoutingEngine;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -220,6 +221,8 @@ public class MapSyncService {
             if (serverDate.after(localDate)) {
                 Log.d(TAG, "Map update available: " + mapId);
                 downloadMap(mapId);
+                // Маршруты, найденные по старой версии карты, больше не используем
+                RoutingEngine.getInstance().invalidateRouteCache();
                 return true;
             }
 
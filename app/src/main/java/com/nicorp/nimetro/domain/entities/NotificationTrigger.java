@@ -12,6 +12,9 @@ public class NotificationTrigger {
     private DateRange dateRange;
     private String stationId;
     private String lineId;
+    // Станция или линия закрыта для проезда (поле "closed" триггера); только такие оповещения
+    // становятся закрытиями маршрутизации
+    private boolean closed;
 
     public NotificationTrigger() {
     }
@@ -64,6 +67,14 @@ public class NotificationTrigger {
         this.lineId = lineId;
     }
 
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void setClosed(boolean closed) {
+        this.closed = closed;
+    }
+
     public static class DateRange {
         private String start;
         private String end;
@@ -0,0 +1,160 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.Station;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Индекс принадлежности станций линиям.
+ *
+ * Строится один раз при загрузке карты и заменяет линейные проходы по всем линиям:
+ * станция → линии, (станция, линия) → экземпляр станции на этой линии,
+ * линия → позиции станций. Порядок линий совпадает с порядком списков,
+ * переданных в {@link #build(List[])}. Линии разных слоёв могут иметь одинаковый ID —
+ * как и прежний поиск, для каждой станции берётся первая линия с таким ID, на которой она есть.
+ */
+public final class MapIndex {
+    public static final MapIndex EMPTY = build();
+
+    private final Map<String, Line> lineById = new HashMap<>();
+    private final Map<String, List<Line>> linesByStationId = new HashMap<>();
+    private final Map<Line, Map<String, Integer>> positionsByLine = new IdentityHashMap<>();
+    private final Map<Station, Line> lineByInstance = new IdentityHashMap<>();
+
+    private MapIndex() {
+    }
+
+    @SafeVarargs
+    public static MapIndex build(List<Line>... lineGroups) {
+        MapIndex index = new MapIndex();
+        for (List<Line> group : lineGroups) {
+            if (group == null) {
+                continue;
+            }
+            for (Line line : group) {
+                index.addLine(line);
+            }
+        }
+        for (Map.Entry<String, List<Line>> entry : index.linesByStationId.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return index;
+    }
+
+    private void addLine(Line line) {
+        if (line == null || line.getStations() == null || positionsByLine.containsKey(line)) {
+            return;
+        }
+        List<Station> lineStations = line.getStations();
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < lineStations.size(); i++) {
+            Station station = lineStations.get(i);
+            if (station == null) {
+                continue;
+            }
+            // Экземпляр станции ищется по ссылке, как в List.contains
+            if (!lineByInstance.containsKey(station)) {
+                lineByInstance.put(station, line);
+            }
+            if (station.getId() == null || positions.containsKey(station.getId())) {
+                continue;
+            }
+            positions.put(station.getId(), i);
+            if (line.getId() != null) {
+                addStationLine(station.getId(), line);
+            }
+        }
+        positionsByLine.put(line, positions);
+        if (line.getId() != null && !lineById.containsKey(line.getId())) {
+            lineById.put(line.getId(), line);
+        }
+    }
+
+    private void addStationLine(String stationId, Line line) {
+        List<Line> stationLines = linesByStationId.get(stationId);
+        if (stationLines == null) {
+            stationLines = new ArrayList<>(1);
+            linesByStationId.put(stationId, stationLines);
+        }
+        for (Line existing : stationLines) {
+            if (existing.getId().equals(line.getId())) {
+                return;
+            }
+        }
+        stationLines.add(line);
+    }
+
+    public Line getLine(String lineId) {
+        return lineId != null ? lineById.get(lineId) : null;
+    }
+
+    /**
+     * @return неизменяемый список линий, на которых есть станция с таким id
+     */
+    public List<Line> getLinesForStation(String stationId) {
+        if (stationId == null) {
+            return Collections.emptyList();
+        }
+        List<Line> result = linesByStationId.get(stationId);
+        return result != null ? result : Collections.<Line>emptyList();
+    }
+
+    public List<Line> getLinesForStation(Station station) {
+        return getLinesForStation(station != null ? station.getId() : null);
+    }
+
+    /**
+     * Станция считается смежной, если она есть хотя бы на двух линиях.
+     */
+    public boolean isShared(Station station) {
+        return getLinesForStation(station).size() >= 2;
+    }
+
+    /**
+     * @return позиция станции в списке станций линии или -1
+     */
+    public int getPosition(Line line, String stationId) {
+        if (line == null || stationId == null || line.getStations() == null) {
+            return -1;
+        }
+        Map<String, Integer> positions = positionsByLine.get(line);
+        if (positions == null) {
+            // Линия не из этого индекса (например, копия после десериализации)
+            List<Station> lineStations = line.getStations();
+            for (int i = 0; i < lineStations.size(); i++) {
+                Station lineStation = lineStations.get(i);
+                if (lineStation != null && stationId.equals(lineStation.getId())) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        Integer position = positions.get(stationId);
+        return position != null ? position : -1;
+    }
+
+    /**
+     * @return экземпляр станции с тем же id на указанной линии или null
+     */
+    public Station findStationInLine(Station station, Line line) {
+        return station != null ? findStationInLine(station.getId(), line) : null;
+    }
+
+    public Station findStationInLine(String stationId, Line line) {
+        int position = getPosition(line, stationId);
+        return position >= 0 ? line.getStations().get(position) : null;
+    }
+
+    /**
+     * @return первая линия, в списке станций которой лежит именно этот экземпляр станции
+     */
+    public Line getLineContaining(Station station) {
+        return station != null ? lineByInstance.get(station) : null;
+    }
+}
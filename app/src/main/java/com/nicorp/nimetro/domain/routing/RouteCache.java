@@ -0,0 +1,120 @@
+package com.nicorp.nimetro.domain.routing;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * LRU-кеш найденных маршрутов.
+ *
+ * Хранит пути по состояниям графа, а не списки RouteStation: списки строятся заново на каждый
+ * запрос, так что вызывающий код может менять их, не портя кеш. Версия карты входит в ключ —
+ * маршрут, найденный по старому графу, не достанется запросу по новому, даже если поиск
+ * завершился уже после замены карты.
+ */
+public final class RouteCache {
+    // Стратегии в ключе для Парето-вариантов, альтернатив к ним и маршрута по расписанию
+    // (остальные — порядковые номера RouteVariantType)
+    static final int STRATEGY_VARIANTS = -1;
+    static final int STRATEGY_ALTERNATIVES = -2;
+    static final int STRATEGY_SCHEDULED = -3;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, List<int[]>> entries;
+    private long hits;
+    private long misses;
+
+    public RouteCache(int capacity) {
+        this.capacity = capacity;
+        // accessOrder = true: get переносит запись в конец, первой вытесняется давно не использованная
+        this.entries = new LinkedHashMap<Key, List<int[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<int[]>> eldest) {
+                return size() > RouteCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return пути маршрута или null, если запроса нет в кеше
+     */
+    public synchronized List<int[]> get(Key key) {
+        List<int[]> paths = entries.get(key);
+        if (paths != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return paths;
+    }
+
+    public synchronized void put(Key key, List<int[]> paths) {
+        entries.put(key, paths);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public static final class Key {
+        private final String startId;
+        private final String endId;
+        private final int strategy;
+        private final int maxTime;
+        private final float maxTimeRatio;
+        private final int routeCount;
+        private final long mapVersion;
+
+        /**
+         * @param strategy   порядковый номер RouteVariantType или одна из констант STRATEGY_*
+         * @param maxTime    ограничение по времени; для маршрута по расписанию — время отправления
+         * @param routeCount сколько всего маршрутов показать (для альтернатив), иначе 0
+         */
+        Key(String startId, String endId, int strategy, int maxTime, float maxTimeRatio, int routeCount,
+            long mapVersion) {
+            this.startId = startId;
+            this.endId = endId;
+            this.strategy = strategy;
+            this.maxTime = maxTime;
+            this.maxTimeRatio = maxTimeRatio;
+            this.routeCount = routeCount;
+            this.mapVersion = mapVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return strategy == key.strategy && maxTime == key.maxTime
+                    && Float.compare(maxTimeRatio, key.maxTimeRatio) == 0 && routeCount == key.routeCount
+                    && mapVersion == key.mapVersion
+                    && Objects.equals(startId, key.startId) && Objects.equals(endId, key.endId);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Objects.hashCode(startId);
+            result = 31 * result + Objects.hashCode(endId);
+            result = 31 * result + strategy;
+            result = 31 * result + maxTime;
+            result = 31 * result + Float.floatToIntBits(maxTimeRatio);
+            result = 31 * result + routeCount;
+            result = 31 * result + Long.hashCode(mapVersion);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.nicorp.nimetro.domain.routing;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Выполняет запросы маршрутов в отдельном потоке по принципу «побеждает последний».
+ *
+ * Ожидающий запрос, который ещё не начал выполняться, заменяется новым и не выполняется вовсе;
+ * результат уже выполняющегося устаревшего запроса отбрасывается. Запрос с тем же ключом,
+ * что и последний, не запускается повторно — результат получит последний переданный callback.
+ * Результат доставляется через resultExecutor (в приложении — главный поток) и только если
+ * за это время не пришёл более новый запрос.
+ */
+public final class RouteRequestScheduler {
+
+    public interface Callback<T> {
+        /**
+         * @param result результат или null, если вычисление завершилось исключением
+         */
+        void onResult(T result);
+    }
+
+    public interface ErrorListener {
+        /**
+         * Вызывается в рабочем потоке для каждого упавшего запроса, в том числе устаревшего.
+         */
+        void onError(Exception error);
+    }
+
+    private final ExecutorService worker;
+    private final Executor resultExecutor;
+    private final ErrorListener errorListener;
+    private final Object lock = new Object();
+
+    // Все поля ниже защищены lock
+    private long generation;
+    private Object latestKey;
+    private Request<?> latest;
+    private Request<?> pending;
+    private boolean drainScheduled;
+
+    /**
+     * @param errorListener получает исключения запросов (например, для журнала)
+     */
+    public RouteRequestScheduler(Executor resultExecutor, ErrorListener errorListener) {
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RouteWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.resultExecutor = resultExecutor;
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * @param key ключ запроса для объединения одинаковых запросов (например, станции и режим)
+     */
+    public <T> void submit(Object key, Callable<T> task, Callback<T> callback) {
+        synchronized (lock) {
+            if (latest != null && key != null && key.equals(latestKey)) {
+                // Тот же запрос ещё ждёт или выполняется — просто перенаправляем результат
+                @SuppressWarnings("unchecked")
+                Request<T> same = (Request<T>) latest;
+                same.callback = callback;
+                return;
+            }
+            generation++;
+            Request<T> request = new Request<>(generation, task, callback);
+            latestKey = key;
+            latest = request;
+            pending = request;
+            if (!drainScheduled) {
+                drainScheduled = true;
+                worker.execute(this::drain);
+            }
+        }
+    }
+
+    /**
+     * Отменяет ожидающий запрос и не даёт доставить результат выполняющегося.
+     */
+    public void cancel() {
+        synchronized (lock) {
+            generation++;
+            latestKey = null;
+            latest = null;
+            pending = null;
+        }
+    }
+
+    public void shutdown() {
+        cancel();
+        worker.shutdownNow();
+    }
+
+    private void drain() {
+        while (true) {
+            Request<?> request;
+            synchronized (lock) {
+                request = pending;
+                pending = null;
+                if (request == null) {
+                    drainScheduled = false;
+                    return;
+                }
+            }
+            run(request);
+        }
+    }
+
+    private <T> void run(Request<T> request) {
+        T result;
+        try {
+            result = request.task.call();
+        } catch (Exception e) {
+            errorListener.onError(e);
+            result = null;
+        }
+        synchronized (lock) {
+            if (request.generation != generation) {
+                return;
+            }
+            // Повторный такой же запрос после доставки должен вычисляться заново
+            latest = null;
+            latestKey = null;
+        }
+        T delivered = result;
+        resultExecutor.execute(() -> {
+            Callback<T> callback;
+            synchronized (lock) {
+                // Пока результат шёл в главный поток, мог прийти новый запрос
+                if (request.generation != generation) {
+                    return;
+                }
+                callback = request.callback;
+            }
+            callback.onResult(delivered);
+        });
+    }
+
+    private static final class Request<T> {
+        final long generation;
+        final Callable<T> task;
+        Callback<T> callback;
+
+        Request(long generation, Callable<T> task, Callback<T> callback) {
+            this.generation = generation;
+            this.task = task;
+            this.callback = callback;
+        }
+    }
+}
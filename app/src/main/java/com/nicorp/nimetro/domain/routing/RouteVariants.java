@@ -0,0 +1,63 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.RouteStation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Варианты маршрута для показа пользователю: сначала Парето-оптимальные по времени и пересадкам
+ * (от самого быстрого к маршруту с минимумом пересадок), затем альтернативные маршруты.
+ * При поиске с учётом времени отправления перед ними может стоять маршрут с учётом времени,
+ * если он не совпадает ни с одним из остальных.
+ */
+public final class RouteVariants {
+    public static final RouteVariants EMPTY = new RouteVariants(Collections.emptyList(), 0);
+
+    private final List<List<RouteStation>> routes;
+    private final int paretoStart;
+    private final int paretoCount;
+    private final ScheduledRoute scheduledRoute;
+
+    public RouteVariants(List<List<RouteStation>> routes, int paretoCount) {
+        this(routes, 0, paretoCount, null);
+    }
+
+    RouteVariants(List<List<RouteStation>> routes, int paretoStart, int paretoCount, ScheduledRoute scheduledRoute) {
+        this.routes = routes;
+        this.paretoStart = paretoStart;
+        this.paretoCount = paretoCount;
+        this.scheduledRoute = scheduledRoute;
+    }
+
+    public List<List<RouteStation>> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Позиция первого Парето-оптимального маршрута: 1, если первым идёт отдельный маршрут с учётом
+     * времени отправления, иначе 0.
+     */
+    public int getParetoStart() {
+        return paretoStart;
+    }
+
+    /**
+     * Число Парето-оптимальных маршрутов, начиная с {@link #getParetoStart()}.
+     */
+    public int getParetoCount() {
+        return paretoCount;
+    }
+
+    /**
+     * @return маршрут с учётом времени отправления (отдельный первый вариант или совпадающий с одним
+     * из остальных) или null, если поиск был без учёта времени
+     */
+    public ScheduledRoute getScheduledRoute() {
+        return scheduledRoute;
+    }
+
+    public boolean isEmpty() {
+        return routes.isEmpty() || routes.get(0).isEmpty();
+    }
+}
@@ -0,0 +1,575 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.RouteStation;
+import com.nicorp.nimetro.domain.entities.RouteVariantType;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.domain.entities.Transfer;
+import com.nicorp.nimetro.routing.ContractionHierarchy;
+import com.nicorp.nimetro.routing.RouteClosures;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.RouteTrace;
+import com.nicorp.nimetro.routing.ServiceSchedule;
+import com.nicorp.nimetro.routing.TransitNetwork;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Общий для приложения движок маршрутизации.
+ *
+ * Граф компилируется один раз при загрузке карты и затем используется
+ * MainActivity, RouteInfoFragment и StationTrackingService. Поиск ведут классы модуля ni-metro-routing
+ * (те же, что у сервера) по {@link TransitGraph#getNetwork()}; найденные пути из состояний
+ * переводятся в станции приложения через {@link TransitGraph#toRouteStations}.
+ *
+ * Самый быстрый маршрут ищется по иерархии сжатия, если она подготовлена для текущего графа
+ * (см. {@link #prepareHierarchyAsync}); до этого и для остальных режимов используется {@link TransitRouter}.
+ * Результаты запросов хранятся в LRU-кеше и сбрасываются при смене или обновлении карты.
+ * Для станций метро можно заранее посчитать матрицу времён в пути (см. {@link #prepareTravelTimeMatrixAsync}).
+ * Маршрут с учётом времени отправления ищется по часам работы станций и интервалам линий
+ * (см. {@link #findScheduledRoute}), варианты при отправлении в заданное время — без закрытых в это время линий.
+ * Закрытые станции, линии и перегоны (см. {@link #setClosures}) накладываются на граф маской
+ * и действуют сразу, без перекомпиляции графа; пока что-то закрыто, иерархия сжатия не используется.
+ */
+public class RoutingEngine {
+    private static final int TRACE_CAPACITY = 4096;
+    private static final int ROUTE_CACHE_CAPACITY = 64;
+    // Альтернативный маршрут должен хотя бы на треть своего времени идти по другим рёбрам
+    private static final float MAX_ALTERNATIVE_OVERLAP = 0.67f;
+    // Интервал движения линий, для которых он не задан
+    private static final int DEFAULT_HEADWAY = 5;
+
+    private static RoutingEngine instance;
+    // Иерархия и матрица готовятся по очереди в одном фоновом потоке, не отнимая ядра у поиска маршрутов
+    private final ExecutorService preparation = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RoutingPreparation");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Трассировка поиска, создаётся только при RouteTrace.ENABLED
+    private final RouteTrace trace = RouteTrace.ENABLED ? new RouteTrace(TRACE_CAPACITY) : null;
+    private volatile LoadedGraph loaded;
+    private volatile ContractionHierarchy hierarchy;
+    private volatile TravelTimeMatrix travelTimeMatrix;
+    private volatile ServiceSchedule schedule;
+    private RouteClosures closures = RouteClosures.NONE;
+    private Map<String, Integer> lineHeadways = Collections.emptyMap();
+    private final RouteCache routeCache = new RouteCache(ROUTE_CACHE_CAPACITY);
+    // Меняется после loaded: прочитав сначала версию, а потом loaded, запрос не сохранит
+    // результат старого графа под новой версией
+    private volatile long mapVersion;
+
+    private RoutingEngine() {
+    }
+
+    public static synchronized RoutingEngine getInstance() {
+        if (instance == null) {
+            instance = new RoutingEngine();
+        }
+        return instance;
+    }
+
+    /**
+     * Компилирует граф для загруженной карты и заменяет им текущий.
+     */
+    public TransitGraph loadMap(List<Station> allStations, List<Line> allLines, List<Transfer> allTransfers) {
+        TransitGraph graph = TransitGraph.compile(allStations, allLines, allTransfers);
+        TransitRouter newRouter = new TransitRouter(graph.getNetwork());
+        if (RouteTrace.ENABLED) {
+            newRouter.setTrace(trace);
+        }
+        synchronized (this) {
+            newRouter.setClosures(closures);
+            loaded = new LoadedGraph(graph, newRouter);
+            hierarchy = null;
+            travelTimeMatrix = null;
+            schedule = null;
+            invalidateRouteCache();
+        }
+        return graph;
+    }
+
+    public synchronized void clear() {
+        loaded = null;
+        hierarchy = null;
+        travelTimeMatrix = null;
+        schedule = null;
+        invalidateRouteCache();
+    }
+
+    /**
+     * Сбрасывает кеш маршрутов, например после загрузки новой версии карты.
+     */
+    public synchronized void invalidateRouteCache() {
+        mapVersion++;
+        routeCache.clear();
+    }
+
+    /**
+     * Заменяет закрытия для следующих запросов и сбрасывает кеш маршрутов. Закрытия сохраняются
+     * при смене карты; ID, которых нет в текущем графе, пропускаются.
+     *
+     * @param closures закрытия или {@link RouteClosures#NONE}
+     */
+    public synchronized void setClosures(RouteClosures closures) {
+        this.closures = closures != null ? closures : RouteClosures.NONE;
+        LoadedGraph current = loaded;
+        if (current != null) {
+            current.router.setClosures(this.closures);
+        }
+        invalidateRouteCache();
+    }
+
+    public synchronized RouteClosures getClosures() {
+        return closures;
+    }
+
+    /**
+     * Задаёт интервалы движения линий для поиска по расписанию; действуют и после смены карты.
+     *
+     * @param headwaysByLineId интервал в минутах по ID линии; для остальных линий — {@link #DEFAULT_HEADWAY}
+     */
+    public synchronized void setLineHeadways(Map<String, Integer> headwaysByLineId) {
+        lineHeadways = headwaysByLineId != null
+                ? new HashMap<>(headwaysByLineId) : Collections.<String, Integer>emptyMap();
+        schedule = null;
+        invalidateRouteCache();
+    }
+
+    /**
+     * Кеш маршрутов; его счётчики попаданий и промахов показывают, сколько поисков удалось избежать.
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    /**
+     * Готовит иерархию сжатия для текущего графа в фоновом потоке подготовки: читает её из файла кеша,
+     * а если файла нет или он построен для другого графа, строит заново и перезаписывает файл.
+     *
+     * @param cacheFile файл кеша; имя должно зависеть от карты и её версии
+     */
+    public void prepareHierarchyAsync(File cacheFile) {
+        LoadedGraph current = loaded;
+        if (current == null) {
+            return;
+        }
+        preparation.execute(() -> {
+            // Пока задача ждала очереди, могла загрузиться другая карта
+            if (loaded != current) {
+                return;
+            }
+            ContractionHierarchy prepared = loadOrBuildHierarchy(current.graph.getNetwork(), cacheFile);
+            if (RouteTrace.ENABLED) {
+                prepared.setTrace(trace);
+            }
+            synchronized (this) {
+                // Пока шла предобработка, могла загрузиться другая карта
+                if (loaded == current) {
+                    hierarchy = prepared;
+                }
+            }
+        });
+    }
+
+    public boolean isHierarchyReady() {
+        ContractionHierarchy current = hierarchy;
+        TransitGraph graph = getGraph();
+        return current != null && graph != null && current.getNetwork() == graph.getNetwork();
+    }
+
+    private static ContractionHierarchy loadOrBuildHierarchy(TransitNetwork network, File cacheFile) {
+        if (cacheFile != null && cacheFile.exists()) {
+            try (InputStream in = new FileInputStream(cacheFile)) {
+                ContractionHierarchy cached = ContractionHierarchy.readFrom(in, network);
+                if (cached != null) {
+                    return cached;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Повреждённый кеш просто перестраивается
+            }
+        }
+        ContractionHierarchy built = ContractionHierarchy.build(network);
+        if (cacheFile != null) {
+            saveCacheFile(cacheFile, built::writeTo);
+        }
+        return built;
+    }
+
+    /**
+     * Считает в фоновом потоке подготовки, после заказанной раньше иерархии, матрицу времён в пути между станциями слоя: отображает её из файла кеша,
+     * а если файла нет или он построен для другого графа, строит заново и перезаписывает файл.
+     * До готовности матрицы {@link #getShortestTravelTime} возвращает -1.
+     *
+     * @param layerStations станции слоя, обычно метро: матрица растёт как квадрат их числа
+     * @param cacheFile файл кеша; имя должно зависеть от карты и её версии
+     */
+    public void prepareTravelTimeMatrixAsync(List<Station> layerStations, File cacheFile) {
+        LoadedGraph current = loaded;
+        if (current == null) {
+            return;
+        }
+        List<Station> stations = new ArrayList<>(layerStations);
+        preparation.execute(() -> {
+            if (loaded != current) {
+                return;
+            }
+            TravelTimeMatrix prepared = loadOrBuildTravelTimeMatrix(current.graph, stations, cacheFile);
+            synchronized (this) {
+                if (loaded == current) {
+                    travelTimeMatrix = prepared;
+                }
+            }
+        });
+    }
+
+    private static TravelTimeMatrix loadOrBuildTravelTimeMatrix(TransitGraph graph, List<Station> layerStations,
+                                                                File cacheFile) {
+        if (cacheFile != null && cacheFile.exists()) {
+            try {
+                TravelTimeMatrix cached = TravelTimeMatrix.map(cacheFile, graph, layerStations);
+                if (cached != null) {
+                    return cached;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Повреждённый кеш просто перестраивается
+            }
+        }
+        TravelTimeMatrix built = TravelTimeMatrix.build(graph, layerStations);
+        if (cacheFile != null) {
+            saveCacheFile(cacheFile, built::writeTo);
+        }
+        return built;
+    }
+
+    private interface CacheWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private static void saveCacheFile(File cacheFile, CacheWriter writer) {
+        File parent = cacheFile.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            return;
+        }
+        // Пишем во временный файл и переименовываем, чтобы не оставить недописанный кеш
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            writer.writeTo(out);
+        } catch (IOException e) {
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    public boolean isReady() {
+        return loaded != null;
+    }
+
+    public TransitGraph getGraph() {
+        LoadedGraph current = loaded;
+        return current != null ? current.graph : null;
+    }
+
+    /**
+     * @param maxTime ограничение на реальное время в пути, -1 — без ограничения
+     * @return маршрут или пустой список, если маршрут не найден или карта не загружена
+     */
+    public List<RouteStation> findRoute(Station start, Station end, RouteVariantType variantType, int maxTime) {
+        long version = mapVersion;
+        LoadedGraph current = loaded;
+        if (current == null || start == null || end == null) {
+            return new ArrayList<>();
+        }
+        TransitGraph graph = current.graph;
+        RouteCache.Key key = new RouteCache.Key(start.getId(), end.getId(), variantType.ordinal(), maxTime, 0f, 0,
+                version);
+        List<int[]> cached = routeCache.get(key);
+        if (cached != null) {
+            return graph.toRouteStations(cached.isEmpty() ? null : cached.get(0));
+        }
+        int startStation = graph.getStationIndex(start.getId());
+        int endStation = graph.getStationIndex(end.getId());
+        ContractionHierarchy currentHierarchy = hierarchy;
+        int[] path;
+        // Иерархия построена по всему графу и закрытий не учитывает
+        if (variantType == RouteVariantType.FASTEST && currentHierarchy != null
+                && currentHierarchy.getNetwork() == graph.getNetwork() && !current.router.hasClosures()) {
+            path = currentHierarchy.findRoute(startStation, endStation, maxTime);
+        } else {
+            path = current.router.findRoute(startStation, endStation, RouteStrategy.valueOf(variantType.name()),
+                    maxTime);
+        }
+        // Отсутствие маршрута тоже запоминается, как пустой список
+        routeCache.put(key, path != null ? Collections.singletonList(path) : Collections.<int[]>emptyList());
+        return graph.toRouteStations(path);
+    }
+
+    /**
+     * Парето-оптимальные маршруты, дополненные альтернативными до maxRoutes маршрутов.
+     * Альтернативный маршрут не медленнее самого быстрого более чем в maxTimeRatio раз и
+     * совпадает с каждым из остальных не более чем на {@link #MAX_ALTERNATIVE_OVERLAP} своего времени.
+     *
+     * @return варианты маршрута; пустые, если маршрута нет или карта не загружена
+     */
+    public RouteVariants findRouteVariants(Station start, Station end, float maxTimeRatio, int maxRoutes) {
+        long version = mapVersion;
+        LoadedGraph current = loaded;
+        if (current == null || start == null || end == null) {
+            return RouteVariants.EMPTY;
+        }
+        List<int[]> paretoPaths = findParetoPaths(current, start, end, maxTimeRatio, version);
+        List<int[]> alternativePaths = findAlternativePaths(current, start, end, paretoPaths, maxTimeRatio,
+                maxRoutes, version);
+        List<List<RouteStation>> routes = new ArrayList<>();
+        for (int[] path : paretoPaths) {
+            routes.add(current.graph.toRouteStations(path));
+        }
+        for (int[] path : alternativePaths) {
+            routes.add(current.graph.toRouteStations(path));
+        }
+        return new RouteVariants(routes, paretoPaths.size());
+    }
+
+    /**
+     * Варианты маршрута при отправлении в заданное время. Маршруты из {@link #findRouteVariants}, на которых
+     * пришлось бы ждать открытия линии, отбрасываются. Самый быстрый маршрут с учётом времени отправления
+     * (см. {@link #findScheduledRoute}) совпадает с одним из оставшихся или идёт отдельным вариантом первым.
+     * Если за сутки доехать нельзя, возвращаются варианты без учёта времени.
+     *
+     * @param departureTime время отправления в минутах от полуночи
+     * @return варианты маршрута; пустые, если маршрута нет или карта не загружена
+     */
+    public RouteVariants findRouteVariants(Station start, Station end, float maxTimeRatio, int maxRoutes,
+                                           int departureTime) {
+        long version = mapVersion;
+        LoadedGraph current = loaded;
+        if (current == null || start == null || end == null) {
+            return RouteVariants.EMPTY;
+        }
+        List<int[]> scheduled = findScheduledPath(current, start, end, departureTime, version);
+        if (scheduled.isEmpty()) {
+            return findRouteVariants(start, end, maxTimeRatio, maxRoutes);
+        }
+        int[] scheduledPath = scheduled.get(0);
+        ScheduledRoute scheduledRoute = new ScheduledRoute(current.graph.toRouteStations(scheduledPath),
+                scheduled.get(1), departureTime, scheduled.get(2)[0]);
+        List<int[]> paretoPaths = findParetoPaths(current, start, end, maxTimeRatio, version);
+        List<int[]> alternativePaths = findAlternativePaths(current, start, end, paretoPaths, maxTimeRatio,
+                maxRoutes, version);
+        ServiceSchedule serviceSchedule = getSchedule(current.graph);
+
+        List<int[]> paths = new ArrayList<>();
+        int paretoCount = 0;
+        boolean scheduledFound = false;
+        for (int i = 0; i < paretoPaths.size() + alternativePaths.size(); i++) {
+            boolean pareto = i < paretoPaths.size();
+            int[] path = pareto ? paretoPaths.get(i) : alternativePaths.get(i - paretoPaths.size());
+            boolean sameAsScheduled = Arrays.equals(path, scheduledPath);
+            if (!sameAsScheduled && !current.router.isInService(path, departureTime, serviceSchedule)) {
+                continue;
+            }
+            scheduledFound |= sameAsScheduled;
+            paths.add(path);
+            if (pareto) {
+                paretoCount++;
+            }
+        }
+        List<List<RouteStation>> routes = new ArrayList<>();
+        if (!scheduledFound) {
+            routes.add(scheduledRoute.getRoute());
+        }
+        for (int[] path : paths) {
+            routes.add(current.graph.toRouteStations(path));
+        }
+        return new RouteVariants(routes, scheduledFound ? 0 : 1, paretoCount, scheduledRoute);
+    }
+
+    private List<int[]> findAlternativePaths(LoadedGraph current, Station start, Station end,
+                                             List<int[]> paretoPaths, float maxTimeRatio, int maxRoutes,
+                                             long version) {
+        RouteCache.Key key = new RouteCache.Key(start.getId(), end.getId(), RouteCache.STRATEGY_ALTERNATIVES,
+                -1, maxTimeRatio, maxRoutes, version);
+        List<int[]> paths = routeCache.get(key);
+        if (paths == null) {
+            TransitGraph graph = current.graph;
+            paths = current.router.findAlternativeRoutes(graph.getStationIndex(start.getId()),
+                    graph.getStationIndex(end.getId()), paretoPaths, maxRoutes - paretoPaths.size(), -1,
+                    maxTimeRatio, MAX_ALTERNATIVE_OVERLAP);
+            routeCache.put(key, paths);
+        }
+        return paths;
+    }
+
+    private List<int[]> findParetoPaths(LoadedGraph current, Station start, Station end, float maxTimeRatio,
+                                        long version) {
+        RouteCache.Key key = new RouteCache.Key(start.getId(), end.getId(), RouteCache.STRATEGY_VARIANTS, -1,
+                maxTimeRatio, 0, version);
+        List<int[]> paths = routeCache.get(key);
+        if (paths == null) {
+            TransitGraph graph = current.graph;
+            paths = current.router.findParetoRoutes(graph.getStationIndex(start.getId()),
+                    graph.getStationIndex(end.getId()), -1, maxTimeRatio);
+            routeCache.put(key, paths);
+        }
+        return paths;
+    }
+
+    /**
+     * Самый быстрый маршрут при отправлении в заданное время с учётом часов работы станций
+     * и среднего ожидания поезда; если линии ещё не работают, маршрут начинается с их открытием.
+     *
+     * @param departureTime время отправления в минутах от полуночи
+     * @return маршрут или {@link ScheduledRoute#EMPTY}, если за сутки доехать нельзя или карта не загружена
+     */
+    public ScheduledRoute findScheduledRoute(Station start, Station end, int departureTime) {
+        long version = mapVersion;
+        LoadedGraph current = loaded;
+        if (current == null || start == null || end == null) {
+            return ScheduledRoute.EMPTY;
+        }
+        List<int[]> cached = findScheduledPath(current, start, end, departureTime, version);
+        if (cached.isEmpty()) {
+            return ScheduledRoute.EMPTY;
+        }
+        return new ScheduledRoute(current.graph.toRouteStations(cached.get(0)), cached.get(1), departureTime,
+                cached.get(2)[0]);
+    }
+
+    /**
+     * @return путь, времена прибытия и время посадки; пустой список, если за сутки доехать нельзя
+     */
+    private List<int[]> findScheduledPath(LoadedGraph current, Station start, Station end, int departureTime,
+                                          long version) {
+        RouteCache.Key key = new RouteCache.Key(start.getId(), end.getId(), RouteCache.STRATEGY_SCHEDULED,
+                departureTime, 0f, 0, version);
+        List<int[]> cached = routeCache.get(key);
+        if (cached == null) {
+            TransitGraph graph = current.graph;
+            TransitRouter.TimedPath timedPath = current.router.findScheduledRoute(graph.getStationIndex(start.getId()),
+                    graph.getStationIndex(end.getId()), departureTime, getSchedule(graph));
+            cached = timedPath != null
+                    ? Arrays.asList(timedPath.path, timedPath.times, new int[]{timedPath.boardingTime})
+                    : Collections.<int[]>emptyList();
+            routeCache.put(key, cached);
+        }
+        return cached;
+    }
+
+    private ServiceSchedule getSchedule(TransitGraph graph) {
+        ServiceSchedule current = schedule;
+        if (current != null && current.getNetwork() == graph.getNetwork()) {
+            return current;
+        }
+        Map<String, Integer> headways;
+        synchronized (this) {
+            headways = lineHeadways;
+        }
+        // Разбор расписаний — один проход по состояниям, дешевле поиска; гонка потоков даёт лишь повторный разбор
+        ServiceSchedule built = ServiceSchedule.build(graph.getNetwork(), graph.getStateSchedules(), headways,
+                DEFAULT_HEADWAY);
+        synchronized (this) {
+            if (getGraph() == graph && lineHeadways == headways) {
+                schedule = built;
+            }
+        }
+        return built;
+    }
+
+    /**
+     * Станции, до которых от начальной можно доехать не более чем за maxTime минут.
+     *
+     * @return ID станции → время в пути в минутах; пустая карта, если карта не загружена
+     */
+    public Map<String, Integer> findReachableStations(Station start, int maxTime) {
+        Map<String, Integer> reachable = new HashMap<>();
+        LoadedGraph current = loaded;
+        if (current == null || start == null) {
+            return reachable;
+        }
+        TransitGraph graph = current.graph;
+        int[] times = current.router.findTravelTimes(graph.getStationIndex(start.getId()), maxTime);
+        for (int station = 0; station < times.length; station++) {
+            if (times[station] >= 0) {
+                reachable.put(graph.getStation(station).getId(), times[station]);
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Текст последних событий трассировки поиска и очистка буфера.
+     *
+     * @return пустая строка, если трассировка выключена при компиляции
+     */
+    public String dumpTrace() {
+        if (!RouteTrace.ENABLED) {
+            return "";
+        }
+        TransitGraph graph = getGraph();
+        String text = trace.dump(graph != null ? graph.getNetwork() : null);
+        trace.clear();
+        return text;
+    }
+
+    /**
+     * Время самого быстрого маршрута между станциями по заранее посчитанной матрице, без поиска.
+     * Матрица строится по всему графу без закрытий, поэтому пока они действуют, она не используется.
+     *
+     * @return время в минутах или -1, если матрица ещё не готова, действуют закрытия, станции нет
+     *         в матрице или маршрута нет
+     */
+    public int getShortestTravelTime(Station from, Station to) {
+        TravelTimeMatrix matrix = travelTimeMatrix;
+        LoadedGraph current = loaded;
+        if (matrix == null || from == null || to == null || current == null || current.router.hasClosures()) {
+            return -1;
+        }
+        TransitGraph graph = matrix.getGraph();
+        return matrix.getTime(graph.getStationIndex(from.getId()), graph.getStationIndex(to.getId()));
+    }
+
+    /**
+     * @return время перегона или перехода между соседними станциями, -1 если оно неизвестно
+     */
+    public int getTravelTime(Station from, Station to) {
+        TransitGraph graph = getGraph();
+        if (graph == null || from == null || to == null) {
+            return -1;
+        }
+        return graph.getTravelTime(from.getId(), to.getId());
+    }
+
+    /**
+     * Граф карты и роутер по нему; заменяются вместе, чтобы запрос не смешал старый граф с новым роутером.
+     */
+    private static final class LoadedGraph {
+        final TransitGraph graph;
+        final TransitRouter router;
+
+        LoadedGraph(TransitGraph graph, TransitRouter router) {
+            this.graph = graph;
+            this.router = router;
+        }
+    }
+}
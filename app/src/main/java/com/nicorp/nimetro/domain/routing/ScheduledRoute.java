@@ -0,0 +1,57 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.RouteStation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Маршрут с учётом времени отправления. Время — минуты от полуночи дня отправления,
+ * после полуночи оно продолжает расти (например, 1470 — 0:30 следующего дня).
+ */
+public final class ScheduledRoute {
+    public static final ScheduledRoute EMPTY = new ScheduledRoute(Collections.emptyList(), new int[0], -1, -1);
+
+    private final List<RouteStation> route;
+    private final int[] arrivalTimes;
+    private final int departureTime;
+    private final int boardingTime;
+
+    public ScheduledRoute(List<RouteStation> route, int[] arrivalTimes, int departureTime, int boardingTime) {
+        this.route = route;
+        this.arrivalTimes = arrivalTimes;
+        this.departureTime = departureTime;
+        this.boardingTime = boardingTime;
+    }
+
+    public List<RouteStation> getRoute() {
+        return route;
+    }
+
+    /**
+     * @return время прибытия на i-ю станцию маршрута
+     */
+    public int getArrivalTime(int index) {
+        return arrivalTimes[index];
+    }
+
+    public int getArrivalTime() {
+        return arrivalTimes.length > 0 ? arrivalTimes[arrivalTimes.length - 1] : -1;
+    }
+
+    public int getDepartureTime() {
+        return departureTime;
+    }
+
+    /**
+     * @return отправление первого поезда с учётом ожидания открытия и среднего ожидания поезда;
+     * -1, если маршрут проходится пешком
+     */
+    public int getBoardingTime() {
+        return boardingTime;
+    }
+
+    public boolean isEmpty() {
+        return route.isEmpty();
+    }
+}
@@ -0,0 +1,259 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Station;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Пространственный индекс станций по географическим координатам: ближайшие k станций
+ * и станции в радиусе от точки.
+ *
+ * Строится один раз (при загрузке карты или получении маршрута) и заменяет проход по всем станциям
+ * с формулой гаверсинусов на каждое обновление местоположения. Станции без координат
+ * (широта или долгота равна 0) в индекс не попадают.
+ *
+ * Точки хранятся как единичные векторы на сфере в статическом k-d дереве. Расстояние по хорде
+ * монотонно связано с расстоянием по дуге большого круга, которое считает {@link Station#distanceTo},
+ * поэтому порядок станций тот же, но на сравнение нужен один квадрат разности без тригонометрии,
+ * а разность по оси разбиения — точная нижняя оценка для всего поддерева. Проекции вроде
+ * равнопромежуточной такой оценки не дают: вдали от центра карты они занижают расстояние.
+ * При равных расстояниях первой идёт станция, переданная в {@link #build} раньше, как и в прежнем
+ * линейном поиске.
+ */
+public final class StationLocator {
+    public static final StationLocator EMPTY = build();
+
+    private static final double EARTH_RADIUS_KM = 6371;
+
+    // Станции и их векторы в порядке узлов дерева: узел — середина своего диапазона
+    private final Station[] stations;
+    private final int[] order;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+    private final byte[] axes;
+
+    private StationLocator(List<Station> located) {
+        int count = located.size();
+        stations = new Station[count];
+        order = new int[count];
+        xs = new double[count];
+        ys = new double[count];
+        zs = new double[count];
+        axes = new byte[count];
+        double[][] points = new double[count][];
+        Integer[] indices = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = toVector(located.get(i).getLatitude(), located.get(i).getLongitude());
+            indices[i] = i;
+        }
+        buildNode(located, points, indices, 0, count);
+    }
+
+    @SafeVarargs
+    public static StationLocator build(List<Station>... stationGroups) {
+        List<Station> located = new ArrayList<>();
+        for (List<Station> group : stationGroups) {
+            if (group == null) {
+                continue;
+            }
+            for (Station station : group) {
+                if (station != null && station.getLatitude() != 0.0 && station.getLongitude() != 0.0) {
+                    located.add(station);
+                }
+            }
+        }
+        return new StationLocator(located);
+    }
+
+    public int size() {
+        return stations.length;
+    }
+
+    /**
+     * @return ближайшая станция или null, если в индексе нет станций
+     */
+    public Station findNearest(double latitude, double longitude) {
+        List<Station> nearest = findNearest(latitude, longitude, 1);
+        return nearest.isEmpty() ? null : nearest.get(0);
+    }
+
+    /**
+     * @return до k ближайших станций, от ближней к дальней
+     */
+    public List<Station> findNearest(double latitude, double longitude, int k) {
+        int limit = Math.min(k, stations.length);
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        Nearest nearest = new Nearest(limit);
+        searchNearest(toVector(latitude, longitude), 0, stations.length, nearest);
+        List<Station> result = new ArrayList<>(nearest.size);
+        for (int i = 0; i < nearest.size; i++) {
+            result.add(stations[nearest.nodes[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * @param radiusKm радиус в километрах, как у {@link Station#distanceTo}
+     * @return станции не дальше radiusKm, от ближней к дальней
+     */
+    public List<Station> findWithin(double latitude, double longitude, double radiusKm) {
+        if (radiusKm < 0 || stations.length == 0) {
+            return Collections.emptyList();
+        }
+        double chord = 2 * Math.sin(Math.min(radiusKm / EARTH_RADIUS_KM, Math.PI) / 2);
+        Nearest within = new Nearest(stations.length);
+        searchWithin(toVector(latitude, longitude), chord * chord, 0, stations.length, within);
+        List<Station> result = new ArrayList<>(within.size);
+        for (int i = 0; i < within.size; i++) {
+            result.add(stations[within.nodes[i]]);
+        }
+        return result;
+    }
+
+    private void buildNode(List<Station> located, double[][] points, Integer[] indices, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int axis = widestAxis(points, indices, from, to);
+        // Равные координаты упорядочены по номеру станции: поиск полагается только на разбиение
+        Arrays.sort(indices, from, to, (a, b) -> {
+            int byAxis = Double.compare(points[a][axis], points[b][axis]);
+            return byAxis != 0 ? byAxis : Integer.compare(a, b);
+        });
+        int mid = (from + to) >>> 1;
+        int index = indices[mid];
+        stations[mid] = located.get(index);
+        order[mid] = index;
+        xs[mid] = points[index][0];
+        ys[mid] = points[index][1];
+        zs[mid] = points[index][2];
+        axes[mid] = (byte) axis;
+        buildNode(located, points, indices, from, mid);
+        buildNode(located, points, indices, mid + 1, to);
+    }
+
+    private static int widestAxis(double[][] points, Integer[] indices, int from, int to) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double value = points[indices[i]][axis];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = axis;
+            }
+        }
+        return widest;
+    }
+
+    private void searchNearest(double[] point, int from, int to, Nearest nearest) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        nearest.offer(mid, order[mid], distanceSquared(point, mid));
+        double delta = point[axes[mid]] - coordinate(mid, axes[mid]);
+        boolean leftFirst = delta <= 0;
+        searchNearest(point, leftFirst ? from : mid + 1, leftFirst ? mid : to, nearest);
+        // Равенство не отсекает: у станции дальнего поддерева может быть меньший номер
+        if (!nearest.isFull() || delta * delta <= nearest.worstDistance()) {
+            searchNearest(point, leftFirst ? mid + 1 : from, leftFirst ? to : mid, nearest);
+        }
+    }
+
+    private void searchWithin(double[] point, double limit, int from, int to, Nearest within) {
+        if (from >= to) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        double distance = distanceSquared(point, mid);
+        if (distance <= limit) {
+            within.offer(mid, order[mid], distance);
+        }
+        double delta = point[axes[mid]] - coordinate(mid, axes[mid]);
+        if (delta <= 0 || delta * delta <= limit) {
+            searchWithin(point, limit, from, mid, within);
+        }
+        if (delta >= 0 || delta * delta <= limit) {
+            searchWithin(point, limit, mid + 1, to, within);
+        }
+    }
+
+    private double distanceSquared(double[] point, int node) {
+        double dx = point[0] - xs[node];
+        double dy = point[1] - ys[node];
+        double dz = point[2] - zs[node];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private double coordinate(int node, int axis) {
+        return axis == 0 ? xs[node] : axis == 1 ? ys[node] : zs[node];
+    }
+
+    private static double[] toVector(double latitude, double longitude) {
+        double phi = Math.toRadians(latitude);
+        double lambda = Math.toRadians(longitude);
+        double cosPhi = Math.cos(phi);
+        return new double[]{cosPhi * Math.cos(lambda), cosPhi * Math.sin(lambda), Math.sin(phi)};
+    }
+
+    /**
+     * Лучшие найденные узлы, упорядоченные по (расстояние, номер станции); вставкой, так как k мало.
+     */
+    private static final class Nearest {
+        final int[] nodes;
+        final int[] indices;
+        final double[] distances;
+        int size;
+
+        Nearest(int capacity) {
+            nodes = new int[capacity];
+            indices = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        boolean isFull() {
+            return size == nodes.length;
+        }
+
+        double worstDistance() {
+            return distances[size - 1];
+        }
+
+        void offer(int node, int index, double distance) {
+            int i = size;
+            if (isFull()) {
+                if (!precedes(distance, index, distances[size - 1], indices[size - 1])) {
+                    return;
+                }
+                i--;
+            } else {
+                size++;
+            }
+            while (i > 0 && precedes(distance, index, distances[i - 1], indices[i - 1])) {
+                nodes[i] = nodes[i - 1];
+                indices[i] = indices[i - 1];
+                distances[i] = distances[i - 1];
+                i--;
+            }
+            nodes[i] = node;
+            indices[i] = index;
+            distances[i] = distance;
+        }
+
+        private static boolean precedes(double distance, int index, double otherDistance, int otherIndex) {
+            return distance < otherDistance || (distance == otherDistance && index < otherIndex);
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Facilities;
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.RouteStation;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.domain.entities.Transfer;
+import com.nicorp.nimetro.routing.TransitNetwork;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Скомпилированный граф маршрутизации в формате CSR (compressed sparse row).
+ *
+ * Вершины графа — состояния (станция, линия): станция, лежащая на нескольких линиях,
+ * даёт по одному состоянию на каждую линию. Все станции и линии пронумерованы
+ * целыми индексами, поэтому поиск работает только с примитивными массивами.
+ * Граф неизменяем и строится один раз на загруженную карту.
+ *
+ * Сами массивы состояний и рёбер хранит {@link TransitNetwork} из модуля ni-metro-routing,
+ * общего с сервером, и по ним же ищет маршруты {@link com.nicorp.nimetro.routing.TransitRouter};
+ * здесь к ним добавляются объекты станций и линий приложения, в которые переводятся найденные маршруты.
+ */
+public final class TransitGraph {
+    public static final int NO_LINE = TransitNetwork.NO_LINE;
+    public static final int NO_STATION = TransitNetwork.NO_STATION;
+
+    private final TransitNetwork network;
+    private final Station[] stations;
+    private final Line[] lines;
+    // линия -> ключ её ID: линии разных слоёв с одинаковым ID считаются одной линией
+    private final int[] lineKeys;
+
+    // состояние -> линия и экземпляр станции на этой линии
+    private final int[] stateLine;
+    private final Station[] stateStationInstance;
+
+    private TransitGraph(TransitNetwork network, Station[] stations, Line[] lines, int[] lineKeys,
+                         int[] stateLine, Station[] stateStationInstance) {
+        this.network = network;
+        this.stations = stations;
+        this.lines = lines;
+        this.lineKeys = lineKeys;
+        this.stateLine = stateLine;
+        this.stateStationInstance = stateStationInstance;
+    }
+
+    /**
+     * Компилирует граф из загруженных данных карты.
+     *
+     * @param allStations станции всех слоёв (метро, электрички, речной трамвай, трамвай)
+     * @param allLines    линии в порядке приоритета при поиске линий станции
+     * @param allTransfers переходы всех слоёв
+     */
+    public static TransitGraph compile(List<Station> allStations, List<Line> allLines, List<Transfer> allTransfers) {
+        TransitNetwork.Builder builder = new TransitNetwork.Builder();
+
+        // 1. Нумеруем станции по ID. Первый экземпляр станции считается основным
+        List<Station> stationList = new ArrayList<>();
+        List<Station> instanceList = new ArrayList<>();
+        IdentityHashMap<Station, Integer> instanceHandles = new IdentityHashMap<>();
+        if (allStations != null) {
+            for (Station station : allStations) {
+                if (station == null || station.getId() == null || instanceHandles.containsKey(station)) {
+                    continue;
+                }
+                instanceHandles.put(station, -1);
+                instanceList.add(station);
+                if (builder.getStationIndex(station.getId()) == NO_STATION) {
+                    builder.addStation(station.getId());
+                    stationList.add(station);
+                }
+            }
+        }
+
+        // 2. Принадлежность станций линиям берём из MapIndex, станции, известные только по линиям, добавляем
+        MapIndex mapIndex = MapIndex.build(allLines);
+        if (allLines != null) {
+            for (Line line : allLines) {
+                if (line == null || line.getStations() == null) {
+                    continue;
+                }
+                for (Station lineStation : line.getStations()) {
+                    if (lineStation != null && lineStation.getId() != null
+                            && builder.getStationIndex(lineStation.getId()) == NO_STATION) {
+                        builder.addStation(lineStation.getId());
+                        stationList.add(lineStation);
+                    }
+                }
+            }
+        }
+        // Линии нумеруются по экземплярам; линии разных слоёв с одинаковым ID получают общий ключ
+        List<Line> lineList = new ArrayList<>();
+        IdentityHashMap<Line, Integer> lineIndexByLine = new IdentityHashMap<>();
+        List<Integer> lineKeyList = new ArrayList<>();
+        List<List<Integer>> membership = new ArrayList<>(stationList.size());
+        List<List<Station>> membershipInstances = new ArrayList<>(stationList.size());
+        for (int s = 0; s < stationList.size(); s++) {
+            Station station = stationList.get(s);
+            List<Line> stationLines = mapIndex.getLinesForStation(station.getId());
+            List<Integer> lineIndices = new ArrayList<>(stationLines.size());
+            List<Station> instances = new ArrayList<>(stationLines.size());
+            for (Line line : stationLines) {
+                int key = builder.addStationLine(s, line.getId());
+                Integer lineIndex = lineIndexByLine.get(line);
+                if (lineIndex == null) {
+                    lineIndex = lineList.size();
+                    lineIndexByLine.put(line, lineIndex);
+                    lineList.add(line);
+                    lineKeyList.add(key);
+                }
+                lineIndices.add(lineIndex);
+                instances.add(mapIndex.findStationInLine(station.getId(), line));
+            }
+            membership.add(lineIndices);
+            membershipInstances.add(instances);
+        }
+
+        // 3. Связи экземпляров станций: neighbors, затем переходы
+        for (Station station : instanceList) {
+            instanceHandles.put(station, builder.addInstance(builder.getStationIndex(station.getId())));
+        }
+        addStationLinks(builder, instanceList, allTransfers, instanceHandles);
+        TransitNetwork network = builder.build();
+
+        // 4. Состояния (станция, линия) идут в порядке линий станции, как их добавили в сеть
+        int stateCount = network.getStateCount();
+        int[] stateLine = new int[stateCount];
+        Station[] stateStationInstance = new Station[stateCount];
+        for (int s = 0; s < stationList.size(); s++) {
+            List<Integer> stationLines = membership.get(s);
+            int state = network.getFirstState(s);
+            if (stationLines.isEmpty()) {
+                stateLine[state] = NO_LINE;
+                stateStationInstance[state] = stationList.get(s);
+                continue;
+            }
+            for (int i = 0; i < stationLines.size(); i++, state++) {
+                stateLine[state] = stationLines.get(i);
+                stateStationInstance[state] = membershipInstances.get(s).get(i);
+            }
+        }
+
+        int[] lineKeys = new int[lineKeyList.size()];
+        for (int i = 0; i < lineKeys.length; i++) {
+            lineKeys[i] = lineKeyList.get(i);
+        }
+        return new TransitGraph(network, stationList.toArray(new Station[0]), lineList.toArray(new Line[0]),
+                lineKeys, stateLine, stateStationInstance);
+    }
+
+    private static void addStationLinks(TransitNetwork.Builder builder, List<Station> instanceList,
+                                        List<Transfer> allTransfers,
+                                        IdentityHashMap<Station, Integer> instanceHandles) {
+        // Связи собираются для каждого экземпляра станции отдельно, как их задаёт карта
+        for (Station station : instanceList) {
+            int handle = instanceHandles.get(station);
+            for (Station.Neighbor neighbor : station.getNeighbors()) {
+                int target = neighbor.getStation() != null
+                        ? builder.getStationIndex(neighbor.getStation().getId()) : NO_STATION;
+                if (target != NO_STATION) {
+                    builder.addLink(handle, target, neighbor.getTime());
+                }
+            }
+        }
+
+        if (allTransfers == null) {
+            return;
+        }
+        for (Transfer transfer : allTransfers) {
+            List<Station> transferStations = transfer.getStations();
+            if (transferStations == null || transferStations.size() < 2) {
+                continue;
+            }
+            int cost = Math.max(1, transfer.getTime());
+            for (int i = 0; i < transferStations.size(); i++) {
+                Station stationFrom = transferStations.get(i);
+                Integer handle = stationFrom != null ? instanceHandles.get(stationFrom) : null;
+                if (handle == null) {
+                    continue;
+                }
+                for (int j = 0; j < transferStations.size(); j++) {
+                    Station stationTo = transferStations.get(j);
+                    if (i == j || stationTo == null || stationTo.getId() == null) {
+                        continue;
+                    }
+                    // Не дублируем переходом связь, которая уже задана через neighbors
+                    if (hasNeighbor(stationFrom, stationTo.getId())) {
+                        continue;
+                    }
+                    int target = builder.getStationIndex(stationTo.getId());
+                    if (target != NO_STATION) {
+                        builder.addLink(handle, target, cost);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean hasNeighbor(Station station, String neighborId) {
+        for (Station.Neighbor neighbor : station.getNeighbors()) {
+            if (neighbor.getStation() != null && neighborId.equals(neighbor.getStation().getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return массивы графа без объектов приложения, для кода из модуля ni-metro-routing
+     */
+    public TransitNetwork getNetwork() {
+        return network;
+    }
+
+    public int getStationCount() {
+        return stations.length;
+    }
+
+    public int getStateCount() {
+        return network.getStateCount();
+    }
+
+    public int getLineCount() {
+        return lines.length;
+    }
+
+    public int getEdgeCount() {
+        return network.getEdgeCount();
+    }
+
+    /**
+     * @return индекс станции или {@link #NO_STATION}, если станции нет в графе
+     */
+    public int getStationIndex(String stationId) {
+        return network.getStationIndex(stationId);
+    }
+
+    public Station getStation(int stationIndex) {
+        return stations[stationIndex];
+    }
+
+    public Line getLine(int lineIndex) {
+        return lineIndex == NO_LINE ? null : lines[lineIndex];
+    }
+
+    /**
+     * @return ключ линии: общий для линий разных слоёв с одинаковым ID
+     */
+    public int getLineKey(int lineIndex) {
+        return lineKeys[lineIndex];
+    }
+
+    /**
+     * @return ключ линии с этим ID или {@link #NO_LINE}, если такой линии нет в графе
+     */
+    public int getLineKey(String lineId) {
+        return network.getLineKey(lineId);
+    }
+
+    /**
+     * @return true, если переход между линиями считается пересадкой (ID линий различаются)
+     */
+    public boolean isLineChange(int fromLine, int toLine) {
+        return fromLine != NO_LINE && toLine != NO_LINE && lineKeys[fromLine] != lineKeys[toLine];
+    }
+
+    public int getFirstState(int stationIndex) {
+        return network.getFirstState(stationIndex);
+    }
+
+    public int getStateLimit(int stationIndex) {
+        return network.getStateLimit(stationIndex);
+    }
+
+    public int getStateStation(int state) {
+        return network.getStateStation(state);
+    }
+
+    public int getStateLine(int state) {
+        return stateLine[state];
+    }
+
+    /**
+     * Экземпляр станции, принадлежащий линии состояния.
+     */
+    public Station getStateStationInstance(int state) {
+        return stateStationInstance[state];
+    }
+
+    public int getEdgeStart(int state) {
+        return network.getEdgeStart(state);
+    }
+
+    public int getEdgeEnd(int state) {
+        return network.getEdgeEnd(state);
+    }
+
+    public int getEdgeTarget(int edge) {
+        return network.getEdgeTarget(edge);
+    }
+
+    public int getEdgeTime(int edge) {
+        return network.getEdgeTime(edge);
+    }
+
+    /**
+     * Часы работы экземпляров станций по состояниям, для {@link com.nicorp.nimetro.routing.ServiceSchedule}.
+     *
+     * @return строка расписания из удобств экземпляра станции или null, если она не задана
+     */
+    public String[] getStateSchedules() {
+        String[] schedules = new String[stateStationInstance.length];
+        for (int state = 0; state < schedules.length; state++) {
+            Station instance = stateStationInstance[state];
+            Facilities facilities = instance != null ? instance.getFacilities() : null;
+            schedules[state] = facilities != null ? facilities.getSchedule() : null;
+        }
+        return schedules;
+    }
+
+    /**
+     * Преобразует последовательность состояний маршрута в список {@link RouteStation}.
+     *
+     * @param path маршрут, найденный по {@link #getNetwork()}, или null
+     */
+    public List<RouteStation> toRouteStations(int[] path) {
+        List<RouteStation> route = new ArrayList<>();
+        if (path == null) {
+            return route;
+        }
+        for (int state : path) {
+            route.add(new RouteStation(stateStationInstance[state], getLine(stateLine[state])));
+        }
+        return route;
+    }
+
+    /**
+     * Возвращает время прямого перегона или перехода между станциями.
+     *
+     * @return время в минутах или -1, если станции не связаны напрямую
+     */
+    public int getTravelTime(String fromStationId, String toStationId) {
+        int from = getStationIndex(fromStationId);
+        int to = getStationIndex(toStationId);
+        if (from == NO_STATION || to == NO_STATION) {
+            return -1;
+        }
+        return network.getTravelTime(from, to);
+    }
+}
@@ -0,0 +1,182 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.routing.ContractionHierarchy;
+import com.nicorp.nimetro.routing.StateQueue;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Матрица кратчайших времён в пути между всеми станциями слоя (например, метро).
+ *
+ * Строится поиском от каждой станции слоя по всему графу, так что время совпадает с временем
+ * самого быстрого маршрута, даже если он проходит через другие слои. Времена хранятся как char
+ * (беззнаковые 16 бит): время в метро измеряется минутами и в них помещается. Сохранённая
+ * матрица не читается в память, а отображается из файла, поэтому загрузка почти бесплатна,
+ * а поиск времени сводится к одному обращению по индексу.
+ */
+public final class TravelTimeMatrix {
+    private static final int FORMAT_MAGIC = 0x4E4D5454; // "NMTT"
+    private static final int FORMAT_VERSION = 1;
+    // magic, версия, отпечаток графа, число строк
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final char UNREACHED = Character.MAX_VALUE;
+
+    private final TransitGraph graph;
+    private final long fingerprint;
+    // индексы станций графа по строкам матрицы и обратное соответствие (-1 — станция не из слоя)
+    private final int[] rowStations;
+    private final int[] stationRows;
+    private final CharBuffer times;
+
+    private TravelTimeMatrix(TransitGraph graph, long fingerprint, int[] rowStations, CharBuffer times) {
+        this.graph = graph;
+        this.fingerprint = fingerprint;
+        this.rowStations = rowStations;
+        this.stationRows = stationRows(graph, rowStations);
+        this.times = times;
+    }
+
+    /**
+     * @param layerStations станции слоя; станции, которых нет в графе, пропускаются
+     */
+    public static TravelTimeMatrix build(TransitGraph graph, List<Station> layerStations) {
+        int[] rowStations = layerRows(graph, layerStations);
+        int rowCount = rowStations.length;
+        int[] stationRows = stationRows(graph, rowStations);
+
+        char[] matrix = new char[rowCount * rowCount];
+        int[] stateTimes = new int[graph.getStateCount()];
+        StateQueue queue = new StateQueue(graph.getStateCount());
+        for (int row = 0; row < rowCount; row++) {
+            Arrays.fill(matrix, row * rowCount, (row + 1) * rowCount, UNREACHED);
+            // Время, не помещающееся в 16 бит, считается недостижимым; закрытия в сохраняемую матрицу не входят
+            TransitRouter.searchTravelTimes(graph.getNetwork(), rowStations[row], UNREACHED - 1, stateTimes, queue);
+            // Время до станции — минимум по её состояниям (линиям)
+            for (int state = 0; state < stateTimes.length; state++) {
+                int column = stationRows[graph.getStateStation(state)];
+                int time = stateTimes[state];
+                if (column >= 0 && time < matrix[row * rowCount + column]) {
+                    matrix[row * rowCount + column] = (char) time;
+                }
+            }
+        }
+        return new TravelTimeMatrix(graph, ContractionHierarchy.fingerprint(graph.getNetwork()), rowStations,
+                CharBuffer.wrap(matrix));
+    }
+
+    private static int[] layerRows(TransitGraph graph, List<Station> layerStations) {
+        boolean[] inLayer = new boolean[graph.getStationCount()];
+        int count = 0;
+        if (layerStations != null) {
+            for (Station station : layerStations) {
+                int index = station != null ? graph.getStationIndex(station.getId()) : TransitGraph.NO_STATION;
+                if (index != TransitGraph.NO_STATION && !inLayer[index]) {
+                    inLayer[index] = true;
+                    count++;
+                }
+            }
+        }
+        int[] rows = new int[count];
+        int row = 0;
+        for (int station = 0; station < inLayer.length; station++) {
+            if (inLayer[station]) {
+                rows[row++] = station;
+            }
+        }
+        return rows;
+    }
+
+    private static int[] stationRows(TransitGraph graph, int[] rowStations) {
+        int[] stationRows = new int[graph.getStationCount()];
+        Arrays.fill(stationRows, -1);
+        for (int row = 0; row < rowStations.length; row++) {
+            stationRows[rowStations[row]] = row;
+        }
+        return stationRows;
+    }
+
+    public TransitGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return время самого быстрого маршрута в минутах или -1, если станция не из слоя или маршрута нет
+     */
+    public int getTime(int fromStation, int toStation) {
+        if (fromStation < 0 || toStation < 0) {
+            return -1;
+        }
+        int row = stationRows[fromStation];
+        int column = stationRows[toStation];
+        if (row < 0 || column < 0) {
+            return -1;
+        }
+        char time = times.get(row * rowStations.length + column);
+        return time != UNREACHED ? time : -1;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(FORMAT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(fingerprint);
+        out.writeInt(rowStations.length);
+        for (int station : rowStations) {
+            out.writeInt(station);
+        }
+        int cells = rowStations.length * rowStations.length;
+        for (int i = 0; i < cells; i++) {
+            out.writeChar(times.get(i));
+        }
+        out.flush();
+    }
+
+    /**
+     * Отображает сохранённую матрицу из файла в память без чтения всего файла.
+     *
+     * @return матрица или null, если файл построен для другого графа, другого набора станций
+     * или другой версии формата
+     */
+    public static TravelTimeMatrix map(File file, TransitGraph graph, List<Station> layerStations)
+            throws IOException {
+        MappedByteBuffer buffer;
+        try (FileInputStream in = new FileInputStream(file); FileChannel channel = in.getChannel()) {
+            // Отображение остаётся действительным и после закрытия канала
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt() != FORMAT_MAGIC
+                || buffer.getInt() != FORMAT_VERSION) {
+            return null;
+        }
+        long storedFingerprint = buffer.getLong();
+        if (storedFingerprint != ContractionHierarchy.fingerprint(graph.getNetwork())) {
+            return null;
+        }
+        int[] expectedRows = layerRows(graph, layerStations);
+        int rowCount = buffer.getInt();
+        long expectedSize = HEADER_BYTES + 4L * rowCount + 2L * rowCount * rowCount;
+        if (rowCount != expectedRows.length || buffer.capacity() != expectedSize) {
+            return null;
+        }
+        for (int row = 0; row < rowCount; row++) {
+            if (buffer.getInt() != expectedRows[row]) {
+                return null;
+            }
+        }
+        ByteBuffer data = buffer.slice();
+        return new TravelTimeMatrix(graph, storedFingerprint, expectedRows, data.asCharBuffer());
+    }
+}
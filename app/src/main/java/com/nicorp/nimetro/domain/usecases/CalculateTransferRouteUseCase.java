@@ -1,17 +1,44 @@
 // com/nicorp/nimetro/domain/usecases/CalculateTransferRouteUseCase.java
 package com.nicorp.nimetro.domain.usecases;
 
-import com.nicorp.nimetro.domain.entities.Route;
-import com.nicorp.nimetro.data.repositories.RouteRepository;
+import com.nicorp.nimetro.domain.entities.RouteStation;
+import com.nicorp.nimetro.domain.entities.RouteVariantType;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.domain.routing.RouteVariants;
+import com.nicorp.nimetro.domain.routing.RoutingEngine;
+
+import java.util.List;
 
 public class CalculateTransferRouteUseCase {
-    private final RouteRepository routeRepository;
+    private final RoutingEngine routingEngine;
+
+    public CalculateTransferRouteUseCase(RoutingEngine routingEngine) {
+        this.routingEngine = routingEngine;
+    }
+
+    public List<RouteStation> execute(Station start, Station end, RouteVariantType variantType) {
+        return execute(start, end, variantType, -1);
+    }
+
+    public List<RouteStation> execute(Station start, Station end, RouteVariantType variantType, int maxTime) {
+        return routingEngine.findRoute(start, end, variantType, maxTime);
+    }
 
-    public CalculateTransferRouteUseCase(RouteRepository routeRepository) {
-        this.routeRepository = routeRepository;
+    /**
+     * @param maxRoutes сколько всего маршрутов показать; недостающие до него Парето-маршруты дополняются альтернативными
+     * @return Парето-оптимальные маршруты и за ними альтернативные
+     */
+    public RouteVariants executeVariants(Station start, Station end, float maxTimeRatio, int maxRoutes) {
+        return routingEngine.findRouteVariants(start, end, maxTimeRatio, maxRoutes);
     }
 
-    public Route execute(int startStationId, int endStationId) {
-        return routeRepository.calculateTransferRoute(startStationId, endStationId);
+    /**
+     * @param departureTime время отправления в минутах от полуночи
+     * @return варианты без линий, закрытых в это время, и самый быстрый маршрут с учётом
+     * часов работы станций и интервалов движения
+     */
+    public RouteVariants executeVariants(Station start, Station end, float maxTimeRatio, int maxRoutes,
+                                         int departureTime) {
+        return routingEngine.findRouteVariants(start, end, maxTimeRatio, maxRoutes, departureTime);
     }
-}
\ No newline at end of file
+}
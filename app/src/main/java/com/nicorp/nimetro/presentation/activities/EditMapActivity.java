@@ -4,14 +4,17 @@ import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.graphics.Matrix;
 import android.graphics.Point;
+import android.graphics.PointF;
 import android.os.Bundle;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.Log;
+import android.view.HapticFeedbackConstants;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
+import android.view.ViewConfiguration;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
@@ -89,6 +92,13 @@ public class EditMapActivity extends AppCompatActivity implements AddTransferDia
     private float initialTouchX;
     private float initialTouchY;
     private boolean isMovingMap = false;
+    // Станция, которую тянут пальцем, и смещение пальца от её центра в схемных координатах.
+    // Перетаскивание начинается только после долгого нажатия на станцию, до этого касание двигает карту
+    private Station draggedStation;
+    private Station pressedStation;
+    private float dragOffsetX;
+    private float dragOffsetY;
+    private final Runnable longPressDrag = this::startStationDrag;
 
     private boolean isMetroMap = true;
     private boolean isSuburbanMap = false;
@@ -151,17 +161,37 @@ public class EditMapActivity extends AppCompatActivity implements AddTransferDia
     }
 
     private void setupTouchHandlers() {
+        int touchSlop = ViewConfiguration.get(this).getScaledTouchSlop();
         metroMapView.setOnTouchListener((v, event) -> {
             switch (event.getAction()) {
                 case MotionEvent.ACTION_DOWN:
                     initialTouchX = event.getX();
                     initialTouchY = event.getY();
+                    PointF touchPoint = metroMapView.toMapCoordinates(event.getX(), event.getY());
+                    pressedStation = metroMapView.findStationAt(touchPoint.x, touchPoint.y);
+                    if (pressedStation != null) {
+                        dragOffsetX = pressedStation.getX() - touchPoint.x;
+                        dragOffsetY = pressedStation.getY() - touchPoint.y;
+                        metroMapView.postDelayed(longPressDrag, ViewConfiguration.getLongPressTimeout());
+                    }
                     isMovingMap = true;
                     break;
                 case MotionEvent.ACTION_MOVE:
-                    if (isMovingMap) {
+                    if (draggedStation != null) {
+                        // Перестраиваются только перегоны и переходы этой станции, без setData
+                        PointF dragPoint = metroMapView.toMapCoordinates(event.getX(), event.getY());
+                        metroMapView.moveStation(draggedStation,
+                                Math.round(dragPoint.x + dragOffsetX), Math.round(dragPoint.y + dragOffsetY));
+                    } else if (isMovingMap) {
                         float deltaX = event.getX() - initialTouchX;
                         float deltaY = event.getY() - initialTouchY;
+                        if (pressedStation != null) {
+                            // Палец сдвинулся раньше долгого нажатия: это панорамирование, а не перенос станции
+                            if (Math.abs(deltaX) < touchSlop && Math.abs(deltaY) < touchSlop) {
+                                break;
+                            }
+                            cancelStationDrag();
+                        }
                         metroMapView.setTranslateX(metroMapView.getTranslateX() + deltaX);
                         metroMapView.setTranslateY(metroMapView.getTranslateY() + deltaY);
                         metroMapView.invalidate();
@@ -172,12 +202,26 @@ public class EditMapActivity extends AppCompatActivity implements AddTransferDia
                 case MotionEvent.ACTION_UP:
                 case MotionEvent.ACTION_CANCEL:
                     isMovingMap = false;
+                    cancelStationDrag();
+                    draggedStation = null;
                     break;
             }
             return true;
         });
     }
 
+    private void startStationDrag() {
+        draggedStation = pressedStation;
+        pressedStation = null;
+        isMovingMap = false;
+        metroMapView.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+    }
+
+    private void cancelStationDrag() {
+        metroMapView.removeCallbacks(longPressDrag);
+        pressedStation = null;
+    }
+
     private void updateMapData() {
         if (isMetroMap) {
             metroMapView.setData(
@@ -399,12 +443,21 @@ public class EditMapActivity extends AppCompatActivity implements AddTransferDia
 
         builder.setPositiveButton("Сохранить", (dialog, which) -> {
             try {
-                station.setName(nameEditText.getText().toString());
-                station.setX(Integer.parseInt(xEditText.getText().toString()));
-                station.setY(Integer.parseInt(yEditText.getText().toString()));
-                station.setTextPosition(Integer.parseInt(textPositionEditText.getText().toString()));
-                station.setDisplayNumber(displayNumberEditText.getText().toString());
-                updateMapData();
+                String name = nameEditText.getText().toString();
+                int x = Integer.parseInt(xEditText.getText().toString());
+                int y = Integer.parseInt(yEditText.getText().toString());
+                int textPosition = Integer.parseInt(textPositionEditText.getText().toString());
+                String displayNumber = displayNumberEditText.getText().toString();
+                // Координаты меняются как при перетаскивании — без полной пересборки карты
+                metroMapView.moveStation(station, x, y);
+                if (!name.equals(station.getName()) || textPosition != station.getTextPosition()
+                        || !displayNumber.equals(station.getdisplayNumber())) {
+                    // Подписи станции перестраивает только setData
+                    station.setName(name);
+                    station.setTextPosition(textPosition);
+                    station.setDisplayNumber(displayNumber);
+                    updateMapData();
+                }
                 metroMapView.invalidate();
             } catch (NumberFormatException e) {
                 Toast.makeText(this, "Ошибка ввода данных", Toast.LENGTH_SHORT).show();
@@ -33,6 +33,7 @@ import android.widget.LinearLayout;
 import android.widget.HorizontalScrollView;
 import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
@@ -56,11 +57,23 @@ import com.nicorp.nimetro.domain.entities.APITariff;
 import com.nicorp.nimetro.domain.entities.FlatRateTariff;
 import com.nicorp.nimetro.domain.entities.Line;
 import com.nicorp.nimetro.domain.entities.RouteStation;
+import com.nicorp.nimetro.domain.entities.RouteVariantType;
 import com.nicorp.nimetro.domain.entities.Station;
 import com.nicorp.nimetro.domain.entities.Tariff;
 import com.nicorp.nimetro.domain.entities.Transfer;
 import com.nicorp.nimetro.domain.entities.TransferRoute;
 import com.nicorp.nimetro.domain.entities.ZoneBasedTariff;
+import com.nicorp.nimetro.domain.routing.MapIndex;
+import com.nicorp.nimetro.domain.routing.RouteCache;
+import com.nicorp.nimetro.domain.routing.RouteRequestScheduler;
+import com.nicorp.nimetro.domain.routing.RouteVariants;
+import com.nicorp.nimetro.domain.routing.RoutingEngine;
+import com.nicorp.nimetro.domain.routing.ScheduledRoute;
+import com.nicorp.nimetro.domain.routing.StationLocator;
+import com.nicorp.nimetro.domain.routing.TransitGraph;
+import com.nicorp.nimetro.routing.RouteTrace;
+import com.nicorp.nimetro.routing.ServiceSchedule;
+import com.nicorp.nimetro.domain.usecases.CalculateTransferRouteUseCase;
 import com.nicorp.nimetro.presentation.adapters.RoutePagerAdapter;
 import com.nicorp.nimetro.presentation.adapters.StationPagerAdapter;
 import com.nicorp.nimetro.presentation.views.MetroMapView;
@@ -123,6 +136,27 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
 
     private MapSyncService mapSyncService;
     private LocalMapCache localMapCache;
+    private CalculateTransferRouteUseCase calculateTransferRouteUseCase;
+    private MapIndex mapIndex = MapIndex.EMPTY;
+    // Станции метро, электричек и речного трамвая с координатами — для поиска ближайшей станции
+    private StationLocator stationLocator = StationLocator.EMPTY;
+    // Альтернативные маршруты показываются, если они не более чем на 20% медленнее самого быстрого
+    private static final float MAX_ROUTE_SLOWDOWN = 1.2f;
+    // Сколько маршрутов показывать в пейджере вместе с альтернативными
+    private static final int MAX_ROUTE_VARIANTS = 4;
+    // Средние интервалы движения по слоям карты, минуты
+    private static final int METRO_HEADWAY = 3;
+    private static final int SUBURBAN_HEADWAY = 10;
+    private static final int RIVER_TRAM_HEADWAY = 20;
+    private static final int TRAM_HEADWAY = 8;
+    // Если до первого поезда дольше, значит транспорт сейчас не работает — предупреждаем
+    private static final int SERVICE_WAIT_NOTICE_MINUTES = 15;
+    // Маршруты считаются в фоне; результат устаревшего запроса не показывается
+    private final RouteRequestScheduler routeScheduler = createRouteScheduler();
+    // Изохрона считается отдельно: движение ползунка не должно отменять расчёт маршрута
+    private final RouteRequestScheduler reachabilityScheduler = createRouteScheduler();
+    // Линия начальной станции тоже: перестроение или сброс маршрута не должны терять выбор станции
+    private final RouteRequestScheduler startLineScheduler = createRouteScheduler();
 
     public static boolean isMetroMap = true; // Флаг для определения текущей карты
     public static boolean isSuburbanMap = false;
@@ -364,6 +398,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
 
         mapSyncService = new MapSyncService(this);
         localMapCache = new LocalMapCache(this);
+        calculateTransferRouteUseCase = new CalculateTransferRouteUseCase(RoutingEngine.getInstance());
 
         SharedPreferences sharedPreferences = getSharedPreferences("app_settings", MODE_PRIVATE);
         String selectedMapFileName = sharedPreferences.getString("selected_map_file", "metromap_1.json");
@@ -710,6 +745,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         // Перезагружаем данные при возврате из настроек
         SharedPreferences sharedPreferences = getSharedPreferences("app_settings", MODE_PRIVATE);
         String selectedMapFileName = sharedPreferences.getString("selected_map_file", "metromap_1.json");
+        metroMapView.setRenderNodeLayersEnabled(sharedPreferences.getBoolean("render_node_layers", true));
         
         // Очищаем старые данные перед загрузкой новых
         clearAllData();
@@ -721,6 +757,8 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         if (notificationPanelManager != null) {
             notificationPanelManager.startPeriodicSync();
             notificationPanelManager.checkAndShowNotifications();
+            // Дата могла смениться — пересчитываем действующие закрытия
+            notificationPanelManager.applyRouteClosures();
             if (stationsAdapter != null) {
                 stationsAdapter.setStationNotifications(notificationPanelManager.getAllStationNotifications());
             }
@@ -735,9 +773,30 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         hideStationsList();
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Тайлы карты не нужны, пока её не видно
+        metroMapView.releaseTileCache();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        metroMapView.onTrimMemory(level);
+    }
+
+    private static RouteRequestScheduler createRouteScheduler() {
+        return new RouteRequestScheduler(new Handler(Looper.getMainLooper())::post,
+                error -> Log.e("MainActivity", "Route request failed", error));
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        routeScheduler.shutdown();
+        reachabilityScheduler.shutdown();
+        startLineScheduler.shutdown();
         // Остановка обновления местоположения при уничтожении активности
         stopLocationUpdates();
         
@@ -778,6 +837,10 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         return allLines;
     }
 
+    public MapIndex getMapIndex() {
+        return mapIndex;
+    }
+
     private void clearAllData() {
         // Очищаем все списки данных
         if (lines != null) lines.clear();
@@ -895,6 +958,19 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
                 allLines.addAll(riverTramLines);
             }
             
+            mapIndex = MapIndex.build(lines, suburbanLines, riverTramLines, tramLines);
+            stationLocator = StationLocator.build(stations, suburbanStations, riverTramStations);
+            compileRoutingGraph();
+            JSONObject mapInfo = jsonObject.optJSONObject("info");
+            String mapVersion = mapInfo != null ? mapInfo.optString("version", null) : null;
+            RoutingEngine.getInstance().prepareHierarchyAsync(localMapCache.getRoutingCacheFile(mapId, mapVersion));
+            // Матрица времён в пути между станциями метро: считается в фоне один раз на версию карты.
+            // Она занимает место в кеше, а нужна только отслеживанию поездки, поэтому включается в настройках
+            if (getSharedPreferences("app_settings", MODE_PRIVATE).getBoolean("precompute_travel_times", false)) {
+                RoutingEngine.getInstance().prepareTravelTimeMatrixAsync(stations,
+                        localMapCache.getTravelTimeMatrixFile(mapId, mapVersion));
+            }
+
             // Логируем все линии для отладки
             Log.d("MainActivity", "All lines count: " + allLines.size());
             for (Line l : allLines) {
@@ -914,6 +990,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         Log.d("MainActivity", "Lines count: " + (lines != null ? lines.size() : "null"));
         Log.d("MainActivity", "Stations count: " + (stations != null ? stations.size() : "null"));
         
+        metroMapView.setMapIndex(mapIndex);
         if (isMetroMap) {
             Log.d("MainActivity", "Setting metro map data");
             metroMapView.setData(
@@ -1462,29 +1539,24 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         // Получаем список линий в зависимости от активной карты
         List<Line> activeLines = getActiveLines();
 
-        // Поиск линии и соседних станций
-        for (Line line : activeLines) {
+        // Поиск линии и соседних станций: перебираем только линии этой станции из индекса
+        for (Line line : mapIndex.getLinesForStation(station)) {
+            int i = mapIndex.getPosition(line, station.getId());
             List<Station> lineStations = line.getStations();
-            for (int i = 0; i < lineStations.size(); i++) {
-                if (lineStations.get(i).equals(station)) {
-                    if (i > 0) {
-                        prevStation = lineStations.get(i - 1);
-                    }
-                    if (i < lineStations.size() - 1) {
-                        nextStation = lineStations.get(i + 1);
-                    }
-                    curline = line;
-                    Log.d("MainActivity", "Line found: " + line.getName());
-                    // Обработка кольцевых линий: замыкаем начало и конец
-                    if (curline != null && curline.isCircle() && lineStations.size() > 1) {
-                        if (prevStation == null) {
-                            prevStation = lineStations.get(lineStations.size() - 1);
-                        }
-                        if (nextStation == null) {
-                            nextStation = lineStations.get(0);
-                        }
-                    }
-                    break;
+            if (i < 0 || lineStations.get(i) != station || !activeLines.contains(line)) {
+                continue;
+            }
+            prevStation = i > 0 ? lineStations.get(i - 1) : null;
+            nextStation = i < lineStations.size() - 1 ? lineStations.get(i + 1) : null;
+            curline = line;
+            Log.d("MainActivity", "Line found: " + line.getName());
+            // Обработка кольцевых линий: замыкаем начало и конец
+            if (curline.isCircle() && lineStations.size() > 1) {
+                if (prevStation == null) {
+                    prevStation = lineStations.get(lineStations.size() - 1);
+                }
+                if (nextStation == null) {
+                    nextStation = lineStations.get(0);
                 }
             }
         }
@@ -1531,7 +1603,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         metroMapView.invalidate();
 
         if (notificationPanelManager != null && station != null && station.getId() != null) {
-            List<Line> stationLines = findAllLinesForStation(station);
+            List<Line> stationLines = mapIndex.getLinesForStation(station);
             List<String> lineIds = new ArrayList<>();
             for (Line line : stationLines) {
                 if (line != null && line.getId() != null) {
@@ -1635,7 +1707,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
                     metroMapView.invalidate();
 
                     if (notificationPanelManager != null && currentStation.getId() != null) {
-                        List<Line> currentStationLines = findAllLinesForStation(currentStation);
+                        List<Line> currentStationLines = mapIndex.getLinesForStation(currentStation);
                         List<String> currentLineIds = new ArrayList<>();
                         for (Line line : currentStationLines) {
                             if (line != null && line.getId() != null) {
@@ -1781,9 +1853,34 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
 
     @Override
     public void onDismiss() {
+        reachabilityScheduler.cancel();
+        if (metroMapView != null) {
+            metroMapView.clearIsochrone();
+        }
         hideStationPager();
     }
 
+    @Override
+    public void onReachabilityChanged(Station station, int maxMinutes) {
+        if (metroMapView == null) {
+            return;
+        }
+        if (maxMinutes <= 0) {
+            reachabilityScheduler.cancel();
+            metroMapView.clearIsochrone();
+            return;
+        }
+        // Поиск идёт в фоне; при быстром движении ползунка промежуточные значения пропускаются
+        Object key = Arrays.asList(station.getId(), maxMinutes, RoutingEngine.getInstance().getGraph());
+        reachabilityScheduler.submit(key,
+                () -> RoutingEngine.getInstance().findReachableStations(station, maxMinutes),
+                reachable -> {
+                    if (reachable != null && metroMapView != null) {
+                        metroMapView.setIsochrone(reachable.keySet());
+                    }
+                });
+    }
+
     private void clearFrameLayout() {
         FragmentManager fragmentManager = getSupportFragmentManager();
         Fragment fragment = fragmentManager.findFragmentById(R.id.frameLayout);
@@ -1860,12 +1957,25 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
 
     @Override
     public void onSetStart(Station station, Line line, boolean fromStationInfoFragment) {
-        Line lineToUse = line;
-        if (lineToUse == null && selectedEndStation != null) {
-            lineToUse = findOptimalLineForRoute(station, selectedEndStation);
+        if (line == null && selectedEndStation != null && station != null) {
+            List<Line> linesForStation = mapIndex.getLinesForStation(station);
+            if (linesForStation.size() > 1) {
+                // Линию выбирает поиск маршрута, поэтому она считается в фоне, как и сам маршрут
+                Station end = selectedEndStation;
+                Object key = Arrays.asList(station.getId(), end.getId(), RoutingEngine.getInstance().getGraph());
+                startLineScheduler.submit(key, () -> findOptimalLineForRoute(station, end, linesForStation),
+                        optimalLine -> applyStart(station, optimalLine, fromStationInfoFragment));
+                return;
+            }
+            line = linesForStation.isEmpty() ? null : linesForStation.get(0);
         }
-        
-        Station stationToUse = findStationInLine(station, lineToUse);
+        // Начальная станция выбрана заново — линия для прежней уже не нужна
+        startLineScheduler.cancel();
+        applyStart(station, line, fromStationInfoFragment);
+    }
+
+    private void applyStart(Station station, Line lineToUse, boolean fromStationInfoFragment) {
+        Station stationToUse = mapIndex.findStationInLine(station, lineToUse);
         if (stationToUse == null) {
             stationToUse = station;
         }
@@ -1893,7 +2003,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
 
     @Override
     public void onSetEnd(Station station, Line line, boolean fromStationInfoFragment) {
-        Station stationToUse = findStationInLine(station, line);
+        Station stationToUse = mapIndex.findStationInLine(station, line);
         if (stationToUse == null) {
             stationToUse = station;
         }
@@ -1919,100 +2029,28 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         }
     }
     
-    private List<Line> findAllLinesForStation(Station station) {
-        List<Line> result = new ArrayList<>();
-        if (station == null || station.getId() == null) {
-            return result;
-        }
-        
-        String stationId = station.getId();
-        Set<String> seenLineIds = new LinkedHashSet<>();
-        
-        List<Line> allLines = new ArrayList<>();
-        if (lines != null) allLines.addAll(lines);
-        if (suburbanLines != null) allLines.addAll(suburbanLines);
-        if (riverTramLines != null) allLines.addAll(riverTramLines);
-        if (tramLines != null) allLines.addAll(tramLines);
-        
-        for (Line line : allLines) {
-            if (line == null || line.getStations() == null || line.getId() == null) {
-                continue;
-            }
-            if (seenLineIds.contains(line.getId())) {
-                continue;
-            }
-            for (Station lineStation : line.getStations()) {
-                if (lineStation != null && lineStation.getId() != null && lineStation.getId().equals(stationId)) {
-                    result.add(line);
-                    seenLineIds.add(line.getId());
-                    break;
-                }
-            }
-        }
-        
-        return result;
-    }
-
-    private Line findOptimalLineForRoute(Station startStation, Station endStation) {
-        if (startStation == null || endStation == null || startStation.getId() == null || endStation.getId() == null) {
-            return null;
-        }
-        
-        List<Line> allLinesForStation = findAllLinesForStation(startStation);
-        if (allLinesForStation.isEmpty()) {
-            return null;
-        }
-        
-        if (allLinesForStation.size() == 1) {
-            return allLinesForStation.get(0);
-        }
-        
-        Line optimalLine = null;
-        int minTransfers = Integer.MAX_VALUE;
-        
-        for (Line line : allLinesForStation) {
-            Station stationInLine = findStationInLine(startStation, line);
-            if (stationInLine == null) {
-                continue;
-            }
-            
-            List<RouteStation> route = findOptimalRoute(stationInLine, endStation);
-            if (route == null || route.isEmpty()) {
-                continue;
-            }
-            
-            int transfers = countTransfersInRoute(route);
-            if (transfers < minTransfers) {
-                minTransfers = transfers;
-                optimalLine = line;
-            }
-        }
-        
-        if (optimalLine == null && !allLinesForStation.isEmpty()) {
-            optimalLine = allLinesForStation.get(0);
-        }
-        
-        return optimalLine;
-    }
-
-    private Station findStationInLine(Station station, Line line) {
-        if (station == null || line == null || station.getId() == null) {
-            return null;
-        }
-        
-        List<Station> lineStations = line.getStations();
-        if (lineStations == null) {
+    /**
+     * Выполняется в потоке startLineScheduler: линии станции берутся заранее в главном потоке.
+     */
+    private Line findOptimalLineForRoute(Station startStation, Station endStation, List<Line> allLinesForStation) {
+        if (startStation.getId() == null || endStation.getId() == null) {
             return null;
         }
         
-        String stationId = station.getId();
-        for (Station lineStation : lineStations) {
-            if (lineStation != null && lineStation.getId() != null && lineStation.getId().equals(stationId)) {
-                return lineStation;
+        // Поиск стартует со всех линий станции сразу: берём линию, с которой начинается самый быстрый маршрут.
+        // Одного быстрого запроса хватает, поиск вариантов не нужен
+        List<RouteStation> route = calculateTransferRouteUseCase.execute(startStation, endStation,
+                RouteVariantType.FASTEST);
+        if (route != null && !route.isEmpty()) {
+            Line firstLine = route.get(0).getLine();
+            for (Line line : allLinesForStation) {
+                if (firstLine != null && line.getId().equals(firstLine.getId())) {
+                    return line;
+                }
             }
         }
         
-        return null;
+        return allLinesForStation.get(0);
     }
 
     private FusedLocationProviderClient fusedLocationClient;
@@ -2045,23 +2083,8 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
     }
 
     private Station findNearestStation(double userLatitude, double userLongitude) {
-        Station nearestStation = null;
-        double minDistance = Double.MAX_VALUE;
-
-        // Объединяем все станции (метро, электрички, речной трамвай)
-        List<Station> allStations = new ArrayList<>(stations);
-        allStations.addAll(suburbanStations);
-        allStations.addAll(riverTramStations);
-
-        for (Station station : allStations) {
-            if (station.getLatitude() != 0.0 && station.getLongitude() != 0.0) {
-                double distance = station.distanceTo(userLatitude, userLongitude);
-                if (distance < minDistance) {
-                    minDistance = distance;
-                    nearestStation = station;
-                }
-            }
-        }
+        // Метро, электрички и речной трамвай; станции без координат в индекс не входят
+        Station nearestStation = stationLocator.findNearest(userLatitude, userLongitude);
 
         if (nearestStation != null) {
             metroMapView.selectedStation = nearestStation;
@@ -2071,484 +2094,31 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         return nearestStation;
     }
 
-    private interface RouteEdgeCostStrategy {
-        int getEdgeCost(Station currentStation, Station.Neighbor neighbor);
-    }
-
-    private List<RouteStation> findOptimalRoute(Station start, Station end) {
-        Log.d("MainActivity", "Finding optimal route from " + start.getName() + " to " + end.getName());
-        return findRouteWithStrategy(start, end, this::getFastestEdgeCost, true);
-    }
-
-    private List<RouteStation> findRouteWithFewTransfers(Station start, Station end) {
-        Log.d("MainActivity", "Finding few-transfers route from " + start.getName() + " to " + end.getName());
-        return findRouteWithStrategy(start, end, this::getFewTransfersEdgeCost, false, -1);
-    }
-
-    private List<RouteStation> findRouteWithFewTransfers(Station start, Station end, int maxTime) {
-        Log.d("MainActivity", "Finding few-transfers route from " + start.getName() + " to " + end.getName() + " with max time: " + maxTime);
-        return findRouteWithStrategy(start, end, this::getFewTransfersEdgeCost, false, maxTime);
-    }
-
-    private List<RouteStation> findRouteWithStrategy(Station start, Station end, RouteEdgeCostStrategy edgeCostStrategy, boolean isFastestStrategy) {
-        return findRouteWithStrategy(start, end, edgeCostStrategy, isFastestStrategy, -1);
-    }
-    
-    private List<RouteStation> findRouteWithStrategy(Station start, Station end, RouteEdgeCostStrategy edgeCostStrategy, boolean isFastestStrategy, int maxTime) {
-        Log.d("ROUTE_INFO", "=== МАРШРУТ: " + start.getName() + " -> " + end.getName() + 
-              (maxTime > 0 ? " (макс. время: " + maxTime + ")" : "") + " ===");
-        
-        List<Station> allStations = buildAllStationsForRouting();
-        Map<Station, List<Station.Neighbor>> adjacency = buildRoutingAdjacency(allStations);
-
-        // Используем RouteStation для учета линий
-        Map<RouteStation, RouteStation> previous = new HashMap<>();
-        Map<RouteStation, Integer> distances = new HashMap<>();
-        Map<RouteStation, Integer> realTimes = new HashMap<>(); // Реальное время пути (без штрафов)
-        PriorityQueue<RouteStation> queue = new PriorityQueue<>(Comparator.comparingInt(distances::get));
-        
-        // Определяем все линии для начальной станции
-        List<Line> allLinesForStart = findAllLinesForStation(start);
-        
-        String startAdjacentInfo = "";
-        if (allLinesForStart.size() > 1) {
-            StringBuilder linesList = new StringBuilder();
-            for (int i = 0; i < allLinesForStart.size(); i++) {
-                if (i > 0) linesList.append(", ");
-                String lineName = allLinesForStart.get(i).getName() != null ? 
-                    allLinesForStart.get(i).getName() : allLinesForStart.get(i).getId();
-                linesList.append(lineName);
-            }
-            startAdjacentInfo = " [СМЕЖНАЯ: " + linesList.toString() + "]";
-        }
-        
-        // Инициализируем расстояния для всех комбинаций Station+Line
-        for (Station station : allStations) {
-            List<Line> linesForStation = findAllLinesForStation(station);
-            if (linesForStation.isEmpty()) {
-                RouteStation rs = new RouteStation(station, null);
-                distances.put(rs, Integer.MAX_VALUE);
-                realTimes.put(rs, Integer.MAX_VALUE);
-            } else {
-                for (Line line : linesForStation) {
-                    Station stationInLine = findStationInLine(station, line);
-                    if (stationInLine == null) {
-                        stationInLine = station;
-                    }
-                    RouteStation rs = new RouteStation(stationInLine, line);
-                    distances.put(rs, Integer.MAX_VALUE);
-                    realTimes.put(rs, Integer.MAX_VALUE);
-        }
-            }
-        }
-        
-        // Для смежной начальной станции создаем RouteStation для всех доступных линий
-        // и добавляем их все в очередь с расстоянием 0
-        if (allLinesForStart.isEmpty()) {
-            RouteStation startRouteStation = new RouteStation(start, null);
-            distances.put(startRouteStation, 0);
-            realTimes.put(startRouteStation, 0);
-            previous.put(startRouteStation, null);
-            queue.add(startRouteStation);
-            Log.d("ROUTE_INFO", "НАЧАЛО: " + start.getName() + " (ID: " + start.getId() + 
-                  "), линия: null" + startAdjacentInfo);
-        } else {
-            for (Line startLine : allLinesForStart) {
-                Station startStationInLine = findStationInLine(start, startLine);
-                if (startStationInLine == null) {
-                    startStationInLine = start;
-                }
-                RouteStation startRouteStation = new RouteStation(startStationInLine, startLine);
-                distances.put(startRouteStation, 0);
-                realTimes.put(startRouteStation, 0);
-                previous.put(startRouteStation, null);
-                queue.add(startRouteStation);
-                Log.d("ROUTE_INFO", "НАЧАЛО: " + startStationInLine.getName() + " (ID: " + startStationInLine.getId() + 
-                      "), линия: " + (startLine.getName() != null ? startLine.getName() : startLine.getId()) + startAdjacentInfo);
-            }
+    private RouteVariants findRouteVariants(Station start, Station end) {
+        Log.d("MainActivity", "Finding route variants from " + start.getName() + " to " + end.getName());
+        // По умолчанию маршруты ищутся с учётом текущего времени: часов работы станций и интервалов движения
+        if (!getSharedPreferences("app_settings", MODE_PRIVATE).getBoolean("schedule_aware_routing", true)) {
+            return calculateTransferRouteUseCase.executeVariants(start, end, MAX_ROUTE_SLOWDOWN, MAX_ROUTE_VARIANTS);
         }
-
-        RouteStation endRouteStation = null;
-
-        while (!queue.isEmpty()) {
-            RouteStation current = queue.poll();
-            if (current == null) {
-                break;
-            }
-            
-            Station currentStation = current.getStation();
-            Line currentLine = current.getLine();
-            int currentDistance = distances.get(current);
-            
-            // Для смежных станций используем станцию из текущей линии для поиска neighbors
-            // Это важно, потому что neighbors могут быть определены для станции на конкретной линии
-            Station currentStationInLine = currentStation;
-            if (currentLine != null) {
-                Station stationInLine = findStationInLine(currentStation, currentLine);
-                if (stationInLine != null) {
-                    currentStationInLine = stationInLine;
-                }
-            }
-            
-            // Проверяем, является ли текущая станция смежной (есть на нескольких линиях)
-            List<Line> allLinesForCurrent = findAllLinesForStation(currentStation);
-            boolean isCurrentAdjacent = allLinesForCurrent.size() > 1;
-            String adjacentInfo = "";
-            if (isCurrentAdjacent) {
-                StringBuilder linesList = new StringBuilder();
-                for (int i = 0; i < allLinesForCurrent.size(); i++) {
-                    if (i > 0) linesList.append(", ");
-                    String lineName = allLinesForCurrent.get(i).getName() != null ? 
-                        allLinesForCurrent.get(i).getName() : allLinesForCurrent.get(i).getId();
-                    linesList.append(lineName);
-                }
-                adjacentInfo = " [СМЕЖНАЯ: " + linesList.toString() + "]";
-            }
-            
-            Log.d("ROUTE_INFO", "СТАНЦИЯ: " + currentStationInLine.getName() + " (ID: " + currentStationInLine.getId() + 
-                  "), линия: " + (currentLine != null ? (currentLine.getName() != null ? currentLine.getName() : currentLine.getId()) : "null") +
-                  ", расстояние: " + currentDistance + adjacentInfo);
-            
-            if (currentStation.getId().equals(end.getId())) {
-                endRouteStation = current;
-                Log.d("ROUTE_INFO", ">>> КОНЕЦ: " + end.getName() + " <<<");
-                break;
-            }
-            
-            // Используем currentStationInLine для поиска neighbors, чтобы получить neighbors для станции на текущей линии
-            List<Station.Neighbor> neighbors = adjacency.get(currentStationInLine);
-            // Если neighbors не найдены для станции на текущей линии, пробуем найти для исходной станции
-            if (neighbors == null || neighbors.isEmpty()) {
-                neighbors = adjacency.get(currentStation);
-            }
-            if (neighbors == null) {
-                continue;
-            }
-            
-            for (Station.Neighbor neighbor : neighbors) {
-                Station neighborStation = neighbor.getStation();
-                if (neighborStation == null) {
-                    continue;
-                }
-                
-                // Проверяем, является ли соседняя станция смежной (есть на нескольких линиях)
-                List<Line> allLinesForNeighbor = findAllLinesForStation(neighborStation);
-                boolean isAdjacentStation = allLinesForNeighbor.size() > 1;
-                
-                // Определяем тип связи
-                // ВАЖНО: проверяем neighbors в adjacency графе, который уже содержит все neighbors-связи
-                // Если связь есть в adjacency графе как neighbors, это neighbors-связь, а не transfer
-                boolean isNeighborConnection = false;
-                
-                // Проверяем, есть ли эта связь в adjacency графе как neighbors
-                // neighbors уже получены из adjacency.get(currentStationInLine) выше
-                // Если neighborStation есть в этом списке neighbors, это neighbors-связь
-                if (neighbors != null) {
-                    for (Station.Neighbor n : neighbors) {
-                        if (n.getStation() != null && n.getStation().getId() != null 
-                            && neighborStation.getId() != null 
-                            && n.getStation().getId().equals(neighborStation.getId())) {
-                            // Это neighbors-связь из adjacency графа
-                            isNeighborConnection = true;
-                            break;
-                        }
-                    }
-                }
-                
-                // Определяем, какие линии обрабатывать
-                // Для neighbors-связи: ВСЕГДА приоритизируем текущую линию, чтобы избежать ненужных пересадок
-                // Для transfers: все доступные линии
-                List<Line> linesToProcess = new ArrayList<>();
-                if (isNeighborConnection && currentLine != null) {
-                    // Для neighbors-связи проверяем, есть ли станция на текущей линии
-                    Station neighborStationInLine = findStationInLine(neighborStation, currentLine);
-                    if (neighborStationInLine != null) {
-                        // Станция есть на текущей линии - ВСЕГДА используем текущую линию для neighbors-связи
-                        // Это критично для избежания ненужных пересадок
-                        linesToProcess.add(currentLine);
-                    } else {
-                        // Станция не на текущей линии - это ошибка данных, но обрабатываем все линии
-                        linesToProcess.addAll(allLinesForNeighbor);
-                    }
-                } else {
-                    // Для transfers создаем RouteStation для всех доступных линий
-                    linesToProcess.addAll(allLinesForNeighbor);
-                }
-                
-                // Если нет доступных линий, создаем RouteStation без линии
-                if (linesToProcess.isEmpty()) {
-                    linesToProcess.add(null);
-                }
-                
-                // Обрабатываем каждую доступную линию
-                for (Line neighborLine : linesToProcess) {
-                    Station neighborStationInLine = neighborLine != null ? 
-                        findStationInLine(neighborStation, neighborLine) : neighborStation;
-                    if (neighborStationInLine == null) {
-                        neighborStationInLine = neighborStation;
-                    }
-                    
-                    // Ищем существующий RouteStation в distances или создаем новый
-                    RouteStation neighborRouteStation = null;
-                    for (RouteStation rs : distances.keySet()) {
-                        if (rs.getStation() != null && rs.getStation().getId() != null 
-                            && neighborStationInLine.getId() != null
-                            && rs.getStation().getId().equals(neighborStationInLine.getId())
-                            && ((rs.getLine() == null && neighborLine == null) 
-                                || (rs.getLine() != null && neighborLine != null 
-                                    && rs.getLine().getId() != null && neighborLine.getId() != null
-                                    && rs.getLine().getId().equals(neighborLine.getId())))) {
-                            neighborRouteStation = rs;
-                            break;
-                        }
-                    }
-                    
-                    if (neighborRouteStation == null) {
-                        neighborRouteStation = new RouteStation(neighborStationInLine, neighborLine);
-                        distances.put(neighborRouteStation, Integer.MAX_VALUE);
-                        realTimes.put(neighborRouteStation, Integer.MAX_VALUE);
-                    }
-                    
-                    // Вычисляем реальное время ребра (без штрафов) - это базовая стоимость
-                    int realEdgeTime = edgeCostStrategy.getEdgeCost(currentStation, neighbor);
-                    
-                    // Вычисляем стоимость с учетом штрафов для выбора оптимального пути
-                    int edgeCost = realEdgeTime;
-                    
-                    // Инициализируем переменные для логирования (объявляем вне блока if)
-                    boolean lineChanged = false;
-                    boolean isAdjacentTransfer = false;
-                    
-                    // Для fastest маршрута НЕ добавляем штрафы за переходы - только время
-                    // Для fewTransfers маршрута добавляем штрафы за переходы
-                    if (!isFastestStrategy) {
-                        // Для neighbors-связи НЕ должно быть смены линии - это означает пересадку
-                        if (isNeighborConnection && currentLine != null && neighborLine != null 
-                            && !currentLine.getId().equals(neighborLine.getId())) {
-                            int lineChangePenalty = 10000; // Огромный штраф за смену линии при neighbors-связи
-                            edgeCost += lineChangePenalty;
-                            lineChanged = true;
-                            Log.d("ROUTE_INFO", "    ⚠ КРИТИЧНО: neighbors-связь требует пересадки! Штраф +10000");
-                        }
-                        
-                        // Определяем, является ли это переходом между смежными станциями (одинаковый ID, разные линии)
-                        // Это НЕ neighbors-связь, а transfer между смежными станциями
-                        // ВАЖНО: проверяем только если это НЕ neighbors-связь
-                        if (!isNeighborConnection && currentStation.getId() != null && neighborStation.getId() != null 
-                            && currentStation.getId().equals(neighborStation.getId())
-                            && currentLine != null && neighborLine != null
-                            && !currentLine.getId().equals(neighborLine.getId())) {
-                            // Это переход между смежными станциями (одинаковый ID, разные линии) через transfer
-                            isAdjacentTransfer = true;
-                            int adjacentTransferPenalty = 1000; // Большой штраф за переход между смежными станциями
-                            edgeCost += adjacentTransferPenalty;
-                        }
-                        
-                        // Для transfers между разными станциями добавляем штраф за смену линии
-                        if (!isNeighborConnection && !isAdjacentTransfer && currentLine != null && neighborLine != null
-                            && !currentLine.getId().equals(neighborLine.getId())) {
-                            int transferPenalty = 10; // Штраф за переход между линиями
-                            edgeCost += transferPenalty;
-                        }
-                    }
-                    
-                    // Вычисляем новое реальное время пути (без штрафов)
-                    int currentRealTime = realTimes.get(current);
-                    int newRealTime = currentRealTime + realEdgeTime;
-                    
-                    // Вычисляем новую стоимость пути (с учетом штрафов)
-                int newDistance = distances.get(current) + edgeCost;
-                    
-                    // Если задано максимальное время, проверяем РЕАЛЬНОЕ время (без штрафов)
-                    if (maxTime > 0 && newRealTime > maxTime) {
-                        Log.d("ROUTE_INFO", "  -> " + neighborStation.getName() + " (" + neighborStation.getId() + 
-                              "), ПРОПУЩЕНО (превышено макс. время: " + newRealTime + " > " + maxTime + ")");
-                        continue;
-                    }
-                    
-                    int neighborCurrentDistance = distances.get(neighborRouteStation);
-                    
-                    String connectionType = isNeighborConnection ? "NEIGHBORS" : "TRANSFER";
-                    if (!isNeighborConnection) {
-                        Log.d("ROUTE_INFO", String.format("    ⚠ ВНИМАНИЕ: связь определена как TRANSFER, но проверка neighbors: currentStation.neighbors=%s, neighborStation.neighbors=%s", 
-                            currentStation.getNeighbors() != null ? currentStation.getNeighbors().size() + " neighbors" : "null",
-                            neighborStation.getNeighbors() != null ? neighborStation.getNeighbors().size() + " neighbors" : "null"));
-                    }
-                    String adjacentMark = "";
-                    if (isAdjacentStation) {
-                        StringBuilder linesList = new StringBuilder();
-                        for (int i = 0; i < allLinesForNeighbor.size(); i++) {
-                            if (i > 0) linesList.append(", ");
-                            String lineName = allLinesForNeighbor.get(i).getName() != null ? 
-                                allLinesForNeighbor.get(i).getName() : allLinesForNeighbor.get(i).getId();
-                            linesList.append(lineName);
-                        }
-                        adjacentMark = " [СМЕЖНАЯ: " + linesList.toString() + "]";
-                    }
-                    String penaltyMark = "";
-                    if (isAdjacentTransfer) {
-                        penaltyMark = " [ШТРАФ смежные +1000]";
-                    }
-                    if (lineChanged) {
-                        penaltyMark += " [ШТРАФ neighbors +10000]";
-                    }
-                    String selectedLine = neighborLine != null ? (neighborLine.getName() != null ? neighborLine.getName() : neighborLine.getId()) : "null";
-                    
-                    int neighborCurrentRealTime = realTimes.get(neighborRouteStation);
-                    
-                    if (newDistance < neighborCurrentDistance) {
-                        distances.put(neighborRouteStation, newDistance);
-                        realTimes.put(neighborRouteStation, newRealTime);
-                        previous.put(neighborRouteStation, current);
-                        queue.add(neighborRouteStation);
-                        Log.d("ROUTE_INFO", "  -> " + neighborStation.getName() + " (" + neighborStation.getId() + 
-                              "), тип: " + connectionType + adjacentMark + ", линия: " + selectedLine + 
-                              ", стоимость: " + edgeCost + ", расстояние: " + newDistance + " (было: " + neighborCurrentDistance + ")" + penaltyMark);
-                    } else {
-                        Log.d("ROUTE_INFO", "  -> " + neighborStation.getName() + " (" + neighborStation.getId() + 
-                              "), тип: " + connectionType + adjacentMark + ", линия: " + selectedLine + 
-                              ", стоимость: " + edgeCost + ", ПРОПУЩЕНО (новое " + newDistance + " >= текущее " + neighborCurrentDistance + ")" + penaltyMark);
-            }
-        }
-            }
-        }
-
-        // Восстанавливаем маршрут
-        List<RouteStation> route = new ArrayList<>();
-        if (endRouteStation != null) {
-            for (RouteStation rs = endRouteStation; rs != null; rs = previous.get(rs)) {
-                route.add(rs);
-        }
-        Collections.reverse(route);
-            
-            // Вычисляем итоговую стоимость маршрута
-            int totalCost = 0;
-            if (endRouteStation != null && distances.containsKey(endRouteStation)) {
-                totalCost = distances.get(endRouteStation);
-            }
-            
-            Log.d("ROUTE_INFO", "=== ФИНАЛЬНЫЙ МАРШРУТ (" + route.size() + " станций, стоимость: " + totalCost + ") ===");
-            for (int i = 0; i < route.size(); i++) {
-                RouteStation rs = route.get(i);
-                String lineInfo = rs.getLine() != null ? 
-                    (rs.getLine().getName() != null ? rs.getLine().getName() : rs.getLine().getId()) : "null";
-                List<Line> allLines = findAllLinesForStation(rs.getStation());
-                String adjacentInfo = "";
-                if (allLines.size() > 1) {
-                    StringBuilder linesList = new StringBuilder();
-                    for (int j = 0; j < allLines.size(); j++) {
-                        if (j > 0) linesList.append(", ");
-                        String lineName = allLines.get(j).getName() != null ? 
-                            allLines.get(j).getName() : allLines.get(j).getId();
-                        linesList.append(lineName);
-                    }
-                    adjacentInfo = " [СМЕЖНАЯ: " + linesList.toString() + "]";
-                }
-                Log.d("ROUTE_INFO", (i + 1) + ". " + rs.getStation().getName() + " (" + rs.getStation().getId() + 
-                      ") - " + lineInfo + adjacentInfo);
-            }
-        } else {
-            Log.d("ROUTE_INFO", "=== МАРШРУТ НЕ НАЙДЕН ===");
-        }
-        
-        return route;
+        Calendar now = Calendar.getInstance();
+        int departureTime = now.get(Calendar.HOUR_OF_DAY) * 60 + now.get(Calendar.MINUTE);
+        return calculateTransferRouteUseCase.executeVariants(start, end, MAX_ROUTE_SLOWDOWN, MAX_ROUTE_VARIANTS,
+                departureTime);
     }
-    
-    private int calculateRouteTime(List<RouteStation> route) {
-        if (route == null || route.size() < 2) {
-            return 0;
-        }
-        
-        int totalTime = 0;
-        for (int i = 0; i < route.size() - 1; i++) {
-            RouteStation current = route.get(i);
-            RouteStation next = route.get(i + 1);
-            
-            if (current == null || next == null || 
-                current.getStation() == null || next.getStation() == null) {
-                continue;
-            }
-            
-            Station currentStation = current.getStation();
-            Station nextStation = next.getStation();
-            
-            // Проверяем, являются ли станции смежными (одинаковый ID, разные линии)
-            if (currentStation.getId() != null && nextStation.getId() != null
-                && currentStation.getId().equals(nextStation.getId())) {
-                // Проверяем, что они на разных линиях
-                Line currentLine = current.getLine();
-                Line nextLine = next.getLine();
-                if (currentLine != null && nextLine != null
-                    && !currentLine.getId().equals(nextLine.getId())) {
-                    // Это смежные станции на разных линиях - переход стоит 2 минуты
-                    totalTime += 2;
-                    continue;
-                }
-            }
-            
-            // Ищем время между станциями через neighbors
-            boolean found = false;
-            if (currentStation.getNeighbors() != null) {
-                for (Station.Neighbor neighbor : currentStation.getNeighbors()) {
-                    if (neighbor.getStation() != null && neighbor.getStation().getId() != null
-                        && nextStation.getId() != null
-                        && neighbor.getStation().getId().equals(nextStation.getId())) {
-                        totalTime += neighbor.getTime();
-                        found = true;
-                        break;
-                    }
-                }
-            }
-            
-            // Если не нашли через neighbors, это transfer - ищем время из данных transfers
-            if (!found) {
-                int transferTime = findTransferTime(currentStation, nextStation);
-                if (transferTime > 0) {
-                    totalTime += transferTime;
-                } else {
-                    // Если не нашли transfer, используем время по умолчанию
-                    totalTime += 3;
-                }
-            }
+
+    private void showServiceWaitNotice(ScheduledRoute scheduled) {
+        if (scheduled == null || scheduled.getBoardingTime() < 0
+                || scheduled.getBoardingTime() - scheduled.getDepartureTime() <= SERVICE_WAIT_NOTICE_MINUTES) {
+            return;
         }
-        
-        return totalTime;
+        String text = "Транспорт сейчас не работает: отправление в " + formatMinuteOfDay(scheduled.getBoardingTime())
+                + ", прибытие в " + formatMinuteOfDay(scheduled.getArrivalTime());
+        Toast.makeText(this, text, Toast.LENGTH_LONG).show();
     }
-    
-    private int findTransferTime(Station station1, Station station2) {
-        if (station1 == null || station2 == null
-            || station1.getId() == null || station2.getId() == null) {
-            return 0;
-        }
-        
-        // Ищем во всех типах transfers
-        List<Transfer> allTransfers = getTransfers();
-        if (allTransfers == null || allTransfers.isEmpty()) {
-            return 0;
-        }
-        
-        for (Transfer transfer : allTransfers) {
-            if (transfer.getStations() != null) {
-                List<Station> transferStations = transfer.getStations();
-                boolean hasStation1 = false;
-                boolean hasStation2 = false;
-                for (Station transferStation : transferStations) {
-                    if (transferStation != null && transferStation.getId() != null) {
-                        if (transferStation.getId().equals(station1.getId())) {
-                            hasStation1 = true;
-                        }
-                        if (transferStation.getId().equals(station2.getId())) {
-                            hasStation2 = true;
-                        }
-                    }
-                }
-                if (hasStation1 && hasStation2) {
-                    return transfer.getTime();
-                }
-            }
-        }
-        
-        return 0;
+
+    private static String formatMinuteOfDay(int minutes) {
+        int minuteOfDay = minutes % ServiceSchedule.MINUTES_PER_DAY;
+        return String.format(Locale.getDefault(), "%d:%02d", minuteOfDay / 60, minuteOfDay % 60);
     }
     
     private List<Station> convertRouteStationsToStations(List<RouteStation> routeStations) {
@@ -2564,235 +2134,100 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         return stations;
     }
 
-    private List<Station> buildAllStationsForRouting() {
-        List<Station> allStations = new ArrayList<>(stations);
-        allStations.addAll(suburbanStations);
-        allStations.addAll(riverTramStations);
-        if (tramStations != null) {
-            allStations.addAll(tramStations);
-        }
-        return allStations;
-    }
-
-    private Map<Station, List<Station.Neighbor>> buildRoutingAdjacency(List<Station> allStations) {
-        Map<Station, List<Station.Neighbor>> adjacency = new HashMap<>();
-        for (Station station : allStations) {
-            adjacency.put(station, new ArrayList<>());
+    private void compileRoutingGraph() {
+        // Порядок линий совпадает с порядком поиска линий станции: метро, электрички, речной трамвай, трамвай
+        List<Line> routingLines = new ArrayList<>(lines);
+        routingLines.addAll(suburbanLines);
+        routingLines.addAll(riverTramLines);
+        if (tramLines != null) {
+            routingLines.addAll(tramLines);
         }
-
-        for (Station station : allStations) {
-            if (station.getNeighbors() == null) {
-                continue;
-            }
-            for (Station.Neighbor neighbor : station.getNeighbors()) {
-                adjacency.get(station).add(new Station.Neighbor(neighbor.getStation(), neighbor.getTime()));
-            }
-        }
-
-        List<Transfer> allTransfers = new ArrayList<>();
+        List<Transfer> routingTransfers = new ArrayList<>();
         if (transfers != null) {
-            allTransfers.addAll(transfers);
+            routingTransfers.addAll(transfers);
         }
         if (suburbanTransfers != null) {
-            allTransfers.addAll(suburbanTransfers);
+            routingTransfers.addAll(suburbanTransfers);
         }
         if (riverTramTransfers != null) {
-            allTransfers.addAll(riverTramTransfers);
+            routingTransfers.addAll(riverTramTransfers);
         }
         if (tramTransfers != null) {
-            allTransfers.addAll(tramTransfers);
-        }
-
-        for (Transfer transfer : allTransfers) {
-            List<Station> transferStations = transfer.getStations();
-            if (transferStations == null || transferStations.size() < 2) {
-                continue;
-            }
-            int cost = Math.max(1, transfer.getTime());
-            for (int i = 0; i < transferStations.size(); i++) {
-                Station stationFrom = transferStations.get(i);
-                for (int j = 0; j < transferStations.size(); j++) {
-                    if (i == j) {
-                        continue;
-                    }
-                    Station stationTo = transferStations.get(j);
-                    
-                    // ВАЖНО: не добавляем transfer-связь, если станции уже связаны через neighbors
-                    // Это предотвращает создание переходов там, где их не должно быть
-                    boolean alreadyNeighbors = false;
-                    if (stationFrom.getNeighbors() != null) {
-                        for (Station.Neighbor neighbor : stationFrom.getNeighbors()) {
-                            if (neighbor.getStation() != null && neighbor.getStation().getId() != null
-                                && stationTo.getId() != null
-                                && neighbor.getStation().getId().equals(stationTo.getId())) {
-                                alreadyNeighbors = true;
-                                break;
-                            }
-                        }
-                    }
-                    if (alreadyNeighbors) {
-                        // Станции уже связаны через neighbors - пропускаем transfer
-                        continue;
-                    }
-                    
-                    if (!adjacency.containsKey(stationFrom)) {
-                        adjacency.put(stationFrom, new ArrayList<>());
-                    }
-                    adjacency.get(stationFrom).add(new Station.Neighbor(stationTo, cost));
-                }
-            }
-        }
-
-        // Для смежных станций (с одинаковым ID) объединяем neighbors
-        // Это гарантирует, что все варианты смежной станции имеют одинаковые neighbors
-        Map<String, List<Station>> stationsById = new HashMap<>();
-        for (Station station : allStations) {
-            if (station.getId() != null) {
-                stationsById.computeIfAbsent(station.getId(), k -> new ArrayList<>()).add(station);
-            }
-        }
-
-        for (Map.Entry<String, List<Station>> entry : stationsById.entrySet()) {
-            List<Station> stationsWithSameId = entry.getValue();
-            if (stationsWithSameId.size() > 1) {
-                // Это смежные станции - объединяем их neighbors
-                List<Station.Neighbor> allNeighbors = new ArrayList<>();
-                Set<String> addedNeighborIds = new HashSet<>();
-                
-                // Собираем всех neighbors из всех вариантов станции
-                for (Station station : stationsWithSameId) {
-                    List<Station.Neighbor> stationNeighbors = adjacency.get(station);
-                    if (stationNeighbors != null) {
-                        for (Station.Neighbor neighbor : stationNeighbors) {
-                            if (neighbor.getStation() != null && neighbor.getStation().getId() != null) {
-                                String neighborId = neighbor.getStation().getId();
-                                if (!addedNeighborIds.contains(neighborId)) {
-                                    allNeighbors.add(neighbor);
-                                    addedNeighborIds.add(neighborId);
-                                }
-                            }
-                        }
-                    }
-                }
-                
-                // Применяем объединенные neighbors ко всем вариантам смежной станции
-                for (Station station : stationsWithSameId) {
-                    adjacency.put(station, new ArrayList<>(allNeighbors));
-                }
-            }
+            routingTransfers.addAll(tramTransfers);
         }
-
-        return adjacency;
+        RoutingEngine.getInstance().setLineHeadways(buildLineHeadways());
+        TransitGraph graph = RoutingEngine.getInstance().loadMap(buildAllStationsForRouting(), routingLines, routingTransfers);
+        Log.d("MainActivity", "Routing graph compiled: " + graph.getStationCount() + " stations, "
+                + graph.getStateCount() + " states, " + graph.getEdgeCount() + " edges");
     }
 
-    private int getFastestEdgeCost(Station currentStation, Station.Neighbor neighbor) {
-        return neighbor.getTime();
+    private Map<String, Integer> buildLineHeadways() {
+        // Линии разных слоёв с одинаковым ID — одна линия; приоритет у метро, как и при поиске линий
+        Map<String, Integer> headways = new HashMap<>();
+        putLineHeadways(headways, tramLines, TRAM_HEADWAY);
+        putLineHeadways(headways, riverTramLines, RIVER_TRAM_HEADWAY);
+        putLineHeadways(headways, suburbanLines, SUBURBAN_HEADWAY);
+        putLineHeadways(headways, lines, METRO_HEADWAY);
+        return headways;
     }
 
-    private int getFewTransfersEdgeCost(Station currentStation, Station.Neighbor neighbor) {
-        Station neighborStation = neighbor.getStation();
-        if (currentStation == null || neighborStation == null) {
-            return neighbor.getTime();
+    private static void putLineHeadways(Map<String, Integer> headways, List<Line> layerLines, int headway) {
+        if (layerLines == null) {
+            return;
         }
-        
-        // Проверяем, является ли связь neighbors-связью
-        boolean isNeighborConnection = false;
-        if (currentStation.getNeighbors() != null) {
-            for (Station.Neighbor n : currentStation.getNeighbors()) {
-                if (n.getStation() != null && n.getStation().getId() != null 
-                    && neighborStation.getId() != null 
-                    && n.getStation().getId().equals(neighborStation.getId())) {
-                    isNeighborConnection = true;
-                    break;
-                }
+        for (Line line : layerLines) {
+            if (line != null && line.getId() != null) {
+                headways.put(line.getId(), headway);
             }
         }
-        
-        // Если это neighbors-связь, не добавляем штраф за переход между линиями
-        if (isNeighborConnection) {
-            return neighbor.getTime();
-        }
-        
-        // Для transfers проверяем изменение цвета линии
-        // ВАЖНО: штраф за переход уже применяется в findRouteWithStrategy,
-        // здесь мы не добавляем его снова, чтобы избежать двойного штрафа
-        return neighbor.getTime();
     }
 
-    private int countTransfersInRoute(List<RouteStation> route) {
-        if (route == null || route.size() < 2) {
-            return 0;
-        }
-        
-        int transfers = 0;
-        for (int i = 1; i < route.size(); i++) {
-            RouteStation prevRouteStation = route.get(i - 1);
-            RouteStation currentRouteStation = route.get(i);
-            
-            if (prevRouteStation == null || currentRouteStation == null) {
-                continue;
-            }
-            
-            Line prevLine = prevRouteStation.getLine();
-            Line currentLine = currentRouteStation.getLine();
-            
-            if (prevLine != null && currentLine != null && !prevLine.getId().equals(currentLine.getId())) {
-                transfers++;
-            }
+    private List<Station> buildAllStationsForRouting() {
+        List<Station> allStations = new ArrayList<>(stations);
+        allStations.addAll(suburbanStations);
+        allStations.addAll(riverTramStations);
+        if (tramStations != null) {
+            allStations.addAll(tramStations);
         }
-        
-        return transfers;
+        return allStations;
     }
 
     private void rebuildRouteIfPossible() {
-        if (selectedStartStation != null && selectedEndStation != null) {
-            if (metroMapView != null) {
-                metroMapView.clearRoute();
+        if (metroMapView != null) {
+            metroMapView.clearRoute();
+        }
+        if (selectedStartStation == null || selectedEndStation == null) {
+            routeScheduler.cancel();
+            return;
+        }
+        Station start = selectedStartStation;
+        Station end = selectedEndStation;
+        // Граф в ключе: после смены карты тот же запрос нужно считать заново
+        Object key = Arrays.asList(start.getId(), end.getId(), RoutingEngine.getInstance().getGraph());
+        routeScheduler.submit(key, () -> findRouteVariants(start, end), variants -> {
+            if (variants == null) {
+                return;
             }
-            List<RouteStation> fastestRoute = findOptimalRoute(selectedStartStation, selectedEndStation);
-            
-            // Вычисляем время быстрого маршрута и устанавливаем лимит для маршрута с минимальными пересадками
-            List<RouteStation> fewTransfersRoute = null;
-            if (fastestRoute != null && !fastestRoute.isEmpty()) {
-                int fastestTime = calculateRouteTime(fastestRoute);
-                int maxTimeForFewTransfers = (int) (fastestTime * 1.2); // На 40% больше
-                Log.d("MainActivity", "Быстрый маршрут: время = " + fastestTime + ", макс. время для мин. пересадок = " + maxTimeForFewTransfers);
-                fewTransfersRoute = findRouteWithFewTransfers(selectedStartStation, selectedEndStation, maxTimeForFewTransfers);
-                
-                // Если маршрут с минимальными пересадками не найден или превышает лимит, используем быстрый
-                if (fewTransfersRoute == null || fewTransfersRoute.isEmpty()) {
-                    Log.d("MainActivity", "Маршрут с минимальными пересадками не найден в пределах лимита, используем быстрый");
-                    fewTransfersRoute = fastestRoute;
-                } else {
-                    int fewTransfersTime = calculateRouteTime(fewTransfersRoute);
-                    if (fewTransfersTime > maxTimeForFewTransfers) {
-                        Log.d("MainActivity", "Маршрут с минимальными пересадками превышает лимит (" + fewTransfersTime + " > " + maxTimeForFewTransfers + "), используем быстрый");
-                        fewTransfersRoute = fastestRoute;
-                    }
-                }
-            } else {
-                // Если быстрый маршрут не найден, пробуем найти маршрут с минимальными пересадками без ограничения
-                fewTransfersRoute = findRouteWithFewTransfers(selectedStartStation, selectedEndStation);
+            RouteCache routeCache = RoutingEngine.getInstance().getRouteCache();
+            Log.d("MainActivity", "Найдено маршрутов: " + variants.getRoutes().size()
+                    + " (альтернативных: " + (variants.getRoutes().size() - variants.getParetoStart() - variants.getParetoCount())
+                    + "), кеш маршрутов: "
+                    + routeCache.getHitCount() + " попаданий, " + routeCache.getMissCount() + " промахов");
+            if (RouteTrace.ENABLED) {
+                Log.d("ROUTE_INFO", RoutingEngine.getInstance().dumpTrace());
             }
-            
-            if (fastestRoute != null && !fastestRoute.isEmpty()) {
+            if (!variants.isEmpty()) {
                 if (metroMapView != null) {
-                    metroMapView.setRouteFromRouteStations(fastestRoute);
+                    metroMapView.setRouteFromRouteStations(variants.getRoutes().get(0));
                 }
-                showRouteInfo(fastestRoute, fewTransfersRoute);
-            } else {
-                if (metroMapView != null) {
-                    metroMapView.clearRoute();
-                }
-            }
-        } else {
-            if (metroMapView != null) {
-                metroMapView.clearRoute();
+                showRouteVariants(variants);
+                showServiceWaitNotice(variants.getScheduledRoute());
             }
-        }
+        });
     }
 
     public void clearRouteInputs() {
+        routeScheduler.cancel();
         if (metroMapView != null) {
             metroMapView.clearRoute();
         }
@@ -2846,42 +2281,12 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         return routeLineMap;
     }
 
-    private void showRouteInfo(List<RouteStation> fastestRoute, List<RouteStation> fewTransfersRoute) {
+    private void showRouteVariants(RouteVariants variants) {
         clearFrameLayout();
+        List<List<RouteStation>> routes = variants.getRoutes();
         
-        if (fastestRoute == null || fewTransfersRoute == null || 
-            fastestRoute.isEmpty() || fewTransfersRoute.isEmpty()) {
-            List<RouteStation> routeToUse = fastestRoute != null && !fastestRoute.isEmpty() ? fastestRoute : fewTransfersRoute;
-            List<Station> stationRoute = convertRouteStationsToStations(routeToUse);
-            Map<Station, Line> routeLineMap = createRouteLineMap(routeToUse);
-            RouteInfoFragment routeInfoFragment = RouteInfoFragment.newInstance(
-                    stationRoute,
-                metroMapView,
-                this
-        );
-            routeInfoFragment.setRouteLineMap(routeLineMap);
-        getSupportFragmentManager().beginTransaction()
-                .replace(R.id.frameLayout, routeInfoFragment)
-                .commit();
-            LinearLayout routePagerDots = findViewById(R.id.routePagerDots);
-            if (routePagerDots != null) {
-                routePagerDots.setVisibility(View.GONE);
-            }
-            return;
-        }
-        
-        boolean routesAreEqual = fastestRoute.size() == fewTransfersRoute.size();
-        if (routesAreEqual) {
-            for (int i = 0; i < fastestRoute.size(); i++) {
-                if (!fastestRoute.get(i).getStation().getId().equals(fewTransfersRoute.get(i).getStation().getId())) {
-                    routesAreEqual = false;
-                    break;
-                }
-            }
-        }
-        
-        if (routesAreEqual) {
-            List<RouteStation> routeToUse = fastestRoute != null && !fastestRoute.isEmpty() ? fastestRoute : fewTransfersRoute;
+        if (routes.size() == 1) {
+            List<RouteStation> routeToUse = routes.get(0);
             List<Station> stationRoute = convertRouteStationsToStations(routeToUse);
             Map<Station, Line> routeLineMap = createRouteLineMap(routeToUse);
             RouteInfoFragment routeInfoFragment = RouteInfoFragment.newInstance(
@@ -2916,8 +2321,7 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         
         RoutePagerAdapter routePagerAdapter = new RoutePagerAdapter(
                 this,
-                fastestRoute,
-                fewTransfersRoute,
+                variants,
                 metroMapView,
                 this
         );
@@ -2926,8 +2330,8 @@ public class MainActivity extends AppCompatActivity implements MetroMapView.OnSt
         
         addRoutePagerDots(routePager, routePagerAdapter);
         
-        if (metroMapView != null && !fastestRoute.isEmpty()) {
-            metroMapView.setRouteFromRouteStations(fastestRoute);
+        if (metroMapView != null) {
+            metroMapView.setRouteFromRouteStations(routes.get(0));
         }
     }
 
@@ -2,6 +2,7 @@ package com.nicorp.nimetro.presentation.activities;
 
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -14,6 +15,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
 
 import com.bumptech.glide.Glide;
+import com.google.android.material.materialswitch.MaterialSwitch;
 import com.nicorp.nimetro.R;
 import com.nicorp.nimetro.domain.entities.MetroMapItem;
 import com.nicorp.nimetro.presentation.dialogs.SelectMetroMapDialog;
@@ -31,6 +33,9 @@ public class SettingsActivity extends AppCompatActivity {
     private TextView currentMetroMapName;
     private ImageView currentMetroMapIcon;
     private RadioGroup themeRadioGroup;
+    private MaterialSwitch renderNodeLayersSwitch;
+    private MaterialSwitch precomputeTravelTimesSwitch;
+    private MaterialSwitch scheduleAwareRoutingSwitch;
     private SharedPreferences sharedPreferences;
     private LinearLayout currentMetroMapLayout;
     private androidx.appcompat.widget.Toolbar toolbar;
@@ -59,6 +64,9 @@ public class SettingsActivity extends AppCompatActivity {
         currentMetroMapName = findViewById(R.id.currentMetroMapName);
         currentMetroMapIcon = findViewById(R.id.currentMetroMapIcon);
         themeRadioGroup = findViewById(R.id.themeRadioGroup);
+        renderNodeLayersSwitch = findViewById(R.id.renderNodeLayersSwitch);
+        precomputeTravelTimesSwitch = findViewById(R.id.precomputeTravelTimesSwitch);
+        scheduleAwareRoutingSwitch = findViewById(R.id.scheduleAwareRoutingSwitch);
         currentMetroMapLayout = findViewById(R.id.currentMetroMapLayout);
     }
 
@@ -86,6 +94,16 @@ public class SettingsActivity extends AppCompatActivity {
 
         String selectedTheme = sharedPreferences.getString("selected_theme", "light");
         setTheme(selectedTheme);
+
+        // Слои карты в RenderNode доступны только с Android 10
+        renderNodeLayersSwitch.setChecked(sharedPreferences.getBoolean("render_node_layers", true));
+        renderNodeLayersSwitch.setEnabled(Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q);
+
+        // Матрица времён в пути занимает место в кеше и считается в фоне после загрузки карты, поэтому выключена по умолчанию
+        precomputeTravelTimesSwitch.setChecked(sharedPreferences.getBoolean("precompute_travel_times", false));
+
+        // Маршруты по расписанию учитывают текущее время; выключенные ищутся по средним временам в пути
+        scheduleAwareRoutingSwitch.setChecked(sharedPreferences.getBoolean("schedule_aware_routing", true));
     }
 
     /**
@@ -97,6 +115,15 @@ public class SettingsActivity extends AppCompatActivity {
             saveTheme(theme);
         });
 
+        renderNodeLayersSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                sharedPreferences.edit().putBoolean("render_node_layers", isChecked).apply());
+
+        precomputeTravelTimesSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                sharedPreferences.edit().putBoolean("precompute_travel_times", isChecked).apply());
+
+        scheduleAwareRoutingSwitch.setOnCheckedChangeListener((buttonView, isChecked) ->
+                sharedPreferences.edit().putBoolean("schedule_aware_routing", isChecked).apply());
+
         currentMetroMapLayout.setOnClickListener(v -> onCurrentMetroMapClick(v));
         
         // Обработчик для левой кнопки (главный экран)
@@ -8,6 +8,7 @@ import androidx.viewpager2.adapter.FragmentStateAdapter;
 import com.nicorp.nimetro.domain.entities.Line;
 import com.nicorp.nimetro.domain.entities.RouteStation;
 import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.domain.routing.RouteVariants;
 import com.nicorp.nimetro.presentation.activities.MainActivity;
 import com.nicorp.nimetro.presentation.fragments.RouteInfoFragment;
 import com.nicorp.nimetro.presentation.views.MetroMapView;
@@ -20,22 +21,28 @@ import java.util.Map;
 public class RoutePagerAdapter extends FragmentStateAdapter {
     public enum RouteType {
         FASTEST,
-        FEW_TRANSFERS
+        BALANCED,
+        FEW_TRANSFERS,
+        ALTERNATIVE,
+        SCHEDULED
     }
 
-    private final List<RouteStation> fastestRoute;
-    private final List<RouteStation> fewTransfersRoute;
+    // Маршрут с учётом времени отправления, если он отдельный, затем Парето-оптимальные маршруты
+    // от самого быстрого к маршруту с минимумом пересадок, затем альтернативные
+    private final List<List<RouteStation>> routes;
+    private final int paretoStart;
+    private final int paretoCount;
     private final MetroMapView metroMapView;
     private final MainActivity mainActivity;
 
     public RoutePagerAdapter(@NonNull FragmentActivity fragmentActivity,
-                             List<RouteStation> fastestRoute,
-                             List<RouteStation> fewTransfersRoute,
+                             RouteVariants variants,
                              MetroMapView metroMapView,
                              MainActivity mainActivity) {
         super(fragmentActivity);
-        this.fastestRoute = fastestRoute;
-        this.fewTransfersRoute = fewTransfersRoute;
+        this.routes = variants.getRoutes();
+        this.paretoStart = variants.getParetoStart();
+        this.paretoCount = variants.getParetoCount();
         this.metroMapView = metroMapView;
         this.mainActivity = mainActivity;
     }
@@ -43,20 +50,10 @@ public class RoutePagerAdapter extends FragmentStateAdapter {
     @NonNull
     @Override
     public Fragment createFragment(int position) {
-        List<Station> fastestStationRoute = convertRouteStationsToStations(fastestRoute);
-        List<Station> fewTransfersStationRoute = convertRouteStationsToStations(fewTransfersRoute);
-        RouteInfoFragment fragment;
-        if (position == 0) {
-            fragment = RouteInfoFragment.newInstanceWithVariants(
-                    fastestStationRoute, fewTransfersStationRoute, metroMapView, mainActivity, RouteType.FASTEST);
-            Map<Station, Line> routeLineMap = createRouteLineMap(fastestRoute);
-            fragment.setRouteLineMap(routeLineMap);
-        } else {
-            fragment = RouteInfoFragment.newInstanceWithVariants(
-                    fastestStationRoute, fewTransfersStationRoute, metroMapView, mainActivity, RouteType.FEW_TRANSFERS);
-            Map<Station, Line> routeLineMap = createRouteLineMap(fewTransfersRoute);
-            fragment.setRouteLineMap(routeLineMap);
-        }
+        List<RouteStation> route = routes.get(position);
+        RouteInfoFragment fragment = RouteInfoFragment.newInstance(
+                convertRouteStationsToStations(route), metroMapView, mainActivity, getRouteTypeAtPosition(position));
+        fragment.setRouteLineMap(createRouteLineMap(route));
         return fragment;
     }
     
@@ -74,14 +71,12 @@ public class RoutePagerAdapter extends FragmentStateAdapter {
 
     @Override
     public int getItemCount() {
-        return 2;
+        return routes.size();
     }
 
     public List<RouteStation> getRouteAtPosition(int position) {
-        if (position == 0) {
-            return fastestRoute;
-        } else if (position == 1) {
-            return fewTransfersRoute;
+        if (position >= 0 && position < routes.size()) {
+            return routes.get(position);
         }
         return null;
     }
@@ -100,12 +95,17 @@ public class RoutePagerAdapter extends FragmentStateAdapter {
     }
 
     public RouteType getRouteTypeAtPosition(int position) {
-        if (position == 0) {
+        if (position < paretoStart) {
+            return RouteType.SCHEDULED;
+        }
+        int paretoPosition = position - paretoStart;
+        if (paretoPosition >= paretoCount) {
+            return RouteType.ALTERNATIVE;
+        } else if (paretoPosition <= 0) {
             return RouteType.FASTEST;
-        } else if (position == 1) {
+        } else if (paretoPosition == paretoCount - 1) {
             return RouteType.FEW_TRANSFERS;
         }
-        return RouteType.FASTEST;
+        return RouteType.BALANCED;
     }
 }
-
@@ -10,6 +10,7 @@ import androidx.viewpager2.adapter.FragmentStateAdapter;
 import com.nicorp.nimetro.domain.entities.Line;
 import com.nicorp.nimetro.domain.entities.Station;
 import com.nicorp.nimetro.domain.entities.Transfer;
+import com.nicorp.nimetro.domain.routing.MapIndex;
 import com.nicorp.nimetro.presentation.fragments.StationInfoFragment;
 
 import java.util.ArrayList;
@@ -27,6 +28,7 @@ public class StationPagerAdapter extends FragmentStateAdapter {
     private final List<Line> grayedLines;
     private final StationInfoFragment.OnStationInfoListener listener;
     private final List<TransferStationEntry> transferStationEntries;
+    private final MapIndex mapIndex;
 
     public StationPagerAdapter(@NonNull FragmentActivity fragmentActivity,
                                Station mainStation,
@@ -46,6 +48,7 @@ public class StationPagerAdapter extends FragmentStateAdapter {
         this.lines = lines;
         this.grayedLines = grayedLines;
         this.listener = listener;
+        this.mapIndex = MapIndex.build(lines, grayedLines);
         this.transferStationEntries = buildTransferStationEntries(mainStation, transfers);
     }
 
@@ -164,17 +167,7 @@ public class StationPagerAdapter extends FragmentStateAdapter {
     }
 
     private Line findLineForStation(Station station) {
-        for (Line line : lines) {
-            if (line.getStations().contains(station)) {
-                return line;
-            }
-        }
-        for (Line line : grayedLines) {
-            if (line.getStations().contains(station)) {
-                return line;
-            }
-        }
-        return null;
+        return mapIndex.getLineContaining(station);
     }
 
     private Station findPrevStation(Line line, Station station) {
@@ -66,6 +66,9 @@ import com.nicorp.nimetro.domain.entities.Tariff;
 import com.nicorp.nimetro.domain.entities.TariffCallback;
 import com.nicorp.nimetro.domain.entities.Transfer;
 import com.nicorp.nimetro.domain.entities.TransferRoute;
+import com.nicorp.nimetro.domain.routing.MapIndex;
+import com.nicorp.nimetro.domain.routing.RoutingEngine;
+import com.nicorp.nimetro.domain.routing.StationLocator;
 import com.nicorp.nimetro.presentation.activities.MainActivity;
 import com.nicorp.nimetro.presentation.adapters.RoutePagerAdapter;
 import com.nicorp.nimetro.presentation.adapters.TrainInfoAdapter;
@@ -82,7 +85,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -112,6 +114,8 @@ public class RouteInfoFragment extends Fragment {
     private Station previousStation = null;
 
     private List<Station> route;
+    // Станции маршрута с координатами — для поиска ближайшей к пользователю
+    private StationLocator routeLocator = StationLocator.EMPTY;
     private Map<Station, Line> routeLineMap; // Карта станций к линиям для правильного отображения
     private RoutePagerAdapter.RouteType routeType;
     private TextToSpeech textToSpeech;
@@ -183,11 +187,10 @@ public class RouteInfoFragment extends Fragment {
         return fragment;
     }
 
-    public static RouteInfoFragment newInstanceWithVariants(List<Station> fastestRoute, List<Station> fewTransfersRoute, MetroMapView metroMapView, MainActivity mainActivity, RoutePagerAdapter.RouteType routeType) {
+    public static RouteInfoFragment newInstance(List<Station> route, MetroMapView metroMapView, MainActivity mainActivity, RoutePagerAdapter.RouteType routeType) {
         RouteInfoFragment fragment = new RouteInfoFragment();
         Bundle args = new Bundle();
-        List<Station> routeToUse = routeType == RoutePagerAdapter.RouteType.FASTEST ? fastestRoute : fewTransfersRoute;
-        args.putParcelable(ARG_ROUTE, new Route(routeToUse));
+        args.putParcelable(ARG_ROUTE, new Route(route));
         args.putString(ARG_ROUTE_TYPE, routeType.name());
         fragment.metroMapView = metroMapView;
         fragment.mainActivity = mainActivity;
@@ -205,6 +208,7 @@ public class RouteInfoFragment extends Fragment {
             Route routeParcelable = getArguments().getParcelable(ARG_ROUTE);
             if (routeParcelable != null) {
                 route = routeParcelable.getStations();
+                routeLocator = StationLocator.build(route);
             }
             String routeTypeString = getArguments().getString(ARG_ROUTE_TYPE);
             if (routeTypeString != null) {
@@ -1058,6 +1062,13 @@ public class RouteInfoFragment extends Fragment {
                 }
             }
             
+            // Время перегона или перехода берём из скомпилированного графа
+            int travelTime = RoutingEngine.getInstance().getTravelTime(currentStation, nextStation);
+            if (travelTime >= 0) {
+                totalTime += travelTime;
+                continue;
+            }
+
             // Ищем время между текущей и следующей станцией через neighbors
             boolean found = false;
             if (currentStation.getNeighbors() != null && !currentStation.getNeighbors().isEmpty()) {
@@ -1247,18 +1258,7 @@ public class RouteInfoFragment extends Fragment {
     }
 
     private Station findNearestStation(double userLatitude, double userLongitude) {
-        Station nearestStation = null;
-        double minDistance = Double.MAX_VALUE;
-
-        for (Station station : route) {
-            double distance = station.distanceTo(userLatitude, userLongitude);
-            if (distance < minDistance) {
-                minDistance = distance;
-                nearestStation = station;
-            }
-        }
-
-        return nearestStation;
+        return routeLocator.findNearest(userLatitude, userLongitude);
     }
 
     private void initializeViews(View view, int colorOnSurface) {
@@ -1331,7 +1331,24 @@ public class RouteInfoFragment extends Fragment {
             summaryRouteStations.setText(stationsText);
 
             if (routeTypeLabel != null && routeType != null) {
-                String routeTypeText = routeType == RoutePagerAdapter.RouteType.FASTEST ? "Быстрый" : "Мин. пересадок";
+                String routeTypeText;
+                switch (routeType) {
+                    case FASTEST:
+                        routeTypeText = "Быстрый";
+                        break;
+                    case BALANCED:
+                        routeTypeText = "Сбалансированный";
+                        break;
+                    case ALTERNATIVE:
+                        routeTypeText = "Альтернативный";
+                        break;
+                    case SCHEDULED:
+                        routeTypeText = "С учётом времени";
+                        break;
+                    default:
+                        routeTypeText = "Мин. пересадок";
+                        break;
+                }
                 routeTypeLabel.setText(routeTypeText);
                 routeTypeLabel.setVisibility(View.VISIBLE);
             }
@@ -1410,30 +1427,25 @@ public class RouteInfoFragment extends Fragment {
             Line previousLine = routeLineMap.get(previousStation);
             if (previousLine != null) {
                 // Проверяем, есть ли текущая станция на той же линии, что и предыдущая
-                for (Station lineStation : previousLine.getStations()) {
-                    if (lineStation != null && lineStation.getId() != null && station.getId() != null
-                        && lineStation.getId().equals(station.getId())) {
-                        Log.d("RouteUpdate", "Found line for station " + station.getName() + " (" + station.getId() + 
-                              ") based on previous station context: " + previousLine.getName());
-                        return previousLine;
-                    }
+                if (mainActivity.getMapIndex().findStationInLine(station, previousLine) != null) {
+                    Log.d("RouteUpdate", "Found line for station " + station.getName() + " (" + station.getId() + 
+                          ") based on previous station context: " + previousLine.getName());
+                    return previousLine;
                 }
             }
         }
         
         // Fallback: ищем все линии для станции
-        List<Line> allLines = findAllLinesForStation(station);
+        MapIndex mapIndex = mainActivity.getMapIndex();
+        List<Line> allLines = mapIndex.getLinesForStation(station);
         if (!allLines.isEmpty()) {
             // Если есть предыдущая станция, предпочитаем линию, на которой есть и предыдущая станция
             if (previousStation != null) {
                 for (Line line : allLines) {
-                    for (Station lineStation : line.getStations()) {
-                        if (lineStation != null && lineStation.getId() != null && previousStation.getId() != null
-                            && lineStation.getId().equals(previousStation.getId())) {
-                            Log.d("RouteUpdate", "Found line for station " + station.getName() + " (" + station.getId() + 
-                                  ") based on previous station: " + line.getName());
-                            return line;
-                        }
+                    if (mapIndex.getPosition(line, previousStation.getId()) >= 0) {
+                        Log.d("RouteUpdate", "Found line for station " + station.getName() + " (" + station.getId() + 
+                              ") based on previous station: " + line.getName());
+                        return line;
                     }
                 }
             }
@@ -1447,36 +1459,6 @@ public class RouteInfoFragment extends Fragment {
         return null;
     }
     
-    private List<Line> findAllLinesForStation(Station station) {
-        List<Line> result = new ArrayList<>();
-        if (station == null || station.getId() == null) {
-            return result;
-        }
-        
-        String stationId = station.getId();
-        Set<String> seenLineIds = new LinkedHashSet<>();
-        
-        List<Line> allLines = mainActivity.getAllLines();
-        if (allLines != null) {
-            for (Line line : allLines) {
-                if (line != null && line.getStations() != null && line.getId() != null) {
-                    if (seenLineIds.contains(line.getId())) {
-                        continue;
-                    }
-                    for (Station s : line.getStations()) {
-                        if (s != null && s.getId() != null && s.getId().equals(stationId)) {
-                            result.add(line);
-                            seenLineIds.add(line.getId());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-        
-        return result;
-    }
-    
     public void setRouteLineMap(Map<Station, Line> routeLineMap) {
         this.routeLineMap = routeLineMap;
     }
@@ -2162,6 +2144,13 @@ public class RouteInfoFragment extends Fragment {
                 }
             }
             
+            // Время перегона или перехода берём из скомпилированного графа
+            int travelTime = RoutingEngine.getInstance().getTravelTime(currentStation, nextStation);
+            if (travelTime >= 0) {
+                totalTime += travelTime;
+                continue;
+            }
+
             // Ищем время между текущей и следующей станцией через neighbors
             boolean found = false;
             if (currentStation.getNeighbors() != null && !currentStation.getNeighbors().isEmpty()) {
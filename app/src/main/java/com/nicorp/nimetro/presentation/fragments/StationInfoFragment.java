@@ -21,6 +21,7 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.FrameLayout;
 import android.widget.LinearLayout;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -39,6 +40,7 @@ import com.nicorp.nimetro.domain.entities.Line;
 import com.nicorp.nimetro.domain.entities.ParallelogramShape;
 import com.nicorp.nimetro.domain.entities.Station;
 import com.nicorp.nimetro.domain.entities.Transfer;
+import com.nicorp.nimetro.domain.routing.MapIndex;
 
 import java.io.Serializable;
 import java.time.ZoneId;
@@ -78,6 +80,7 @@ public class StationInfoFragment extends Fragment {
     private Station nextStation;
     private OnStationInfoListener listener;
     private Line selectedLineForStation;
+    private MapIndex mapIndex;
 
     public static StationInfoFragment newInstance(Line line, Station station, Station prevStation, Station nextStation, List<Transfer> transfers, List<Line> lines, List<Line> grayedLines) {
         StationInfoFragment fragment = new StationInfoFragment();
@@ -139,6 +142,8 @@ public class StationInfoFragment extends Fragment {
         ImageView closeButton = view.findViewById(R.id.closeButton);
         closeButton.setOnClickListener(v -> dismiss());
 
+        setupReachabilitySeekBar(view);
+
         setupLinesList(view, station);
 
         fetchESPSchedule(station);
@@ -482,7 +487,7 @@ public class StationInfoFragment extends Fragment {
                 if (neighborId == null || !seenIds.add(neighborId)) {
                     continue;
                 }
-                Station resolved = findStationInLineById(currentLine, neighborId);
+                Station resolved = getMapIndex().findStationInLine(neighborId, currentLine);
                 if (resolved != null) {
                     neighbors.add(resolved);
                 }
@@ -503,16 +508,14 @@ public class StationInfoFragment extends Fragment {
         return neighbors;
     }
 
-    private Station findStationInLineById(Line line, String stationId) {
-        if (line == null || stationId == null || line.getStations() == null) {
-            return null;
-        }
-        for (Station candidate : line.getStations()) {
-            if (candidate != null && stationId.equals(candidate.getId())) {
-                return candidate;
-            }
+    /**
+     * Индекс по линиям фрагмента: сначала активные линии, затем серые.
+     */
+    private MapIndex getMapIndex() {
+        if (mapIndex == null) {
+            mapIndex = MapIndex.build(lines, grayedLines);
         }
-        return null;
+        return mapIndex;
     }
 
     private int resolveThemeColor(int attrRes) {
@@ -653,6 +656,29 @@ public class StationInfoFragment extends Fragment {
         return -1;
     }
 
+    private void setupReachabilitySeekBar(View view) {
+        TextView reachabilityLabel = view.findViewById(R.id.reachabilityLabel);
+        SeekBar reachabilitySeekBar = view.findViewById(R.id.reachabilitySeekBar);
+        reachabilitySeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                reachabilityLabel.setText(progress > 0 ? "Доступно за: " + progress + " мин" : "Доступно за: —");
+                // Изохрона считается за доли миллисекунды, поэтому пересчитывается на каждое изменение
+                if (fromUser && listener != null) {
+                    listener.onReachabilityChanged(station, progress);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+    }
+
     private void onFromButtonClick() {
         if (listener != null) {
             listener.onSetStart(station, null, true);
@@ -809,7 +835,8 @@ public class StationInfoFragment extends Fragment {
         // Добавляем обработчик клика
         transferCircle.setOnClickListener(v -> {
             // Находим линию, к которой принадлежит станция перехода
-            Line transferLine = findLineForStation(transferStation);
+            List<Line> transferLines = getMapIndex().getLinesForStation(transferStation);
+            Line transferLine = transferLines.isEmpty() ? null : transferLines.get(0);
             if (transferLine != null) {
                 // Находим предыдущую и следующую станции на линии
                 Station prevTransferStation = findPrevStation(transferLine, transferStation);
@@ -823,35 +850,6 @@ public class StationInfoFragment extends Fragment {
         return transferCircle;
     }
 
-    private Line findLineForStation(Station station) {
-        if (station == null || station.getId() == null) {
-            return null;
-        }
-        if (lines != null) {
-            for (Line candidateLine : lines) {
-                if (candidateLine != null && candidateLine.getStations() != null) {
-                    for (Station candidateStation : candidateLine.getStations()) {
-                        if (candidateStation != null && station.getId().equals(candidateStation.getId())) {
-                            return candidateLine;
-                        }
-                    }
-                }
-            }
-        }
-        if (grayedLines != null) {
-            for (Line candidateLine : grayedLines) {
-                if (candidateLine != null && candidateLine.getStations() != null) {
-                    for (Station candidateStation : candidateLine.getStations()) {
-                        if (candidateStation != null && station.getId().equals(candidateStation.getId())) {
-                            return candidateLine;
-                        }
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
     private Station findPrevStation(Line line, Station currentStation) {
         List<Station> sortedStations = getSortedStations(line);
         return findNeighborById(sortedStations, currentStation, true);
@@ -932,52 +930,6 @@ public class StationInfoFragment extends Fragment {
         return null;
     }
 
-    private List<Line> findAllLinesForStation(Station station) {
-        List<Line> result = new ArrayList<>();
-        if (station == null || station.getId() == null) {
-            return result;
-        }
-        
-        String stationId = station.getId();
-        Set<String> seenLineIds = new LinkedHashSet<>();
-        
-        if (lines != null) {
-            for (Line l : lines) {
-                if (l != null && l.getStations() != null && l.getId() != null) {
-                    if (seenLineIds.contains(l.getId())) {
-                        continue;
-                    }
-                    for (Station s : l.getStations()) {
-                        if (s != null && s.getId() != null && s.getId().equals(stationId)) {
-                            result.add(l);
-                            seenLineIds.add(l.getId());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-        
-        if (grayedLines != null) {
-            for (Line l : grayedLines) {
-                if (l != null && l.getStations() != null && l.getId() != null) {
-                    if (seenLineIds.contains(l.getId())) {
-                        continue;
-                    }
-                    for (Station s : l.getStations()) {
-                        if (s != null && s.getId() != null && s.getId().equals(stationId)) {
-                            result.add(l);
-                            seenLineIds.add(l.getId());
-                            break;
-                        }
-                    }
-                }
-            }
-        }
-        
-        return result;
-    }
-
     private String getLineIdForStation(Station station) {
         if (lines != null) {
             for (Line line : lines) {
@@ -1205,7 +1157,7 @@ public class StationInfoFragment extends Fragment {
             return;
         }
 
-        List<Line> allLinesForStation = findAllLinesForStation(station);
+        List<Line> allLinesForStation = getMapIndex().getLinesForStation(station);
         if (allLinesForStation == null || allLinesForStation.isEmpty()) {
             lineColorStripContainer.removeAllViews();
             return;
@@ -1216,7 +1168,7 @@ public class StationInfoFragment extends Fragment {
         int totalLayers = allLinesForStation.size();
         for (int i = 0; i < totalLayers; i++) {
             Line line = allLinesForStation.get(i);
-            Station lineStation = findStationInLine(station, line);
+            Station lineStation = getMapIndex().findStationInLine(station, line);
             if (lineStation == null) {
                 lineStation = station;
             }
@@ -1235,25 +1187,12 @@ public class StationInfoFragment extends Fragment {
         }
     }
 
-    private Station findStationInLine(Station station, Line line) {
-        if (station == null || line == null || station.getId() == null || line.getStations() == null) {
-            return null;
-        }
-        String stationId = station.getId();
-        for (Station lineStation : line.getStations()) {
-            if (lineStation != null && lineStation.getId() != null && lineStation.getId().equals(stationId)) {
-                return lineStation;
-            }
-        }
-        return null;
-    }
-
     private void updateStationInfoForLine(Line selectedLine) {
         if (selectedLine == null || station == null || getView() == null) {
             return;
         }
 
-        Station stationForLine = findStationInLine(station, selectedLine);
+        Station stationForLine = getMapIndex().findStationInLine(station, selectedLine);
         if (stationForLine == null) {
             stationForLine = station;
         }
@@ -1290,5 +1229,10 @@ public class StationInfoFragment extends Fragment {
         void onSetStart(Station station, Line line, boolean fromStationInfoFragment);
         void onSetEnd(Station station, Line line, boolean fromStationInfoFragment);
         void onDismiss();
+
+        /**
+         * @param maxMinutes время в пути для изохроны, 0 — скрыть изохрону
+         */
+        void onReachabilityChanged(Station station, int maxMinutes);
     }
 }
\ No newline at end of file
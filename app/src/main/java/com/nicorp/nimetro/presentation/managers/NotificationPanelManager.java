@@ -19,8 +19,12 @@ import com.nicorp.nimetro.domain.entities.NotificationTrigger;
 import com.nicorp.nimetro.domain.entities.StationNotification;
 import com.nicorp.nimetro.data.services.NotificationSyncService;
 import com.nicorp.nimetro.data.exceptions.ApiException;
+import com.nicorp.nimetro.domain.routing.RoutingEngine;
+import com.nicorp.nimetro.routing.RouteClosures;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -97,6 +101,7 @@ public class NotificationPanelManager {
                         }
                     }
                     Log.d(TAG, "Loaded " + notifications.size() + " notifications");
+                    applyRouteClosures();
                     
                     if (context instanceof android.app.Activity) {
                         ((android.app.Activity) context).runOnUiThread(() -> {
@@ -156,6 +161,7 @@ public class NotificationPanelManager {
                 NotificationTrigger.DateRange dateRange = new NotificationTrigger.DateRange(start, end);
                 trigger.setDateRange(dateRange);
             }
+            trigger.setClosed(jsonObject.optBoolean("closed", false));
             
             return trigger;
         } else if ("line".equals(typeStr)) {
@@ -169,7 +175,9 @@ public class NotificationPanelManager {
                 dateRange = new NotificationTrigger.DateRange(start, end);
             }
             
-            return new NotificationTrigger(NotificationTrigger.TriggerType.LINE, lineId, dateRange);
+            NotificationTrigger trigger = new NotificationTrigger(NotificationTrigger.TriggerType.LINE, lineId, dateRange);
+            trigger.setClosed(jsonObject.optBoolean("closed", false));
+            return trigger;
         } else if ("date_range".equals(typeStr)) {
             JSONObject dateRangeObj = jsonObject.getJSONObject("date_range");
             String start = dateRangeObj.getString("start");
@@ -322,6 +330,44 @@ public class NotificationPanelManager {
         return stationNotificationsMap;
     }
 
+    /**
+     * Закрытия для маршрутизации: станции и линии из оповещений с отметкой "closed", действующих сегодня.
+     * Остальные оповещения (ремонт лифтов, изменённые интервалы) только показываются. Закрытие без
+     * диапазона дат не действует: бессрочно закрытая станция отрезала бы маршруты от неё навсегда.
+     */
+    public RouteClosures getActiveRouteClosures() {
+        Set<String> closedStationIds = new HashSet<>();
+        Set<String> closedLineIds = new HashSet<>();
+
+        for (Notification notification : notifications) {
+            NotificationTrigger trigger = notification.getTrigger();
+            if (trigger == null || !trigger.isClosed()) {
+                continue;
+            }
+            NotificationTrigger.DateRange dateRange = trigger.getDateRange();
+            if (dateRange == null || !isDateInRange(dateRange.getStart(), dateRange.getEnd())) {
+                continue;
+            }
+            if (trigger.getType() == NotificationTrigger.TriggerType.STATION && trigger.getStationId() != null) {
+                closedStationIds.add(trigger.getStationId());
+            } else if (trigger.getType() == NotificationTrigger.TriggerType.LINE && trigger.getLineId() != null) {
+                closedLineIds.add(trigger.getLineId());
+            }
+        }
+
+        return new RouteClosures(closedStationIds, closedLineIds, null);
+    }
+
+    /**
+     * Передаёт действующие сегодня закрытия в движок маршрутизации; следующие маршруты их обходят.
+     */
+    public void applyRouteClosures() {
+        RouteClosures closures = getActiveRouteClosures();
+        RoutingEngine.getInstance().setClosures(closures);
+        Log.d(TAG, "Route closures: " + closures.getStationIds().size() + " stations, "
+            + closures.getLineIds().size() + " lines");
+    }
+
     private boolean isDateInRange(String startStr, String endStr) {
         try {
             SimpleDateFormat sdf = new SimpleDateFormat(DATE_FORMAT, Locale.getDefault());
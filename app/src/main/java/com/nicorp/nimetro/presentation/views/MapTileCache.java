@@ -0,0 +1,494 @@
+package com.nicorp.nimetro.presentation.views;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Picture;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Растровый кэш статических слоёв карты: тайлы TILE_SIZE×TILE_SIZE по дискретным уровням масштаба.
+ *
+ * Уровень z соответствует масштабу 2^z, тайл уровня покрывает TILE_SIZE / 2^z единиц координат кэша.
+ * Тайлы рисуются в фоновом потоке воспроизведением Picture со статическими слоями, записанной
+ * в потоке отрисовки, и хранятся в LRU на несколько экранов тайлов, но не больше бюджета в байтах. Пока тайла текущего уровня нет,
+ * вместо него рисуется часть тайла одного из нескольких более крупных уровней; тайлы, которые
+ * нечем заменить, отдаются вызывающему, чтобы он нарисовал их векторно.
+ *
+ * Таблица тайлов хранится в массивах (слоты, цепочки хэш-таблицы и список LRU на индексах),
+ * поэтому кадр, для которого все тайлы готовы, не создаёт объектов. Все поля слотов защищены
+ * монитором кэша: поток отрисовки и фоновый поток держат его только на время обращения к таблице.
+ */
+final class MapTileCache {
+    static final int TILE_SIZE = 256;
+    static final int MIN_LEVEL = -5;
+    static final int MAX_LEVEL = 1;
+    // ARGB_8888
+    static final long TILE_BYTES = 4L * TILE_SIZE * TILE_SIZE;
+
+    // Сколько более крупных уровней просматривается, пока тайл текущего не готов
+    private static final int FALLBACK_LEVELS = 3;
+    // Больше незакрытых тайлов — дешевле нарисовать весь кадр векторно, чем каждый тайл с отсечением
+    private static final int MAX_MISSING_TILES = 6;
+    // Сколько уровней тайлов на весь экран держит LRU: текущий и соседний, через который идёт смена
+    // масштаба, плюс запасные крупные уровни — вместе они меньше трети экрана
+    private static final int CACHED_LEVELS = 3;
+
+    // Один поток на все карты: тайлы рисуются по одному, новые заказы раньше старых
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MapTileWorker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    interface Listener {
+        /**
+         * Вызывается в фоновом потоке, когда готов очередной тайл.
+         */
+        void onTileReady();
+    }
+
+    private final Listener listener;
+    private final Runnable drainTask = this::drain;
+    private final int capacity;
+
+    // Слоты тайлов; bitmaps[slot] == null — тайл заказан, но ещё не нарисован
+    private final long[] keys;
+    private final Bitmap[] bitmaps;
+    private final boolean[] rendering;
+    private final int[] lastUsed;
+    // Цепочки хэш-таблицы по ключу
+    private final int[] buckets;
+    private final int[] chain;
+    // Список LRU: head — последний использованный слот, tail — кандидат на вытеснение
+    private final int[] newer;
+    private final int[] older;
+    private int head = -1;
+    private int tail = -1;
+    private int size;
+
+    private Picture picture;
+    private float originX;
+    private float originY;
+    private final RectF contentBounds = new RectF();
+    private int generation;
+    private int frame;
+    private boolean drainScheduled;
+
+    // План кадра: источник и место каждого видимого тайла, заполняется в draw
+    private final Bitmap[] planBitmaps;
+    private final int[] planDepths;
+    private final int[] planColumns;
+    private final int[] planRows;
+    private final float[] missingRects = new float[4 * MAX_MISSING_TILES];
+    private int missingCount;
+    private final Rect source = new Rect();
+    private final RectF destination = new RectF();
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Размер кэша считается по экрану и ограничивается бюджетом в байтах: тайлов, которые не помещаются
+     * в бюджет, карта рисует векторно.
+     *
+     * @param screenWidth  ширина экрана в пикселях
+     * @param screenHeight высота экрана в пикселях
+     * @param maxBytes     сколько памяти могут занять пиксели тайлов, см. {@link #byteBudget}
+     */
+    MapTileCache(int screenWidth, int screenHeight, long maxBytes, Listener listener) {
+        this.listener = listener;
+        int affordable = (int) Math.min(Integer.MAX_VALUE, maxBytes / TILE_BYTES);
+        capacity = Math.max(16, Math.min(affordable, CACHED_LEVELS * tilesPerScreen(screenWidth, screenHeight)));
+        keys = new long[capacity];
+        bitmaps = new Bitmap[capacity];
+        rendering = new boolean[capacity];
+        lastUsed = new int[capacity];
+        chain = new int[capacity];
+        newer = new int[capacity];
+        older = new int[capacity];
+        buckets = new int[Integer.highestOneBit(capacity) * 4];
+        Arrays.fill(buckets, -1);
+        planBitmaps = new Bitmap[capacity / 2];
+        planDepths = new int[capacity / 2];
+        planColumns = new int[capacity / 2];
+        planRows = new int[capacity / 2];
+    }
+
+    /**
+     * С API 26 пиксели Bitmap лежат в нативной памяти и куча Java их не ограничивает, поэтому бюджет —
+     * доля класса памяти приложения: четверть, на устройствах с малым объёмом памяти — восьмая часть.
+     *
+     * @return сколько байт могут занять пиксели тайлов
+     */
+    static long byteBudget(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long memoryClassBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+        return activityManager.isLowRamDevice() ? memoryClassBytes / 8 : memoryClassBytes / 4;
+    }
+
+    /**
+     * Тайл уровня показывается не мельче TILE_SIZE / √2 пикселей, и по краям видны ещё частично
+     * попавшие тайлы. От поворота экрана число не меняется.
+     *
+     * @return сколько тайлов одного уровня может оказаться на экране
+     */
+    static int tilesPerScreen(int screenWidth, int screenHeight) {
+        double tileSize = TILE_SIZE / Math.sqrt(2);
+        int columns = (int) Math.ceil(screenWidth / tileSize) + 1;
+        int rows = (int) Math.ceil(screenHeight / tileSize) + 1;
+        return columns * rows;
+    }
+
+    /**
+     * @return уровень, чьи тайлы при масштабе scale показываются не крупнее чем в √2 раз
+     */
+    static int levelFor(float scale) {
+        int level = Math.round((float) (Math.log(scale) / Math.log(2)));
+        return Math.max(MIN_LEVEL, Math.min(MAX_LEVEL, level));
+    }
+
+    /**
+     * Заменяет содержимое слоя: прежние тайлы отбрасываются, в том числе те, что рисуются сейчас.
+     *
+     * @param picture запись статических слоёв, сдвинутая так, что (originX, originY) — её начало координат
+     * @param bounds  область координат кэша, вне которой слой пуст
+     */
+    synchronized void reset(Picture picture, float originX, float originY, RectF bounds) {
+        clear();
+        this.picture = picture;
+        this.originX = originX;
+        this.originY = originY;
+        contentBounds.set(bounds);
+    }
+
+    /**
+     * Отбрасывает все тайлы; до следующего reset кэш ничего не рисует.
+     */
+    synchronized void clear() {
+        generation++;
+        picture = null;
+        Arrays.fill(buckets, -1);
+        for (int slot = 0; slot < size; slot++) {
+            release(slot);
+        }
+        Arrays.fill(planBitmaps, null);
+        head = -1;
+        tail = -1;
+        size = 0;
+    }
+
+    synchronized boolean isReady() {
+        return picture != null;
+    }
+
+    /**
+     * Рисует тайлы уровня level, покрывающие прямоугольник в координатах кэша; canvas уже переведён
+     * в координаты кэша. Недостающие тайлы заказываются фоновому потоку.
+     *
+     * @return false, если тайлов больше, чем помещается в кэш, или незакрытых слишком много: тогда
+     *         не нарисовано ничего. При true незакрытые тайлы — {@link #getMissingCount()}
+     */
+    boolean draw(Canvas canvas, int level, float left, float top, float right, float bottom) {
+        float tileWorldSize = tileWorldSize(level);
+        int columns;
+        int planned;
+        boolean schedule = false;
+        synchronized (this) {
+            missingCount = 0;
+            if (picture == null) {
+                return false;
+            }
+            left = Math.max(left, contentBounds.left);
+            top = Math.max(top, contentBounds.top);
+            right = Math.min(right, contentBounds.right);
+            bottom = Math.min(bottom, contentBounds.bottom);
+            if (left > right || top > bottom) {
+                return true;
+            }
+            int fromColumn = (int) Math.floor(left / tileWorldSize);
+            int toColumn = (int) Math.floor(right / tileWorldSize);
+            int fromRow = (int) Math.floor(top / tileWorldSize);
+            int toRow = (int) Math.floor(bottom / tileWorldSize);
+            columns = toColumn - fromColumn + 1;
+            planned = columns * (toRow - fromRow + 1);
+            if (planned > planBitmaps.length) {
+                return false;
+            }
+            frame++;
+            int missing = 0;
+            for (int k = 0; k < planned; k++) {
+                int column = fromColumn + k % columns;
+                int row = fromRow + k / columns;
+                planColumns[k] = column;
+                planRows[k] = row;
+                planDepths[k] = 0;
+                planBitmaps[k] = null;
+                long key = key(level, column, row);
+                int slot = find(key);
+                if (slot < 0) {
+                    slot = insert(key);
+                    schedule = true;
+                }
+                touch(slot);
+                if (bitmaps[slot] != null) {
+                    planBitmaps[k] = bitmaps[slot];
+                    continue;
+                }
+                for (int depth = 1; depth <= FALLBACK_LEVELS && level - depth >= MIN_LEVEL; depth++) {
+                    int coarse = find(key(level - depth, column >> depth, row >> depth));
+                    if (coarse >= 0 && bitmaps[coarse] != null) {
+                        touch(coarse);
+                        planBitmaps[k] = bitmaps[coarse];
+                        planDepths[k] = depth;
+                        break;
+                    }
+                }
+                if (planBitmaps[k] == null) {
+                    missing++;
+                }
+            }
+            if (schedule && !drainScheduled) {
+                drainScheduled = true;
+            } else {
+                schedule = false;
+            }
+            if (missing > MAX_MISSING_TILES) {
+                Arrays.fill(planBitmaps, 0, planned, null);
+                if (schedule) {
+                    WORKER.execute(drainTask);
+                }
+                return false;
+            }
+        }
+        if (schedule) {
+            WORKER.execute(drainTask);
+        }
+
+        for (int k = 0; k < planned; k++) {
+            float tileLeft = planColumns[k] * tileWorldSize;
+            float tileTop = planRows[k] * tileWorldSize;
+            Bitmap bitmap = planBitmaps[k];
+            if (bitmap == null) {
+                missingRects[4 * missingCount] = tileLeft;
+                missingRects[4 * missingCount + 1] = tileTop;
+                missingRects[4 * missingCount + 2] = tileLeft + tileWorldSize;
+                missingRects[4 * missingCount + 3] = tileTop + tileWorldSize;
+                missingCount++;
+                continue;
+            }
+            // Тайл уровня level - depth: нужная часть — его (1 / 2^depth)-я доля
+            int depth = planDepths[k];
+            int part = TILE_SIZE >> depth;
+            int partLeft = (planColumns[k] - ((planColumns[k] >> depth) << depth)) * part;
+            int partTop = (planRows[k] - ((planRows[k] >> depth) << depth)) * part;
+            source.set(partLeft, partTop, partLeft + part, partTop + part);
+            destination.set(tileLeft, tileTop, tileLeft + tileWorldSize, tileTop + tileWorldSize);
+            canvas.drawBitmap(bitmap, source, destination, tilePaint);
+            planBitmaps[k] = null;
+        }
+        return true;
+    }
+
+    /**
+     * @return число тайлов последнего {@link #draw}, которые нечем было закрыть
+     */
+    int getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * Записывает в out прямоугольник i-го незакрытого тайла в координатах кэша.
+     */
+    void getMissingRect(int i, RectF out) {
+        out.set(missingRects[4 * i], missingRects[4 * i + 1], missingRects[4 * i + 2], missingRects[4 * i + 3]);
+    }
+
+    private void drain() {
+        Canvas canvas = new Canvas();
+        while (true) {
+            long key;
+            Picture source;
+            float pictureX;
+            float pictureY;
+            int taken;
+            synchronized (this) {
+                int slot = newestPending();
+                if (slot < 0) {
+                    drainScheduled = false;
+                    return;
+                }
+                rendering[slot] = true;
+                key = keys[slot];
+                source = picture;
+                pictureX = originX;
+                pictureY = originY;
+                taken = generation;
+            }
+
+            int level = (int) (key >>> 56) + MIN_LEVEL;
+            float scale = Math.scalb(1f, level);
+            float tileWorldSize = tileWorldSize(level);
+            Bitmap bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            canvas.setBitmap(bitmap);
+            canvas.save();
+            canvas.scale(scale, scale);
+            canvas.translate(pictureX - column(key) * tileWorldSize, pictureY - row(key) * tileWorldSize);
+            canvas.drawPicture(source);
+            canvas.restore();
+            canvas.setBitmap(null);
+
+            synchronized (this) {
+                // Слот мог быть вытеснен и занят заново, в том числе тем же тайлом
+                int slot = taken == generation ? find(key) : -1;
+                if (slot < 0 || bitmaps[slot] != null) {
+                    // Тайл никто не видел: его пиксели можно освободить сразу
+                    bitmap.recycle();
+                    continue;
+                }
+                bitmaps[slot] = bitmap;
+                rendering[slot] = false;
+            }
+            listener.onTileReady();
+        }
+    }
+
+    /**
+     * @return самый свежий слот, заказанный в последнем кадре и ещё не взятый в работу, или -1
+     */
+    private int newestPending() {
+        for (int slot = head; slot >= 0; slot = older[slot]) {
+            if (lastUsed[slot] != frame) {
+                // Дальше по списку только слоты, не нужные последнему кадру
+                return -1;
+            }
+            if (bitmaps[slot] == null && !rendering[slot]) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int find(long key) {
+        for (int slot = buckets[bucket(key)]; slot >= 0; slot = chain[slot]) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Заводит слот под заказанный тайл, при заполненном кэше — на месте самого старого.
+     */
+    private int insert(long key) {
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+        } else {
+            slot = tail;
+            unlink(slot);
+            removeFromBucket(slot);
+            release(slot);
+        }
+        keys[slot] = key;
+        rendering[slot] = false;
+        int bucket = bucket(key);
+        chain[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+        newer[slot] = -1;
+        older[slot] = head;
+        if (head >= 0) {
+            newer[head] = slot;
+        }
+        head = slot;
+        if (tail < 0) {
+            tail = slot;
+        }
+        return slot;
+    }
+
+    /**
+     * Освобождает тайл слота. Тайл, нарисованный в этом или прошлом кадре, может ещё читать поток
+     * рендеринга, поэтому его пиксели отдаются сборщику мусора, а не освобождаются сразу.
+     */
+    private void release(int slot) {
+        Bitmap bitmap = bitmaps[slot];
+        bitmaps[slot] = null;
+        if (bitmap != null && frame - lastUsed[slot] > 1) {
+            bitmap.recycle();
+        }
+    }
+
+    private void touch(int slot) {
+        lastUsed[slot] = frame;
+        if (slot == head) {
+            return;
+        }
+        unlink(slot);
+        newer[slot] = -1;
+        older[slot] = head;
+        if (head >= 0) {
+            newer[head] = slot;
+        }
+        head = slot;
+        if (tail < 0) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        if (newer[slot] >= 0) {
+            older[newer[slot]] = older[slot];
+        } else {
+            head = older[slot];
+        }
+        if (older[slot] >= 0) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            tail = newer[slot];
+        }
+    }
+
+    private void removeFromBucket(int slot) {
+        int bucket = bucket(keys[slot]);
+        if (buckets[bucket] == slot) {
+            buckets[bucket] = chain[slot];
+            return;
+        }
+        for (int previous = buckets[bucket]; previous >= 0; previous = chain[previous]) {
+            if (chain[previous] == slot) {
+                chain[previous] = chain[slot];
+                return;
+            }
+        }
+    }
+
+    private int bucket(long key) {
+        int hash = (int) (key ^ (key >>> 32));
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (buckets.length - 1);
+    }
+
+    private static float tileWorldSize(int level) {
+        return Math.scalb((float) TILE_SIZE, -level);
+    }
+
+    // Ключ тайла: уровень в старших 8 битах, столбец и строка — по 28 бит со знаком
+    private static long key(int level, int column, int row) {
+        return ((long) (level - MIN_LEVEL) << 56) | ((column & 0xFFFFFFFL) << 28) | (row & 0xFFFFFFFL);
+    }
+
+    private static int column(long key) {
+        return ((int) (key >>> 28) << 4) >> 4;
+    }
+
+    private static int row(long key) {
+        return ((int) key << 4) >> 4;
+    }
+}
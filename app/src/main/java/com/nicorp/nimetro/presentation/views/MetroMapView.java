@@ -9,6 +9,7 @@ import android.animation.AnimatorListenerAdapter;
 import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -22,6 +23,7 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PathMeasure;
+import android.graphics.Picture;
 import android.graphics.Point;
 import android.graphics.PointF;
 import android.graphics.PorterDuff;
@@ -33,6 +35,9 @@ import android.graphics.Typeface;
 import android.graphics.Shader;
 
 import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
 
@@ -48,6 +53,8 @@ import android.view.animation.LinearInterpolator;
 import android.view.animation.PathInterpolator;
 
 
+import androidx.annotation.ChecksSdkIntAtLeast;
+import androidx.annotation.RequiresApi;
 import androidx.core.graphics.ColorUtils;
 import androidx.core.content.res.ResourcesCompat;
 import com.google.android.material.color.MaterialColors;
@@ -59,14 +66,24 @@ import com.nicorp.nimetro.domain.entities.Line;
 import com.nicorp.nimetro.domain.entities.RouteStation;
 import com.nicorp.nimetro.domain.entities.Station;
 import com.nicorp.nimetro.domain.entities.Transfer;
+import com.nicorp.nimetro.domain.routing.MapIndex;
+import com.nicorp.nimetro.routing.RouteTrace;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MetroMapView extends View {
 
@@ -88,7 +105,19 @@ public class MetroMapView extends View {
     private static final float TRAM_STRIPE_OFFSET = 2f;
     private static final int TRAM_STRIPE_ALPHA = 255;
     private static final float BEZIER_SEGMENT_STEP = 0.01f;
-    
+
+    // Сторона квадрата (в координатах кэша), по которому путь линии делится на куски для отсечения
+    private static final float LINE_CHUNK_SIZE = 512f;
+    // Половина обводки кружка станции (7) — запас к его прямоугольнику
+    private static final float STATION_STROKE_MARGIN = 4f;
+    // Запас статического слоя за прямоугольником станций: подписи и объекты карты
+    private static final float STATIC_LAYER_MARGIN = 1000f;
+    // Статические слои в порядке отрисовки, по RenderNode на слой
+    private static final int STATIC_LAYER_RIVERS = 0;
+    private static final int STATIC_LAYER_LINES = 1;
+    private static final int STATIC_LAYER_TRANSFERS = 2;
+    private static final int STATIC_LAYER_STATIONS = 3;
+
     public Station selectedStation = null;
     private RectF visibleViewport = new RectF();
     private List<Line> lines;
@@ -102,6 +131,8 @@ public class MetroMapView extends View {
     private List<MapObject> mapObjects;
     private List<Line> grayedLines;
     private List<Station> grayedStations;
+    // ID станций внутри изохроны; null — изохрона не показывается
+    private Set<String> isochroneStationIds;
     private List<Line> riverTramLines; // Список линий речного трамвая
     private List<Station> riverTramStations; // Список станций речного трамвая
     private List<Transfer> riverTramTransfers; // Список переходов речного трамвая
@@ -117,6 +148,10 @@ public class MetroMapView extends View {
     private List<Transfer> tramTransfers = new ArrayList<>(); // Список переходов трамвая
     private List<River> tramRivers = new ArrayList<>(); // Список рек для трамвая
     private List<MapObject> tramMapObjects = new ArrayList<>(); // Список объектов на карте трамвая
+    private MapIndex sharedMapIndex; // Индекс, построенный активностью при загрузке карты
+    private MapIndex ownMapIndex; // Индекс по текущим спискам линий, если общий не передан
+    // Сетки станций слоёв для попадания касанием; строятся при первом запросе после setData
+    private final StationGrid[] stationGrids = new StationGrid[4];
 
     private boolean isMetroMap = false;
     private boolean isSuburbanMap = false;
@@ -130,11 +165,63 @@ public class MetroMapView extends View {
     private Paint selectedStationPaint;
     private Paint routePaint;
     private Paint textPaint;
+    private Paint labelMeasurePaint; // копия textPaint для замеров подписей при фоновой сборке кэша
     private Paint whitePaint;
     private Paint transferPaint;
     private Paint stationCenterPaint;
     private Paint riverPaint;
     private Paint grayedPaint;
+
+    // Кисти кадра: создаются один раз в initializePaints, цвета темы выставляет updateFramePaints,
+    // чтобы отрисовка кадра не создавала объектов
+    private Paint dashedTransferPaint;
+    private Paint hullFillPaint;
+    private Paint transferFillPaint;
+    private Paint transferStrokePaint;
+    private Paint transferOutlinePaint;
+    private Paint stationFillPaint;
+    private Paint stationStrokePaint;
+    private Paint stationLabelPaint;
+    private Paint stationLabelOutlinePaint;
+    private Paint partialCirclePaint;
+    private Paint mapObjectPaint;
+    private Paint darkOverlayPaint;
+    private Paint faintStationFillPaint;
+    private Paint faintStationStrokePaint;
+    private Paint routeStationStrokePaint;
+    private Paint routeLabelPaint;
+    private Paint routeLabelOutlinePaint;
+    // Выбранная станция и положение пользователя: пульсирующий круг, обводка и заливка
+    private Paint highlightGlowPaint;
+    private Paint highlightStrokePaint;
+    private Paint highlightInnerPaint;
+    // Индикаторы линий: фигура с номером линии и значок МТД
+    private Paint indicatorBubblePaint;
+    private Paint indicatorOutlinePaint;
+    private Paint indicatorTextPaint;
+    private Paint mtdPaint;
+    private Paint mtdTextPaint;
+    private final Path indicatorPath = new Path();
+    private final RectF indicatorRect = new RectF();
+    // Стрелки к линиям за краем экрана: номер и значок МТД мельче, чем у индикаторов станций
+    private Paint arrowTextPaint;
+    private Paint arrowMtdTextPaint;
+    private Paint arrowPaint;
+    private final Path arrowPath = new Path();
+    private final PointF arrowPosition = new PointF();
+    // Стрелки кадра (findNearestActiveLines); объекты стрелок переиспользуются между кадрами
+    private final List<DirectionArrow> arrowCandidates = new ArrayList<>();
+    private final List<DirectionArrow> arrowPool = new ArrayList<>();
+    private final RectF staticNodeBounds = new RectF();
+    // Разобранные цвета линий для индикаторов; сбрасываются в updateFramePaints
+    private final Map<Line, Integer> lineColorValues = new IdentityHashMap<>();
+    // Индикатор выбранной станции (updateSelectedIndicator)
+    private Station indicatorStation;
+    private List<Line> indicatorLines = Collections.emptyList();
+    private String[] indicatorNumbers = new String[0];
+    private final RectF partialCircleRect = new RectF();
+    private final Matrix viewportInverse = new Matrix();
+    private final float[] viewportPoints = new float[4];
     private boolean isEditMode = false;
     private OnStationClickListener listener;
     public float scaleFactor = 1.0f;
@@ -162,12 +249,39 @@ public class MetroMapView extends View {
     private Bitmap schemeBackgroundBitmap;
     private Bitmap satelliteBackgroundBitmap;
     private MapType currentMapType = MapType.SCHEME;
-    private Map<Float, Bitmap> cacheBitmaps = new HashMap<>();
     public boolean needsRedraw = true;
     private Matrix transformMatrix;
-    private Bitmap cacheBitmap;
-    private Bitmap bufferBitmap;
-    private Canvas bufferCanvas;
+    // Растровые тайлы статических слоёв; запись слоя в Picture устаревает вместе с кэшем путей и темой
+    private final MapTileCache mapTiles = new MapTileCache(getResources().getDisplayMetrics().widthPixels,
+            getResources().getDisplayMetrics().heightPixels, MapTileCache.byteBudget(getContext()), this::postInvalidate);
+    private boolean staticLayerDirty = true;
+    // Те же слои в RenderNode для аппаратного холста (API 29+); запись устаревает вместе с Picture тайлов
+    private StaticLayerNodes staticLayerNodes;
+    private boolean staticNodesDirty = true;
+    private boolean renderNodeLayersEnabled = true;
+    // Кэши путей собираются в фоне и подменяют pathCache/routePathCache; до подмены рисуется прежний снимок.
+    // Версия растёт при каждом изменении, после которого кэш надо собрать заново. Показанный снимок
+    // только читается: перенос станции правит копию последнего целиком собранного кэша в рабочем потоке
+    private final ExecutorService pathCacheWorker = newPathCacheWorker();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger latestPathCacheRequest = new AtomicInteger(); // более ранние, не начатые запросы пропускаются
+    // Состояние рабочего потока
+    private PathCacheInputs buildInputs; // входные данные идущей сборки
+    private MapPathCache buildCache; // собираемый кэш карты
+    private RoutePathCache routeBuildCache; // собираемый кэш маршрута
+    private MapPathCache baseMapCache; // последний целиком собранный кэш карты, основа для правок moveStation
+    private int baseMapCacheVersion = -1; // fullMapVersion, к которой относится baseMapCache
+    // Состояние потока отрисовки
+    private int mapCacheVersion;
+    private int routeCacheVersion;
+    private int failedMapVersion = -1; // сборка этих версий упала и повторяется только после нового изменения
+    private int failedRouteVersion = -1;
+    private int fullMapVersion = -1; // версия последней полной сборки карты, к которой относятся movedStations
+    private int editableMapVersion = -1; // при этой версии перенос станции правит кэш, а не собирает его заново
+    private final Set<Station> movedStations = Collections.newSetFromMap(new IdentityHashMap<Station, Boolean>());
+    private boolean pathCacheBuildPending;
+    private final RectF screenViewport = new RectF(); // видимая область без отступов, в координатах кэша
+    private final RectF missingTileRect = new RectF();
     private List<PointF> transferConnectionPoints = new ArrayList<>();
     private boolean isSelectionBlocked = false; // Флаг для блокировки выбора станций
 
@@ -268,6 +382,14 @@ public class MetroMapView extends View {
 
         // Selected station color - зеленый для обеих тем
         mapSelectedStationColor = Color.GREEN;
+
+        // Кисти кадра берут цвета темы здесь, а не на каждом кадре
+        if (dashedTransferPaint != null) {
+            updateFramePaints();
+        }
+        // Цвета кэша путей и серые слои зависят от темы: кэш собирается заново
+        mapCacheVersion++;
+        invalidateStaticLayers();
     }
 
     private boolean isDarkTheme() {
@@ -332,6 +454,7 @@ public class MetroMapView extends View {
         textPaint.setTextSize(STATION_NAME_TEXT_SIZE);
         textPaint.setAntiAlias(true);
         textPaint.setFakeBoldText(true);
+        labelMeasurePaint = new Paint(textPaint);
 
         transferPaint = new Paint();
 
@@ -358,6 +481,159 @@ public class MetroMapView extends View {
         grayedPaint.setColor(mapGrayedColor);
         grayedPaint.setStrokeWidth(9);
 
+        dashedTransferPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        dashedTransferPaint.setStyle(Paint.Style.STROKE);
+        dashedTransferPaint.setStrokeWidth(6f);
+        dashedTransferPaint.setPathEffect(new DashPathEffect(new float[]{20, 10}, 0));
+
+        hullFillPaint = new Paint();
+        hullFillPaint.setStyle(Paint.Style.FILL);
+
+        transferFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        transferFillPaint.setStyle(Paint.Style.FILL);
+
+        transferStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        transferStrokePaint.setStyle(Paint.Style.STROKE);
+        transferStrokePaint.setStrokeWidth(6f);
+
+        transferOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        transferOutlinePaint.setStyle(Paint.Style.STROKE);
+        transferOutlinePaint.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
+
+        stationFillPaint = new Paint();
+        stationFillPaint.setStyle(Paint.Style.FILL);
+
+        stationStrokePaint = new Paint();
+        stationStrokePaint.setStyle(Paint.Style.STROKE);
+        stationStrokePaint.setStrokeWidth(7);
+
+        stationLabelPaint = new Paint(textPaint);
+
+        stationLabelOutlinePaint = new Paint(textPaint);
+        stationLabelOutlinePaint.setStyle(Paint.Style.STROKE);
+        stationLabelOutlinePaint.setStrokeWidth(6f);
+        stationLabelOutlinePaint.setStrokeJoin(Paint.Join.ROUND);
+        stationLabelOutlinePaint.setStrokeMiter(10f);
+
+        partialCirclePaint = new Paint();
+        partialCirclePaint.setStyle(Paint.Style.STROKE);
+
+        mapObjectPaint = new Paint();
+        mapObjectPaint.setColor(Color.BLACK);
+        mapObjectPaint.setStyle(Paint.Style.FILL);
+        mapObjectPaint.setTextSize(20);
+
+        darkOverlayPaint = new Paint();
+        darkOverlayPaint.setColor(Color.argb(150, 0, 0, 0)); // Полупрозрачный черный цвет
+        darkOverlayPaint.setStyle(Paint.Style.FILL);
+
+        faintStationFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        faintStationFillPaint.setStyle(Paint.Style.FILL);
+
+        faintStationStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        faintStationStrokePaint.setStyle(Paint.Style.STROKE);
+        faintStationStrokePaint.setStrokeWidth(5);
+
+        routeStationStrokePaint = new Paint();
+        routeStationStrokePaint.setStyle(Paint.Style.STROKE);
+        routeStationStrokePaint.setStrokeWidth(7);
+
+        routeLabelPaint = new Paint(textPaint);
+
+        routeLabelOutlinePaint = new Paint(textPaint);
+        routeLabelOutlinePaint.setStyle(Paint.Style.STROKE);
+        routeLabelOutlinePaint.setStrokeWidth(6f);
+        routeLabelOutlinePaint.setStrokeJoin(Paint.Join.ROUND);
+        routeLabelOutlinePaint.setStrokeMiter(10f);
+
+        highlightGlowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        highlightGlowPaint.setColor(Color.parseColor("#3384c29d")); // Полупрозрачный цвет
+        highlightGlowPaint.setStyle(Paint.Style.FILL);
+
+        highlightStrokePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        highlightStrokePaint.setColor(Color.parseColor("#84c29d"));
+        highlightStrokePaint.setStyle(Paint.Style.STROKE);
+        highlightStrokePaint.setStrokeWidth(8);
+
+        highlightInnerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        highlightInnerPaint.setColor(Color.parseColor("#4084c29d"));
+        highlightInnerPaint.setStyle(Paint.Style.FILL);
+
+        Typeface indicatorTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
+
+        indicatorBubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        indicatorBubblePaint.setStyle(Paint.Style.FILL);
+
+        indicatorOutlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        indicatorOutlinePaint.setStyle(Paint.Style.STROKE);
+        indicatorOutlinePaint.setStrokeWidth(6f);
+
+        indicatorTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        indicatorTextPaint.setTextAlign(Paint.Align.CENTER);
+        indicatorTextPaint.setTypeface(indicatorTypeface != null ? indicatorTypeface : Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+        indicatorTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.6f);
+
+        mtdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mtdPaint.setColor(Color.parseColor("#4564B7"));
+        mtdPaint.setStyle(Paint.Style.FILL);
+
+        mtdTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mtdTextPaint.setColor(Color.WHITE);
+        mtdTextPaint.setTextAlign(Paint.Align.CENTER);
+        mtdTextPaint.setTypeface(Typeface.create(indicatorTypeface != null ? indicatorTypeface : Typeface.DEFAULT, Typeface.BOLD));
+        mtdTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.2f);
+
+        arrowTextPaint = new Paint(indicatorTextPaint);
+        arrowTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.4f);
+
+        arrowMtdTextPaint = new Paint(mtdTextPaint);
+        arrowMtdTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.0f);
+
+        arrowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        arrowPaint.setStyle(Paint.Style.STROKE);
+        arrowPaint.setStrokeWidth(4f);
+        arrowPaint.setStrokeCap(Paint.Cap.ROUND);
+        arrowPaint.setStrokeJoin(Paint.Join.ROUND);
+
+        updateFramePaints();
+    }
+
+    /**
+     * Переносит цвета темы в кисти кадра; вызывается при смене темы и при пересборке кэша путей.
+     */
+    private void updateFramePaints() {
+        dashedTransferPaint.setColor(mapTransferStrokeColor);
+        hullFillPaint.setColor(mapStationFillColor);
+        transferFillPaint.setColor(mapStationFillColor);
+        transferStrokePaint.setColor(mapTransferStrokeColor);
+        transferOutlinePaint.setColor(mapTransferStrokeColor);
+        stationFillPaint.setColor(mapStationFillColor);
+        stationLabelPaint.setColor(mapTextColor);
+        stationLabelOutlinePaint.setColor(mapStationFillColor);
+        faintStationFillPaint.setColor(mapStationFillColor);
+        // В режиме маршрута подписи контрастные: белые в тёмной теме, чёрные в светлой
+        boolean darkTheme = isDarkTheme();
+        routeLabelPaint.setColor(darkTheme ? Color.WHITE : Color.BLACK);
+        routeLabelOutlinePaint.setColor(darkTheme ? Color.BLACK : Color.WHITE);
+        indicatorOutlinePaint.setColor(mapBackgroundColor);
+        indicatorTextPaint.setColor(mapStationFillColor);
+        arrowTextPaint.setColor(mapStationFillColor);
+        arrowPaint.setColor(mapBackgroundColor);
+        lineColorValues.clear();
+        // Линии станции берутся из индекса карты, который мог смениться вместе с данными
+        indicatorStation = null;
+    }
+
+    /**
+     * Цвет линии для индикаторов; строка цвета разбирается один раз.
+     */
+    private int lineColorValue(Line line) {
+        Integer color = lineColorValues.get(line);
+        if (color == null) {
+            color = parseColorSafely(line.getColor(), mapTextColor);
+            lineColorValues.put(line, color);
+        }
+        return color;
     }
 
     private VelocityTracker velocityTracker;
@@ -570,6 +846,8 @@ public class MetroMapView extends View {
         this.tramTransfers = tramTransfers != null ? tramTransfers : Collections.emptyList();
         this.tramRivers = tramRivers != null ? tramRivers : Collections.emptyList();
         this.tramMapObjects = tramMapObjects != null ? tramMapObjects : Collections.emptyList();
+        this.ownMapIndex = null;
+        Arrays.fill(stationGrids, null);
 
         boolean previousIsTramMap = this.isTramMap;
         this.isMetroMap = isMetroMap;
@@ -589,16 +867,9 @@ public class MetroMapView extends View {
         Log.d("MetroMapView", "After assignment - this.lines size: " + this.lines.size());
         Log.d("MetroMapView", "After assignment - this.stations size: " + this.stations.size());
 
-        // Очистка кэша
-        pathCache = new MapPathCache();
-        routePathCache = new RoutePathCache();
-
-        // Очистка буфера
-        if (bufferBitmap != null) {
-            bufferBitmap.recycle();
-            bufferBitmap = null;
-        }
-
+        // Кэши собираются заново в фоне, до подмены рисуются прежние
+        mapCacheVersion++;
+        routeCacheVersion++;
 
         // Сохраняем маршрут, чтобы не терять его при обновлении данных (например, при смене вида карты)
         List<Station> savedRoute = route;
@@ -610,11 +881,11 @@ public class MetroMapView extends View {
         updateTransformMatrix();
 
 
-        // Восстанавливаем маршрут и кэш маршрута
+        // Восстанавливаем маршрут: его кэш собирается вместе с кэшем карты
         if (savedRoute != null && !savedRoute.isEmpty()) {
             this.route = savedRoute;
-            updateRouteCache();
         }
+        requestPathCacheBuild();
 
         // Запрос на перерисовку
         invalidate();
@@ -623,9 +894,9 @@ public class MetroMapView extends View {
     public void setData(List<Line> lines, List<Station> stations, List<Transfer> transfers,
                         List<River> rivers, List<MapObject> mapObjects,
                         List<Line> grayedLines, List<Station> grayedStations) {
-        // Clear all path caches first
-        pathCache = new MapPathCache();
-        routePathCache = new RoutePathCache();
+        // Path caches are rebuilt in the background; the previous ones keep rendering until then
+        mapCacheVersion++;
+        routeCacheVersion++;
 
         // Clear all existing collections
         this.lines = new ArrayList<>(lines != null ? lines : Collections.emptyList());
@@ -635,12 +906,8 @@ public class MetroMapView extends View {
         this.mapObjects = new ArrayList<>(mapObjects != null ? mapObjects : Collections.emptyList());
         this.grayedLines = new ArrayList<>(grayedLines != null ? grayedLines : Collections.emptyList());
         this.grayedStations = new ArrayList<>(grayedStations != null ? grayedStations : Collections.emptyList());
-
-        // Clear the buffer bitmap
-        if (bufferBitmap != null) {
-            bufferBitmap.recycle();
-            bufferBitmap = null;
-        }
+        this.ownMapIndex = null;
+        Arrays.fill(stationGrids, null);
 
 
         // Не сбрасываем маршрут при обновлении данных
@@ -652,10 +919,8 @@ public class MetroMapView extends View {
         updateTransformMatrix();
 
 
-        // Восстанавливаем кэш маршрута, если он есть
-        if (route != null && !route.isEmpty()) {
-            updateRouteCache();
-        }
+        // Кэш маршрута, если он есть, собирается вместе с кэшем карты
+        requestPathCacheBuild();
 
         // Request complete redraw
         invalidate();
@@ -664,6 +929,23 @@ public class MetroMapView extends View {
     public void setRoute(List<Station> route) {
         setRouteInternal(route);
     }
+
+    /**
+     * Передаёт индекс станций и линий, построенный при загрузке карты, чтобы не строить его повторно.
+     */
+    public void setMapIndex(MapIndex mapIndex) {
+        this.sharedMapIndex = mapIndex;
+    }
+
+    private MapIndex getMapIndex() {
+        if (sharedMapIndex != null) {
+            return sharedMapIndex;
+        }
+        if (ownMapIndex == null) {
+            ownMapIndex = MapIndex.build(lines, suburbanLines, riverTramLines, tramLines);
+        }
+        return ownMapIndex;
+    }
     
     private void setRouteInternal(List<Station> route) {
         this.route = route;
@@ -674,7 +956,7 @@ public class MetroMapView extends View {
         }
         isSelectionBlocked = true; // Блокируем выбор станций
         needsRedraw = true; // Устанавливаем флаг перерисовки перед обновлением кэша
-        updateRouteCache(); // Обновляем кэш маршрута
+        invalidateRouteCache(); // Обновляем кэш маршрута
         invalidate();
 
         if (route != null && route.size() > 1) {
@@ -691,7 +973,7 @@ public class MetroMapView extends View {
             }
             isSelectionBlocked = true;
             needsRedraw = true;
-            updateRouteCache();
+            invalidateRouteCache();
             invalidate();
         } else {
             // Сохраняем список RouteStation для использования при определении линии
@@ -705,7 +987,9 @@ public class MetroMapView extends View {
                 routeLineMap.clear();
             }
             
-            Log.d("ROUTE_INFO", "=== УСТАНОВКА МАРШРУТА ИЗ RouteStation (" + routeStations.size() + " станций) ===");
+            if (RouteTrace.ENABLED) {
+                Log.d("ROUTE_INFO", "=== УСТАНОВКА МАРШРУТА ИЗ RouteStation (" + routeStations.size() + " станций) ===");
+            }
             
             // Сохраняем информацию о линиях для каждой станции
             for (int i = 0; i < routeStations.size(); i++) {
@@ -716,13 +1000,15 @@ public class MetroMapView extends View {
                     if (routeStation.getLine() != null && station.getId() != null) {
                         // Сохраняем по ID для обратной совместимости
                         routeLineMap.put(station.getId(), routeStation.getLine());
-                        String lineName = routeStation.getLine().getName() != null ? 
-                            routeStation.getLine().getName() : routeStation.getLine().getId();
-                        Log.d("ROUTE_INFO", String.format("[%d] %s (ID: %s) - %s", 
-                            i, station.getName(), station.getId(), lineName));
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("[%d] %s (ID: %s) - %s", 
+                                i, station.getName(), station.getId(), traceLineName(routeStation.getLine())));
+                        }
                     } else {
-                        Log.d("ROUTE_INFO", String.format("[%d] %s (ID: %s) - линия: null", 
-                            i, station.getName(), station.getId()));
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("[%d] %s (ID: %s) - линия: null", 
+                                i, station.getName(), station.getId()));
+                        }
                     }
                 }
             }
@@ -731,7 +1017,7 @@ public class MetroMapView extends View {
             this.route = stationRoute;
             isSelectionBlocked = true;
             needsRedraw = true;
-            updateRouteCache(); // Обновляем кэш маршрута (routeStations будет доступен)
+            invalidateRouteCache(); // Обновляем кэш маршрута (routeStations будет доступен)
             invalidate();
             
             if (route != null && route.size() > 1) {
@@ -762,10 +1048,25 @@ public class MetroMapView extends View {
         this.route = null; // Очищаем текущий маршрут
         isSelectionBlocked = false; // Разблокируем выбор станций
         needsRedraw = true; // Указываем, что нужно перерисовать карту
-        updateRouteCache(); // Очищаем кэш маршрута (вызываем после установки needsRedraw)
+        invalidateRouteCache(); // Очищаем кэш маршрута
         invalidate(); // Запускаем перерисовку
     }
 
+    /**
+     * Показывает изохрону: станции не из набора и перегоны к ним рисуются серыми.
+     */
+    public void setIsochrone(Set<String> reachableStationIds) {
+        this.isochroneStationIds = reachableStationIds != null ? new HashSet<>(reachableStationIds) : null;
+        invalidate();
+    }
+
+    public void clearIsochrone() {
+        if (isochroneStationIds != null) {
+            isochroneStationIds = null;
+            invalidate();
+        }
+    }
+
     public void clearSelectedStations() {
         this.selectedStations = null;
         needsRedraw = true;
@@ -774,19 +1075,10 @@ public class MetroMapView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
-        if (bufferBitmap == null || needsRedraw) {
-            createBufferBitmap();
-        }
-
         // Очищаем холст
 
         canvas.drawColor(mapBackgroundColor);
 
-        // Обновляем кэш, если нужно
-        if (needsRedraw) {
-            updatePathCache();
-        }
-
         // Применяем трансформацию
         transformMatrix.reset();
         transformMatrix.postTranslate(translateX, translateY);
@@ -797,46 +1089,43 @@ public class MetroMapView extends View {
 
     }
 
-    private void createBufferBitmap() {
-        if (bufferBitmap != null) {
-            bufferBitmap.recycle();
-        }
-        bufferBitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
-        bufferCanvas = new Canvas(bufferBitmap);
-
-        // Fill buffer with theme background
-        bufferCanvas.drawColor(mapBackgroundColor);
-        needsRedraw = false;
-    }
-
     private class LinePath {
         Path path;
         String color;
+        int colorValue; // color, разобранный при сборке кэша
         Path innerPath; // Добавляем поле для внутреннего пути
         Paint whitePaint; // Добавляем поле для белой заливки
         Line line; // Добавляем поле для линии (для отображения номера)
+        List<LineSegmentPart> parts; // перегоны, из путей которых сложен кусок линии (null — путь не делится)
 
         LinePath(Path path, String color) {
-            this.path = path;
-            this.color = color;
+            this(path, color, null, null, null);
         }
 
         LinePath(Path path, String color, Path innerPath, Paint whitePaint) {
-            this.path = path;
-            this.color = color;
-            this.innerPath = innerPath;
-            this.whitePaint = whitePaint;
+            this(path, color, innerPath, whitePaint, null);
         }
 
         LinePath(Path path, String color, Line line) {
+            this(path, color, null, null, line);
+        }
+
+        /**
+         * Копия с другим путём и уже разобранным цветом (MapPathCache.copyForEdit).
+         */
+        LinePath(LinePath source, Path path) {
             this.path = path;
-            this.color = color;
-            this.line = line;
+            this.color = source.color;
+            this.colorValue = source.colorValue;
+            this.innerPath = source.innerPath;
+            this.whitePaint = source.whitePaint;
+            this.line = source.line;
         }
 
         LinePath(Path path, String color, Path innerPath, Paint whitePaint, Line line) {
             this.path = path;
             this.color = color;
+            this.colorValue = parseColorSafely(color, buildInputs.textColor);
             this.innerPath = innerPath;
             this.whitePaint = whitePaint;
             this.line = line;
@@ -848,10 +1137,23 @@ public class MetroMapView extends View {
         String color;
         int textPosition; // Позиция текста (0-8, 9 - не отображать)
         String stationName; // Название станции
+        String stationId;
 
         Float labelX;
         Float labelY;
 
+        int colorValue; // color, разобранный при сборке кэша
+        boolean sharedStroke; // обводка цветом текста, как у пересадочной станции
+
+        // Раскладка подписи, считается при сборке кэша (layoutStationLabel)
+        String[] labelLines;
+        float labelTextX;
+        float labelStartY;
+        float labelLineHeight;
+        Paint.Align labelAlign;
+        // Станция маршрута без подписи (textPosition 9): подпись берётся у станции перехода
+        StationPath labelFallback;
+
         StationPath(Path path, String color, int textPosition, String stationName) {
 
             this(path, color, textPosition, stationName, null, null);
@@ -865,6 +1167,7 @@ public class MetroMapView extends View {
 
             this.labelX = labelX;
             this.labelY = labelY;
+            this.colorValue = parseColorSafely(color, buildInputs.textColor);
         }
 
         boolean hasCustomLabelPosition() {
@@ -890,17 +1193,410 @@ public class MetroMapView extends View {
         List<StrokeSegment> transferStrokes = new ArrayList<>(); // красные основные сегменты
         List<CrossSegmentStroke> crossStrokes = new ArrayList<>(); // кроссплатформенные цветные сегменты
         Map<String, SegmentInfo> segmentInfos = new HashMap<>(); // Информация о сегментах для трамвайных маршрутов
+        Picture grayedPicture; // серые линии неактивных слоёв, записанные при сборке кэша
+        RectF grayedBounds = new RectF(); // grayedBounds.left/top — начало координат grayedPicture
+        RectF mapBounds = new RectF(); // станции всех слоёв с запасом на линии, в координатах кэша
+        // Зависимости для частичной пересборки (moveStation): что из кэша строится по станции
+        Map<String, Integer> stationPathIndex = new HashMap<>(); // номер в stationsPaths по id станции
+        Map<String, List<LineSegmentPart>> segmentsByStation = new HashMap<>();
+        List<TransferPart> transferParts = new ArrayList<>(); // переходы в порядке слияния в общие пути
+        // Тайлы для отсечения по видимой области: номера в linesPaths, stationsPaths и segmentList
+        PathTiles lineTiles = PathTiles.EMPTY;
+        PathTiles stationTiles = PathTiles.EMPTY;
+        List<SegmentInfo> segmentList = new ArrayList<>(); // segmentInfos в порядке отрисовки
+        PathTiles segmentTiles = PathTiles.EMPTY;
         boolean isInitialized = false;
+        int version; // mapCacheVersion, для которой собран кэш
+        final float coordinateScale; // масштаб координат на момент сборки
+
+        MapPathCache(float coordinateScale) {
+            this.coordinateScale = coordinateScale;
+        }
+
+        /**
+         * Копия для правки переноса станций (updateStationsGeometry). Копируются списки и словари, куски линий
+         * с их перегонами и переходы; пути, которые правка не трогает или заменяет целиком, общие с исходным
+         * снимком, а сам он не меняется.
+         */
+        MapPathCache copyForEdit() {
+            MapPathCache copy = new MapPathCache(coordinateScale);
+            Map<LineSegmentPart, LineSegmentPart> partCopies = new IdentityHashMap<>();
+            for (LinePath linePath : linesPaths) {
+                if (linePath.parts == null) {
+                    copy.linesPaths.add(linePath);
+                    continue;
+                }
+                LinePath chunk = new LinePath(linePath, new Path(linePath.path));
+                chunk.parts = new ArrayList<>(linePath.parts.size());
+                for (LineSegmentPart part : linePath.parts) {
+                    LineSegmentPart partCopy = new LineSegmentPart(part.station1, part.station2, part.lineType, chunk);
+                    partCopy.path.set(part.path);
+                    partCopy.linePaths = part.linePaths;
+                    chunk.parts.add(partCopy);
+                    partCopies.put(part, partCopy);
+                }
+                copy.linesPaths.add(chunk);
+            }
+            copy.stationsPaths.addAll(stationsPaths);
+            for (Map.Entry<String, List<LineSegmentPart>> entry : segmentsByStation.entrySet()) {
+                List<LineSegmentPart> parts = new ArrayList<>(entry.getValue().size());
+                for (LineSegmentPart part : entry.getValue()) {
+                    parts.add(partCopies.get(part));
+                }
+                copy.segmentsByStation.put(entry.getKey(), parts);
+            }
+            copy.stationPathIndex = stationPathIndex;
+            for (TransferPart part : transferParts) {
+                copy.transferParts.add(new TransferPart(part.transfer, part.geometry));
+            }
+            copy.transfersPath = transfersPath;
+            copy.dashedTransfersPath = dashedTransfersPath;
+            copy.transfersFillPath = transfersFillPath;
+            copy.transfersFillOverlayMainPath = transfersFillOverlayMainPath;
+            copy.transfersFillOverlayAngularPath = transfersFillOverlayAngularPath;
+            copy.debugMainSegmentsPath = debugMainSegmentsPath;
+            copy.debugConnectionsPath = debugConnectionsPath;
+            copy.partialCircles = partialCircles;
+            copy.transferStrokes = transferStrokes;
+            copy.crossStrokes = crossStrokes;
+            copy.riversPath = riversPath;
+            copy.convexHullPath = convexHullPath;
+            copy.segmentInfos.putAll(segmentInfos);
+            copy.grayedPicture = grayedPicture;
+            copy.grayedBounds.set(grayedBounds);
+            copy.mapBounds.set(mapBounds);
+            copy.isInitialized = isInitialized;
+            return copy;
+        }
+    }
+
+    /**
+     * Кэши, собранные одним фоновым запросом; null — этот кэш не пересобирался или его сборка упала.
+     */
+    private static class PathCacheSnapshot {
+        MapPathCache map;
+        RoutePathCache route;
+        boolean mapFailed; // сборка упала, map == null
+        boolean routeFailed;
+    }
+
+    /**
+     * Запрос к рабочему потоку: какие версии кэшей собрать и по каким входным данным.
+     */
+    private static final class PathCacheJob {
+        final int request;
+        final PathCacheInputs inputs;
+        final int mapVersion; // -1 — кэш карты не нужен
+        final int routeVersion; // -1 — кэш маршрута не нужен
+        final int baseMapVersion; // полная сборка, к которой применяются переносы станций; -1 — собрать целиком
+        final List<Station> movedStations;
+
+        PathCacheJob(int request, PathCacheInputs inputs, int mapVersion, int routeVersion,
+                     int baseMapVersion, List<Station> movedStations) {
+            this.request = request;
+            this.inputs = inputs;
+            this.mapVersion = mapVersion;
+            this.routeVersion = routeVersion;
+            this.baseMapVersion = baseMapVersion;
+            this.movedStations = movedStations;
+        }
+    }
+
+    /**
+     * Входные данные сборки кэшей путей, снятые в потоке отрисовки (capturePathCacheInputs): рабочий поток
+     * читает только их, пока поток отрисовки меняет поля вида, цвета темы и станции (moveStation, setData).
+     * Координаты, подписи, промежуточные точки и цвета станций, цвета линий и темы копируются при снятии.
+     */
+    private static final class PathCacheInputs {
+        final List<Line> lines;
+        final List<Station> stations;
+        final List<Transfer> transfers;
+        final List<River> rivers;
+        final List<MapObject> mapObjects;
+        final List<Line> suburbanLines;
+        final List<Station> suburbanStations;
+        final List<Transfer> suburbanTransfers;
+        final List<MapObject> suburbanMapObjects;
+        final List<Line> riverTramLines;
+        final List<Station> riverTramStations;
+        final List<Transfer> riverTramTransfers;
+        final List<MapObject> riverTramMapObjects;
+        final List<Line> tramLines;
+        final List<Station> tramStations;
+        final List<Transfer> tramTransfers;
+        final List<MapObject> tramMapObjects;
+        final boolean isMetroMap;
+        final boolean isSuburbanMap;
+        final boolean isRiverTramMap;
+        final boolean isTramMap;
+        final float coordinateScale;
+        final MapIndex mapIndex;
+        final List<Station> route;
+        final List<RouteStation> routeStations;
+        // Позиции индикаторов линий показанного снимка маршрута: новый снимок ставит их на те же места
+        final Map<String, PointF> indicatorPositions;
+        final int textColor;
+        final int stationFillColor;
+        final int transferColor;
+        final int grayedColor;
+        // Станции слоёв, линий, переходов и маршрута и их соседи на момент снятия;
+        // без снимка (слой изохрон в потоке отрисовки) данные читаются из Station и Line
+        private final Map<Station, StationState> states;
+        private final Map<Line, String> lineColors;
+
+        private PathCacheInputs(MetroMapView view) {
+            lines = copyOf(view.lines);
+            stations = copyOf(view.stations);
+            transfers = copyOf(view.transfers);
+            rivers = copyOf(view.rivers);
+            mapObjects = copyOf(view.mapObjects);
+            suburbanLines = copyOf(view.suburbanLines);
+            suburbanStations = copyOf(view.suburbanStations);
+            suburbanTransfers = copyOf(view.suburbanTransfers);
+            suburbanMapObjects = copyOf(view.suburbanMapObjects);
+            riverTramLines = copyOf(view.riverTramLines);
+            riverTramStations = copyOf(view.riverTramStations);
+            riverTramTransfers = copyOf(view.riverTramTransfers);
+            riverTramMapObjects = copyOf(view.riverTramMapObjects);
+            tramLines = copyOf(view.tramLines);
+            tramStations = copyOf(view.tramStations);
+            tramTransfers = copyOf(view.tramTransfers);
+            tramMapObjects = copyOf(view.tramMapObjects);
+            isMetroMap = view.isMetroMap;
+            isSuburbanMap = view.isSuburbanMap;
+            isRiverTramMap = view.isRiverTramMap;
+            isTramMap = view.isTramMap;
+            coordinateScale = view.currentCoordinateScaleFactor;
+            mapIndex = view.getMapIndex();
+            route = copyOf(view.route);
+            routeStations = copyOf(view.routeStations);
+            indicatorPositions = new HashMap<>();
+            for (RouteLineSegment segment : view.routePathCache.routeLineSegments) {
+                if (segment != null && segment.line != null && segment.cachedIndicatorX != null && segment.cachedIndicatorY != null) {
+                    String key = segment.line.getId() + "_" + segment.startIndex + "_" + segment.endIndex;
+                    indicatorPositions.put(key, new PointF(segment.cachedIndicatorX, segment.cachedIndicatorY));
+                }
+            }
+            textColor = view.mapTextColor;
+            stationFillColor = view.mapStationFillColor;
+            transferColor = view.mapTransferColor;
+            grayedColor = view.mapGrayedColor;
+            states = new IdentityHashMap<>();
+            lineColors = new IdentityHashMap<>();
+            putLayer(lines, stations, transfers);
+            putLayer(suburbanLines, suburbanStations, suburbanTransfers);
+            putLayer(riverTramLines, riverTramStations, riverTramTransfers);
+            putLayer(tramLines, tramStations, tramTransfers);
+            putStates(route);
+            if (routeStations != null) {
+                for (RouteStation routeStation : routeStations) {
+                    if (routeStation != null) {
+                        putState(routeStation.getStation());
+                        putLineColor(routeStation.getLine());
+                    }
+                }
+            }
+            // Соседи по перегонам: их координаты и промежуточные точки нужны при построении перегонов
+            for (Station station : new ArrayList<>(states.keySet())) {
+                for (Station.Neighbor neighbor : station.getNeighbors()) {
+                    putState(neighbor.getStation());
+                }
+            }
+        }
+
+        /**
+         * Входные данные для рисования в потоке отрисовки (слой изохрон): данные станций читаются из Station.
+         */
+        PathCacheInputs(MetroMapView view, float coordinateScale, boolean isTramMap) {
+            lines = null;
+            stations = null;
+            transfers = null;
+            rivers = null;
+            mapObjects = null;
+            suburbanLines = null;
+            suburbanStations = null;
+            suburbanTransfers = null;
+            suburbanMapObjects = null;
+            riverTramLines = null;
+            riverTramStations = null;
+            riverTramTransfers = null;
+            riverTramMapObjects = null;
+            tramLines = null;
+            tramStations = null;
+            tramTransfers = null;
+            tramMapObjects = null;
+            isMetroMap = false;
+            isSuburbanMap = false;
+            isRiverTramMap = false;
+            this.isTramMap = isTramMap;
+            this.coordinateScale = coordinateScale;
+            mapIndex = null;
+            route = null;
+            routeStations = null;
+            indicatorPositions = Collections.emptyMap();
+            textColor = view.mapTextColor;
+            stationFillColor = view.mapStationFillColor;
+            transferColor = view.mapTransferColor;
+            grayedColor = view.mapGrayedColor;
+            states = Collections.emptyMap();
+            lineColors = Collections.emptyMap();
+        }
+
+        private static <T> List<T> copyOf(List<T> source) {
+            return source != null ? new ArrayList<>(source) : null;
+        }
+
+        private void putLayer(List<Line> layerLines, List<Station> layerStations, List<Transfer> layerTransfers) {
+            putStates(layerStations);
+            if (layerLines != null) {
+                for (Line line : layerLines) {
+                    putLineColor(line);
+                    putStates(line.getStations());
+                }
+            }
+            if (layerTransfers != null) {
+                for (Transfer transfer : layerTransfers) {
+                    putStates(transfer.getStations());
+                }
+            }
+        }
+
+        private void putStates(List<Station> layer) {
+            if (layer == null) {
+                return;
+            }
+            for (Station station : layer) {
+                putState(station);
+            }
+        }
+
+        private void putState(Station station) {
+            if (station != null && !states.containsKey(station)) {
+                states.put(station, new StationState(station));
+            }
+        }
+
+        private void putLineColor(Line line) {
+            if (line != null) {
+                lineColors.put(line, line.getColor());
+            }
+        }
+
+        int x(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.x : station.getX();
+        }
+
+        int y(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.y : station.getY();
+        }
+
+        boolean hasLabelCoordinates(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.labelX != null && state.labelY != null : station.hasLabelCoordinates();
+        }
+
+        int labelX(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.labelX : station.getLabelX();
+        }
+
+        int labelY(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.labelY : station.getLabelY();
+        }
+
+        String color(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.color : station.getColor();
+        }
+
+        String color(Line line) {
+            String color = lineColors.get(line);
+            return color != null || lineColors.containsKey(line) ? color : line.getColor();
+        }
+
+        Map<Station, List<Point>> intermediatePoints(Station station) {
+            StationState state = states.get(station);
+            return state != null ? state.intermediatePoints : station.getIntermediatePoints();
+        }
+
+        /**
+         * Промежуточные точки перегона, как Station.getIntermediatePoints(Station): сначала у station, затем у other.
+         */
+        List<Point> intermediatePoints(Station station, Station other) {
+            Map<Station, List<Point>> own = intermediatePoints(station);
+            if (own == null) {
+                return null;
+            }
+            List<Point> points = own.get(other);
+            if (points != null) {
+                return points;
+            }
+            Map<Station, List<Point>> reverse = intermediatePoints(other);
+            return reverse != null ? reverse.get(station) : null;
+        }
+
+        float adjustedLineWidth(float baseWidth) {
+            return isTramMap ? baseWidth / 5.0f : baseWidth;
+        }
+
+        Station findStationById(String id) {
+            return findStationAcrossLayers(id, false, stations, suburbanStations, riverTramStations, tramStations);
+        }
+
+        Station findStationByName(String name) {
+            if (name == null) return null;
+            return findStationAcrossLayers(name, true, stations, suburbanStations, riverTramStations, tramStations);
+        }
+    }
+
+    /**
+     * Данные станции, которые читает сборка кэша путей, на момент снятия PathCacheInputs.
+     */
+    private static final class StationState {
+        final int x;
+        final int y;
+        final Integer labelX;
+        final Integer labelY;
+        final String color;
+        final Map<Station, List<Point>> intermediatePoints;
+
+        StationState(Station station) {
+            x = station.getX();
+            y = station.getY();
+            labelX = station.getLabelX();
+            labelY = station.getLabelY();
+            color = station.getColor();
+            Map<Station, List<Point>> points = station.getIntermediatePoints();
+            if (points == null) {
+                intermediatePoints = null;
+                return;
+            }
+            intermediatePoints = new HashMap<>();
+            for (Map.Entry<Station, List<Point>> entry : points.entrySet()) {
+                List<Point> copy = null;
+                if (entry.getValue() != null) {
+                    copy = new ArrayList<>(entry.getValue().size());
+                    for (Point point : entry.getValue()) {
+                        copy.add(new Point(point));
+                    }
+                }
+                intermediatePoints.put(entry.getKey(), copy);
+            }
+        }
     }
 
 
     private static class CrossSegmentStroke {
         final PointF a;
         final PointF b;
-        final String colorStart;
-        final String colorEnd;
-        CrossSegmentStroke(PointF a, PointF b, String colorStart, String colorEnd) {
-            this.a = a; this.b = b; this.colorStart = colorStart; this.colorEnd = colorEnd;
+        // Кисти половин с градиентом, строятся при сборке кэша (newCrossSegmentStroke)
+        final Paint firstHalfPaint;
+        final Paint secondHalfPaint;
+        CrossSegmentStroke(PointF a, PointF b, Paint firstHalfPaint, Paint secondHalfPaint) {
+            this.a = a; this.b = b; this.firstHalfPaint = firstHalfPaint; this.secondHalfPaint = secondHalfPaint;
         }
     }
 
@@ -915,6 +1611,7 @@ public class MetroMapView extends View {
         int startIndex;
         int endIndex;
         Path segmentPath;
+        int colorValue; // цвет линии, разобранный при сборке кэша
         Float cachedIndicatorX;
         Float cachedIndicatorY;
 
@@ -937,7 +1634,7 @@ public class MetroMapView extends View {
         float nearestStationX;
         float nearestStationY;
 
-        DirectionArrow(Line line, float directionX, float directionY, float distance, String edge, float nearestStationX, float nearestStationY) {
+        void set(Line line, float directionX, float directionY, float distance, String edge, float nearestStationX, float nearestStationY) {
             this.line = line;
             this.directionX = directionX;
             this.directionY = directionY;
@@ -948,6 +1645,8 @@ public class MetroMapView extends View {
         }
     }
 
+    private static final Comparator<DirectionArrow> ARROW_DISTANCE_ORDER = (a, b) -> Float.compare(a.distance, b.distance);
+
     private static class SegmentInfo {
         String segmentKey;
         Station station1;
@@ -956,6 +1655,9 @@ public class MetroMapView extends View {
         Path basePath;
         List<Point> intermediatePoints;
         String lineType;
+        // Полосы маршрутов и их цвета, строятся при первой отрисовке перегона
+        Path[] stripePaths;
+        int[] stripeColors;
 
         SegmentInfo(String segmentKey, Station station1, Station station2, List<Line> lines, Path basePath, List<Point> intermediatePoints, String lineType) {
             this.segmentKey = segmentKey;
@@ -968,6 +1670,39 @@ public class MetroMapView extends View {
         }
     }
 
+    /**
+     * Перегон линии со своим путём; путь куска линии (chunk) — сумма путей его перегонов.
+     */
+    private static class LineSegmentPart {
+        final Station station1;
+        final Station station2;
+        final String lineType;
+        final LinePath chunk;
+        final Path path = new Path();
+        // LinePath, которые двойная линия кладёт в linesPaths сама (с внутренним путём)
+        List<LinePath> linePaths = Collections.emptyList();
+
+        LineSegmentPart(Station station1, Station station2, String lineType, LinePath chunk) {
+            this.station1 = station1;
+            this.station2 = station2;
+            this.lineType = lineType;
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * Переход со своей геометрией: addTransferPathToCache, выполненный во временный кэш.
+     */
+    private static class TransferPart {
+        final Transfer transfer;
+        MapPathCache geometry;
+
+        TransferPart(Transfer transfer, MapPathCache geometry) {
+            this.transfer = transfer;
+            this.geometry = geometry;
+        }
+    }
+
     // Обновляем класс RoutePathCache, добавляя поля для переходов
     private class RoutePathCache {
         List<LinePath> routeLinesPaths = new ArrayList<>();
@@ -985,6 +1720,12 @@ public class MetroMapView extends View {
         List<StationPath> routeFaintStationsPaths = new ArrayList<>();
         List<RouteLineSegment> routeLineSegments = new ArrayList<>();
         boolean isInitialized = false;
+        int version; // routeCacheVersion, для которой собран кэш
+        final float coordinateScale; // масштаб координат на момент сборки
+
+        RoutePathCache(float coordinateScale) {
+            this.coordinateScale = coordinateScale;
+        }
     }
 
     private List<PointF> calculateConvexHull(List<PointF> points) {
@@ -1034,6 +1775,7 @@ public class MetroMapView extends View {
         float strokeWidth;
         List<Float> angles;
         String color;
+        int colorValue; // color, разобранный при сборке кэша
 
         PartialCircle(float centerX, float centerY, float radius, float strokeWidth, List<Float> angles, String color) {
             this.centerX = centerX;
@@ -1042,9 +1784,10 @@ public class MetroMapView extends View {
             this.strokeWidth = strokeWidth;
             this.angles = angles;
             this.color = color;
+            this.colorValue = parseColorSafely(color, buildInputs.transferColor);
         }
     }
-    private MapPathCache pathCache = new MapPathCache();
+    private MapPathCache pathCache = new MapPathCache(COORDINATE_SCALE_FACTOR);
 
     private static final int PULSE_ANIMATION_DURATION = 1000; // ms
     private static final float MAX_PULSE_SCALE = 1.3f;
@@ -1071,54 +1814,49 @@ public class MetroMapView extends View {
 
     private void drawSelectedStation(Canvas canvas, float stationX, float stationY) {
         if (selectedStation == null) return;
+        drawHighlight(canvas, stationX, stationY);
+    }
 
-        // Outer glow effect
-        Paint glowPaint = new Paint();
-        glowPaint.setStyle(Paint.Style.FILL);
-        glowPaint.setColor(Color.parseColor("#3384c29d")); // Semi-transparent highlight color
-        canvas.drawCircle(stationX, stationY, 35 * currentPulseScale, glowPaint);
-
-        // Main highlight circle
-        Paint highlightPaint = new Paint();
-        highlightPaint.setColor(Color.parseColor("#84c29d"));
-        highlightPaint.setStyle(Paint.Style.STROKE);
-        highlightPaint.setStrokeWidth(8);
-        highlightPaint.setAntiAlias(true);
-        canvas.drawCircle(stationX, stationY, 20, highlightPaint);
-
-        // Inner highlight
-        Paint innerHighlightPaint = new Paint();
-        innerHighlightPaint.setColor(Color.parseColor("#4084c29d"));
-        innerHighlightPaint.setStyle(Paint.Style.FILL);
-        canvas.drawCircle(stationX, stationY, 20, innerHighlightPaint);
+    /**
+     * Подсветка выбранной станции и положения пользователя: пульсирующее свечение, обводка и заливка.
+     */
+    private void drawHighlight(Canvas canvas, float stationX, float stationY) {
+        canvas.drawCircle(stationX, stationY, 35 * currentPulseScale, highlightGlowPaint);
+        canvas.drawCircle(stationX, stationY, 20, highlightStrokePaint);
+        canvas.drawCircle(stationX, stationY, 20, highlightInnerPaint);
     }
 
 
-    private void drawLineIndicatorShape(Canvas canvas, Line line, Station station, float centerX, float centerY, float radius, Paint bubblePaint, Paint outlinePaint) {
-        if (line == null || station == null) {
+    /**
+     * Фигура индикатора линии (круг, квадрат, параллелограмм или МТД); кисти заливки, обводки
+     * и подписи МТД задаёт вызывающий.
+     */
+    private void drawLineIndicatorShape(Canvas canvas, Line line, float centerX, float centerY, float radius,
+                                        Paint bubblePaint, Paint outlinePaint, Paint mtdLabelPaint) {
+        if (line == null) {
             return;
         }
 
         String displayShape = line.getDisplayShape();
 
         if (displayShape != null && displayShape.equals("SQUARE")) {
-            RectF squareRect = new RectF(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
-            canvas.drawRect(squareRect, bubblePaint);
-            canvas.drawRect(squareRect, outlinePaint);
+            indicatorRect.set(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+            canvas.drawRect(indicatorRect, bubblePaint);
+            canvas.drawRect(indicatorRect, outlinePaint);
         } else if (displayShape != null && displayShape.equals("PARALLELOGRAM")) {
             float x = radius * 2.0f / 3.0f;
             float longSide = radius * 2.0f;
             float height = x * (float) Math.sqrt(3.0);
             float horizontalOffset = x * 0.5f;
             
-            Path parallelogramPath = new Path();
-            parallelogramPath.moveTo(centerX - longSide / 2.0f, centerY + height / 2.0f);
-            parallelogramPath.lineTo(centerX + longSide / 2.0f, centerY + height / 2.0f);
-            parallelogramPath.lineTo(centerX + longSide / 2.0f + horizontalOffset, centerY - height / 2.0f);
-            parallelogramPath.lineTo(centerX - longSide / 2.0f + horizontalOffset, centerY - height / 2.0f);
-            parallelogramPath.close();
-            canvas.drawPath(parallelogramPath, bubblePaint);
-            canvas.drawPath(parallelogramPath, outlinePaint);
+            indicatorPath.rewind();
+            indicatorPath.moveTo(centerX - longSide / 2.0f, centerY + height / 2.0f);
+            indicatorPath.lineTo(centerX + longSide / 2.0f, centerY + height / 2.0f);
+            indicatorPath.lineTo(centerX + longSide / 2.0f + horizontalOffset, centerY - height / 2.0f);
+            indicatorPath.lineTo(centerX - longSide / 2.0f + horizontalOffset, centerY - height / 2.0f);
+            indicatorPath.close();
+            canvas.drawPath(indicatorPath, bubblePaint);
+            canvas.drawPath(indicatorPath, outlinePaint);
         } else if (displayShape != null && displayShape.equals("MTD")) {
             float x = radius * 2.0f / 3.0f;
             float longSide = radius * 2.0f;
@@ -1129,11 +1867,6 @@ public class MetroMapView extends View {
             float trapezoidTopWidth = longSide * 1.3f;
             float trapezoidHeight = height;
             
-            Paint mtdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mtdPaint.setColor(parseColorSafely("#4564B7", mapTextColor));
-            mtdPaint.setStyle(Paint.Style.FILL);
-            
-            Path trapezoidPath = new Path();
             float trapezoidLeft = centerX - longSide / 2.0f - trapezoidTopWidth - trapezoidOffset;
             float topLeftX = trapezoidLeft;
             float topRightX = trapezoidLeft + trapezoidTopWidth;
@@ -1143,47 +1876,37 @@ public class MetroMapView extends View {
             float bottomLeftX = topLeftX + horizontalOffset;
             float bottomRightX = topRightX - horizontalOffset;
             
-            trapezoidPath.moveTo(topLeftX, topY);
-            trapezoidPath.lineTo(topRightX, topY);
-            trapezoidPath.lineTo(bottomRightX, bottomY);
-            trapezoidPath.lineTo(bottomLeftX, bottomY);
-            trapezoidPath.close();
-            canvas.drawPath(trapezoidPath, mtdPaint);
-            canvas.drawPath(trapezoidPath, outlinePaint);
+            indicatorPath.rewind();
+            indicatorPath.moveTo(topLeftX, topY);
+            indicatorPath.lineTo(topRightX, topY);
+            indicatorPath.lineTo(bottomRightX, bottomY);
+            indicatorPath.lineTo(bottomLeftX, bottomY);
+            indicatorPath.close();
+            canvas.drawPath(indicatorPath, mtdPaint);
+            canvas.drawPath(indicatorPath, outlinePaint);
             
-            Paint mtdTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mtdTextPaint.setColor(Color.WHITE);
-            mtdTextPaint.setTextAlign(Paint.Align.CENTER);
-            Typeface mtdTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-            if (mtdTypeface != null) {
-                mtdTextPaint.setTypeface(Typeface.create(mtdTypeface, Typeface.BOLD));
-            } else {
-                mtdTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-            }
-            mtdTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.2f);
             float mtdTextX = trapezoidLeft + trapezoidTopWidth / 2.0f;
-            float mtdTextY = centerY - (mtdTextPaint.ascent() + mtdTextPaint.descent()) / 2f;
-            canvas.drawText("МТД", mtdTextX, mtdTextY, mtdTextPaint);
+            float mtdTextY = centerY - (mtdLabelPaint.ascent() + mtdLabelPaint.descent()) / 2f;
+            canvas.drawText("МТД", mtdTextX, mtdTextY, mtdLabelPaint);
             
-            Path parallelogramPath = new Path();
-            parallelogramPath.moveTo(centerX - longSide / 2.0f, centerY + height / 2.0f);
-            parallelogramPath.lineTo(centerX + longSide / 2.0f, centerY + height / 2.0f);
-            parallelogramPath.lineTo(centerX + longSide / 2.0f - horizontalOffset, centerY - height / 2.0f);
-            parallelogramPath.lineTo(centerX - longSide / 2.0f - horizontalOffset, centerY - height / 2.0f);
-            parallelogramPath.close();
-            canvas.drawPath(parallelogramPath, bubblePaint);
-            canvas.drawPath(parallelogramPath, outlinePaint);
+            indicatorPath.rewind();
+            indicatorPath.moveTo(centerX - longSide / 2.0f, centerY + height / 2.0f);
+            indicatorPath.lineTo(centerX + longSide / 2.0f, centerY + height / 2.0f);
+            indicatorPath.lineTo(centerX + longSide / 2.0f - horizontalOffset, centerY - height / 2.0f);
+            indicatorPath.lineTo(centerX - longSide / 2.0f - horizontalOffset, centerY - height / 2.0f);
+            indicatorPath.close();
+            canvas.drawPath(indicatorPath, bubblePaint);
+            canvas.drawPath(indicatorPath, outlinePaint);
         } else {
             canvas.drawCircle(centerX, centerY, radius, bubblePaint);
             canvas.drawCircle(centerX, centerY, radius, outlinePaint);
         }
     }
 
-    private void drawLineIndicatorText(Canvas canvas, Line line, Station station, float centerX, float centerY, float radius, Paint indicatorTextPaint) {
-        if (line == null || station == null) {
-            return;
-        }
-
+    /**
+     * @return номер линии для индикатора у станции или null, если показывать нечего
+     */
+    private String indicatorNumber(Line line, Station station) {
         String displayNumber = line.getLineDisplayNumberForStation(station);
         if (displayNumber == null || displayNumber.trim().isEmpty()) {
             displayNumber = line.getdisplayNumber();
@@ -1192,10 +1915,13 @@ public class MetroMapView extends View {
             displayNumber = line.getId();
         }
         if (displayNumber == null || displayNumber.trim().isEmpty()) {
-            return;
+            return null;
         }
+        return displayNumber;
+    }
 
-        String displayShape = line.getDisplayShape();
+    private void drawIndicatorNumber(Canvas canvas, String displayNumber, String displayShape, float centerX, float centerY,
+                                     float radius, Paint textPaint) {
         float textX = centerX;
         if (displayShape != null && displayShape.equals("PARALLELOGRAM")) {
             float x = radius * 2.0f / 3.0f;
@@ -1206,125 +1932,65 @@ public class MetroMapView extends View {
             float horizontalOffset = x * 0.5f;
             textX = centerX - horizontalOffset / 2.0f;
         }
-        float textY = centerY - (indicatorTextPaint.ascent() + indicatorTextPaint.descent()) / 2f;
-        canvas.drawText(displayNumber, textX, textY, indicatorTextPaint);
+        float textY = centerY - (textPaint.ascent() + textPaint.descent()) / 2f;
+        canvas.drawText(displayNumber, textX, textY, textPaint);
     }
 
     private void drawSelectedStationIndicator(Canvas canvas, float stationX, float stationY) {
         if (selectedStation == null) {
             return;
         }
+        updateSelectedIndicator();
+        if (indicatorLines.isEmpty()) {
+            return;
+        }
 
-        if (isSharedStation(selectedStation)) {
-            List<Line> allLines = findAllLinesForStation(selectedStation);
-            if (allLines == null || allLines.size() < 2) {
-                return;
-            }
-
-            float radius = 40f;
-            float verticalSpacing = 30f;
-            float shapeCenterY = stationY - radius - verticalSpacing;
-            float horizontalSpacing = radius * 2.5f;
-            float startX = stationX - (horizontalSpacing * (allLines.size() - 1)) / 2f;
-
-            Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            bubblePaint.setStyle(Paint.Style.FILL);
+        float radius = 40f;
+        float verticalSpacing = 30f;
+        float shapeCenterY = stationY - radius - verticalSpacing;
+        float horizontalSpacing = radius * 2.5f;
+        float startX = stationX - (horizontalSpacing * (indicatorLines.size() - 1)) / 2f;
 
-            Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            outlinePaint.setStyle(Paint.Style.STROKE);
-            outlinePaint.setStrokeWidth(6f);
-            outlinePaint.setColor(mapBackgroundColor);
+        for (int i = 0; i < indicatorLines.size(); i++) {
+            Line line = indicatorLines.get(i);
+            float centerX = startX + horizontalSpacing * i;
+            indicatorBubblePaint.setColor(lineColorValue(line));
 
-            Paint indicatorTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            indicatorTextPaint.setColor(mapStationFillColor);
-            indicatorTextPaint.setTextAlign(Paint.Align.CENTER);
-            Typeface indicatorTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-            if (indicatorTypeface != null) {
-                indicatorTextPaint.setTypeface(indicatorTypeface);
-            } else {
-                indicatorTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+            drawLineIndicatorShape(canvas, line, centerX, shapeCenterY, radius, indicatorBubblePaint, indicatorOutlinePaint, mtdTextPaint);
+            if (indicatorNumbers[i] != null) {
+                drawIndicatorNumber(canvas, indicatorNumbers[i], line.getDisplayShape(), centerX, shapeCenterY, radius, indicatorTextPaint);
             }
-            indicatorTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.6f);
-
-            for (int i = 0; i < allLines.size(); i++) {
-                Line line = allLines.get(i);
-                Station lineStation = findStationInLine(selectedStation, line);
-                if (lineStation == null) {
-                    lineStation = selectedStation;
-                }
-
-                float centerX = startX + horizontalSpacing * i;
-                float centerY = shapeCenterY;
-
-                int lineColor = parseColorSafely(line.getColor(), mapTextColor);
-                bubblePaint.setColor(lineColor);
+        }
+    }
 
-                drawLineIndicatorShape(canvas, line, lineStation, centerX, centerY, radius, bubblePaint, outlinePaint);
-                drawLineIndicatorText(canvas, line, lineStation, centerX, centerY, radius, indicatorTextPaint);
+    /**
+     * Линии и номера индикатора выбранной станции: считаются при смене станции, а не на каждом кадре.
+     * У смежной станции показываются все её линии, у обычной — её линия, если у неё есть номер.
+     */
+    private void updateSelectedIndicator() {
+        if (indicatorStation == selectedStation) {
+            return;
+        }
+        indicatorStation = selectedStation;
+        indicatorLines = Collections.emptyList();
+        if (isSharedStation(selectedStation)) {
+            List<Line> allLines = findAllLinesForStation(selectedStation);
+            if (allLines != null && allLines.size() >= 2) {
+                indicatorLines = allLines;
             }
         } else {
             Line lineForStation = findLineForStation(selectedStation);
-            if (lineForStation == null) {
-                return;
-            }
-
-            String displayNumber = lineForStation.getLineDisplayNumberForStation(selectedStation);
-            if (displayNumber == null || displayNumber.trim().isEmpty()) {
-                displayNumber = lineForStation.getdisplayNumber();
-            }
-            if (displayNumber == null || displayNumber.trim().isEmpty()) {
-                displayNumber = lineForStation.getId();
+            if (lineForStation != null && indicatorNumber(lineForStation, selectedStation) != null) {
+                indicatorLines = Collections.singletonList(lineForStation);
             }
-            if (displayNumber == null || displayNumber.trim().isEmpty()) {
-                return;
-            }
-
-            int lineColor = parseColorSafely(lineForStation.getColor(), mapTextColor);
-            String displayShape = lineForStation.getDisplayShape();
-            float radius = 40f;
-            float verticalSpacing = 30f;
-            float shapeCenterY = stationY - radius - verticalSpacing;
-            float centerX = stationX;
-            float centerY = shapeCenterY;
-
-            Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            bubblePaint.setStyle(Paint.Style.FILL);
-            bubblePaint.setColor(lineColor);
-
-            Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            outlinePaint.setStyle(Paint.Style.STROKE);
-            outlinePaint.setStrokeWidth(6f);
-            outlinePaint.setColor(mapBackgroundColor);
-
-            drawLineIndicatorShape(canvas, lineForStation, selectedStation, centerX, centerY, radius, bubblePaint, outlinePaint);
-
-            Paint indicatorTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            indicatorTextPaint.setColor(mapStationFillColor);
-            indicatorTextPaint.setTextAlign(Paint.Align.CENTER);
-            Typeface indicatorTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-            if (indicatorTypeface != null) {
-                indicatorTextPaint.setTypeface(indicatorTypeface);
-            } else {
-                indicatorTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-            }
-            indicatorTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.6f);
-
-            drawLineIndicatorText(canvas, lineForStation, selectedStation, centerX, centerY, radius, indicatorTextPaint);
-        }
-    }
-
-    private Station findStationInLine(Station station, Line line) {
-        if (station == null || line == null || station.getId() == null || line.getStations() == null) {
-            return null;
-        }
-        String stationId = station.getId();
-        for (Station lineStation : line.getStations()) {
-            if (lineStation != null && lineStation.getId() != null && lineStation.getId().equals(stationId)) {
-                return lineStation;
-            }
-        }
-        return null;
-    }
+        }
+        indicatorNumbers = new String[indicatorLines.size()];
+        for (int i = 0; i < indicatorLines.size(); i++) {
+            Line line = indicatorLines.get(i);
+            Station lineStation = getMapIndex().findStationInLine(selectedStation, line);
+            indicatorNumbers[i] = indicatorNumber(line, lineStation != null ? lineStation : selectedStation);
+        }
+    }
 
     private LinePath findLinePathForSegment(Station station1, Station station2, List<LinePath> routeLinesPaths) {
         for (LinePath lp : routeLinesPaths) {
@@ -1334,9 +2000,10 @@ public class MetroMapView extends View {
                     int idx1 = lineStations.indexOf(station1);
                     int idx2 = lineStations.indexOf(station2);
                     if (Math.abs(idx1 - idx2) == 1) {
-                        String lineName = lp.line.getName() != null ? lp.line.getName() : lp.line.getId();
-                        Log.d("ROUTE_INFO", String.format("findLinePathForSegment: %s -> %s, найдена линия: %s", 
-                            station1.getName(), station2.getName(), lineName));
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("findLinePathForSegment: %s -> %s, найдена линия: %s", 
+                                station1.getName(), station2.getName(), traceLineName(lp.line)));
+                        }
                         return lp;
                     }
                 }
@@ -1345,6 +2012,14 @@ public class MetroMapView extends View {
         return null;
     }
 
+    // Имя линии для отладочного лога маршрута
+    private static String traceLineName(Line line) {
+        if (line == null) {
+            return "null";
+        }
+        return line.getName() != null ? line.getName() : line.getId();
+    }
+
     private Path buildContinuousPathForSegment(List<Station> route, int startIndex, int endIndex, Line line) {
         Path continuousPath = new Path();
         
@@ -1352,18 +2027,21 @@ public class MetroMapView extends View {
             return continuousPath;
         }
         
-        String lineName = line != null ? (line.getName() != null ? line.getName() : line.getId()) : "null";
-        Log.d("ROUTE_INFO", String.format("buildContinuousPathForSegment: [%d-%d], линия: %s", startIndex, endIndex, lineName));
+        if (RouteTrace.ENABLED) {
+            Log.d("ROUTE_INFO", String.format("buildContinuousPathForSegment: [%d-%d], линия: %s", startIndex, endIndex, traceLineName(line)));
+        }
         
         boolean firstPoint = true;
         
         for (int i = startIndex; i <= endIndex; i++) {
             Station station = route.get(i);
             if (i == startIndex || i == endIndex) {
-                Log.d("ROUTE_INFO", String.format("  [%d] %s (ID: %s)", i, station.getName(), station.getId()));
+                if (RouteTrace.ENABLED) {
+                    Log.d("ROUTE_INFO", String.format("  [%d] %s (ID: %s)", i, station.getName(), station.getId()));
+                }
             }
-            float x = station.getX() * currentCoordinateScaleFactor;
-            float y = station.getY() * currentCoordinateScaleFactor;
+            float x = buildInputs.x(station) * buildInputs.coordinateScale;
+            float y = buildInputs.y(station) * buildInputs.coordinateScale;
             
             if (firstPoint) {
                 continuousPath.moveTo(x, y);
@@ -1371,7 +2049,7 @@ public class MetroMapView extends View {
             } else {
                 if (i > startIndex) {
                     Station prevStation = route.get(i - 1);
-                    LinePath lp = findLinePathForSegment(prevStation, station, routePathCache.routeLinesPaths);
+                    LinePath lp = findLinePathForSegment(prevStation, station, routeBuildCache.routeLinesPaths);
                     
                     if (lp != null && lp.path != null) {
                         PathMeasure measure = new PathMeasure(lp.path, false);
@@ -1403,7 +2081,8 @@ public class MetroMapView extends View {
         return continuousPath;
     }
 
-    private void drawRouteLineIndicator(Canvas canvas, float centerX, float centerY, Line line, List<RouteLineSegment> allRouteSegments, RouteLineSegment currentSegment) {
+    private void drawRouteLineIndicator(Canvas canvas, float centerX, float centerY, RouteLineSegment segment, List<RouteLineSegment> allRouteSegments) {
+        Line line = segment.line;
         if (line == null) {
             return;
         }
@@ -1416,13 +2095,28 @@ public class MetroMapView extends View {
             return;
         }
 
-        int lineColor = parseColorSafely(line.getColor(), mapTextColor);
-        String displayShape = line.getDisplayShape();
         float radius = 40f;
-        float baseSpacing = 150f;
-        float spacing = baseSpacing;
-        float routeLineWidth = 9f;
-        float minDistanceFromRoute = radius + routeLineWidth / 2f + 30f;
+        // Место индикатора ищется один раз и запоминается в отрезке маршрута
+        if ((segment.cachedIndicatorX == null || segment.cachedIndicatorY == null)
+                && !placeRouteLineIndicator(centerX, centerY, radius, segment, allRouteSegments)) {
+            return;
+        }
+        float bestX = segment.cachedIndicatorX;
+        float bestY = segment.cachedIndicatorY;
+
+        indicatorBubblePaint.setColor(segment.colorValue);
+        drawLineIndicatorShape(canvas, line, bestX, bestY, radius, indicatorBubblePaint, indicatorOutlinePaint, mtdTextPaint);
+        drawIndicatorNumber(canvas, displayNumber, line.getDisplayShape(), bestX, bestY, radius, indicatorTextPaint);
+    }
+
+    /**
+     * Ищет вокруг центра отрезка место индикатора, не задевающее линии маршрута, и запоминает его в отрезке.
+     *
+     * @return false, если места не нашлось
+     */
+    private boolean placeRouteLineIndicator(float centerX, float centerY, float radius, RouteLineSegment currentSegment, List<RouteLineSegment> allRouteSegments) {
+        String displayShape = currentSegment.line.getDisplayShape();
+        float spacing = 150f;
 
         boolean isVerticalLine = false;
         if (allRouteSegments != null && !allRouteSegments.isEmpty()) {
@@ -1465,53 +2159,36 @@ public class MetroMapView extends View {
             };
         }
 
-        float bestX;
-        float bestY;
-        float bestScore;
-        
-        if (currentSegment != null && currentSegment.cachedIndicatorX != null && currentSegment.cachedIndicatorY != null) {
-            bestX = currentSegment.cachedIndicatorX;
-            bestY = currentSegment.cachedIndicatorY;
-            bestScore = 1f;
-        } else {
-            bestX = centerX;
-            bestY = centerY;
-            if (isVerticalLine) {
-                bestX = centerX + radius + spacing;
-                bestY = centerY;
-            } else {
-                bestY = centerY - radius - spacing;
-            }
-            bestScore = -1f;
+        float bestX = centerX;
+        float bestY = centerY;
+        float bestScore = -1f;
+
+        for (int i = 0; i < positions.length; i += 2) {
+            float testX = positions[i];
+            float testY = positions[i + 1];
 
-            for (int i = 0; i < positions.length; i += 2) {
-                float testX = positions[i];
-                float testY = positions[i + 1];
-            
             boolean overlapsRoute = false;
             float minDistToRoute = Float.MAX_VALUE;
-            
+
             for (RouteLineSegment segment : allRouteSegments) {
                 if (segment == null) {
                     continue;
                 }
-                
-                boolean lineIntersect = checkLineIntersection(segment, testX, testY, radius, displayShape);
-                
-                if (lineIntersect) {
+
+                if (checkLineIntersection(segment, testX, testY, radius, displayShape)) {
                     overlapsRoute = true;
                     break;
                 }
-                
+
                 PathMeasure measure = new PathMeasure(segment.segmentPath, false);
                 float pathLength = measure.getLength();
-                
+
                 if (pathLength > 0) {
+                    float[] pos = new float[2];
+                    float[] tan = new float[2];
                     for (float t = 0; t <= pathLength; t += 5f) {
-                        float[] pos = new float[2];
-                        float[] tan = new float[2];
                         if (measure.getPosTan(t, pos, tan)) {
-                            float dist = (float) Math.sqrt(Math.pow(testX - pos[0], 2) + Math.pow(testY - pos[1], 2));
+                            float dist = (float) Math.hypot(testX - pos[0], testY - pos[1]);
                             if (dist < minDistToRoute) {
                                 minDistToRoute = dist;
                             }
@@ -1519,17 +2196,14 @@ public class MetroMapView extends View {
                     }
                 }
             }
-            
-            if (!overlapsRoute) {
-                float score = minDistToRoute;
-                if (score > bestScore) {
-                    bestScore = score;
-                    bestX = testX;
-                    bestY = testY;
-                }
+
+            if (!overlapsRoute && minDistToRoute > bestScore) {
+                bestScore = minDistToRoute;
+                bestX = testX;
+                bestY = testY;
             }
         }
-        
+
         if (bestScore < 0) {
             float maxSpacing = spacing * 2.0f;
             float[] extendedPositions;
@@ -1558,26 +2232,19 @@ public class MetroMapView extends View {
                     centerX + radius + maxSpacing, centerY + radius + maxSpacing
                 };
             }
-            
+
             for (int i = 0; i < extendedPositions.length; i += 2) {
                 float testX = extendedPositions[i];
                 float testY = extendedPositions[i + 1];
-                
+
                 boolean overlapsRoute = false;
-                
                 for (RouteLineSegment segment : allRouteSegments) {
-                    if (segment == null) {
-                        continue;
-                    }
-                    
-                    boolean lineIntersect = checkLineIntersection(segment, testX, testY, radius, displayShape);
-                    
-                    if (lineIntersect) {
+                    if (segment != null && checkLineIntersection(segment, testX, testY, radius, displayShape)) {
                         overlapsRoute = true;
                         break;
                     }
                 }
-                
+
                 if (!overlapsRoute) {
                     bestX = testX;
                     bestY = testY;
@@ -1586,126 +2253,13 @@ public class MetroMapView extends View {
                 }
             }
         }
-        }
-        
-        if (bestScore < 0) {
-            return;
-        }
-        
-        if (currentSegment != null && currentSegment.cachedIndicatorX == null && currentSegment.cachedIndicatorY == null) {
-            currentSegment.cachedIndicatorX = bestX;
-            currentSegment.cachedIndicatorY = bestY;
-        }
-
-        Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        bubblePaint.setStyle(Paint.Style.FILL);
-        bubblePaint.setColor(lineColor);
-
-        Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        outlinePaint.setStyle(Paint.Style.STROKE);
-        outlinePaint.setStrokeWidth(6f);
-        outlinePaint.setColor(mapBackgroundColor);
-
-        if (displayShape != null && displayShape.equals("SQUARE")) {
-            RectF squareRect = new RectF(bestX - radius, bestY - radius, bestX + radius, bestY + radius);
-            canvas.drawRect(squareRect, bubblePaint);
-            canvas.drawRect(squareRect, outlinePaint);
-        } else if (displayShape != null && displayShape.equals("PARALLELOGRAM")) {
-            float x = radius * 2.0f / 3.0f;
-            float longSide = radius * 2.0f;
-            float height = x * (float) Math.sqrt(3.0);
-            float horizontalOffset = x * 0.5f;
-            
-            Path parallelogramPath = new Path();
-            parallelogramPath.moveTo(bestX - longSide / 2.0f, bestY + height / 2.0f);
-            parallelogramPath.lineTo(bestX + longSide / 2.0f, bestY + height / 2.0f);
-            parallelogramPath.lineTo(bestX + longSide / 2.0f + horizontalOffset, bestY - height / 2.0f);
-            parallelogramPath.lineTo(bestX - longSide / 2.0f + horizontalOffset, bestY - height / 2.0f);
-            parallelogramPath.close();
-            canvas.drawPath(parallelogramPath, bubblePaint);
-            canvas.drawPath(parallelogramPath, outlinePaint);
-        } else if (displayShape != null && displayShape.equals("MTD")) {
-            float x = radius * 2.0f / 3.0f;
-            float longSide = radius * 2.0f;
-            float height = x * (float) Math.sqrt(3.0);
-            float horizontalOffset = x * 0.5f;
-            
-            float trapezoidOffset = radius * 0.3f;
-            float trapezoidTopWidth = longSide * 1.3f;
-            float trapezoidHeight = height;
-            
-            Paint mtdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mtdPaint.setColor(parseColorSafely("#4564B7", mapTextColor));
-            mtdPaint.setStyle(Paint.Style.FILL);
-            
-            Path trapezoidPath = new Path();
-            float trapezoidLeft = bestX - longSide / 2.0f - trapezoidTopWidth - trapezoidOffset;
-            float topLeftX = trapezoidLeft;
-            float topRightX = trapezoidLeft + trapezoidTopWidth;
-            float topY = bestY + trapezoidHeight / 2.0f;
-            float bottomY = bestY - trapezoidHeight / 2.0f;
-            
-            float bottomLeftX = topLeftX + horizontalOffset;
-            float bottomRightX = topRightX - horizontalOffset;
-            
-            trapezoidPath.moveTo(topLeftX, topY);
-            trapezoidPath.lineTo(topRightX, topY);
-            trapezoidPath.lineTo(bottomRightX, bottomY);
-            trapezoidPath.lineTo(bottomLeftX, bottomY);
-            trapezoidPath.close();
-            canvas.drawPath(trapezoidPath, mtdPaint);
-            canvas.drawPath(trapezoidPath, outlinePaint);
-            
-            Paint mtdTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mtdTextPaint.setColor(Color.WHITE);
-            mtdTextPaint.setTextAlign(Paint.Align.CENTER);
-            Typeface mtdTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-            if (mtdTypeface != null) {
-                mtdTextPaint.setTypeface(Typeface.create(mtdTypeface, Typeface.BOLD));
-            } else {
-                mtdTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-            }
-            mtdTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.2f);
-            float mtdTextX = trapezoidLeft + trapezoidTopWidth / 2.0f;
-            float mtdTextY = bestY - (mtdTextPaint.ascent() + mtdTextPaint.descent()) / 2f;
-            canvas.drawText("МТД", mtdTextX, mtdTextY, mtdTextPaint);
-            
-            Path parallelogramPath = new Path();
-            parallelogramPath.moveTo(bestX - longSide / 2.0f, bestY + height / 2.0f);
-            parallelogramPath.lineTo(bestX + longSide / 2.0f, bestY + height / 2.0f);
-            parallelogramPath.lineTo(bestX + longSide / 2.0f - horizontalOffset, bestY - height / 2.0f);
-            parallelogramPath.lineTo(bestX - longSide / 2.0f - horizontalOffset, bestY - height / 2.0f);
-            parallelogramPath.close();
-            canvas.drawPath(parallelogramPath, bubblePaint);
-            canvas.drawPath(parallelogramPath, outlinePaint);
-        } else {
-            canvas.drawCircle(bestX, bestY, radius, bubblePaint);
-            canvas.drawCircle(bestX, bestY, radius, outlinePaint);
-        }
-
-        Paint indicatorTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        indicatorTextPaint.setColor(mapStationFillColor);
-        indicatorTextPaint.setTextAlign(Paint.Align.CENTER);
-        Typeface indicatorTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-        if (indicatorTypeface != null) {
-            indicatorTextPaint.setTypeface(indicatorTypeface);
-        } else {
-            indicatorTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-        }
-        indicatorTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.6f);
 
-        float textX = bestX;
-        if (displayShape != null && displayShape.equals("PARALLELOGRAM")) {
-            float x = radius * 2.0f / 3.0f;
-            float horizontalOffset = x * 0.5f;
-            textX = bestX + horizontalOffset / 2.0f;
-        } else if (displayShape != null && displayShape.equals("MTD")) {
-            float x = radius * 2.0f / 3.0f;
-            float horizontalOffset = x * 0.5f;
-            textX = bestX - horizontalOffset / 2.0f;
+        if (bestScore < 0) {
+            return false;
         }
-        float textY = bestY - (indicatorTextPaint.ascent() + indicatorTextPaint.descent()) / 2f;
-        canvas.drawText(displayNumber, textX, textY, indicatorTextPaint);
+        currentSegment.cachedIndicatorX = bestX;
+        currentSegment.cachedIndicatorY = bestY;
+        return true;
     }
 
     private float distanceFromRectToPoint(RectF rect, float x, float y) {
@@ -1919,7 +2473,8 @@ public class MetroMapView extends View {
 
         float minVisibleLength = 500f;
 
-        for (Line line : activeLines) {
+        for (int l = 0; l < activeLines.size(); l++) {
+            Line line = activeLines.get(l);
             List<Station> lineStations = line.getStations();
             if (lineStations == null || lineStations.isEmpty()) {
                 continue;
@@ -1981,19 +2536,25 @@ public class MetroMapView extends View {
         } else if (isSuburbanMap && suburbanLines != null) {
             return suburbanLines;
         }
-        return new ArrayList<>();
+        return Collections.emptyList();
     }
 
-    private List<DirectionArrow> findNearestActiveLines(int maxCount) {
-        List<DirectionArrow> arrows = new ArrayList<>();
-        
+    /**
+     * Складывает в arrowCandidates стрелки к ближайшим станциям линий за видимой областью,
+     * от ближней к дальней.
+     *
+     * @return сколько первых стрелок рисовать, не больше maxCount
+     */
+    private int findNearestActiveLines(int maxCount) {
+        arrowCandidates.clear();
+
         if (visibleViewport == null || visibleViewport.isEmpty()) {
-            return arrows;
+            return 0;
         }
 
         List<Line> activeLines = getActiveLines();
         if (activeLines == null || activeLines.isEmpty()) {
-            return arrows;
+            return 0;
         }
 
         float viewportCenterX = visibleViewport.centerX();
@@ -2003,9 +2564,8 @@ public class MetroMapView extends View {
         float viewportTop = visibleViewport.top;
         float viewportBottom = visibleViewport.bottom;
 
-        List<DirectionArrow> candidates = new ArrayList<>();
-
-        for (Line line : activeLines) {
+        for (int l = 0; l < activeLines.size(); l++) {
+            Line line = activeLines.get(l);
             List<Station> lineStations = line.getStations();
             if (lineStations == null || lineStations.isEmpty()) {
                 continue;
@@ -2017,7 +2577,8 @@ public class MetroMapView extends View {
             float bestDirectionX = 0;
             float bestDirectionY = -1;
 
-            for (Station station : lineStations) {
+            for (int i = 0; i < lineStations.size(); i++) {
+                Station station = lineStations.get(i);
                 float stationX = station.getX();
                 float stationY = station.getY();
 
@@ -2065,21 +2626,23 @@ public class MetroMapView extends View {
                 float stationDy = nearestStation.getY() - viewportCenterY;
                 float normalizedDx = stationDx / minDistance;
                 float normalizedDy = stationDy / minDistance;
-                candidates.add(new DirectionArrow(line, normalizedDx, normalizedDy, minDistance, bestEdge, nearestStation.getX(), nearestStation.getY()));
+                if (arrowPool.size() == arrowCandidates.size()) {
+                    arrowPool.add(new DirectionArrow());
+                }
+                DirectionArrow arrow = arrowPool.get(arrowCandidates.size());
+                arrow.set(line, normalizedDx, normalizedDy, minDistance, bestEdge, nearestStation.getX(), nearestStation.getY());
+                arrowCandidates.add(arrow);
             }
         }
 
-        candidates.sort((a, b) -> Float.compare(a.distance, b.distance));
-
-        int count = Math.min(maxCount, candidates.size());
-        for (int i = 0; i < count; i++) {
-            arrows.add(candidates.get(i));
-        }
-
-        return arrows;
+        arrowCandidates.sort(ARROW_DISTANCE_ORDER);
+        return Math.min(maxCount, arrowCandidates.size());
     }
 
-    private PointF calculateArrowPosition(DirectionArrow arrow, float screenWidth, float screenHeight) {
+    /**
+     * Записывает в out точку стрелки у края экрана напротив ближайшей станции линии.
+     */
+    private void calculateArrowPosition(DirectionArrow arrow, float screenWidth, float screenHeight, PointF out) {
         float margin = 60f;
         float bottomMargin = 200f;
         float arrowRadius = 35f;
@@ -2087,18 +2650,9 @@ public class MetroMapView extends View {
         float stationMapX = arrow.nearestStationX;
         float stationMapY = arrow.nearestStationY;
         
-        float[] stationScreen = {
-            stationMapX * currentCoordinateScaleFactor,
-            stationMapY * currentCoordinateScaleFactor
-        };
-        
-        Matrix screenMatrix = new Matrix();
-        screenMatrix.postTranslate(translateX, translateY);
-        screenMatrix.postScale(scaleFactor, scaleFactor);
-        screenMatrix.mapPoints(stationScreen);
-        
-        float stationScreenX = stationScreen[0];
-        float stationScreenY = stationScreen[1];
+        // Сдвиг, затем масштаб — как у матрицы кадра
+        float stationScreenX = (stationMapX * currentCoordinateScaleFactor + translateX) * scaleFactor;
+        float stationScreenY = (stationMapY * currentCoordinateScaleFactor + translateY) * scaleFactor;
         
         float x = 0;
         float y = 0;
@@ -2122,7 +2676,7 @@ public class MetroMapView extends View {
                 break;
         }
 
-        return new PointF(x, y);
+        out.set(x, y);
     }
 
     private void drawDirectionArrow(Canvas canvas, DirectionArrow arrow, float x, float y) {
@@ -2138,126 +2692,17 @@ public class MetroMapView extends View {
             return;
         }
 
-        int lineColor = parseColorSafely(arrow.line.getColor(), mapTextColor);
-        String displayShape = arrow.line.getDisplayShape();
         float radius = 35f;
-
-        Paint bubblePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        bubblePaint.setStyle(Paint.Style.FILL);
-        bubblePaint.setColor(lineColor);
-
-        Paint outlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        outlinePaint.setStyle(Paint.Style.STROKE);
-        outlinePaint.setStrokeWidth(6f);
-        outlinePaint.setColor(mapBackgroundColor);
-
-        if (displayShape != null && displayShape.equals("SQUARE")) {
-            RectF squareRect = new RectF(x - radius, y - radius, x + radius, y + radius);
-            canvas.drawRect(squareRect, bubblePaint);
-            canvas.drawRect(squareRect, outlinePaint);
-        } else if (displayShape != null && displayShape.equals("PARALLELOGRAM")) {
-            float xShape = radius * 2.0f / 3.0f;
-            float longSide = radius * 2.0f;
-            float height = xShape * (float) Math.sqrt(3.0);
-            float horizontalOffset = xShape * 0.5f;
-            
-            Path parallelogramPath = new Path();
-            parallelogramPath.moveTo(x - longSide / 2.0f, y + height / 2.0f);
-            parallelogramPath.lineTo(x + longSide / 2.0f, y + height / 2.0f);
-            parallelogramPath.lineTo(x + longSide / 2.0f + horizontalOffset, y - height / 2.0f);
-            parallelogramPath.lineTo(x - longSide / 2.0f + horizontalOffset, y - height / 2.0f);
-            parallelogramPath.close();
-            canvas.drawPath(parallelogramPath, bubblePaint);
-            canvas.drawPath(parallelogramPath, outlinePaint);
-        } else if (displayShape != null && displayShape.equals("MTD")) {
-            float xShape = radius * 2.0f / 3.0f;
-            float longSide = radius * 2.0f;
-            float height = xShape * (float) Math.sqrt(3.0);
-            float horizontalOffset = xShape * 0.5f;
-            
-            float trapezoidOffset = radius * 0.3f;
-            float trapezoidTopWidth = longSide * 1.3f;
-            float trapezoidHeight = height;
-            
-            Paint mtdPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mtdPaint.setColor(parseColorSafely("#4564B7", mapTextColor));
-            mtdPaint.setStyle(Paint.Style.FILL);
-            
-            Path trapezoidPath = new Path();
-            float trapezoidLeft = x - longSide / 2.0f - trapezoidTopWidth - trapezoidOffset;
-            float topLeftX = trapezoidLeft;
-            float topRightX = trapezoidLeft + trapezoidTopWidth;
-            float topY = y + trapezoidHeight / 2.0f;
-            float bottomY = y - trapezoidHeight / 2.0f;
-            
-            float bottomLeftX = topLeftX + horizontalOffset;
-            float bottomRightX = topRightX - horizontalOffset;
-            
-            trapezoidPath.moveTo(topLeftX, topY);
-            trapezoidPath.lineTo(topRightX, topY);
-            trapezoidPath.lineTo(bottomRightX, bottomY);
-            trapezoidPath.lineTo(bottomLeftX, bottomY);
-            trapezoidPath.close();
-            canvas.drawPath(trapezoidPath, mtdPaint);
-            canvas.drawPath(trapezoidPath, outlinePaint);
-            
-            Paint mtdTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-            mtdTextPaint.setColor(Color.WHITE);
-            mtdTextPaint.setTextAlign(Paint.Align.CENTER);
-            Typeface mtdTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-            if (mtdTypeface != null) {
-                mtdTextPaint.setTypeface(Typeface.create(mtdTypeface, Typeface.BOLD));
-            } else {
-                mtdTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-            }
-            mtdTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.0f);
-            float mtdTextX = trapezoidLeft + trapezoidTopWidth / 2.0f;
-            float mtdTextY = y - (mtdTextPaint.ascent() + mtdTextPaint.descent()) / 2f;
-            canvas.drawText("МТД", mtdTextX, mtdTextY, mtdTextPaint);
-            
-            Path parallelogramPath = new Path();
-            parallelogramPath.moveTo(x - longSide / 2.0f, y + height / 2.0f);
-            parallelogramPath.lineTo(x + longSide / 2.0f, y + height / 2.0f);
-            parallelogramPath.lineTo(x + longSide / 2.0f - horizontalOffset, y - height / 2.0f);
-            parallelogramPath.lineTo(x - longSide / 2.0f - horizontalOffset, y - height / 2.0f);
-            parallelogramPath.close();
-            canvas.drawPath(parallelogramPath, bubblePaint);
-            canvas.drawPath(parallelogramPath, outlinePaint);
-        } else {
-            canvas.drawCircle(x, y, radius, bubblePaint);
-            canvas.drawCircle(x, y, radius, outlinePaint);
-        }
-
-        Paint indicatorTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        indicatorTextPaint.setColor(mapStationFillColor);
-        indicatorTextPaint.setTextAlign(Paint.Align.CENTER);
-        Typeface indicatorTypeface = ResourcesCompat.getFont(getContext(), R.font.emyslabaltblack);
-        if (indicatorTypeface != null) {
-            indicatorTextPaint.setTypeface(indicatorTypeface);
-        } else {
-            indicatorTextPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
-        }
-        indicatorTextPaint.setTextSize(STATION_NAME_TEXT_SIZE * 1.4f);
-
-        float textX = x;
-        if (displayShape != null && displayShape.equals("PARALLELOGRAM")) {
-            float xShape = radius * 2.0f / 3.0f;
-            float horizontalOffset = xShape * 0.5f;
-            textX = x + horizontalOffset / 2.0f;
-        } else if (displayShape != null && displayShape.equals("MTD")) {
-            float xShape = radius * 2.0f / 3.0f;
-            float horizontalOffset = xShape * 0.5f;
-            textX = x - horizontalOffset / 2.0f;
-        }
-        float textY = y - (indicatorTextPaint.ascent() + indicatorTextPaint.descent()) / 2f;
-        canvas.drawText(displayNumber, textX, textY, indicatorTextPaint);
+        indicatorBubblePaint.setColor(lineColorValue(arrow.line));
+        drawLineIndicatorShape(canvas, arrow.line, x, y, radius, indicatorBubblePaint, indicatorOutlinePaint, arrowMtdTextPaint);
+        drawIndicatorNumber(canvas, displayNumber, arrow.line.getDisplayShape(), x, y, radius, arrowTextPaint);
 
         float arrowLength = 25f;
         float arrowHeadSize = 12f;
         float arrowX = x + arrow.directionX * (radius + arrowLength);
         float arrowY = y + arrow.directionY * (radius + arrowLength);
 
-        Path arrowPath = new Path();
+        arrowPath.rewind();
         arrowPath.moveTo(x + arrow.directionX * radius, y + arrow.directionY * radius);
         arrowPath.lineTo(arrowX, arrowY);
 
@@ -2269,12 +2714,6 @@ public class MetroMapView extends View {
         arrowPath.lineTo(arrowX + perpX * arrowHeadSize - arrow.directionX * arrowHeadSize, 
                          arrowY + perpY * arrowHeadSize - arrow.directionY * arrowHeadSize);
 
-        Paint arrowPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-        arrowPaint.setStyle(Paint.Style.STROKE);
-        arrowPaint.setStrokeWidth(4f);
-        arrowPaint.setColor(mapBackgroundColor);
-        arrowPaint.setStrokeCap(Paint.Cap.ROUND);
-        arrowPaint.setStrokeJoin(Paint.Join.ROUND);
         canvas.drawPath(arrowPath, arrowPaint);
     }
 
@@ -2293,259 +2732,86 @@ public class MetroMapView extends View {
             canvas.drawBitmap(bg, 0, 0, null);
         }
 
-        // Initialize or update path cache if needed
-        if (!pathCache.isInitialized || needsRedraw) {
-            updatePathCache();
+        // Устаревшие кэши путей собираются в фоне, а кадр рисует прежний снимок
+        if (!pathCacheBuildPending) {
+            requestPathCacheBuild();
         }
 
-        // Draw grayed lines/stations with transform
-//        if (grayedLines != null && !grayedLines.isEmpty()) {
-            int saveCount = canvas.save();
-            drawGrayedMap(canvas);
-            canvas.restoreToCount(saveCount);
-//        }
-
-        // Draw cached paths
-        if (rivers != null) {
-            canvas.drawPath(pathCache.riversPath, riverPaint);
+        // Видимая область в координатах кэша: рисуются только элементы тайлов, которые её задевают
+        float viewLeft = Float.NEGATIVE_INFINITY;
+        float viewTop = Float.NEGATIVE_INFINITY;
+        float viewRight = Float.POSITIVE_INFINITY;
+        float viewBottom = Float.POSITIVE_INFINITY;
+        if (!visibleViewport.isEmpty()) {
+            viewLeft = visibleViewport.left * pathCache.coordinateScale;
+            viewTop = visibleViewport.top * pathCache.coordinateScale;
+            viewRight = visibleViewport.right * pathCache.coordinateScale;
+            viewBottom = visibleViewport.bottom * pathCache.coordinateScale;
         }
 
-        // Draw lines
-        if (isTramMap && !pathCache.segmentInfos.isEmpty()) {
-            for (SegmentInfo segmentInfo : pathCache.segmentInfos.values()) {
-                drawMultiLayeredSegment(canvas, segmentInfo);
-            }
-        } else {
-            for (LinePath linePath : pathCache.linesPaths) {
-
-                linePaint.setColor(parseColorSafely(linePath.color, mapTextColor));
-                canvas.drawPath(linePath.path, linePaint);
-
-                if (linePath.innerPath != null) {
-                    canvas.drawPath(linePath.innerPath, linePath.whitePaint);
-                }
-            }
+        // Статические слои: на аппаратном холсте API 29+ — из RenderNode, на остальных — из растровых тайлов;
+        // если способ этого холста сейчас не используется — векторно
+        boolean staticLayersDrawn = useRenderNodeLayers(canvas)
+                ? drawStaticLayersFromNodes(canvas) : drawStaticLayersFromTiles(canvas);
+        if (!staticLayersDrawn) {
+            int cacheSaveCount = saveForCacheScale(canvas, pathCache.coordinateScale);
+            drawStaticLayers(canvas, viewLeft, viewTop, viewRight, viewBottom);
+            canvas.restoreToCount(cacheSaveCount);
         }
 
-//        // Отрисовка линий речного трамвая
-//        for (LinePath linePath : riverTramLines) {
-//            riverTramPaint.setColor(Color.parseColor(linePath.color));
-//            canvas.drawPath(linePath.path, riverTramPaint);
-//        }
-
-
-        // Transfers will be drawn later (after stations) to ensure overlay
-
-        // Skip partial circles for transfers in simplified layer
-
-        // Ground transfers (dashed) should be the lowest layer
-        Paint dashedStrokeBottom = new Paint();
-        dashedStrokeBottom.setStyle(Paint.Style.STROKE);
-        dashedStrokeBottom.setStrokeWidth(6f);
-        dashedStrokeBottom.setColor(mapTransferStrokeColor);
-        dashedStrokeBottom.setAntiAlias(true);
-        dashedStrokeBottom.setPathEffect(new DashPathEffect(new float[]{20, 10}, 0));
-        canvas.drawPath(pathCache.dashedTransfersPath, dashedStrokeBottom);
-
-        // Draw convex hull
-        Paint fillPaint = new Paint();
-
-        fillPaint.setColor(mapStationFillColor);
-        fillPaint.setStyle(Paint.Style.FILL);
-        canvas.drawPath(pathCache.convexHullPath, fillPaint);
+        if (isEditMode) {
+            drawIntermediatePoints(canvas);
+        }
 
+        // Draw dark overlay and route if exists
+        if (route != null && route.size() > 1) {
+            // Apply dark overlay
+            applyDarkOverlay(canvas, mainSaveCount);
 
-        // Stations will be drawn after transfers to stay on top
+            int routeSaveCount = saveForCacheScale(canvas, routePathCache.coordinateScale);
 
-        // Draw transfers fill on general map (route overlay will darken if active)
-        Paint transferFillPaint = new Paint();
-        transferFillPaint.setStyle(Paint.Style.FILL);
-        transferFillPaint.setColor(mapStationFillColor);
-        transferFillPaint.setAntiAlias(true);
-        canvas.drawPath(pathCache.transfersFillPath, transferFillPaint);
+            // Наземные переходы (ground) — самый нижний слой в режиме маршрута
+            canvas.drawPath(routePathCache.dashedTransfersPath, dashedTransferPaint);
 
-        // Рисуем обычные линии переходов (walking)
-        Paint transferStroke = new Paint();
-        transferStroke.setStyle(Paint.Style.STROKE);
-        transferStroke.setStrokeWidth(6f);
-        transferStroke.setColor(mapTransferStrokeColor);
-        transferStroke.setAntiAlias(true);
-        canvas.drawPath(pathCache.transfersPath, transferStroke);
+            // Заливки переходов маршрута
+            canvas.drawPath(routePathCache.convexHullPath, transferFillPaint);
+            canvas.drawPath(routePathCache.transfersFillPath, transferFillPaint);
 
-        // (ground уже нарисованы самым нижним слоем)
+            // Обычные линии переходов маршрута (walking)
+            canvas.drawPath(routePathCache.transfersPath, transferStrokePaint);
 
-        Paint transferOutline = new Paint();
-        transferOutline.setStyle(Paint.Style.STROKE);
-        transferOutline.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
-        transferOutline.setColor(mapTransferStrokeColor);
-        transferOutline.setAntiAlias(true);
-        canvas.drawPath(pathCache.transfersFillOverlayMainPath, transferOutline);
-        canvas.drawPath(pathCache.transfersFillOverlayAngularPath, transferOutline);
+            canvas.drawPath(routePathCache.transfersFillOverlayMainPath, transferOutlinePaint);
+            canvas.drawPath(routePathCache.transfersFillOverlayAngularPath, transferOutlinePaint);
 
-        // Crossplatform arcs: draw colored arcs per station (fallback to transfer color)
-        for (PartialCircle pc : pathCache.partialCircles) {
-            drawPartialCircleWithColor(canvas,
-                    pc.centerX, pc.centerY,
-                    pc.radius, pc.strokeWidth,
-                    pc.angles, pc.color);
-        }
+            // Crossplatform для маршрута: градиенты
+            for (int i = 0; i < routePathCache.crossStrokes.size(); i++) {
+                drawCrossSegmentStroke(canvas, routePathCache.crossStrokes.get(i));
+            }
 
-        // Crossplatform colored main strokes with gradient center blend
-        for (CrossSegmentStroke s : pathCache.crossStrokes) {
-            float cx = (s.a.x + s.b.x) / 2f;
-            float cy = (s.a.y + s.b.y) / 2f;
-            // Левая половина A->mid: требуется инвертировать — от colorEnd к смешанному
-            int startColor = parseColorSafely(s.colorStart, mapTextColor);
-            int endColor = parseColorSafely(s.colorEnd, mapTextColor);
-            int midBlend = ColorUtils.blendARGB(startColor, endColor, 0.5f);
-
-            Paint p1 = new Paint(Paint.ANTI_ALIAS_FLAG);
-            p1.setStyle(Paint.Style.STROKE);
-            p1.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
-            p1.setShader(new LinearGradient(s.a.x, s.a.y, cx, cy, endColor, midBlend, Shader.TileMode.CLAMP));
-            canvas.drawLine(s.a.x, s.a.y, cx, cy, p1);
-
-            // Правая половина mid->B: инвертировать — от смешанного к colorStart
-            Paint p2 = new Paint(Paint.ANTI_ALIAS_FLAG);
-            p2.setStyle(Paint.Style.STROKE);
-            p2.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
-            p2.setShader(new LinearGradient(cx, cy, s.b.x, s.b.y, midBlend, startColor, Shader.TileMode.CLAMP));
-            canvas.drawLine(cx, cy, s.b.x, s.b.y, p2);
-        }
+            // Draw route partial circles
+            for (int i = 0; i < routePathCache.partialCircles.size(); i++) {
+                PartialCircle partialCircle = routePathCache.partialCircles.get(i);
+                drawPartialCircleWithColor(canvas,
+                        partialCircle.centerX, partialCircle.centerY,
+                        partialCircle.radius, partialCircle.strokeWidth,
+                        partialCircle.angles, partialCircle.colorValue);
+            }
 
-        // Draw stations on top of transfer layer
-        for (StationPath stationPath : pathCache.stationsPaths) {
-            Paint stationFillPaint = new Paint();
+            // Draw route lines
+            for (int i = 0; i < routePathCache.routeLinesPaths.size(); i++) {
+                LinePath routeLinePath = routePathCache.routeLinesPaths.get(i);
+                routePaint.setColor(routeLinePath.colorValue);
+                canvas.drawPath(routeLinePath.path, routePaint);
 
-            stationFillPaint.setColor(mapStationFillColor);
-            stationFillPaint.setStyle(Paint.Style.FILL);
-            canvas.drawPath(stationPath.path, stationFillPaint);
-
-            Paint strokePaint = new Paint();
-
-            int strokeColor;
-            boolean isSharedStationFlag = false;
-            
-            if (stationPath.stationName != null) {
-                Station currentStation = findStationByName(stationPath.stationName);
-                if (currentStation != null) {
-                    isSharedStationFlag = isSharedStation(currentStation);
-                }
-            }
-            
-            if (isSharedStationFlag) {
-                strokeColor = mapTextColor;
-            } else {
-                strokeColor = parseColorSafely(stationPath.color, mapTextColor);
-            }
-            
-            strokePaint.setColor(strokeColor);
-            strokePaint.setStyle(Paint.Style.STROKE);
-            strokePaint.setStrokeWidth(7);
-            canvas.drawPath(stationPath.path, strokePaint);
-
-
-            if (stationPath.textPosition != 9) {
-                drawStationText(canvas, stationPath);
-            }
-        }
-
-        // Draw map objects
-        drawMapObjects(canvas);
-
-        if (isEditMode) {
-            drawIntermediatePoints(canvas);
-        }
-
-        // Синхронизация кэша маршрута: если route == null, но кэш инициализирован, очищаем его
-        if (route == null && routePathCache.isInitialized) {
-            updateRouteCache();
-        }
-
-        // Draw dark overlay and route if exists
-        if (route != null && route.size() > 1) {
-            // Apply dark overlay
-            applyDarkOverlay(canvas, mainSaveCount);
-
-            // Update route cache if needed
-            if (!routePathCache.isInitialized || needsRedraw) {
-                updateRouteCache();
-            }
-
-
-            // Наземные переходы (ground) — самый нижний слой в режиме маршрута
-            Paint routeDashedStroke = new Paint();
-            routeDashedStroke.setStyle(Paint.Style.STROKE);
-            routeDashedStroke.setStrokeWidth(6f);
-            routeDashedStroke.setColor(mapTransferStrokeColor);
-            routeDashedStroke.setAntiAlias(true);
-            routeDashedStroke.setPathEffect(new DashPathEffect(new float[]{20, 10}, 0));
-            canvas.drawPath(routePathCache.dashedTransfersPath, routeDashedStroke);
-
-            // Заливки переходов маршрута
-            Paint routeFill = new Paint();
-            routeFill.setStyle(Paint.Style.FILL);
-            routeFill.setColor(mapStationFillColor);
-            routeFill.setAntiAlias(true);
-            canvas.drawPath(routePathCache.convexHullPath, routeFill);
-            canvas.drawPath(routePathCache.transfersFillPath, routeFill);
-
-            // Обычные линии переходов маршрута (walking)
-            Paint routeTransferStroke = new Paint();
-            routeTransferStroke.setStyle(Paint.Style.STROKE);
-            routeTransferStroke.setStrokeWidth(6f);
-            routeTransferStroke.setColor(mapTransferStrokeColor);
-            routeTransferStroke.setAntiAlias(true);
-            canvas.drawPath(routePathCache.transfersPath, routeTransferStroke);
-
-            Paint routeOutline = new Paint();
-            routeOutline.setStyle(Paint.Style.STROKE);
-            routeOutline.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
-            routeOutline.setColor(mapTransferStrokeColor);
-            routeOutline.setAntiAlias(true);
-            canvas.drawPath(routePathCache.transfersFillOverlayMainPath, routeOutline);
-            canvas.drawPath(routePathCache.transfersFillOverlayAngularPath, routeOutline);
-
-            // Crossplatform для маршрута: градиенты
-            for (CrossSegmentStroke s : routePathCache.crossStrokes) {
-                float cx = (s.a.x + s.b.x) / 2f;
-                float cy = (s.a.y + s.b.y) / 2f;
-                int startColor = parseColorSafely(s.colorStart, mapTextColor);
-                int endColor = parseColorSafely(s.colorEnd, mapTextColor);
-                int midBlend = ColorUtils.blendARGB(startColor, endColor, 0.5f);
-                Paint p1 = new Paint(Paint.ANTI_ALIAS_FLAG);
-                p1.setStyle(Paint.Style.STROKE);
-                p1.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
-                p1.setShader(new LinearGradient(s.a.x, s.a.y, cx, cy, endColor, midBlend, Shader.TileMode.CLAMP));
-                canvas.drawLine(s.a.x, s.a.y, cx, cy, p1);
-                Paint p2 = new Paint(Paint.ANTI_ALIAS_FLAG);
-                p2.setStyle(Paint.Style.STROKE);
-                p2.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
-                p2.setShader(new LinearGradient(cx, cy, s.b.x, s.b.y, midBlend, startColor, Shader.TileMode.CLAMP));
-                canvas.drawLine(cx, cy, s.b.x, s.b.y, p2);
-            }
-
-            // Draw route partial circles
-            for (PartialCircle partialCircle : routePathCache.partialCircles) {
-                drawPartialCircleWithColor(canvas,
-                        partialCircle.centerX, partialCircle.centerY,
-                        partialCircle.radius, partialCircle.strokeWidth,
-                        partialCircle.angles, partialCircle.color);
-            }
-
-            // Draw route lines
-            for (LinePath routeLinePath : routePathCache.routeLinesPaths) {
-
-                routePaint.setColor(parseColorSafely(routeLinePath.color, mapTextColor));
-                canvas.drawPath(routeLinePath.path, routePaint);
-
-                if (routeLinePath.innerPath != null && routeLinePath.whitePaint != null) {
-                    canvas.drawPath(routeLinePath.innerPath, routeLinePath.whitePaint);
-                }
-            }
+                if (routeLinePath.innerPath != null && routeLinePath.whitePaint != null) {
+                    canvas.drawPath(routeLinePath.innerPath, routeLinePath.whitePaint);
+                }
+            }
+            canvas.restoreToCount(routeSaveCount);
 
             // Draw line indicators for continuous segments
-            for (RouteLineSegment segment : routePathCache.routeLineSegments) {
+            for (int segmentIndex = 0; segmentIndex < routePathCache.routeLineSegments.size(); segmentIndex++) {
+                RouteLineSegment segment = routePathCache.routeLineSegments.get(segmentIndex);
                 if (segment.line != null && segment.startIndex >= 0 && segment.endIndex < route.size()) {
                     float sumX = 0f;
                     float sumY = 0f;
@@ -2561,112 +2827,42 @@ public class MetroMapView extends View {
                     if (count > 0) {
                         float centerX = sumX / count;
                         float centerY = sumY / count;
-                        drawRouteLineIndicator(canvas, centerX, centerY, segment.line, routePathCache.routeLineSegments, segment);
+                        drawRouteLineIndicator(canvas, centerX, centerY, segment, routePathCache.routeLineSegments);
                     }
                 }
             }
 
             // Draw route stations
-            for (StationPath routeStationPath : routePathCache.routeStationsPaths) {
-                Paint stationFillPaint = new Paint();
-
-                stationFillPaint.setColor(mapStationFillColor);
-                stationFillPaint.setStyle(Paint.Style.FILL);
+            routeSaveCount = saveForCacheScale(canvas, routePathCache.coordinateScale);
+            for (int i = 0; i < routePathCache.routeStationsPaths.size(); i++) {
+                StationPath routeStationPath = routePathCache.routeStationsPaths.get(i);
                 canvas.drawPath(routeStationPath.path, stationFillPaint);
 
-                Paint strokePaint = new Paint();
-
-                int strokeColor;
-                if (routeStationPath.stationName != null) {
-                    Station currentStation = findStationByName(routeStationPath.stationName);
-                    if (currentStation != null && isSharedStation(currentStation)) {
-                        strokeColor = mapTextColor;
-                    } else {
-                        strokeColor = parseColorSafely(routeStationPath.color, mapTextColor);
-                    }
-                } else {
-                    strokeColor = parseColorSafely(routeStationPath.color, mapTextColor);
-                }
-
-                strokePaint.setColor(strokeColor);
-                strokePaint.setStyle(Paint.Style.STROKE);
-                strokePaint.setStrokeWidth(7);
-                canvas.drawPath(routeStationPath.path, strokePaint);
-
-                // Отрисовка текста станции маршрута белым цветом
-                if (routeStationPath.textPosition != 9) { // 9 - не отображать текст
-                    drawRouteStationText(canvas, routeStationPath);
+                routeStationStrokePaint.setColor(routeStationPath.sharedStroke ? mapTextColor : routeStationPath.colorValue);
+                canvas.drawPath(routeStationPath.path, routeStationStrokePaint);
 
-                } else {
-                    // Переходная станция: найдём «сестру» с позицией текста != 9 и используем её геометрию
-                    Station labelStation = findLabelStationForTransferByName(routeStationPath.stationName);
-                    if (labelStation != null) {
-                        Path sp = new Path();
-                        float sx = labelStation.getX() * currentCoordinateScaleFactor;
-                        float sy = labelStation.getY() * currentCoordinateScaleFactor;
-                        sp.addCircle(sx, sy, 14, Path.Direction.CW);
-                        String fallbackColor = labelStation.getColor();
-                        if (fallbackColor == null || fallbackColor.trim().isEmpty()) {
-                            fallbackColor = routeStationPath.color;
-                        }
-                        Float labelXScaled = null;
-                        Float labelYScaled = null;
-                        if (labelStation.hasLabelCoordinates()) {
-                            labelXScaled = labelStation.getLabelX() * currentCoordinateScaleFactor;
-                            labelYScaled = labelStation.getLabelY() * currentCoordinateScaleFactor;
-                        }
-                        StationPath fallback = new StationPath(sp, fallbackColor, labelStation.getTextPosition(), labelStation.getName(), labelXScaled, labelYScaled);
-                        drawRouteStationText(canvas, fallback);
-                    }
-                }
+                // Переходная станция без подписи подписывается по геометрии «сестры» из перехода
+                drawRouteStationText(canvas, routeStationPath.textPosition != 9 ? routeStationPath : routeStationPath.labelFallback);
             }
 
             // Бледные точки станций, входящих в переходы маршрута
-            for (StationPath faint : routePathCache.routeFaintStationsPaths) {
+            for (int i = 0; i < routePathCache.routeFaintStationsPaths.size(); i++) {
+                StationPath faint = routePathCache.routeFaintStationsPaths.get(i);
                 // Заливка как у обычной станции
-                Paint faintFill = new Paint(Paint.ANTI_ALIAS_FLAG);
-                faintFill.setStyle(Paint.Style.FILL);
-                faintFill.setColor(mapStationFillColor);
-                canvas.drawPath(faint.path, faintFill);
+                canvas.drawPath(faint.path, faintStationFillPaint);
 
                 // Обводка — осветлённый цвет линии (без прозрачности)
-                Paint faintStroke = new Paint(Paint.ANTI_ALIAS_FLAG);
-                int c = parseColorSafely(faint.color, mapTextColor);
-                int light = ColorUtils.blendARGB(c, mapStationFillColor, 0.6f); // высветляем на 60%
-                faintStroke.setColor(light);
-                faintStroke.setStyle(Paint.Style.STROKE);
-                faintStroke.setStrokeWidth(5);
-                canvas.drawPath(faint.path, faintStroke);
+                int light = ColorUtils.blendARGB(faint.colorValue, mapStationFillColor, 0.6f); // высветляем на 60%
+                faintStationStrokePaint.setColor(light);
+                canvas.drawPath(faint.path, faintStationStrokePaint);
             }
+            canvas.restoreToCount(routeSaveCount);
 
 
             if (userPositionStation != null) {
-                if (userPositionStation == null) return;
-
                 float stationX = userPositionStation.getX() * currentCoordinateScaleFactor;
                 float stationY = userPositionStation.getY() * currentCoordinateScaleFactor;
-
-                // Внешний круг (пульсация)
-                Paint pulsePaint = new Paint();
-                pulsePaint.setColor(Color.parseColor("#3384c29d")); // Полупрозрачный цвет
-                pulsePaint.setStyle(Paint.Style.FILL);
-                pulsePaint.setAntiAlias(true);
-                canvas.drawCircle(stationX, stationY, 35 * currentPulseScale, pulsePaint);
-
-                // Основной круг (обводка)
-                Paint highlightPaint = new Paint();
-                highlightPaint.setColor(Color.parseColor("#84c29d")); // Цвет обводки
-                highlightPaint.setStyle(Paint.Style.STROKE);
-                highlightPaint.setStrokeWidth(8);
-                highlightPaint.setAntiAlias(true);
-                canvas.drawCircle(stationX, stationY, 20, highlightPaint);
-
-                // Внутренний круг (заливка)
-                Paint innerPaint = new Paint();
-                innerPaint.setColor(Color.parseColor("#4084c29d")); // Полупрозрачный цвет
-                innerPaint.setStyle(Paint.Style.FILL);
-                innerPaint.setAntiAlias(true);
-                canvas.drawCircle(stationX, stationY, 20, innerPaint);
+                drawHighlight(canvas, stationX, stationY);
             }
         }
 
@@ -2692,21 +2888,259 @@ public class MetroMapView extends View {
         canvas.restoreToCount(mainSaveCount);
 
         if (!hasVisibleActiveLines()) {
-            List<DirectionArrow> arrows = findNearestActiveLines(3);
-            for (DirectionArrow arrow : arrows) {
-                PointF position = calculateArrowPosition(arrow, getWidth(), getHeight());
-                drawDirectionArrow(canvas, arrow, position.x, position.y);
+            int arrowCount = findNearestActiveLines(3);
+            for (int i = 0; i < arrowCount; i++) {
+                DirectionArrow arrow = arrowCandidates.get(i);
+                calculateArrowPosition(arrow, getWidth(), getHeight(), arrowPosition);
+                drawDirectionArrow(canvas, arrow, arrowPosition.x, arrowPosition.y);
             }
         }
 
         needsRedraw = false;
     }
 
-    private void drawStationText(Canvas canvas, StationPath stationPath) {
-        // Create paint for measurements
+    /**
+     * @return рисуются ли статические слои этого холста из RenderNode, а не из тайлов
+     */
+    @ChecksSdkIntAtLeast(api = Build.VERSION_CODES.Q)
+    private boolean useRenderNodeLayers(Canvas canvas) {
+        return renderNodeLayersEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && canvas.isHardwareAccelerated();
+    }
 
-        Paint textPaint = new Paint(this.textPaint);
-        textPaint.setColor(mapTextColor);
+    /**
+     * Воспроизводит статические слои из RenderNode на аппаратном холсте (API 29+), записывая их заново,
+     * если запись устарела. Снимок кэша другого масштаба координат рисуется с поправкой масштаба.
+     * Тайлы при этом не строятся, а записанные раньше отбрасываются.
+     *
+     * @return false, если узлы сейчас не используются
+     */
+    @RequiresApi(Build.VERSION_CODES.Q)
+    private boolean drawStaticLayersFromNodes(Canvas canvas) {
+        if (!staticLayerDirty) {
+            // Picture тайлов записана, пока слои рисовались из тайлов: её битмапы больше не нужны
+            mapTiles.clear();
+            staticLayerDirty = true;
+        }
+        // Как и у тайлов: в режиме правки и при показе изохроны слои меняются от кадра к кадру
+        if (isEditMode || isochroneStationIds != null || pathCache.mapBounds.left > pathCache.mapBounds.right) {
+            return false;
+        }
+        if (staticLayerNodes == null) {
+            staticLayerNodes = new StaticLayerNodes("MapRivers", "MapLines", "MapTransfers", "MapStations");
+        }
+        if (staticNodesDirty || !staticLayerNodes.isRecorded()) {
+            staticNodesDirty = false;
+            staticNodeBounds.set(pathCache.mapBounds);
+            staticNodeBounds.inset(-STATIC_LAYER_MARGIN, -STATIC_LAYER_MARGIN);
+            staticLayerNodes.record(staticNodeBounds, this::drawStaticLayer);
+        }
+        int cacheSaveCount = saveForCacheScale(canvas, pathCache.coordinateScale);
+        staticLayerNodes.draw(canvas);
+        canvas.restoreToCount(cacheSaveCount);
+        return true;
+    }
+
+    /**
+     * Рисует статические слои из растровых тайлов текущего уровня масштаба. Тайлы, которые фоновый
+     * поток ещё не нарисовал и которым нет замены крупнее, дорисовываются векторно с отсечением по тайлу.
+     *
+     * @return false, если тайлы сейчас не используются и слои нужно нарисовать векторно целиком
+     */
+    private boolean drawStaticLayersFromTiles(Canvas canvas) {
+        // В режиме правки и при показе изохроны слои меняются от кадра к кадру,
+        // а снимок кэша другого масштаба координат рисуется векторно с поправкой масштаба
+        if (isEditMode || isochroneStationIds != null || screenViewport.isEmpty()
+                || pathCache.coordinateScale != currentCoordinateScaleFactor) {
+            return false;
+        }
+        if (staticLayerDirty) {
+            recordStaticLayer();
+        }
+        int level = MapTileCache.levelFor(scaleFactor * coordinateScaleCompensation);
+        if (!mapTiles.draw(canvas, level, screenViewport.left, screenViewport.top, screenViewport.right, screenViewport.bottom)) {
+            return false;
+        }
+        for (int i = 0; i < mapTiles.getMissingCount(); i++) {
+            mapTiles.getMissingRect(i, missingTileRect);
+            int saveCount = canvas.save();
+            canvas.clipRect(missingTileRect);
+            drawStaticLayers(canvas, missingTileRect.left, missingTileRect.top, missingTileRect.right, missingTileRect.bottom);
+            canvas.restoreToCount(saveCount);
+        }
+        return true;
+    }
+
+    /**
+     * Статические слои карты: серые неактивные слои, реки, линии, переходы, станции с подписями и объекты.
+     * Рисуются элементы, задевающие прямоугольник view* в координатах кэша.
+     */
+    private void drawStaticLayers(Canvas canvas, float viewLeft, float viewTop, float viewRight, float viewBottom) {
+        drawRiverLayer(canvas);
+        drawLineLayer(canvas, viewLeft, viewTop, viewRight, viewBottom);
+        drawTransferLayer(canvas);
+        drawStationLayer(canvas, viewLeft, viewTop, viewRight, viewBottom);
+    }
+
+    /**
+     * Один статический слой целиком, без отсечения по видимой области, — для записи в RenderNode.
+     */
+    private void drawStaticLayer(Canvas canvas, int layer) {
+        float min = Float.NEGATIVE_INFINITY;
+        float max = Float.POSITIVE_INFINITY;
+        switch (layer) {
+            case STATIC_LAYER_RIVERS:
+                drawRiverLayer(canvas);
+                break;
+            case STATIC_LAYER_LINES:
+                drawLineLayer(canvas, min, min, max, max);
+                break;
+            case STATIC_LAYER_TRANSFERS:
+                drawTransferLayer(canvas);
+                break;
+            case STATIC_LAYER_STATIONS:
+                drawStationLayer(canvas, min, min, max, max);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Серые неактивные слои и реки.
+     */
+    private void drawRiverLayer(Canvas canvas) {
+        // Draw grayed lines/stations with transform
+        if (pathCache.grayedPicture != null) {
+            int saveCount = canvas.save();
+            canvas.translate(pathCache.grayedBounds.left, pathCache.grayedBounds.top);
+            canvas.drawPicture(pathCache.grayedPicture);
+            canvas.restoreToCount(saveCount);
+        }
+
+        // Draw cached paths
+        if (rivers != null) {
+            canvas.drawPath(pathCache.riversPath, riverPaint);
+        }
+    }
+
+    /**
+     * Линии (или перегоны трамвая), задевающие прямоугольник view* в координатах кэша.
+     */
+    private void drawLineLayer(Canvas canvas, float viewLeft, float viewTop, float viewRight, float viewBottom) {
+        // Draw lines
+        if (isTramMap && !pathCache.segmentInfos.isEmpty()) {
+            int visibleSegments = pathCache.segmentTiles.query(viewLeft, viewTop, viewRight, viewBottom);
+            for (int k = 0; k < visibleSegments; k++) {
+                drawMultiLayeredSegment(canvas, pathCache.segmentList.get(pathCache.segmentTiles.visibleAt(k)));
+            }
+        } else {
+            int visibleLines = pathCache.lineTiles.query(viewLeft, viewTop, viewRight, viewBottom);
+            for (int k = 0; k < visibleLines; k++) {
+                LinePath linePath = pathCache.linesPaths.get(pathCache.lineTiles.visibleAt(k));
+
+                linePaint.setColor(linePath.colorValue);
+                canvas.drawPath(linePath.path, linePaint);
+
+                if (linePath.innerPath != null) {
+                    canvas.drawPath(linePath.innerPath, linePath.whitePaint);
+                }
+            }
+        }
+
+        // Участки вне изохроны рисуются поверх линий тем же серым, что и неактивные слои
+        if (isochroneStationIds != null) {
+            drawIsochroneOverlay(canvas);
+        }
+
+//        // Отрисовка линий речного трамвая
+//        for (LinePath linePath : riverTramLines) {
+//            riverTramPaint.setColor(Color.parseColor(linePath.color));
+//            canvas.drawPath(linePath.path, riverTramPaint);
+//        }
+    }
+
+    /**
+     * Переходы: наземные, заливки, линии и кроссплатформенные дуги.
+     */
+    private void drawTransferLayer(Canvas canvas) {
+        // Ground transfers (dashed) should be the lowest layer
+        canvas.drawPath(pathCache.dashedTransfersPath, dashedTransferPaint);
+
+        // Draw convex hull
+        canvas.drawPath(pathCache.convexHullPath, hullFillPaint);
+
+
+        // Stations will be drawn after transfers to stay on top
+
+        // Draw transfers fill on general map (route overlay will darken if active)
+        canvas.drawPath(pathCache.transfersFillPath, transferFillPaint);
+
+        // Рисуем обычные линии переходов (walking)
+        canvas.drawPath(pathCache.transfersPath, transferStrokePaint);
+
+        // (ground уже нарисованы самым нижним слоем)
+
+        canvas.drawPath(pathCache.transfersFillOverlayMainPath, transferOutlinePaint);
+        canvas.drawPath(pathCache.transfersFillOverlayAngularPath, transferOutlinePaint);
+
+        // Crossplatform arcs: draw colored arcs per station (fallback to transfer color)
+        for (int i = 0; i < pathCache.partialCircles.size(); i++) {
+            PartialCircle pc = pathCache.partialCircles.get(i);
+            drawPartialCircleWithColor(canvas,
+                    pc.centerX, pc.centerY,
+                    pc.radius, pc.strokeWidth,
+                    pc.angles, pc.colorValue);
+        }
+
+        // Crossplatform colored main strokes with gradient center blend
+        for (int i = 0; i < pathCache.crossStrokes.size(); i++) {
+            drawCrossSegmentStroke(canvas, pathCache.crossStrokes.get(i));
+        }
+    }
+
+    /**
+     * Станции с подписями и объекты карты. Подпись рисуется сразу за своей станцией,
+     * поэтому станции и подписи — один слой: так следующая станция ложится поверх прежней подписи.
+     */
+    private void drawStationLayer(Canvas canvas, float viewLeft, float viewTop, float viewRight, float viewBottom) {
+        // Draw stations on top of transfer layer
+        int visibleStations = pathCache.stationTiles.query(viewLeft, viewTop, viewRight, viewBottom);
+        for (int k = 0; k < visibleStations; k++) {
+            StationPath stationPath = pathCache.stationsPaths.get(pathCache.stationTiles.visibleAt(k));
+            canvas.drawPath(stationPath.path, stationFillPaint);
+
+            int strokeColor;
+            if (isochroneStationIds != null && stationPath.stationId != null
+                    && !isochroneStationIds.contains(stationPath.stationId)) {
+                strokeColor = mapGrayedColor;
+            } else if (stationPath.sharedStroke) {
+                strokeColor = mapTextColor;
+            } else {
+                strokeColor = stationPath.colorValue;
+            }
+            
+            stationStrokePaint.setColor(strokeColor);
+            canvas.drawPath(stationPath.path, stationStrokePaint);
+
+
+            if (stationPath.textPosition != 9) {
+                drawStationText(canvas, stationPath);
+            }
+        }
+
+        // Draw map objects
+        drawMapObjects(canvas);
+    }
+
+    /**
+     * Считает положение подписи станции при сборке кэша, чтобы drawStationText только рисовал.
+     */
+    private void layoutStationLabel(StationPath stationPath) {
+        stationPath.labelLines = null;
+        if (stationPath.textPosition == 9 || stationPath.stationName == null) {
+            return;
+        }
 
         // Get station center coordinates
         RectF bounds = new RectF();
@@ -2782,32 +3216,32 @@ public class MetroMapView extends View {
             }
         }
 
-        // Apply text alignment
-        textPaint.setTextAlign(textAlign);
-
         // Add small vertical adjustment to center text vertically
-        textY += textPaint.getTextSize() / 3;
-
-
-        Paint outlinePaint = new Paint(textPaint);
-        outlinePaint.setStyle(Paint.Style.STROKE);
-        outlinePaint.setStrokeWidth(6f);
-        outlinePaint.setColor(mapStationFillColor);
-        outlinePaint.setStrokeJoin(Paint.Join.ROUND);
-        outlinePaint.setStrokeMiter(10f);
-
-        // Текст с обводкой
-        textPaint.setColor(mapTextColor);
+        textY += labelMeasurePaint.getTextSize() / 3;
 
         String[] lines = stationPath.stationName.split("\\n");
-        float lineHeight = textPaint.getTextSize() * 1.2f;
+        float lineHeight = labelMeasurePaint.getTextSize() * 1.2f;
         float totalHeight = lineHeight * lines.length;
-        float startY = textY - (totalHeight - lineHeight) / 2f;
 
-        for (int i = 0; i < lines.length; i++) {
-            float ly = startY + i * lineHeight;
-            canvas.drawText(lines[i], textX, ly, outlinePaint);
-            canvas.drawText(lines[i], textX, ly, textPaint);
+        stationPath.labelLines = lines;
+        stationPath.labelTextX = textX;
+        stationPath.labelStartY = textY - (totalHeight - lineHeight) / 2f;
+        stationPath.labelLineHeight = lineHeight;
+        stationPath.labelAlign = textAlign;
+    }
+
+    private void drawStationText(Canvas canvas, StationPath stationPath) {
+        if (stationPath.labelLines == null) {
+            return;
+        }
+        stationLabelPaint.setTextAlign(stationPath.labelAlign);
+        stationLabelOutlinePaint.setTextAlign(stationPath.labelAlign);
+
+        // Текст с обводкой
+        for (int i = 0; i < stationPath.labelLines.length; i++) {
+            float ly = stationPath.labelStartY + i * stationPath.labelLineHeight;
+            canvas.drawText(stationPath.labelLines[i], stationPath.labelTextX, ly, stationLabelOutlinePaint);
+            canvas.drawText(stationPath.labelLines[i], stationPath.labelTextX, ly, stationLabelPaint);
         }
     }
 
@@ -2826,17 +3260,17 @@ public class MetroMapView extends View {
         if (stationIds != null && !stationIds.isEmpty() && !centers.isEmpty()) {
             PointF from = centers.get(0);
             for (String sid : stationIds) {
-                Station st = findStationByIdAcrossAll(sid);
+                Station st = buildInputs.findStationById(sid);
                 if (st == null) continue;
-                float x = st.getX() * currentCoordinateScaleFactor;
-                float y = st.getY() * currentCoordinateScaleFactor;
+                float x = buildInputs.x(st) * buildInputs.coordinateScale;
+                float y = buildInputs.y(st) * buildInputs.coordinateScale;
                 String type = transfer.getType().toLowerCase();
                 if ("ground".equals(type)) {
-                    pathCache.dashedTransfersPath.moveTo(from.x, from.y);
-                    pathCache.dashedTransfersPath.lineTo(x, y);
+                    buildCache.dashedTransfersPath.moveTo(from.x, from.y);
+                    buildCache.dashedTransfersPath.lineTo(x, y);
                 } else {
-                    pathCache.transfersPath.moveTo(from.x, from.y);
-                    pathCache.transfersPath.lineTo(x, y);
+                    buildCache.transfersPath.moveTo(from.x, from.y);
+                    buildCache.transfersPath.lineTo(x, y);
                 }
             }
             return;
@@ -2848,11 +3282,11 @@ public class MetroMapView extends View {
                 PointF otherCenter = centers.get(i);
                 String type = transfer.getType().toLowerCase();
                 if ("ground".equals(type)) {
-                    pathCache.dashedTransfersPath.moveTo(firstCenter.x, firstCenter.y);
-                    pathCache.dashedTransfersPath.lineTo(otherCenter.x, otherCenter.y);
+                    buildCache.dashedTransfersPath.moveTo(firstCenter.x, firstCenter.y);
+                    buildCache.dashedTransfersPath.lineTo(otherCenter.x, otherCenter.y);
                 } else {
-                    pathCache.transfersPath.moveTo(firstCenter.x, firstCenter.y);
-                    pathCache.transfersPath.lineTo(otherCenter.x, otherCenter.y);
+                    buildCache.transfersPath.moveTo(firstCenter.x, firstCenter.y);
+                    buildCache.transfersPath.lineTo(otherCenter.x, otherCenter.y);
                 }
             }
         }
@@ -2860,7 +3294,7 @@ public class MetroMapView extends View {
 
     private PointF calculateTransferCenter(String transferId) {
         // Находим переход по ID среди всех переходов
-        for (Transfer t : transfers) {
+        for (Transfer t : buildInputs.transfers) {
             if (transferId.equals(t.getId())) {
                 List<Station> stations = t.getStations();
                 if (stations == null || stations.isEmpty()) continue;
@@ -2868,8 +3302,8 @@ public class MetroMapView extends View {
                 // Вычисляем центр всех станций перехода
                 float sumX = 0, sumY = 0;
                 for (Station s : stations) {
-                    sumX += s.getX() * currentCoordinateScaleFactor;
-                    sumY += s.getY() * currentCoordinateScaleFactor;
+                    sumX += buildInputs.x(s) * buildInputs.coordinateScale;
+                    sumY += buildInputs.y(s) * buildInputs.coordinateScale;
                 }
                 return new PointF(sumX / stations.size(), sumY / stations.size());
             }
@@ -2901,8 +3335,8 @@ public class MetroMapView extends View {
         float[] coordinates = new float[stations.size() * 2];
         for (int i = 0; i < stations.size(); i++) {
             Station station = stations.get(i);
-            float x = station.getX() * currentCoordinateScaleFactor;
-            float y = station.getY() * currentCoordinateScaleFactor;
+            float x = buildInputs.x(station) * buildInputs.coordinateScale;
+            float y = buildInputs.y(station) * buildInputs.coordinateScale;
             coordinates[i * 2] = x;
             coordinates[i * 2 + 1] = y;
         }
@@ -2979,11 +3413,11 @@ public class MetroMapView extends View {
                 if (!hull.isEmpty()) {
                     Path hullPath = new Path(); hullPath.moveTo(hull.get(0).x, hull.get(0).y);
                     for (int i = 1; i < hull.size(); i++) hullPath.lineTo(hull.get(i).x, hull.get(i).y);
-                    hullPath.close(); pathCache.transfersFillPath.addPath(hullPath);
+                    hullPath.close(); buildCache.transfersFillPath.addPath(hullPath);
 
                     Path mainOverlay = new Path();
                     for (PointF[] seg : mainSegmentsForLog) { mainOverlay.moveTo(seg[0].x, seg[0].y); mainOverlay.lineTo(seg[1].x, seg[1].y); }
-                    pathCache.transfersFillOverlayMainPath.addPath(mainOverlay);
+                    buildCache.transfersFillOverlayMainPath.addPath(mainOverlay);
                 }
             }
             return;
@@ -3000,8 +3434,8 @@ public class MetroMapView extends View {
             switch (transfer.getType().toLowerCase()) {
                 case "crossplatform":
                     addHalfColoredLineToCache(x1, y1, x2, y2,
-                            stations.get(i).getColor(),
-                            stations.get(nextIndex).getColor());
+                            buildInputs.color(stations.get(i)),
+                            buildInputs.color(stations.get(nextIndex)));
 
                     // Дублируем логику обычного перехода для построения обводки/заливки
                     float dx_cp = x2 - x1;
@@ -3039,8 +3473,8 @@ public class MetroMapView extends View {
 
                             mainSegmentsForLog.add(new PointF[]{new PointF(x1o_cp, y1o_cp), new PointF(x2o_cp, y2o_cp)});
                             // Сохраняем цветной кросс-сегмент для покраски основными цветами с плавным переходом
-                            pathCache.crossStrokes.add(new CrossSegmentStroke(new PointF(x1o_cp, y1o_cp), new PointF(x2o_cp, y2o_cp),
-                                    stations.get(i).getColor(), stations.get(nextIndex).getColor()));
+                            buildCache.crossStrokes.add(newCrossSegmentStroke(new PointF(x1o_cp, y1o_cp), new PointF(x2o_cp, y2o_cp),
+                                    buildInputs.color(stations.get(i)), buildInputs.color(stations.get(nextIndex))));
                         }
                     }
                     break;
@@ -3050,8 +3484,8 @@ public class MetroMapView extends View {
 
                 case "walking":
                     // Простая прямая линия без смещения и заливки
-                    pathCache.transfersPath.moveTo(x1, y1);
-                    pathCache.transfersPath.lineTo(x2, y2);
+                    buildCache.transfersPath.moveTo(x1, y1);
+                    buildCache.transfersPath.lineTo(x2, y2);
                     break;
                 default:
                     addShiftedLineToCache(x1, y1, x2, y2);
@@ -3119,12 +3553,12 @@ public class MetroMapView extends View {
                     continue;
                 }
                 if (transfer.getType().equalsIgnoreCase("crossplatform")) {
-                    pathCache.partialCircles.add(new PartialCircle(
+                    buildCache.partialCircles.add(new PartialCircle(
                             currentX, currentY, 20, 6,
-                            angles, stations.get(nextIndex).getColor()
+                            angles, buildInputs.color(stations.get(nextIndex))
                     ));
                 } else {
-                    pathCache.partialCircles.add(new PartialCircle(
+                    buildCache.partialCircles.add(new PartialCircle(
                             currentX, currentY, 20, 6,
                             angles, null
                     ));
@@ -3144,7 +3578,7 @@ public class MetroMapView extends View {
                     hullPath.lineTo(hull.get(i).x, hull.get(i).y);
                 }
                 hullPath.close();
-                pathCache.transfersFillPath.addPath(hullPath);
+                buildCache.transfersFillPath.addPath(hullPath);
 
                 // Зелёные основные сегменты (по лог-данным)
                 Path mainOverlay = new Path();
@@ -3157,8 +3591,8 @@ public class MetroMapView extends View {
                     debugMain.moveTo(a.x, a.y);
                     debugMain.lineTo(b.x, b.y);
                 }
-                pathCache.transfersFillOverlayMainPath.addPath(mainOverlay);
-                pathCache.debugMainSegmentsPath.addPath(debugMain);
+                buildCache.transfersFillOverlayMainPath.addPath(mainOverlay);
+                buildCache.debugMainSegmentsPath.addPath(debugMain);
 
                 // Угловые рёбра: минимальное паросочетание между всеми 2N конечными точками разных сегментов
                 List<PointF> endpoints = new ArrayList<>();
@@ -3206,8 +3640,8 @@ public class MetroMapView extends View {
                     );
                     need--;
                 }
-                pathCache.transfersFillOverlayAngularPath.addPath(angularOverlay);
-                pathCache.debugConnectionsPath.addPath(debugConn);
+                buildCache.transfersFillOverlayAngularPath.addPath(angularOverlay);
+                buildCache.debugConnectionsPath.addPath(debugConn);
 
                 // Логи основных смещённых линий
                 StringBuilder sb = new StringBuilder();
@@ -3228,8 +3662,8 @@ public class MetroMapView extends View {
                 sb.append(", станции [");
                 for (int i = 0; i < stations.size(); i++) {
                     Station s = stations.get(i);
-                    int sx = Math.round(s.getX() * currentCoordinateScaleFactor);
-                    int sy = Math.round(s.getY() * currentCoordinateScaleFactor);
+                    int sx = Math.round(buildInputs.x(s) * buildInputs.coordinateScale);
+                    int sy = Math.round(buildInputs.y(s) * buildInputs.coordinateScale);
                     sb.append(s.getName()).append("@[").append(sx).append(",").append(sy).append("]");
                     if (i < stations.size() - 1) sb.append(",");
                 }
@@ -3645,10 +4079,10 @@ public class MetroMapView extends View {
         Path outline = new Path();
         outline.moveTo(x1o, y1o);
         outline.lineTo(x2o, y2o);
-        pathCache.transfersPath.addPath(outline);
+        buildCache.transfersPath.addPath(outline);
         // Сохраняем красный сегмент для дальнейшей классификации угловых/основных
-        if (pathCache.transferStrokes != null) {
-            pathCache.transferStrokes.add(new StrokeSegment(new PointF(x1o, y1o), new PointF(x2o, y2o)));
+        if (buildCache.transferStrokes != null) {
+            buildCache.transferStrokes.add(new StrokeSegment(new PointF(x1o, y1o), new PointF(x2o, y2o)));
         }
 
         // Build fill quad around the shifted line
@@ -3679,7 +4113,7 @@ public class MetroMapView extends View {
         fill.lineTo(x1b, y1b);
         fill.close();
 
-        pathCache.transfersFillPath.addPath(fill);
+        buildCache.transfersFillPath.addPath(fill);
         RectF b = new RectF();
         fill.computeBounds(b, true);
         Log.d("TransfersFill", "added quad=" + b.toString());
@@ -3688,8 +4122,8 @@ public class MetroMapView extends View {
     private void addDashedLineToCache(float x1, float y1, float x2, float y2) {
 
         // Для пунктирных линий используем специальный Path
-        pathCache.dashedTransfersPath.moveTo(x1, y1);
-        pathCache.dashedTransfersPath.lineTo(x2, y2);
+        buildCache.dashedTransfersPath.moveTo(x1, y1);
+        buildCache.dashedTransfersPath.lineTo(x2, y2);
     }
 
     private void addHalfColoredLineToCache(float x1, float y1, float x2, float y2, String color1, String color2) {
@@ -3710,183 +4144,93 @@ public class MetroMapView extends View {
         gradPaint1.setStyle(Paint.Style.STROKE);
         gradPaint1.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
         gradPaint1.setShader(new LinearGradient(x1 + shiftX, y1 + shiftY, halfX + shiftX, halfY + shiftY,
-                parseColorSafely(color1, mapTextColor), parseColorSafely(color2, mapTextColor), Shader.TileMode.CLAMP));
+                parseColorSafely(color1, buildInputs.textColor), parseColorSafely(color2, buildInputs.textColor), Shader.TileMode.CLAMP));
         Path left = new Path();
         left.moveTo(x1 + shiftX, y1 + shiftY);
         left.lineTo(halfX + shiftX, halfY + shiftY);
-        pathCache.transfersFillOverlayMainPath.addPath(left);
+        buildCache.transfersFillOverlayMainPath.addPath(left);
 
         Paint gradPaint2 = new Paint(Paint.ANTI_ALIAS_FLAG);
         gradPaint2.setStyle(Paint.Style.STROKE);
         gradPaint2.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
         gradPaint2.setShader(new LinearGradient(halfX + shiftX, halfY + shiftY, x2 + shiftX, y2 + shiftY,
-                parseColorSafely(color2, mapTextColor), parseColorSafely(color1, mapTextColor), Shader.TileMode.CLAMP));
+                parseColorSafely(color2, buildInputs.textColor), parseColorSafely(color1, buildInputs.textColor), Shader.TileMode.CLAMP));
         Path right = new Path();
         right.moveTo(halfX + shiftX, halfY + shiftY);
         right.lineTo(x2 + shiftX, y2 + shiftY);
-        pathCache.transfersFillOverlayMainPath.addPath(right);
+        buildCache.transfersFillOverlayMainPath.addPath(right);
     }
 
     private Line findLineForStation(Station station) {
-        for (Line line : lines) {
-            if (line.getStations().contains(station)) {
-                return line;
-            }
-        }
-        for (Line line : suburbanLines) {
-            if (line.getStations().contains(station)) {
-                return line;
-            }
-        }
-        for (Line line : riverTramLines) {
-            if (line.getStations().contains(station)) {
-                return line;
-            }
-        }
-        for (Line line : tramLines) {
-            if (line.getStations().contains(station)) {
-                return line;
-            }
-        }
-        return null;
+        return getMapIndex().getLineContaining(station);
     }
 
     private List<Line> findAllLinesForStation(Station station) {
-        List<Line> allLines = new ArrayList<>();
-        if (station == null || station.getId() == null) {
-            return allLines;
+        return getMapIndex().getLinesForStation(station);
+    }
+
+    private boolean isSharedStation(Station station) {
+        return getMapIndex().isShared(station);
+    }
+
+    private RoutePathCache routePathCache = new RoutePathCache(COORDINATE_SCALE_FACTOR);
+
+    private void updateRouteCache() {
+        if (buildInputs.route == null || buildInputs.route.isEmpty()) {
+            routeBuildCache.routeLinesPaths.clear();
+            routeBuildCache.routeStationsPaths.clear();
+            routeBuildCache.routeFaintStationsPaths.clear();
+            routeBuildCache.transfersPath.reset();
+
+            routeBuildCache.dashedTransfersPath.reset();
+            routeBuildCache.partialCircles.clear();
+
+            routeBuildCache.transfersFillPath.reset();
+            routeBuildCache.transfersFillOverlayMainPath.reset();
+            routeBuildCache.transfersFillOverlayAngularPath.reset();
+            routeBuildCache.convexHullPath.reset();
+            routeBuildCache.crossStrokes.clear();
+            routeBuildCache.routeLineSegments.clear();
+            routeBuildCache.isInitialized = false;
+            return;
         }
 
-        String stationId = station.getId();
-        Set<String> seenLineIds = new HashSet<>();
+        // Позиции индикаторов прежнего снимка сняты в потоке отрисовки вместе с остальными входными данными
+        Map<String, PointF> cachedIndicatorPositions = buildInputs.indicatorPositions;
 
-        List<Line> allLineLists = new ArrayList<>();
-        if (lines != null) allLineLists.addAll(lines);
-        if (suburbanLines != null) allLineLists.addAll(suburbanLines);
-        if (riverTramLines != null) allLineLists.addAll(riverTramLines);
-        if (tramLines != null) allLineLists.addAll(tramLines);
+        // Очищаем кэш перед построением нового маршрута
+        routeBuildCache.routeLinesPaths.clear();
+        routeBuildCache.routeStationsPaths.clear();
 
-        for (Line line : allLineLists) {
-            if (line == null || line.getStations() == null || line.getId() == null) {
-                continue;
-            }
+        routeBuildCache.routeFaintStationsPaths.clear();
+        routeBuildCache.transfersPath.reset();
 
-            if (seenLineIds.contains(line.getId())) {
-                continue;
-            }
+        routeBuildCache.dashedTransfersPath.reset();
+        routeBuildCache.partialCircles.clear();
 
-            for (Station lineStation : line.getStations()) {
-                if (lineStation != null && lineStation.getId() != null && lineStation.getId().equals(stationId)) {
-                    allLines.add(line);
-                    seenLineIds.add(line.getId());
-                    break;
-                }
-            }
-        }
-
-        return allLines;
-    }
-    
-    private boolean isSharedStation(Station station) {
-        if (station == null || station.getId() == null) {
-            return false;
-        }
-        
-        String stationId = station.getId();
-        int lineCount = 0;
-        
-        List<Line> allLines = new ArrayList<>();
-        if (lines != null) allLines.addAll(lines);
-        if (suburbanLines != null) allLines.addAll(suburbanLines);
-        if (riverTramLines != null) allLines.addAll(riverTramLines);
-        if (tramLines != null) allLines.addAll(tramLines);
-        
-        Set<String> seenLineIds = new HashSet<>();
-        for (Line line : allLines) {
-            if (line == null || line.getStations() == null || line.getId() == null) {
-                continue;
-            }
-            
-            if (seenLineIds.contains(line.getId())) {
-                continue;
-            }
-            
-            for (Station lineStation : line.getStations()) {
-                if (lineStation != null && lineStation.getId() != null && lineStation.getId().equals(stationId)) {
-                    lineCount++;
-                    seenLineIds.add(line.getId());
-                    break;
-                }
-            }
-            
-            if (lineCount >= 2) {
-                return true;
-            }
-        }
-        
-        return false;
-    }
-
-    private RoutePathCache routePathCache = new RoutePathCache();
-
-    private void updateRouteCache() {
-        if (route == null || route.isEmpty()) {
-            routePathCache.routeLinesPaths.clear();
-            routePathCache.routeStationsPaths.clear();
-            routePathCache.routeFaintStationsPaths.clear();
-            routePathCache.transfersPath.reset();
-
-            routePathCache.dashedTransfersPath.reset();
-            routePathCache.partialCircles.clear();
-
-            routePathCache.transfersFillPath.reset();
-            routePathCache.transfersFillOverlayMainPath.reset();
-            routePathCache.transfersFillOverlayAngularPath.reset();
-            routePathCache.convexHullPath.reset();
-            routePathCache.crossStrokes.clear();
-            routePathCache.routeLineSegments.clear();
-            routePathCache.isInitialized = false;
-            return;
-        }
-
-        // Сохраняем кэшированные позиции индикаторов перед очисткой
-        Map<String, PointF> cachedIndicatorPositions = new HashMap<>();
-        for (RouteLineSegment segment : routePathCache.routeLineSegments) {
-            if (segment != null && segment.line != null && segment.cachedIndicatorX != null && segment.cachedIndicatorY != null) {
-                String key = segment.line.getId() + "_" + segment.startIndex + "_" + segment.endIndex;
-                cachedIndicatorPositions.put(key, new PointF(segment.cachedIndicatorX, segment.cachedIndicatorY));
-            }
-        }
-
-        // Очищаем кэш перед построением нового маршрута
-        routePathCache.routeLinesPaths.clear();
-        routePathCache.routeStationsPaths.clear();
-
-        routePathCache.routeFaintStationsPaths.clear();
-        routePathCache.transfersPath.reset();
-
-        routePathCache.dashedTransfersPath.reset();
-        routePathCache.partialCircles.clear();
-
-        routePathCache.transfersFillPath.reset();
-        routePathCache.transfersFillOverlayMainPath.reset();
-        routePathCache.transfersFillOverlayAngularPath.reset();
-        routePathCache.convexHullPath.reset();
-        routePathCache.crossStrokes.clear();
-        routePathCache.routeLineSegments.clear();
+        routeBuildCache.transfersFillPath.reset();
+        routeBuildCache.transfersFillOverlayMainPath.reset();
+        routeBuildCache.transfersFillOverlayAngularPath.reset();
+        routeBuildCache.convexHullPath.reset();
+        routeBuildCache.crossStrokes.clear();
+        routeBuildCache.routeLineSegments.clear();
 
         // Построение нового маршрута
         // ИСПОЛЬЗУЕМ ТОЛЬКО RouteStation для определения линии и Station
-        if (routeStations != null && !routeStations.isEmpty() && routeStations.size() == route.size()) {
-            Log.d("ROUTE_INFO", "=== ПОСТРОЕНИЕ МАРШРУТА ИЗ RouteStation (" + routeStations.size() + " станций) ===");
+        if (buildInputs.routeStations != null && !buildInputs.routeStations.isEmpty() && buildInputs.routeStations.size() == buildInputs.route.size()) {
+            if (RouteTrace.ENABLED) {
+                Log.d("ROUTE_INFO", "=== ПОСТРОЕНИЕ МАРШРУТА ИЗ RouteStation (" + buildInputs.routeStations.size() + " станций) ===");
+            }
             // Используем routeStations для всего процесса отрисовки
-            for (int i = 0; i < routeStations.size() - 1; i++) {
-                RouteStation routeStation1 = routeStations.get(i);
-                RouteStation routeStation2 = routeStations.get(i + 1);
+            for (int i = 0; i < buildInputs.routeStations.size() - 1; i++) {
+                RouteStation routeStation1 = buildInputs.routeStations.get(i);
+                RouteStation routeStation2 = buildInputs.routeStations.get(i + 1);
                 
                 if (routeStation1 == null || routeStation2 == null
                     || routeStation1.getStation() == null || routeStation2.getStation() == null) {
-                    Log.d("ROUTE_INFO", String.format("[%d->%d] Пропуск: routeStation null", i, i + 1));
+                    if (RouteTrace.ENABLED) {
+                        Log.d("ROUTE_INFO", String.format("[%d->%d] Пропуск: routeStation null", i, i + 1));
+                    }
                     continue;
                 }
                 
@@ -3896,34 +4240,38 @@ public class MetroMapView extends View {
                 Line line1 = routeStation1.getLine();
                 Line line2 = routeStation2.getLine();
                 
-                String line1Name = line1 != null ? (line1.getName() != null ? line1.getName() : line1.getId()) : "null";
-                String line2Name = line2 != null ? (line2.getName() != null ? line2.getName() : line2.getId()) : "null";
                 
                 // Если обе станции на одной линии, используем эту линию
                 if (line1 != null && line2 != null
                     && line1.getId() != null && line2.getId() != null
                     && line1.getId().equals(line2.getId())) {
                     // Используем линию из RouteStation
-                    Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ОДНА ЛИНИЯ %s", 
-                        i, i + 1, station1.getName(), station2.getName(), line1Name));
-                    LinePath lp = buildRouteLinePath(station1, station2, line1.getLineType(), line1.getColor());
+                    if (RouteTrace.ENABLED) {
+                        Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ОДНА ЛИНИЯ %s", 
+                            i, i + 1, station1.getName(), station2.getName(), traceLineName(line1)));
+                    }
+                    LinePath lp = buildRouteLinePath(station1, station2, line1.getLineType(), buildInputs.color(line1));
                     lp.line = line1;
-                    routePathCache.routeLinesPaths.add(lp);
+                    routeBuildCache.routeLinesPaths.add(lp);
                 } else {
                     // Линии разные - проверяем, являются ли станции neighbors
                     // Если они neighbors, рисуем линию, а не переход
                     boolean areNeighbors = areStationsNeighbors(station1, station2);
                     if (areNeighbors) {
                         // Станции связаны через neighbors - используем линию первой станции
-                        Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: NEIGHBORS (линия1: %s, линия2: %s), используем линию1: %s", 
-                            i, i + 1, station1.getName(), station2.getName(), line1Name, line2Name, line1Name));
-                        LinePath lp = buildRouteLinePath(station1, station2, line1.getLineType(), line1.getColor());
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: NEIGHBORS (линия1: %s, линия2: %s), используем линию1: %s", 
+                                i, i + 1, station1.getName(), station2.getName(), traceLineName(line1), traceLineName(line2), traceLineName(line1)));
+                        }
+                        LinePath lp = buildRouteLinePath(station1, station2, line1.getLineType(), buildInputs.color(line1));
                         lp.line = line1;
-                        routePathCache.routeLinesPaths.add(lp);
+                        routeBuildCache.routeLinesPaths.add(lp);
                     } else {
                         // Это переход между станциями
-                        Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ПЕРЕХОД (линия1: %s, линия2: %s)", 
-                            i, i + 1, station1.getName(), station2.getName(), line1Name, line2Name));
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ПЕРЕХОД (линия1: %s, линия2: %s)", 
+                                i, i + 1, station1.getName(), station2.getName(), traceLineName(line1), traceLineName(line2)));
+                        }
                         // Построим всё как для общей карты, но в routePathCache
                         buildRouteTransferBetween(station1, station2);
                     }
@@ -3931,15 +4279,15 @@ public class MetroMapView extends View {
             }
         } else {
             // Fallback для старого метода setRoute (без RouteStation)
-            for (int i = 0; i < route.size() - 1; i++) {
-                Station station1 = route.get(i);
-                Station station2 = route.get(i + 1);
+            for (int i = 0; i < buildInputs.route.size() - 1; i++) {
+                Station station1 = buildInputs.route.get(i);
+                Station station2 = buildInputs.route.get(i + 1);
                 Line line = findLineForConnection(station1, station2);
 
                 if (line != null) {
-                    LinePath lp = buildRouteLinePath(station1, station2, line.getLineType(), line.getColor());
+                    LinePath lp = buildRouteLinePath(station1, station2, line.getLineType(), buildInputs.color(line));
                     lp.line = line;
-                    routePathCache.routeLinesPaths.add(lp);
+                    routeBuildCache.routeLinesPaths.add(lp);
                 } else {
                     buildRouteTransferBetween(station1, station2);
                 }
@@ -3948,18 +4296,22 @@ public class MetroMapView extends View {
 
         // Группируем станции по линиям для отображения индикаторов
         // ИСПОЛЬЗУЕМ ТОЛЬКО RouteStation для определения линии
-        if (routeStations != null && !routeStations.isEmpty() && routeStations.size() == route.size() && route.size() > 1) {
-            Log.d("ROUTE_INFO", "=== ГРУППИРОВКА СТАНЦИЙ ПО ЛИНИЯМ ДЛЯ ИНДИКАТОРОВ ===");
+        if (buildInputs.routeStations != null && !buildInputs.routeStations.isEmpty() && buildInputs.routeStations.size() == buildInputs.route.size() && buildInputs.route.size() > 1) {
+            if (RouteTrace.ENABLED) {
+                Log.d("ROUTE_INFO", "=== ГРУППИРОВКА СТАНЦИЙ ПО ЛИНИЯМ ДЛЯ ИНДИКАТОРОВ ===");
+            }
             int segmentStart = 0;
             Line currentLine = null;
             
-            for (int i = 0; i < routeStations.size() - 1; i++) {
-                RouteStation routeStation1 = routeStations.get(i);
-                RouteStation routeStation2 = routeStations.get(i + 1);
+            for (int i = 0; i < buildInputs.routeStations.size() - 1; i++) {
+                RouteStation routeStation1 = buildInputs.routeStations.get(i);
+                RouteStation routeStation2 = buildInputs.routeStations.get(i + 1);
                 
                 if (routeStation1 == null || routeStation2 == null
                     || routeStation1.getLine() == null || routeStation2.getLine() == null) {
-                    Log.d("ROUTE_INFO", String.format("[%d->%d] Пропуск: нет линии", i, i + 1));
+                    if (RouteTrace.ENABLED) {
+                        Log.d("ROUTE_INFO", String.format("[%d->%d] Пропуск: нет линии", i, i + 1));
+                    }
                     continue;
                 }
                 
@@ -3970,20 +4322,20 @@ public class MetroMapView extends View {
                     && routeStation1.getLine().getId().equals(routeStation2.getLine().getId())) {
                     // Обе станции на одной линии - используем эту линию из RouteStation
                     line = routeStation1.getLine();
-                    String lineName = line.getName() != null ? line.getName() : line.getId();
-                    Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ЛИНИЯ %s", 
-                        i, i + 1, routeStation1.getStation().getName(), routeStation2.getStation().getName(), lineName));
+                    if (RouteTrace.ENABLED) {
+                        Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ЛИНИЯ %s", 
+                            i, i + 1, routeStation1.getStation().getName(), routeStation2.getStation().getName(), traceLineName(line)));
+                    }
                 } else {
                     // Линии разные - это переход
                     // НО для построения пути используем линию первой станции, если она уже на правильной линии
                     // Это важно для смежных станций
                     line = routeStation1.getLine();
-                    String line1Name = routeStation1.getLine().getName() != null ? 
-                        routeStation1.getLine().getName() : routeStation1.getLine().getId();
-                    String line2Name = routeStation2.getLine().getName() != null ? 
-                        routeStation2.getLine().getName() : routeStation2.getLine().getId();
-                    Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ПЕРЕХОД (линия1: %s, линия2: %s), используем линию1: %s", 
-                        i, i + 1, routeStation1.getStation().getName(), routeStation2.getStation().getName(), line1Name, line2Name, line1Name));
+                    if (RouteTrace.ENABLED) {
+                        Log.d("ROUTE_INFO", String.format("[%d->%d] %s -> %s: ПЕРЕХОД (линия1: %s, линия2: %s), используем линию1: %s", 
+                            i, i + 1, routeStation1.getStation().getName(), routeStation2.getStation().getName(),
+                            traceLineName(routeStation1.getLine()), traceLineName(routeStation2.getLine()), traceLineName(routeStation1.getLine())));
+                    }
                 }
                 
                 // ВСЕГДА используем линию из RouteStation для построения сегмента
@@ -3991,10 +4343,12 @@ public class MetroMapView extends View {
                     if (currentLine == null || !currentLine.getId().equals(line.getId())) {
                         if (currentLine != null && segmentStart < i) {
                             String currentLineName = currentLine.getName() != null ? currentLine.getName() : currentLine.getId();
-                            Log.d("ROUTE_INFO", String.format("Создание сегмента [%d-%d] с линией: %s", segmentStart, i, currentLineName));
-                            Path segmentPath = buildContinuousPathForSegment(route, segmentStart, i, currentLine);
+                            if (RouteTrace.ENABLED) {
+                                Log.d("ROUTE_INFO", String.format("Создание сегмента [%d-%d] с линией: %s", segmentStart, i, currentLineName));
+                            }
+                            Path segmentPath = buildContinuousPathForSegment(buildInputs.route, segmentStart, i, currentLine);
                             RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, i, segmentPath);
-                            routePathCache.routeLineSegments.add(segment);
+                            routeBuildCache.routeLineSegments.add(segment);
                             
                             String key = currentLine.getId() + "_" + segmentStart + "_" + i;
                             PointF cachedPos = cachedIndicatorPositions.get(key);
@@ -4004,19 +4358,25 @@ public class MetroMapView extends View {
                             }
                         }
                         String newLineName = line.getName() != null ? line.getName() : line.getId();
-                        Log.d("ROUTE_INFO", String.format("Новая линия для сегмента: %s, начало: %d", newLineName, i));
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("Новая линия для сегмента: %s, начало: %d", newLineName, i));
+                        }
                         currentLine = line;
                         segmentStart = i;
                     }
                 } else {
                     // Если line == null, это ошибка - не должно быть
-                    Log.d("ROUTE_INFO", String.format("[%d->%d] ОШИБКА: line == null", i, i + 1));
+                    if (RouteTrace.ENABLED) {
+                        Log.d("ROUTE_INFO", String.format("[%d->%d] ОШИБКА: line == null", i, i + 1));
+                    }
                     if (currentLine != null && segmentStart < i) {
                         String currentLineName = currentLine.getName() != null ? currentLine.getName() : currentLine.getId();
-                        Log.d("ROUTE_INFO", String.format("Создание сегмента [%d-%d] с линией: %s (fallback)", segmentStart, i, currentLineName));
-                        Path segmentPath = buildContinuousPathForSegment(route, segmentStart, i, currentLine);
+                        if (RouteTrace.ENABLED) {
+                            Log.d("ROUTE_INFO", String.format("Создание сегмента [%d-%d] с линией: %s (fallback)", segmentStart, i, currentLineName));
+                        }
+                        Path segmentPath = buildContinuousPathForSegment(buildInputs.route, segmentStart, i, currentLine);
                         RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, i, segmentPath);
-                        routePathCache.routeLineSegments.add(segment);
+                        routeBuildCache.routeLineSegments.add(segment);
                         
                         String key = currentLine.getId() + "_" + segmentStart + "_" + i;
                         PointF cachedPos = cachedIndicatorPositions.get(key);
@@ -4029,36 +4389,38 @@ public class MetroMapView extends View {
                 }
             }
             
-            if (currentLine != null && segmentStart < route.size() - 1) {
+            if (currentLine != null && segmentStart < buildInputs.route.size() - 1) {
                 String currentLineName = currentLine.getName() != null ? currentLine.getName() : currentLine.getId();
-                Log.d("ROUTE_INFO", String.format("Создание финального сегмента [%d-%d] с линией: %s", segmentStart, route.size() - 1, currentLineName));
-                Path segmentPath = buildContinuousPathForSegment(route, segmentStart, route.size() - 1, currentLine);
-                RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, route.size() - 1, segmentPath);
-                routePathCache.routeLineSegments.add(segment);
+                if (RouteTrace.ENABLED) {
+                    Log.d("ROUTE_INFO", String.format("Создание финального сегмента [%d-%d] с линией: %s", segmentStart, buildInputs.route.size() - 1, currentLineName));
+                }
+                Path segmentPath = buildContinuousPathForSegment(buildInputs.route, segmentStart, buildInputs.route.size() - 1, currentLine);
+                RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, buildInputs.route.size() - 1, segmentPath);
+                routeBuildCache.routeLineSegments.add(segment);
                 
-                String key = currentLine.getId() + "_" + segmentStart + "_" + (route.size() - 1);
+                String key = currentLine.getId() + "_" + segmentStart + "_" + (buildInputs.route.size() - 1);
                 PointF cachedPos = cachedIndicatorPositions.get(key);
                 if (cachedPos != null) {
                     segment.cachedIndicatorX = cachedPos.x;
                     segment.cachedIndicatorY = cachedPos.y;
                 }
             }
-        } else if (route.size() > 1) {
+        } else if (buildInputs.route.size() > 1) {
             // Fallback для старого метода setRoute (без RouteStation)
             int segmentStart = 0;
             Line currentLine = null;
             
-            for (int i = 0; i < route.size() - 1; i++) {
-                Station station1 = route.get(i);
-                Station station2 = route.get(i + 1);
+            for (int i = 0; i < buildInputs.route.size() - 1; i++) {
+                Station station1 = buildInputs.route.get(i);
+                Station station2 = buildInputs.route.get(i + 1);
                 Line line = findLineForConnection(station1, station2);
                 
                 if (line != null) {
                     if (currentLine == null || !currentLine.getId().equals(line.getId())) {
                         if (currentLine != null && segmentStart < i) {
-                            Path segmentPath = buildContinuousPathForSegment(route, segmentStart, i, currentLine);
+                            Path segmentPath = buildContinuousPathForSegment(buildInputs.route, segmentStart, i, currentLine);
                             RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, i, segmentPath);
-                            routePathCache.routeLineSegments.add(segment);
+                            routeBuildCache.routeLineSegments.add(segment);
                             
                             String key = currentLine.getId() + "_" + segmentStart + "_" + i;
                             PointF cachedPos = cachedIndicatorPositions.get(key);
@@ -4072,9 +4434,9 @@ public class MetroMapView extends View {
                     }
                 } else {
                     if (currentLine != null && segmentStart < i) {
-                        Path segmentPath = buildContinuousPathForSegment(route, segmentStart, i, currentLine);
+                        Path segmentPath = buildContinuousPathForSegment(buildInputs.route, segmentStart, i, currentLine);
                         RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, i, segmentPath);
-                        routePathCache.routeLineSegments.add(segment);
+                        routeBuildCache.routeLineSegments.add(segment);
                         
                         String key = currentLine.getId() + "_" + segmentStart + "_" + i;
                         PointF cachedPos = cachedIndicatorPositions.get(key);
@@ -4087,12 +4449,12 @@ public class MetroMapView extends View {
                 }
             }
             
-            if (currentLine != null && segmentStart < route.size() - 1) {
-                Path segmentPath = buildContinuousPathForSegment(route, segmentStart, route.size() - 1, currentLine);
-                RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, route.size() - 1, segmentPath);
-                routePathCache.routeLineSegments.add(segment);
+            if (currentLine != null && segmentStart < buildInputs.route.size() - 1) {
+                Path segmentPath = buildContinuousPathForSegment(buildInputs.route, segmentStart, buildInputs.route.size() - 1, currentLine);
+                RouteLineSegment segment = new RouteLineSegment(currentLine, segmentStart, buildInputs.route.size() - 1, segmentPath);
+                routeBuildCache.routeLineSegments.add(segment);
                 
-                String key = currentLine.getId() + "_" + segmentStart + "_" + (route.size() - 1);
+                String key = currentLine.getId() + "_" + segmentStart + "_" + (buildInputs.route.size() - 1);
                 PointF cachedPos = cachedIndicatorPositions.get(key);
                 if (cachedPos != null) {
                     segment.cachedIndicatorX = cachedPos.x;
@@ -4101,8 +4463,9 @@ public class MetroMapView extends View {
             }
         }
         
-        for (RouteLineSegment segment : routePathCache.routeLineSegments) {
+        for (RouteLineSegment segment : routeBuildCache.routeLineSegments) {
             if (segment != null && segment.line != null) {
+                segment.colorValue = parseColorSafely(buildInputs.color(segment.line), buildInputs.textColor);
                 String key = segment.line.getId() + "_" + segment.startIndex + "_" + segment.endIndex;
                 PointF cachedPos = cachedIndicatorPositions.get(key);
                 if (cachedPos != null && segment.cachedIndicatorX == null && segment.cachedIndicatorY == null) {
@@ -4113,62 +4476,99 @@ public class MetroMapView extends View {
         }
 
         // Добавляем станции маршрута в кэш
-        for (Station station : route) {
+        for (Station station : buildInputs.route) {
             Path stationPath = new Path();
             stationPath.addCircle(
-                    station.getX() * currentCoordinateScaleFactor,
-                    station.getY() * currentCoordinateScaleFactor,
+                    buildInputs.x(station) * buildInputs.coordinateScale,
+                    buildInputs.y(station) * buildInputs.coordinateScale,
                     14,
                     Path.Direction.CW
             );
 
             Float labelXScaled = null;
             Float labelYScaled = null;
-            if (station.hasLabelCoordinates()) {
-                labelXScaled = station.getLabelX() * currentCoordinateScaleFactor;
-                labelYScaled = station.getLabelY() * currentCoordinateScaleFactor;
+            if (buildInputs.hasLabelCoordinates(station)) {
+                labelXScaled = buildInputs.labelX(station) * buildInputs.coordinateScale;
+                labelYScaled = buildInputs.labelY(station) * buildInputs.coordinateScale;
             }
             
             String stationColor;
-            if (isSharedStation(station)) {
-                stationColor = String.format("#%06X", (0xFFFFFF & mapTextColor));
+            if (buildInputs.mapIndex.isShared(station)) {
+                stationColor = String.format("#%06X", (0xFFFFFF & buildInputs.textColor));
             } else {
-                stationColor = station.getColor();
+                stationColor = buildInputs.color(station);
             }
             
-            routePathCache.routeStationsPaths.add(new StationPath(stationPath, stationColor, station.getTextPosition(), station.getName(), labelXScaled, labelYScaled));
+            StationPath routeStationPath = new StationPath(stationPath, stationColor, station.getTextPosition(), station.getName(), labelXScaled, labelYScaled);
+            // Как и раньше при отрисовке: пересадочность определяется по первой станции с таким названием
+            Station namesake = buildInputs.findStationByName(station.getName());
+            routeStationPath.sharedStroke = namesake != null && buildInputs.mapIndex.isShared(namesake);
+            if (station.getTextPosition() != 9) {
+                layoutStationLabel(routeStationPath);
+            } else {
+                routeStationPath.labelFallback = buildRouteLabelFallback(station, stationColor);
+            }
+            routeBuildCache.routeStationsPaths.add(routeStationPath);
         }
 
         // Добавим бледные точки всех станций, входящих в переходы маршрута, но не являющихся текущими в route
         Set<String> routeIds = new java.util.HashSet<>();
-        for (Station s : route) routeIds.add(s.getId());
-        for (Transfer t : transfers) {
+        for (Station s : buildInputs.route) routeIds.add(s.getId());
+        for (Transfer t : buildInputs.transfers) {
             List<Station> ts = t.getStations(); if (ts == null || ts.size() < 2) continue;
             // если переход участвует в маршруте (есть пара соседних станций в route)
             boolean used = false;
-            for (int i = 0; i < route.size()-1 && !used; i++) {
-                if (ts.contains(route.get(i)) && ts.contains(route.get(i+1))) used = true;
+            for (int i = 0; i < buildInputs.route.size()-1 && !used; i++) {
+                if (ts.contains(buildInputs.route.get(i)) && ts.contains(buildInputs.route.get(i+1))) used = true;
             }
             if (!used) continue;
             for (Station s : ts) {
                 if (routeIds.contains(s.getId())) continue;
                 Path sp = new Path();
-                sp.addCircle(s.getX()*COORDINATE_SCALE_FACTOR, s.getY()*COORDINATE_SCALE_FACTOR, 14, Path.Direction.CW);
-                String col = s.getColor();
+                sp.addCircle(buildInputs.x(s)*COORDINATE_SCALE_FACTOR, buildInputs.y(s)*COORDINATE_SCALE_FACTOR, 14, Path.Direction.CW);
+                String col = buildInputs.color(s);
                 Float labelXScaled = null;
                 Float labelYScaled = null;
-                if (s.hasLabelCoordinates()) {
-                    labelXScaled = s.getLabelX() * currentCoordinateScaleFactor;
-                    labelYScaled = s.getLabelY() * currentCoordinateScaleFactor;
+                if (buildInputs.hasLabelCoordinates(s)) {
+                    labelXScaled = buildInputs.labelX(s) * buildInputs.coordinateScale;
+                    labelYScaled = buildInputs.labelY(s) * buildInputs.coordinateScale;
                 }
-                routePathCache.routeFaintStationsPaths.add(new StationPath(sp, col, s.getTextPosition(), s.getName(), labelXScaled, labelYScaled));
+                routeBuildCache.routeFaintStationsPaths.add(new StationPath(sp, col, s.getTextPosition(), s.getName(), labelXScaled, labelYScaled));
             }
         }
 
-        routePathCache.isInitialized = true;
+        routeBuildCache.isInitialized = true;
     }
 
 
+    /**
+     * Подпись станции маршрута без своей подписи: геометрия и позиция текста «сестры» из перехода.
+     *
+     * @return null, если подписывать нечем
+     */
+    private StationPath buildRouteLabelFallback(Station station, String stationColor) {
+        Station labelStation = findLabelStationForTransfer(station);
+        if (labelStation == null) {
+            return null;
+        }
+        Path path = new Path();
+        path.addCircle(buildInputs.x(labelStation) * buildInputs.coordinateScale,
+                buildInputs.y(labelStation) * buildInputs.coordinateScale, 14, Path.Direction.CW);
+        String fallbackColor = buildInputs.color(labelStation);
+        if (fallbackColor == null || fallbackColor.trim().isEmpty()) {
+            fallbackColor = stationColor;
+        }
+        Float labelXScaled = null;
+        Float labelYScaled = null;
+        if (buildInputs.hasLabelCoordinates(labelStation)) {
+            labelXScaled = buildInputs.labelX(labelStation) * buildInputs.coordinateScale;
+            labelYScaled = buildInputs.labelY(labelStation) * buildInputs.coordinateScale;
+        }
+        StationPath fallback = new StationPath(path, fallbackColor, labelStation.getTextPosition(), labelStation.getName(), labelXScaled, labelYScaled);
+        layoutStationLabel(fallback);
+        return fallback;
+    }
+
     private void handleRouteLinkTransfer(Transfer transfer) {
         // Центры переходов
         List<PointF> centers = new ArrayList<>();
@@ -4184,13 +4584,13 @@ public class MetroMapView extends View {
         if (stationIds != null && !stationIds.isEmpty() && !centers.isEmpty()) {
             PointF from = centers.get(0);
             for (String sid : stationIds) {
-                Station st = findStationByIdAcrossAll(sid);
+                Station st = buildInputs.findStationById(sid);
                 if (st == null) continue;
-                float x = st.getX() * currentCoordinateScaleFactor;
-                float y = st.getY() * currentCoordinateScaleFactor;
+                float x = buildInputs.x(st) * buildInputs.coordinateScale;
+                float y = buildInputs.y(st) * buildInputs.coordinateScale;
                 String type = transfer.getType().toLowerCase();
                 Path p = new Path(); p.moveTo(from.x, from.y); p.lineTo(x, y);
-                if ("ground".equals(type)) routePathCache.dashedTransfersPath.addPath(p); else routePathCache.transfersPath.addPath(p);
+                if ("ground".equals(type)) routeBuildCache.dashedTransfersPath.addPath(p); else routeBuildCache.transfersPath.addPath(p);
             }
             return;
         }
@@ -4201,47 +4601,122 @@ public class MetroMapView extends View {
                 PointF otherCenter = centers.get(i);
                 String type = transfer.getType().toLowerCase();
                 Path p = new Path(); p.moveTo(firstCenter.x, firstCenter.y); p.lineTo(otherCenter.x, otherCenter.y);
-                if ("ground".equals(type)) routePathCache.dashedTransfersPath.addPath(p); else routePathCache.transfersPath.addPath(p);
+                if ("ground".equals(type)) routeBuildCache.dashedTransfersPath.addPath(p); else routeBuildCache.transfersPath.addPath(p);
             }
         }
     }
 
     private Station findStationByIdAcrossAll(String id) {
-        if (stations != null) {
-            for (Station s : stations) if (id.equals(s.getId())) return s;
-        }
-        if (suburbanStations != null) {
-            for (Station s : suburbanStations) if (id.equals(s.getId())) return s;
+        return findStationAcrossLayers(id, false, stations, suburbanStations, riverTramStations, tramStations);
+    }
+
+    private Station findStationByName(String name) {
+        if (name == null) return null;
+        return findStationAcrossLayers(name, true, stations, suburbanStations, riverTramStations, tramStations);
+    }
+
+    /**
+     * Ищет станцию по id (или по имени при byName) в слоях метро, электричек, речного трамвая и трамвая — в этом порядке.
+     */
+    private static Station findStationAcrossLayers(String key, boolean byName, List<Station> metro,
+                                                   List<Station> suburban, List<Station> riverTram, List<Station> tram) {
+        Station station = findStationInLayer(metro, key, byName);
+        if (station == null) station = findStationInLayer(suburban, key, byName);
+        if (station == null) station = findStationInLayer(riverTram, key, byName);
+        if (station == null) station = findStationInLayer(tram, key, byName);
+        return station;
+    }
+
+    private static Station findStationInLayer(List<Station> layer, String key, boolean byName) {
+        if (layer != null) {
+            for (Station s : layer) if (key.equals(byName ? s.getName() : s.getId())) return s;
         }
-        if (riverTramStations != null) {
-            for (Station s : riverTramStations) if (id.equals(s.getId())) return s;
+        return null;
+    }
+
+    /**
+     * Строит геометрию одного перехода во временном кэше: addTransferPathToCache пишет только
+     * в пути и списки переходов и не читает того, что уже накоплено.
+     */
+    private MapPathCache buildTransferGeometry(Transfer transfer) {
+        MapPathCache originalCache = buildCache;
+        MapPathCache tempCache = new MapPathCache(buildInputs.coordinateScale);
+        buildCache = tempCache;
+        try {
+            addTransferPathToCache(transfer);
+        } finally {
+            buildCache = originalCache;
         }
-        if (tramStations != null) {
-            for (Station s : tramStations) if (id.equals(s.getId())) return s;
+        return tempCache;
+    }
+
+    /**
+     * Собирает общие пути переходов кэша из геометрии отдельных переходов, в порядке transferParts.
+     */
+    private void mergeTransferGeometry() {
+        // Общие пути заменяются, а не очищаются: копия для правки (copyForEdit) делит их с показанным снимком
+        buildCache.transfersPath = new Path();
+        buildCache.dashedTransfersPath = new Path();
+        buildCache.transfersFillPath = new Path();
+        buildCache.transfersFillOverlayMainPath = new Path();
+        buildCache.transfersFillOverlayAngularPath = new Path();
+        buildCache.debugMainSegmentsPath = new Path();
+        buildCache.debugConnectionsPath = new Path();
+        buildCache.partialCircles = new ArrayList<>();
+        buildCache.transferStrokes = new ArrayList<>();
+        buildCache.crossStrokes = new ArrayList<>();
+        for (TransferPart part : buildCache.transferParts) {
+            MapPathCache geometry = part.geometry;
+            buildCache.transfersPath.addPath(geometry.transfersPath);
+            buildCache.dashedTransfersPath.addPath(geometry.dashedTransfersPath);
+            buildCache.transfersFillPath.addPath(geometry.transfersFillPath);
+            buildCache.transfersFillOverlayMainPath.addPath(geometry.transfersFillOverlayMainPath);
+            buildCache.transfersFillOverlayAngularPath.addPath(geometry.transfersFillOverlayAngularPath);
+            buildCache.debugMainSegmentsPath.addPath(geometry.debugMainSegmentsPath);
+            buildCache.debugConnectionsPath.addPath(geometry.debugConnectionsPath);
+            buildCache.partialCircles.addAll(geometry.partialCircles);
+            buildCache.transferStrokes.addAll(geometry.transferStrokes);
+            buildCache.crossStrokes.addAll(geometry.crossStrokes);
         }
-        return null;
     }
-    
-    private Station findStationByName(String name) {
-        if (name == null) return null;
-        if (stations != null) {
-            for (Station s : stations) if (name.equals(s.getName())) return s;
+
+    /**
+     * @return строится ли геометрия перехода по станции: своя станция, станция-анкер
+     * или станция перехода, на центр которого ссылается переход (TR_* ссылки)
+     */
+    private boolean transferDependsOn(Transfer transfer, String stationId) {
+        if (containsStation(transfer.getStations(), stationId)) {
+            return true;
         }
-        if (suburbanStations != null) {
-            for (Station s : suburbanStations) if (name.equals(s.getName())) return s;
+        if (transfer.getLinkedStationIds() != null && transfer.getLinkedStationIds().contains(stationId)) {
+            return true;
         }
-        if (riverTramStations != null) {
-            for (Station s : riverTramStations) if (name.equals(s.getName())) return s;
+        if (transfer.getLinkedTransferIds() != null) {
+            for (Transfer linked : buildInputs.transfers) {
+                if (transfer.getLinkedTransferIds().contains(linked.getId())
+                        && containsStation(linked.getStations(), stationId)) {
+                    return true;
+                }
+            }
         }
-        if (tramStations != null) {
-            for (Station s : tramStations) if (name.equals(s.getName())) return s;
+        return false;
+    }
+
+    private static boolean containsStation(List<Station> stations, String stationId) {
+        if (stations == null) {
+            return false;
         }
-        return null;
+        for (Station station : stations) {
+            if (stationId.equals(station.getId())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void buildRouteTransferBetween(Station a, Station b) {
         Transfer match = null;
-        for (Transfer t : transfers) {
+        for (Transfer t : buildInputs.transfers) {
             List<Station> ts = t.getStations();
             if (ts != null && ts.contains(a) && ts.contains(b)) {
                 match = t;
@@ -4257,157 +4732,48 @@ public class MetroMapView extends View {
             return;
         }
 
-        MapPathCache originalCache = pathCache;
-        MapPathCache tempCache = new MapPathCache();
-        pathCache = tempCache;
-        try {
-            addTransferPathToCache(match);
-        } finally {
-            pathCache = originalCache;
-        }
+        MapPathCache tempCache = buildTransferGeometry(match);
 
-        routePathCache.transfersPath.addPath(tempCache.transfersPath);
-        routePathCache.dashedTransfersPath.addPath(tempCache.dashedTransfersPath);
-        routePathCache.transfersFillPath.addPath(tempCache.transfersFillPath);
-        routePathCache.transfersFillOverlayMainPath.addPath(tempCache.transfersFillOverlayMainPath);
-        routePathCache.transfersFillOverlayAngularPath.addPath(tempCache.transfersFillOverlayAngularPath);
-        routePathCache.convexHullPath.addPath(tempCache.convexHullPath);
-        routePathCache.partialCircles.addAll(tempCache.partialCircles);
-        routePathCache.crossStrokes.addAll(tempCache.crossStrokes);
+        routeBuildCache.transfersPath.addPath(tempCache.transfersPath);
+        routeBuildCache.dashedTransfersPath.addPath(tempCache.dashedTransfersPath);
+        routeBuildCache.transfersFillPath.addPath(tempCache.transfersFillPath);
+        routeBuildCache.transfersFillOverlayMainPath.addPath(tempCache.transfersFillOverlayMainPath);
+        routeBuildCache.transfersFillOverlayAngularPath.addPath(tempCache.transfersFillOverlayAngularPath);
+        routeBuildCache.convexHullPath.addPath(tempCache.convexHullPath);
+        routeBuildCache.partialCircles.addAll(tempCache.partialCircles);
+        routeBuildCache.crossStrokes.addAll(tempCache.crossStrokes);
     }
 
+    /**
+     * Подпись станции маршрута: раскладка та же, что у подписей карты (layoutStationLabel), цвета контрастные.
+     */
     private void drawRouteStationText(Canvas canvas, StationPath routeStationPath) {
-
-        // Для переходной станции с pos==9 саму подпись не рисуем — её рисуем через fallback выше
-        if (routeStationPath.textPosition == 9) return;
-        // Создаем paint для текста
-
-        Paint textPaint = new Paint(this.textPaint);
-        // В режиме маршрута используем светлый текст (инвертируем цвет текста)
-        int routeTextColor = ColorUtils.blendARGB(mapTextColor, mapBackgroundColor, 0.5f);
-        if (isDarkTheme()) {
-            routeTextColor = Color.WHITE; // В темной теме белый текст на маршруте
-        } else {
-            routeTextColor = Color.BLACK; // В светлой теме черный текст на маршруте
-        }
-        textPaint.setColor(routeTextColor);
-
-        // Получаем координаты центра станции
-        RectF bounds = new RectF();
-        routeStationPath.path.computeBounds(bounds, true);
-        float stationX = bounds.centerX();
-        float stationY = bounds.centerY();
-        float textOffset = 50; // Смещение текста от станции
-
-        // Позиционируем текст в зависимости от textPosition
-        float textX = stationX;
-        float textY = stationY;
-        Paint.Align textAlign = Paint.Align.CENTER;
-
-
-        boolean hasCustomPosition = routeStationPath.hasCustomLabelPosition();
-        if (hasCustomPosition) {
-            textX = routeStationPath.labelX;
-            textY = routeStationPath.labelY;
-            textAlign = Paint.Align.CENTER;
-        } else {
-            switch (routeStationPath.textPosition) {
-                case 0: // center
-                    textAlign = Paint.Align.CENTER;
-                    break;
-                case 1: // 12 o'clock
-
-                    textY -= (textOffset - 5f);
-                    textAlign = Paint.Align.CENTER;
-                    break;
-                case 2: // 1:30
-
-                    textX += (textOffset * 0.7f - 5f);
-                    textY -= (textOffset * 0.7f - 5f);
-                    textAlign = Paint.Align.LEFT;
-                    break;
-                case 3: // 3 o'clock
-
-                    textX += (textOffset - 5f);
-                    textAlign = Paint.Align.LEFT;
-                    break;
-                case 4: // 4:30
-
-                    textX += (textOffset * 0.7f - 5f);
-                    textY += (textOffset * 0.7f - 5f);
-                    textAlign = Paint.Align.LEFT;
-                    break;
-                case 5: // 6 o'clock
-
-                    textY += (textOffset - 5f);
-                    textAlign = Paint.Align.CENTER;
-                    break;
-                case 6: // 7:30
-
-                    textX -= (textOffset * 0.7f - 5f);
-                    textY += (textOffset * 0.7f - 5f);
-                    textAlign = Paint.Align.RIGHT;
-                    break;
-                case 7: // 9 o'clock
-
-                    textX -= (textOffset - 5f);
-                    textAlign = Paint.Align.RIGHT;
-                    break;
-                case 8: // 10:30
-
-                    textX -= (textOffset * 0.7f - 5f);
-                    textY -= (textOffset * 0.7f - 5f);
-                    textAlign = Paint.Align.RIGHT;
-                    break;
-                default:
-                    return; // Не отображать текст
-
-            }
+        if (routeStationPath == null || routeStationPath.labelLines == null) {
+            return;
         }
+        routeLabelPaint.setTextAlign(routeStationPath.labelAlign);
+        routeLabelOutlinePaint.setTextAlign(routeStationPath.labelAlign);
 
-        // Устанавливаем выравнивание текста
-        textPaint.setTextAlign(textAlign);
-
-        // Добавляем небольшое вертикальное смещение для центрирования текста
-        textY += textPaint.getTextSize() / 3;
-
-
-        Paint outlinePaint2 = new Paint(textPaint);
-        outlinePaint2.setStyle(Paint.Style.STROKE);
-        outlinePaint2.setStrokeWidth(6f);
-        // Обводка должна контрастировать с текстом
-        int outlineColor = isDarkTheme() ? Color.BLACK : Color.WHITE;
-        outlinePaint2.setColor(outlineColor);
-        outlinePaint2.setStrokeJoin(Paint.Join.ROUND);
-        outlinePaint2.setStrokeMiter(10f);
-
-        // Текст с обводкой в режиме маршрута
-        textPaint.setColor(routeTextColor);
-
-        String[] lines = routeStationPath.stationName.split("\\n");
-        float lineHeight = textPaint.getTextSize() * 1.2f;
-        float totalHeight = lineHeight * lines.length;
-        float startY = textY - (totalHeight - lineHeight) / 2f;
-
-        for (int i = 0; i < lines.length; i++) {
-            float ly = startY + i * lineHeight;
-            canvas.drawText(lines[i], textX, ly, outlinePaint2);
-            canvas.drawText(lines[i], textX, ly, textPaint);
+        for (int i = 0; i < routeStationPath.labelLines.length; i++) {
+            float ly = routeStationPath.labelStartY + i * routeStationPath.labelLineHeight;
+            canvas.drawText(routeStationPath.labelLines[i], routeStationPath.labelTextX, ly, routeLabelOutlinePaint);
+            canvas.drawText(routeStationPath.labelLines[i], routeStationPath.labelTextX, ly, routeLabelPaint);
         }
     }
 
-    // Находим «сестру» станции в переходе, у которой textPosition != 9
-    private Station findLabelStationForTransferByName(String stationNameOrId) {
-        if (transfers == null) return null;
-        // Сначала ищем по ID
-        Station byId = findStationByIdAcrossAll(stationNameOrId);
-        if (byId != null) {
-            for (Transfer t : transfers) {
+    // Находим «сестру» станции в переходе, у которой textPosition != 9; сначала по ID, потом по имени
+    private Station findLabelStationForTransfer(Station station) {
+        if (buildInputs.transfers == null) return null;
+        for (int pass = 0; pass < 2; pass++) {
+            for (Transfer t : buildInputs.transfers) {
                 List<Station> tStations = t.getStations();
                 if (tStations == null) continue;
                 boolean has = false;
                 for (Station s : tStations) {
-                    if (s.getId().equals(byId.getId())) { has = true; break; }
+                    if (pass == 0 ? s.getId().equals(station.getId()) : s.getName().equals(station.getName())) {
+                        has = true;
+                        break;
+                    }
                 }
                 if (!has) continue;
                 for (Station s : tStations) {
@@ -4415,19 +4781,6 @@ public class MetroMapView extends View {
                 }
             }
         }
-        // Потом — по имени
-        for (Transfer t : transfers) {
-            List<Station> tStations = t.getStations();
-            if (tStations == null) continue;
-            boolean has = false;
-            for (Station s : tStations) {
-                if (s.getName().equals(stationNameOrId)) { has = true; break; }
-            }
-            if (!has) continue;
-            for (Station s : tStations) {
-                if (s.getTextPosition() != 9) return s;
-            }
-        }
         return null;
     }
 
@@ -4508,68 +4861,267 @@ public class MetroMapView extends View {
         transferPath.close();  // Замыкаем фигуру
 
         // Добавляем путь в кэш
-        routePathCache.transfersPath.addPath(transferPath);
+        routeBuildCache.transfersPath.addPath(transferPath);
+
+        // Добавляем частичные круги
+        for (int i = 0; i < stations.size(); i++) {
+            int prevIndex = (i - 1 + stations.size()) % stations.size();
+            int nextIndex = (i + 1) % stations.size();
+            float currentX = coordinates[i * 2];
+            float currentY = coordinates[i * 2 + 1];
+            float prevX = coordinates[prevIndex * 2];
+            float prevY = coordinates[prevIndex * 2 + 1];
+            float nextX = coordinates[nextIndex * 2];
+            float nextY = coordinates[nextIndex * 2 + 1];
+            List<Float> angles = getAngle(prevX, prevY, currentX, currentY, nextX, nextY);
+
+            if (angles == null || angles.size() < 2) {
+                continue;
+            }
+            float sweep = angles.get(0);
+            if (Float.isNaN(sweep) || Math.abs(sweep) < 1f || Math.abs(sweep) >= 359f) {
+                continue;
+            }
+
+            routeBuildCache.partialCircles.add(new PartialCircle(
+                    currentX, currentY, 20, 6,
+                    angles, "#cccccc"  // Используем белый цвет для переходов в маршруте
+            ));
+        }
+    }
+
+    /**
+     * Запускает в фоне сборку устаревших кэшей путей. Новый запрос заменяет ещё не начатый,
+     * а результат уже идущей сборки, ставший устаревшим, отбрасывается. Версия, сборка которой упала,
+     * не запрашивается снова, пока не изменится то, из чего она собирается.
+     */
+    private void requestPathCacheBuild() {
+        final boolean buildMap = pathCache.version != mapCacheVersion && mapCacheVersion != failedMapVersion;
+        final boolean buildRoute = route != null && !route.isEmpty() && routePathCache.version != routeCacheVersion
+                && routeCacheVersion != failedRouteVersion;
+        if (!buildMap && !buildRoute) {
+            return;
+        }
+        // Во время смены масштаба координат кэши собираются по её окончании (onAnimationEnd)
+        if (coordinateScaleAnimator != null && coordinateScaleAnimator.isRunning()) {
+            return;
+        }
+        int baseMapVersion = -1;
+        List<Station> moved = Collections.emptyList();
+        if (buildMap) {
+            if (mapCacheVersion == editableMapVersion && !movedStations.isEmpty()) {
+                // После полной сборки переносились только станции: правится копия её кэша
+                baseMapVersion = fullMapVersion;
+                moved = new ArrayList<>(movedStations);
+            } else {
+                // Масштаб координат и кисти — состояние потока отрисовки; сборка получает масштаб в PathCacheInputs
+                currentCoordinateScaleFactor = getCoordinateScaleFactor();
+                updateFramePaints();
+                fullMapVersion = mapCacheVersion;
+                editableMapVersion = mapCacheVersion;
+                movedStations.clear();
+            }
+        }
+        final PathCacheJob job = new PathCacheJob(latestPathCacheRequest.incrementAndGet(), new PathCacheInputs(this),
+                buildMap ? mapCacheVersion : -1, buildRoute ? routeCacheVersion : -1, baseMapVersion, moved);
+        pathCacheBuildPending = true;
+        pathCacheWorker.execute(() -> runPathCacheJob(job));
+    }
+
+    /**
+     * Один рабочий поток на вид; простояв без запросов, он завершается, поэтому исполнитель
+     * не закрывается при отсоединении окна и поля сборки никогда не делят два потока.
+     */
+    private static ExecutorService newPathCacheWorker() {
+        ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "MapCacheWorker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        worker.allowCoreThreadTimeOut(true);
+        return worker;
+    }
+
+    /**
+     * Выполняет запрос в рабочем потоке. Поля сборки (buildInputs, buildCache, routeBuildCache, baseMapCache)
+     * трогает только он, запросы идут по одному; данные вида сборка читает только из job.inputs.
+     */
+    private void runPathCacheJob(PathCacheJob job) {
+        if (job.request != latestPathCacheRequest.get()) {
+            return; // заменён более новым запросом или отменён
+        }
+        PathCacheSnapshot snapshot = new PathCacheSnapshot();
+        buildInputs = job.inputs;
+        try {
+            if (job.mapVersion >= 0) {
+                try {
+                    snapshot.map = job.baseMapVersion >= 0 && baseMapCache != null
+                            && baseMapCacheVersion == job.baseMapVersion
+                            && baseMapCache.coordinateScale == job.inputs.coordinateScale
+                            ? editMapCache(job) : buildMapCache(job);
+                    snapshot.map.version = job.mapVersion;
+                } catch (RuntimeException e) {
+                    Log.e("MetroMapView", "Map path cache build failed", e);
+                    snapshot.mapFailed = true;
+                }
+            }
+            if (job.routeVersion >= 0) {
+                try {
+                    routeBuildCache = new RoutePathCache(job.inputs.coordinateScale);
+                    updateRouteCache();
+                    routeBuildCache.version = job.routeVersion;
+                    snapshot.route = routeBuildCache;
+                } catch (RuntimeException e) {
+                    Log.e("MetroMapView", "Route path cache build failed", e);
+                    snapshot.routeFailed = true;
+                }
+            }
+        } finally {
+            buildInputs = null;
+            buildCache = null;
+            routeBuildCache = null;
+        }
+        final PathCacheSnapshot result = snapshot;
+        mainHandler.post(() -> publishPathCacheSnapshot(job, result));
+    }
+
+    private MapPathCache buildMapCache(PathCacheJob job) {
+        buildCache = new MapPathCache(job.inputs.coordinateScale);
+        updatePathCache();
+        // Полная сборка по запросу правки уже учла перенесённые станции; повторная правка их не изменит
+        baseMapCache = buildCache;
+        baseMapCacheVersion = job.baseMapVersion >= 0 ? job.baseMapVersion : job.mapVersion;
+        return buildCache;
+    }
+
+    private MapPathCache editMapCache(PathCacheJob job) {
+        buildCache = baseMapCache.copyForEdit();
+        updateStationsGeometry(job.movedStations);
+        return buildCache;
+    }
+
+    /**
+     * @return собираются ли сейчас кэши путей в фоне
+     */
+    boolean isPathCacheBuildPending() {
+        return pathCacheBuildPending;
+    }
+
+    /**
+     * Собирает кэш путей карты целиком (updatePathCache → drawColoredMap) в вызывающем потоке
+     * и отбрасывает его. Для замеров: вызывать, только когда фоновых сборок нет.
+     */
+    void buildMapPathCacheForBenchmark() {
+        if (pathCacheBuildPending) {
+            throw new IllegalStateException("Path cache build is pending");
+        }
+        buildInputs = new PathCacheInputs(this);
+        try {
+            buildCache = new MapPathCache(buildInputs.coordinateScale);
+            updatePathCache();
+        } finally {
+            buildInputs = null;
+            buildCache = null;
+        }
+    }
+
+    private void publishPathCacheSnapshot(PathCacheJob job, PathCacheSnapshot snapshot) {
+        if (job.request != latestPathCacheRequest.get()) {
+            return; // отменён или заменён: ждём результат более нового запроса
+        }
+        pathCacheBuildPending = false;
+        if (snapshot.mapFailed) {
+            failedMapVersion = job.mapVersion;
+        }
+        if (snapshot.routeFailed) {
+            failedRouteVersion = job.routeVersion;
+        }
+        if (snapshot.map != null && snapshot.map.version == mapCacheVersion) {
+            pathCache = snapshot.map;
+            invalidateStaticLayers();
+        }
+        if (snapshot.route != null && snapshot.route.version == routeCacheVersion) {
+            routePathCache = snapshot.route;
+        }
+        invalidate();
+    }
 
-        // Добавляем частичные круги
-        for (int i = 0; i < stations.size(); i++) {
-            int prevIndex = (i - 1 + stations.size()) % stations.size();
-            int nextIndex = (i + 1) % stations.size();
-            float currentX = coordinates[i * 2];
-            float currentY = coordinates[i * 2 + 1];
-            float prevX = coordinates[prevIndex * 2];
-            float prevY = coordinates[prevIndex * 2 + 1];
-            float nextX = coordinates[nextIndex * 2];
-            float nextY = coordinates[nextIndex * 2 + 1];
-            List<Float> angles = getAngle(prevX, prevY, currentX, currentY, nextX, nextY);
+    /**
+     * Отменяет запрошенные сборки: не начатые пропускаются, результат идущей отбрасывается.
+     */
+    private void cancelPathCacheBuilds() {
+        latestPathCacheRequest.incrementAndGet();
+        pathCacheBuildPending = false;
+    }
 
-            if (angles == null || angles.size() < 2) {
-                continue;
-            }
-            float sweep = angles.get(0);
-            if (Float.isNaN(sweep) || Math.abs(sweep) < 1f || Math.abs(sweep) >= 359f) {
-                continue;
-            }
+    /**
+     * Отмечает кэш маршрута устаревшим: пустой маршрут очищает кэш сразу, остальное собирается в фоне.
+     */
+    private void invalidateRouteCache() {
+        routeCacheVersion++;
+        if (route == null || route.isEmpty()) {
+            routePathCache = new RoutePathCache(currentCoordinateScaleFactor);
+            routePathCache.version = routeCacheVersion;
+            return;
+        }
+        requestPathCacheBuild();
+    }
 
-            routePathCache.partialCircles.add(new PartialCircle(
-                    currentX, currentY, 20, 6,
-                    angles, "#cccccc"  // Используем белый цвет для переходов в маршруте
-            ));
+    /**
+     * Снимок кэша, собранный при другом масштабе координат (во время его смены), растягивается до текущего.
+     *
+     * @return счётчик для canvas.restoreToCount
+     */
+    private int saveForCacheScale(Canvas canvas, float cacheCoordinateScale) {
+        int saveCount = canvas.save();
+        float ratio = currentCoordinateScaleFactor / cacheCoordinateScale;
+        if (ratio != 1f) {
+            canvas.scale(ratio, ratio);
         }
+        return saveCount;
     }
 
     private void updatePathCache() {
         // Очищаем кэш перед обновлением
-        pathCache.linesPaths.clear();
-        pathCache.stationsPaths.clear();
-        pathCache.transfersPath.reset();
-
-        pathCache.dashedTransfersPath.reset();
-        pathCache.transfersFillPath.reset();
-        pathCache.transfersFillOverlayMainPath.reset();
-        pathCache.transfersFillOverlayAngularPath.reset();
-        pathCache.debugMainSegmentsPath.reset();
-        pathCache.debugConnectionsPath.reset();
-        pathCache.transferStrokes.clear();
-        pathCache.crossStrokes.clear();
-        pathCache.riversPath.reset();
-        pathCache.partialCircles.clear();
-        pathCache.convexHullPath.reset();
-        pathCache.segmentInfos.clear();
+        buildCache.linesPaths.clear();
+        buildCache.stationsPaths.clear();
+        buildCache.transfersPath.reset();
+
+        buildCache.dashedTransfersPath.reset();
+        buildCache.transfersFillPath.reset();
+        buildCache.transfersFillOverlayMainPath.reset();
+        buildCache.transfersFillOverlayAngularPath.reset();
+        buildCache.debugMainSegmentsPath.reset();
+        buildCache.debugConnectionsPath.reset();
+        buildCache.transferStrokes.clear();
+        buildCache.crossStrokes.clear();
+        buildCache.riversPath.reset();
+        buildCache.partialCircles.clear();
+        buildCache.convexHullPath.reset();
+        buildCache.segmentInfos.clear();
+        buildCache.segmentList.clear();
+        buildCache.lineTiles = PathTiles.EMPTY;
+        buildCache.stationTiles = PathTiles.EMPTY;
+        buildCache.segmentTiles = PathTiles.EMPTY;
+        buildCache.stationPathIndex.clear();
+        buildCache.segmentsByStation.clear();
+        buildCache.transferParts.clear();
 
         // Выбираем данные для отрисовки в зависимости от текущей карты
-        if (isMetroMap) {
-            drawColoredMap(lines, stations, transfers, rivers, mapObjects);
-        } else if (isSuburbanMap) {
-            drawColoredMap(suburbanLines, suburbanStations, suburbanTransfers, rivers, suburbanMapObjects);
-        } else if (isRiverTramMap) {
-            drawColoredMap(riverTramLines, riverTramStations, riverTramTransfers, rivers, riverTramMapObjects);
-        } else if (isTramMap) {
-            drawColoredMap(tramLines, tramStations, tramTransfers, rivers, tramMapObjects);
+        if (buildInputs.isMetroMap) {
+            drawColoredMap(buildInputs.lines, buildInputs.stations, buildInputs.transfers, buildInputs.rivers, buildInputs.mapObjects);
+        } else if (buildInputs.isSuburbanMap) {
+            drawColoredMap(buildInputs.suburbanLines, buildInputs.suburbanStations, buildInputs.suburbanTransfers, buildInputs.rivers, buildInputs.suburbanMapObjects);
+        } else if (buildInputs.isRiverTramMap) {
+            drawColoredMap(buildInputs.riverTramLines, buildInputs.riverTramStations, buildInputs.riverTramTransfers, buildInputs.rivers, buildInputs.riverTramMapObjects);
+        } else if (buildInputs.isTramMap) {
+            drawColoredMap(buildInputs.tramLines, buildInputs.tramStations, buildInputs.tramTransfers, buildInputs.rivers, buildInputs.tramMapObjects);
         }
     }
 
     private void buildSegmentInfoForTramMap(List<Line> lines, List<Station> stations) {
-        pathCache.segmentInfos.clear();
+        buildCache.segmentInfos.clear();
 
         Map<String, Station> allStationsById = new HashMap<>();
         for (Station station : stations) {
@@ -4627,9 +5179,9 @@ public class MetroMapView extends View {
                     endStation = temp;
                 }
 
-                SegmentInfo segmentInfo = pathCache.segmentInfos.get(segmentKey);
+                SegmentInfo segmentInfo = buildCache.segmentInfos.get(segmentKey);
                 if (segmentInfo == null) {
-                    List<Point> intermediatePoints = startStation.getIntermediatePoints(endStation);
+                    List<Point> intermediatePoints = buildInputs.intermediatePoints(startStation, endStation);
                     Path basePath = new Path();
 
                     createBasePathForSegment(startStation, endStation, intermediatePoints, line.getLineType(), basePath);
@@ -4638,7 +5190,7 @@ public class MetroMapView extends View {
                     linesList.add(line);
 
                     segmentInfo = new SegmentInfo(segmentKey, startStation, endStation, linesList, basePath, intermediatePoints, line.getLineType());
-                    pathCache.segmentInfos.put(segmentKey, segmentInfo);
+                    buildCache.segmentInfos.put(segmentKey, segmentInfo);
                 } else {
                     boolean lineExists = false;
                     for (Line existingLine : segmentInfo.lines) {
@@ -4673,9 +5225,9 @@ public class MetroMapView extends View {
                             endStation = temp;
                         }
 
-                        SegmentInfo segmentInfo = pathCache.segmentInfos.get(segmentKey);
+                        SegmentInfo segmentInfo = buildCache.segmentInfos.get(segmentKey);
                         if (segmentInfo == null) {
-                            List<Point> intermediatePoints = startStation.getIntermediatePoints(endStation);
+                            List<Point> intermediatePoints = buildInputs.intermediatePoints(startStation, endStation);
                             Path basePath = new Path();
 
                             createBasePathForSegment(startStation, endStation, intermediatePoints, line.getLineType(), basePath);
@@ -4684,7 +5236,7 @@ public class MetroMapView extends View {
                             linesList.add(line);
 
                             segmentInfo = new SegmentInfo(segmentKey, startStation, endStation, linesList, basePath, intermediatePoints, line.getLineType());
-                            pathCache.segmentInfos.put(segmentKey, segmentInfo);
+                            buildCache.segmentInfos.put(segmentKey, segmentInfo);
                         } else {
                             boolean lineExists = false;
                             for (Line existingLine : segmentInfo.lines) {
@@ -4711,27 +5263,30 @@ public class MetroMapView extends View {
         if (transfers == null) transfers = java.util.Collections.emptyList();
         if (rivers == null) rivers = java.util.Collections.emptyList();
         if (mapObjects == null) mapObjects = java.util.Collections.emptyList();
-        
-        if (coordinateScaleAnimator == null || !coordinateScaleAnimator.isRunning()) {
-        currentCoordinateScaleFactor = getCoordinateScaleFactor();
-        }
-        
+
         // Очищаем кэш перед отрисовкой
-        pathCache.linesPaths.clear();
-        pathCache.stationsPaths.clear();
-        pathCache.transfersPath.reset();
-
-        pathCache.dashedTransfersPath.reset();
-        pathCache.transfersFillPath.reset();
-        pathCache.transfersFillOverlayMainPath.reset();
-        pathCache.transfersFillOverlayAngularPath.reset();
-        pathCache.debugMainSegmentsPath.reset();
-        pathCache.debugConnectionsPath.reset();
-        pathCache.transferStrokes.clear();
-        pathCache.riversPath.reset();
-        pathCache.partialCircles.clear();
-        pathCache.convexHullPath.reset();
-        pathCache.segmentInfos.clear();
+        buildCache.linesPaths.clear();
+        buildCache.stationsPaths.clear();
+        buildCache.transfersPath.reset();
+
+        buildCache.dashedTransfersPath.reset();
+        buildCache.transfersFillPath.reset();
+        buildCache.transfersFillOverlayMainPath.reset();
+        buildCache.transfersFillOverlayAngularPath.reset();
+        buildCache.debugMainSegmentsPath.reset();
+        buildCache.debugConnectionsPath.reset();
+        buildCache.transferStrokes.clear();
+        buildCache.riversPath.reset();
+        buildCache.partialCircles.clear();
+        buildCache.convexHullPath.reset();
+        buildCache.segmentInfos.clear();
+        buildCache.segmentList.clear();
+        buildCache.lineTiles = PathTiles.EMPTY;
+        buildCache.stationTiles = PathTiles.EMPTY;
+        buildCache.segmentTiles = PathTiles.EMPTY;
+        buildCache.stationPathIndex.clear();
+        buildCache.segmentsByStation.clear();
+        buildCache.transferParts.clear();
 
         // Отрисовка рек
             for (River river : rivers) {
@@ -4739,30 +5294,34 @@ public class MetroMapView extends View {
 
             if (points != null && points.size() >= 2) {
                     Path riverPath = new Path();
-                    riverPath.moveTo(points.get(0).x * currentCoordinateScaleFactor, points.get(0).y * currentCoordinateScaleFactor);
+                    riverPath.moveTo(points.get(0).x * buildInputs.coordinateScale, points.get(0).y * buildInputs.coordinateScale);
                     for (int i = 1; i < points.size(); i++) {
-                        riverPath.lineTo(points.get(i).x * currentCoordinateScaleFactor, points.get(i).y * currentCoordinateScaleFactor);
+                        riverPath.lineTo(points.get(i).x * buildInputs.coordinateScale, points.get(i).y * buildInputs.coordinateScale);
                     }
-                    pathCache.riversPath.addPath(riverPath);
+                    buildCache.riversPath.addPath(riverPath);
             }
         }
 
         // Отрисовка линий
-        if (isTramMap) {
+        if (buildInputs.isTramMap) {
             buildSegmentInfoForTramMap(lines, stations);
         } else {
             Set<String> drawnConnections = new HashSet<>();
+            // Путь линии делится на куски по квадратам LINE_CHUNK_SIZE, чтобы при приближении
+            // рисовались только видимые куски, а не линия целиком
+            Map<Long, LinePath> lineChunks = new LinkedHashMap<>();
             for (Line line : lines) {
-                Path linePath = new Path();
-                String lineColor = line.getColor();
+                String lineColor = buildInputs.color(line);
 
 
                 java.util.List<Station> lineStations = line.getStations();
                 if (lineStations == null) {
-                    pathCache.linesPaths.add(new LinePath(linePath, lineColor));
+                    buildCache.linesPaths.add(new LinePath(new Path(), lineColor));
                     continue;
                 }
 
+                lineChunks.clear();
+
                 for (Station station : lineStations) {
                     java.util.List<Station.Neighbor> neighborsList = station.getNeighbors();
                     if (neighborsList == null) continue;
@@ -4774,14 +5333,18 @@ public class MetroMapView extends View {
                                     : neighborStation.getId() + "-" + station.getId();
 
                             if (!drawnConnections.contains(connectionKey)) {
-                                addLinePathToCache(station, neighborStation, line.getLineType(), linePath);
+                                addLineSegmentPart(getLineChunk(lineChunks, station, neighborStation, lineColor),
+                                        station, neighborStation, line.getLineType());
                                 drawnConnections.add(connectionKey);
                             }
                         }
                     }
                 }
 
-                pathCache.linesPaths.add(new LinePath(linePath, lineColor));
+                if (lineChunks.isEmpty()) {
+                    buildCache.linesPaths.add(new LinePath(new Path(), lineColor));
+                }
+                buildCache.linesPaths.addAll(lineChunks.values());
             }
         }
 
@@ -4794,35 +5357,16 @@ public class MetroMapView extends View {
             }
             drawnStations.add(stationId);
 
-            float stationX = station.getX() * currentCoordinateScaleFactor;
-            float stationY = station.getY() * currentCoordinateScaleFactor;
-
-            String stationColor;
-            if (isSharedStation(station)) {
-                stationColor = String.format("#%06X", (0xFFFFFF & mapTextColor));
-            } else {
-                Line stationLine = findLineForStation(station);
-                stationColor = stationLine != null ? stationLine.getColor() : "#000000";
-            }
-
-            Path stationPath = new Path();
-            stationPath.addCircle(stationX, stationY, 14, Path.Direction.CW);
-
-
-            Float labelXScaled = null;
-            Float labelYScaled = null;
-            if (station.hasLabelCoordinates()) {
-                labelXScaled = station.getLabelX() * currentCoordinateScaleFactor;
-                labelYScaled = station.getLabelY() * currentCoordinateScaleFactor;
-            }
-            pathCache.stationsPaths.add(new StationPath(stationPath, stationColor, station.getTextPosition(), station.getName(), labelXScaled, labelYScaled));
+            buildCache.stationPathIndex.put(stationId, buildCache.stationsPaths.size());
+            buildCache.stationsPaths.add(buildStationPath(station));
         }
 
-        // Отрисовка переходов
+        // Отрисовка переходов: каждый переход строится отдельно и сливается в общие пути кэша
         if (transfers != null) {
             for (Transfer transfer : transfers) {
-                addTransferPathToCache(transfer);
+                buildCache.transferParts.add(new TransferPart(transfer, buildTransferGeometry(transfer)));
             }
+            mergeTransferGeometry();
         }
 
 //        // Отрисовка объектов
@@ -4832,13 +5376,275 @@ public class MetroMapView extends View {
 //            }
 //        }
 
-        pathCache.isInitialized = true;
+        buildPathTiles();
+        recordGrayedMap();
+        buildCache.isInitialized = true;
+    }
+
+    /**
+     * Записывает серые линии неактивных слоёв в Picture: их геометрия меняется только вместе с кэшем,
+     * а построение на каждом кадре создавало пути, точки и строки ключей перегонов.
+     * Запись сдвинута так, чтобы grayedBounds.left/top пришлись на начало координат Picture.
+     */
+    private void recordGrayedMap() {
+        RectF bounds = buildCache.mapBounds;
+        bounds.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY);
+        includeStationBounds(bounds, buildInputs, buildInputs.stations);
+        includeStationBounds(bounds, buildInputs, buildInputs.suburbanStations);
+        includeStationBounds(bounds, buildInputs, buildInputs.riverTramStations);
+        includeStationBounds(bounds, buildInputs, buildInputs.tramStations);
+        if (bounds.left > bounds.right) {
+            buildCache.grayedPicture = null;
+            return;
+        }
+        // Запас на толщину линий и выход кривых за прямоугольник станций
+        float margin = 100f;
+        bounds.set(bounds.left * buildInputs.coordinateScale - margin, bounds.top * buildInputs.coordinateScale - margin,
+                bounds.right * buildInputs.coordinateScale + margin, bounds.bottom * buildInputs.coordinateScale + margin);
+
+        buildCache.grayedBounds.set(bounds);
+
+        Picture picture = new Picture();
+        Canvas recording = picture.beginRecording((int) Math.ceil(bounds.width()), (int) Math.ceil(bounds.height()));
+        recording.translate(-bounds.left, -bounds.top);
+        drawGrayedMap(recording);
+        picture.endRecording();
+        buildCache.grayedPicture = picture;
+    }
+
+    /**
+     * Помечает записи статических слоёв (Picture тайлов и RenderNode) устаревшими.
+     */
+    private void invalidateStaticLayers() {
+        staticLayerDirty = true;
+        staticNodesDirty = true;
+    }
+
+    /**
+     * Записывает статические слои целиком в Picture, из которой фоновый поток рисует тайлы,
+     * и отбрасывает тайлы прежней записи.
+     */
+    private void recordStaticLayer() {
+        staticLayerDirty = false;
+        if (pathCache.mapBounds.left > pathCache.mapBounds.right) {
+            mapTiles.clear();
+            return;
+        }
+        RectF bounds = new RectF(pathCache.mapBounds);
+        bounds.inset(-STATIC_LAYER_MARGIN, -STATIC_LAYER_MARGIN);
+
+        Picture picture = new Picture();
+        Canvas recording = picture.beginRecording((int) Math.ceil(bounds.width()), (int) Math.ceil(bounds.height()));
+        recording.translate(-bounds.left, -bounds.top);
+        drawStaticLayers(recording, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        picture.endRecording();
+        mapTiles.reset(picture, bounds.left, bounds.top, bounds);
+    }
+
+    /**
+     * Расширяет bounds до станций и промежуточных точек их перегонов, в схемных координатах.
+     */
+    private static void includeStationBounds(RectF bounds, PathCacheInputs in, List<Station> stations) {
+        if (stations == null) {
+            return;
+        }
+        for (Station station : stations) {
+            includePoint(bounds, in.x(station), in.y(station));
+            Map<Station, List<Point>> intermediatePoints = in.intermediatePoints(station);
+            if (intermediatePoints == null) {
+                continue;
+            }
+            for (List<Point> points : intermediatePoints.values()) {
+                if (points == null) {
+                    continue;
+                }
+                for (Point point : points) {
+                    includePoint(bounds, point.x, point.y);
+                }
+            }
+        }
+    }
+
+    private static void includePoint(RectF bounds, float x, float y) {
+        bounds.left = Math.min(bounds.left, x);
+        bounds.top = Math.min(bounds.top, y);
+        bounds.right = Math.max(bounds.right, x);
+        bounds.bottom = Math.max(bounds.bottom, y);
+    }
+
+    /**
+     * Кусок пути линии для перегона: перегоны, чья середина лежит в одном квадрате LINE_CHUNK_SIZE,
+     * складываются в один путь.
+     */
+    private LinePath getLineChunk(Map<Long, LinePath> lineChunks, Station station1, Station station2, String lineColor) {
+        float midX = (buildInputs.x(station1) + buildInputs.x(station2)) / 2f * buildInputs.coordinateScale;
+        float midY = (buildInputs.y(station1) + buildInputs.y(station2)) / 2f * buildInputs.coordinateScale;
+        long key = ((long) (int) Math.floor(midX / LINE_CHUNK_SIZE) << 32)
+                | ((int) Math.floor(midY / LINE_CHUNK_SIZE) & 0xFFFFFFFFL);
+        LinePath chunk = lineChunks.get(key);
+        if (chunk == null) {
+            chunk = new LinePath(new Path(), lineColor);
+            chunk.parts = new ArrayList<>();
+            lineChunks.put(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * Строит путь перегона и добавляет его в кусок линии. Кусок остаётся прежним, даже если после
+     * переноса станции середина перегона уйдёт из его квадрата: тайлы берут прямоугольник самого пути.
+     */
+    private void addLineSegmentPart(LinePath chunk, Station station1, Station station2, String lineType) {
+        LineSegmentPart part = new LineSegmentPart(station1, station2, lineType, chunk);
+        part.linePaths = buildSegmentPath(part);
+        chunk.path.addPath(part.path);
+        chunk.parts.add(part);
+        addSegmentDependency(station1.getId(), part);
+        addSegmentDependency(station2.getId(), part);
+    }
+
+    /**
+     * Строит путь перегона и возвращает LinePath, добавленные при этом в конец linesPaths.
+     */
+    private List<LinePath> buildSegmentPath(LineSegmentPart part) {
+        int from = buildCache.linesPaths.size();
+        part.path.reset();
+        addLinePathToCache(part.station1, part.station2, part.lineType, part.path);
+        int to = buildCache.linesPaths.size();
+        return to > from ? new ArrayList<>(buildCache.linesPaths.subList(from, to)) : Collections.<LinePath>emptyList();
+    }
+
+    private void addSegmentDependency(String stationId, LineSegmentPart part) {
+        List<LineSegmentPart> parts = buildCache.segmentsByStation.get(stationId);
+        if (parts == null) {
+            parts = new ArrayList<>();
+            buildCache.segmentsByStation.put(stationId, parts);
+        }
+        parts.add(part);
+    }
+
+    private StationPath buildStationPath(Station station) {
+        float stationX = buildInputs.x(station) * buildInputs.coordinateScale;
+        float stationY = buildInputs.y(station) * buildInputs.coordinateScale;
+
+        String stationColor;
+        if (buildInputs.mapIndex.isShared(station)) {
+            stationColor = String.format("#%06X", (0xFFFFFF & buildInputs.textColor));
+        } else {
+            Line stationLine = buildInputs.mapIndex.getLineContaining(station);
+            stationColor = stationLine != null ? buildInputs.color(stationLine) : "#000000";
+        }
+
+        Path stationPath = new Path();
+        stationPath.addCircle(stationX, stationY, 14, Path.Direction.CW);
+
+        Float labelXScaled = null;
+        Float labelYScaled = null;
+        if (buildInputs.hasLabelCoordinates(station)) {
+            labelXScaled = buildInputs.labelX(station) * buildInputs.coordinateScale;
+            labelYScaled = buildInputs.labelY(station) * buildInputs.coordinateScale;
+        }
+        StationPath cachedStationPath = new StationPath(stationPath, stationColor, station.getTextPosition(), station.getName(), labelXScaled, labelYScaled);
+        cachedStationPath.stationId = station.getId();
+        // Как и раньше при отрисовке: пересадочность определяется по первой станции с таким названием
+        Station namesake = buildInputs.findStationByName(station.getName());
+        cachedStationPath.sharedStroke = namesake != null && buildInputs.mapIndex.isShared(namesake);
+        layoutStationLabel(cachedStationPath);
+        return cachedStationPath;
+    }
+
+    /**
+     * Раскладывает линии, станции вместе с подписями и трамвайные перегоны кэша по тайлам.
+     * Прямоугольники берутся с запасом на толщину обводки и ширину подписи, так что отсечение
+     * в drawMapContents не срезает ничего видимого.
+     */
+    private void buildPathTiles() {
+        RectF rect = new RectF();
+        RectF innerRect = new RectF();
+
+        float lineMargin = linePaint.getStrokeWidth();
+        float[] lineBounds = new float[4 * buildCache.linesPaths.size()];
+        for (int i = 0; i < buildCache.linesPaths.size(); i++) {
+            LinePath linePath = buildCache.linesPaths.get(i);
+            boolean hasInner = linePath.innerPath != null && !linePath.innerPath.isEmpty();
+            if (linePath.path.isEmpty() && !hasInner) {
+                putBounds(lineBounds, i, Float.NaN, Float.NaN, Float.NaN, Float.NaN);
+                continue;
+            }
+            linePath.path.computeBounds(rect, true);
+            if (hasInner) {
+                linePath.innerPath.computeBounds(innerRect, true);
+                rect.union(innerRect);
+            }
+            putBounds(lineBounds, i, rect.left - lineMargin, rect.top - lineMargin,
+                    rect.right + lineMargin, rect.bottom + lineMargin);
+        }
+        buildCache.lineTiles = PathTiles.build(lineBounds);
+
+        // Подпись рисуется в textOffset = 50 от центра станции (или в своей точке) и выравнивается
+        // по любому краю, поэтому берётся прямоугольник с запасом в её ширину во все стороны
+        float labelOffset = 50f + STATION_STROKE_MARGIN;
+        float lineHeight = labelMeasurePaint.getTextSize() * 1.2f;
+        float[] stationBounds = new float[4 * buildCache.stationsPaths.size()];
+        for (int i = 0; i < buildCache.stationsPaths.size(); i++) {
+            StationPath stationPath = buildCache.stationsPaths.get(i);
+            stationPath.path.computeBounds(rect, true);
+            rect.inset(-STATION_STROKE_MARGIN, -STATION_STROKE_MARGIN);
+            if (stationPath.labelLines != null) {
+                float anchorX = stationPath.hasCustomLabelPosition() ? stationPath.labelX : rect.centerX();
+                float anchorY = stationPath.hasCustomLabelPosition() ? stationPath.labelY : rect.centerY();
+                float labelWidth = 0f;
+                for (String labelLine : stationPath.labelLines) {
+                    labelWidth = Math.max(labelWidth, labelMeasurePaint.measureText(labelLine));
+                }
+                float labelHeight = lineHeight * stationPath.labelLines.length + labelMeasurePaint.getTextSize();
+                rect.union(anchorX - labelWidth - labelOffset, anchorY - labelHeight - labelOffset,
+                        anchorX + labelWidth + labelOffset, anchorY + labelHeight + labelOffset);
+            }
+            putBounds(stationBounds, i, rect.left, rect.top, rect.right, rect.bottom);
+        }
+        buildCache.stationTiles = PathTiles.build(stationBounds);
+
+        buildCache.segmentList.clear();
+        buildCache.segmentList.addAll(buildCache.segmentInfos.values());
+        float stripeStep = buildInputs.adjustedLineWidth(LINE_WIDTH) + TRAM_STRIPE_OFFSET;
+        float[] segmentBounds = new float[4 * buildCache.segmentList.size()];
+        for (int i = 0; i < buildCache.segmentList.size(); i++) {
+            SegmentInfo segmentInfo = buildCache.segmentList.get(i);
+            // Кривая Безье не выходит за выпуклую оболочку своих точек, так что хватает станций
+            // и промежуточных точек перегона
+            float left = Math.min(buildInputs.x(segmentInfo.station1), buildInputs.x(segmentInfo.station2));
+            float top = Math.min(buildInputs.y(segmentInfo.station1), buildInputs.y(segmentInfo.station2));
+            float right = Math.max(buildInputs.x(segmentInfo.station1), buildInputs.x(segmentInfo.station2));
+            float bottom = Math.max(buildInputs.y(segmentInfo.station1), buildInputs.y(segmentInfo.station2));
+            if (segmentInfo.intermediatePoints != null) {
+                for (Point point : segmentInfo.intermediatePoints) {
+                    left = Math.min(left, point.x);
+                    top = Math.min(top, point.y);
+                    right = Math.max(right, point.x);
+                    bottom = Math.max(bottom, point.y);
+                }
+            }
+            float margin = segmentInfo.lines.size() * stripeStep + linePaint.getStrokeWidth();
+            putBounds(segmentBounds, i,
+                    left * buildInputs.coordinateScale - margin, top * buildInputs.coordinateScale - margin,
+                    right * buildInputs.coordinateScale + margin, bottom * buildInputs.coordinateScale + margin);
+        }
+        buildCache.segmentTiles = PathTiles.build(segmentBounds);
+    }
+
+    private static void putBounds(float[] bounds, int i, float left, float top, float right, float bottom) {
+        bounds[4 * i] = left;
+        bounds[4 * i + 1] = top;
+        bounds[4 * i + 2] = right;
+        bounds[4 * i + 3] = bottom;
     }
 
     private void addLinePathToCache(Station station1, Station station2, String lineType, Path linePath) {
         Station startStation = station1.getId().compareTo(station2.getId()) < 0 ? station1 : station2;
         Station endStation = station1.getId().compareTo(station2.getId()) < 0 ? station2 : station1;
-        List<Point> intermediatePoints = startStation.getIntermediatePoints(endStation);
+        List<Point> intermediatePoints = buildInputs.intermediatePoints(startStation, endStation);
 
         if (intermediatePoints == null || intermediatePoints.isEmpty()) {
             if (lineType.equals("double")) {
@@ -5000,23 +5806,37 @@ public class MetroMapView extends View {
         int routeCount = segmentInfo.lines.size();
         if (routeCount == 0) return;
 
+        if (segmentInfo.stripePaths == null || segmentInfo.stripePaths.length != routeCount) {
+            buildSegmentStripes(segmentInfo);
+        }
+
+        for (int i = 0; i < routeCount; i++) {
+            linePaint.setColor(segmentInfo.stripeColors[i]);
+            linePaint.setAlpha(TRAM_STRIPE_ALPHA);
+            canvas.drawPath(segmentInfo.stripePaths[i], linePaint);
+            linePaint.setAlpha(255);
+        }
+    }
+
+    /**
+     * Полосы маршрутов трамвайного перегона; строятся один раз на перегон кэша.
+     */
+    private void buildSegmentStripes(SegmentInfo segmentInfo) {
+        int routeCount = segmentInfo.lines.size();
         float baseLineWidth = getAdjustedLineWidth(LINE_WIDTH);
         float stripeWidth = baseLineWidth;
         float stripeOffset = TRAM_STRIPE_OFFSET;
 
+        segmentInfo.stripePaths = new Path[routeCount];
+        segmentInfo.stripeColors = new int[routeCount];
         for (int i = 0; i < routeCount; i++) {
             Line line = segmentInfo.lines.get(i);
-            String lineColor = line.getColor();
 
             float totalWidth = (routeCount - 1) * stripeOffset + routeCount * stripeWidth;
             float startOffset = -totalWidth / 2f + stripeWidth / 2f + i * (stripeWidth + stripeOffset);
 
-            Path stripePath = createOffsetPath(segmentInfo.basePath, segmentInfo.station1, segmentInfo.station2, segmentInfo.intermediatePoints, startOffset, stripeWidth, segmentInfo.lineType);
-
-            linePaint.setColor(parseColorSafely(lineColor, mapTextColor));
-            linePaint.setAlpha(TRAM_STRIPE_ALPHA);
-            canvas.drawPath(stripePath, linePaint);
-            linePaint.setAlpha(255);
+            segmentInfo.stripePaths[i] = createOffsetPath(segmentInfo.basePath, segmentInfo.station1, segmentInfo.station2, segmentInfo.intermediatePoints, startOffset, stripeWidth, segmentInfo.lineType);
+            segmentInfo.stripeColors[i] = parseColorSafely(buildInputs.color(line), buildInputs.textColor);
         }
     }
 
@@ -5024,16 +5844,16 @@ public class MetroMapView extends View {
 
         if (LINE_RENDERING_METHOD == LineRenderingMethod.POLYGONAL_OUTLINE) {
             // Для POLYGONAL_OUTLINE используем тот же подход, что и для кривых
-            Point start = new Point(station1.getX(), station1.getY());
-            Point end = new Point(station2.getX(), station2.getY());
-            Path outlinePath = createStraightLinePolygonalOutline(start, end, getAdjustedLineWidth(LINE_WIDTH));
+            Point start = new Point(buildInputs.x(station1), buildInputs.y(station1));
+            Point end = new Point(buildInputs.x(station2), buildInputs.y(station2));
+            Path outlinePath = createStraightLinePolygonalOutline(buildInputs, start, end, buildInputs.adjustedLineWidth(LINE_WIDTH));
             linePath.addPath(outlinePath);
         } else {
             // Для других методов используем простой четырехугольник
-            float x1 = station1.getX() * currentCoordinateScaleFactor;
-            float y1 = station1.getY() * currentCoordinateScaleFactor;
-            float x2 = station2.getX() * currentCoordinateScaleFactor;
-            float y2 = station2.getY() * currentCoordinateScaleFactor;
+            float x1 = buildInputs.x(station1) * buildInputs.coordinateScale;
+            float y1 = buildInputs.y(station1) * buildInputs.coordinateScale;
+            float x2 = buildInputs.x(station2) * buildInputs.coordinateScale;
+            float y2 = buildInputs.y(station2) * buildInputs.coordinateScale;
             float dx = x2 - x1;
             float dy = y2 - y1;
             float length = (float) Math.sqrt(dx * dx + dy * dy);
@@ -5059,15 +5879,15 @@ public class MetroMapView extends View {
         if (LINE_RENDERING_METHOD == LineRenderingMethod.POLYGONAL_OUTLINE) {
             // Для POLYGONAL_OUTLINE используем тот же подход, что и для кривых
             // Создаем полигональный контур для двух сегментов прямой линии
-            Point start = new Point(startStation.getX(), startStation.getY());
+            Point start = new Point(buildInputs.x(startStation), buildInputs.y(startStation));
             Point middle = new Point(middlePoint.x, middlePoint.y);
-            Point end = new Point(endStation.getX(), endStation.getY());
+            Point end = new Point(buildInputs.x(endStation), buildInputs.y(endStation));
             
             Path path = new Path();
             List<PointF> leftPoints = new ArrayList<>();
             List<PointF> rightPoints = new ArrayList<>();
             
-            float halfWidth = getAdjustedLineWidth(LINE_WIDTH) / 2;
+            float halfWidth = buildInputs.adjustedLineWidth(LINE_WIDTH) / 2;
             
             // Первый сегмент: от start до middle
             float dx1 = middle.x - start.x;
@@ -5081,10 +5901,10 @@ public class MetroMapView extends View {
                     float pointX = start.x + t * (middle.x - start.x);
                     float pointY = start.y + t * (middle.y - start.y);
                     
-                    float scaledX = pointX * currentCoordinateScaleFactor;
-                    float scaledY = pointY * currentCoordinateScaleFactor;
-                    float scaledOffsetX = nx1 * halfWidth * currentCoordinateScaleFactor;
-                    float scaledOffsetY = ny1 * halfWidth * currentCoordinateScaleFactor;
+                    float scaledX = pointX * buildInputs.coordinateScale;
+                    float scaledY = pointY * buildInputs.coordinateScale;
+                    float scaledOffsetX = nx1 * halfWidth * buildInputs.coordinateScale;
+                    float scaledOffsetY = ny1 * halfWidth * buildInputs.coordinateScale;
                     
                     leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
                     rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -5103,10 +5923,10 @@ public class MetroMapView extends View {
                     float pointX = middle.x + t * (end.x - middle.x);
                     float pointY = middle.y + t * (end.y - middle.y);
                     
-                    float scaledX = pointX * currentCoordinateScaleFactor;
-                    float scaledY = pointY * currentCoordinateScaleFactor;
-                    float scaledOffsetX = nx2 * halfWidth * currentCoordinateScaleFactor;
-                    float scaledOffsetY = ny2 * halfWidth * currentCoordinateScaleFactor;
+                    float scaledX = pointX * buildInputs.coordinateScale;
+                    float scaledY = pointY * buildInputs.coordinateScale;
+                    float scaledOffsetX = nx2 * halfWidth * buildInputs.coordinateScale;
+                    float scaledOffsetY = ny2 * halfWidth * buildInputs.coordinateScale;
                     
                     leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
                     rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -5127,12 +5947,12 @@ public class MetroMapView extends View {
             linePath.addPath(path);
         } else {
             // Для других методов используем простой многоугольник
-            float startX = startStation.getX() * currentCoordinateScaleFactor;
-            float startY = startStation.getY() * currentCoordinateScaleFactor;
-            float middleX = middlePoint.x * currentCoordinateScaleFactor;
-            float middleY = middlePoint.y * currentCoordinateScaleFactor;
-            float endX = endStation.getX() * currentCoordinateScaleFactor;
-            float endY = endStation.getY() * currentCoordinateScaleFactor;
+            float startX = buildInputs.x(startStation) * buildInputs.coordinateScale;
+            float startY = buildInputs.y(startStation) * buildInputs.coordinateScale;
+            float middleX = middlePoint.x * buildInputs.coordinateScale;
+            float middleY = middlePoint.y * buildInputs.coordinateScale;
+            float endX = buildInputs.x(endStation) * buildInputs.coordinateScale;
+            float endY = buildInputs.y(endStation) * buildInputs.coordinateScale;
 
 
             float offset = 6f;
@@ -5169,10 +5989,10 @@ public class MetroMapView extends View {
     }
 
     private void addDoubleQuadrilateralBezierPathToCache(Station startStation, Station endStation, List<Point> intermediatePoints, Path linePath) {
-        Point start = new Point(startStation.getX(), startStation.getY());
+        Point start = new Point(buildInputs.x(startStation), buildInputs.y(startStation));
         Point control1 = intermediatePoints.get(0);
         Point control2 = intermediatePoints.get(1);
-        Point end = new Point(endStation.getX(), endStation.getY());
+        Point end = new Point(buildInputs.x(endStation), buildInputs.y(endStation));
 
         
         switch (LINE_RENDERING_METHOD) {
@@ -5189,7 +6009,7 @@ public class MetroMapView extends View {
     }
     
     private void addDoubleQuadrilateralBezierPathToCacheFixedStrokeWidth(Station startStation, Point start, Point control1, Point control2, Point end) {
-        float offset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+        float offset = buildInputs.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
         float dx = end.x - start.x;
         float dy = end.y - start.y;
         float length = (float) Math.sqrt(dx * dx + dy * dy);
@@ -5199,24 +6019,24 @@ public class MetroMapView extends View {
         float ny = -dx / length;
 
         // Верхняя кривая
-        float x1Start = (start.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Start = (start.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1Control1 = (control1.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Control1 = (control1.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1Control2 = (control2.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Control2 = (control2.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1End = (end.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1End = (end.y + ny * offset) * currentCoordinateScaleFactor;
+        float x1Start = (start.x + nx * offset) * buildInputs.coordinateScale;
+        float y1Start = (start.y + ny * offset) * buildInputs.coordinateScale;
+        float x1Control1 = (control1.x + nx * offset) * buildInputs.coordinateScale;
+        float y1Control1 = (control1.y + ny * offset) * buildInputs.coordinateScale;
+        float x1Control2 = (control2.x + nx * offset) * buildInputs.coordinateScale;
+        float y1Control2 = (control2.y + ny * offset) * buildInputs.coordinateScale;
+        float x1End = (end.x + nx * offset) * buildInputs.coordinateScale;
+        float y1End = (end.y + ny * offset) * buildInputs.coordinateScale;
 
         // Нижняя кривая
-        float x2Start = (start.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Start = (start.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2Control1 = (control1.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Control1 = (control1.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2Control2 = (control2.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Control2 = (control2.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2End = (end.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2End = (end.y - ny * offset) * currentCoordinateScaleFactor;
+        float x2Start = (start.x - nx * offset) * buildInputs.coordinateScale;
+        float y2Start = (start.y - ny * offset) * buildInputs.coordinateScale;
+        float x2Control1 = (control1.x - nx * offset) * buildInputs.coordinateScale;
+        float y2Control1 = (control1.y - ny * offset) * buildInputs.coordinateScale;
+        float x2Control2 = (control2.x - nx * offset) * buildInputs.coordinateScale;
+        float y2Control2 = (control2.y - ny * offset) * buildInputs.coordinateScale;
+        float x2End = (end.x - nx * offset) * buildInputs.coordinateScale;
+        float y2End = (end.y - ny * offset) * buildInputs.coordinateScale;
 
         // Создаем замкнутый четырехугольник из верхней и нижней кривых
         Path outerPath = new Path();
@@ -5232,24 +6052,24 @@ public class MetroMapView extends View {
         float innerOffset = DOUBLE_LINE_GAP / 2;
 
         // Верхняя внутренняя кривая
-        float x1InnerStart = (start.x + nx * innerOffset) * currentCoordinateScaleFactor;
-        float y1InnerStart = (start.y + ny * innerOffset) * currentCoordinateScaleFactor;
-        float x1InnerControl1 = (control1.x + nx * innerOffset) * currentCoordinateScaleFactor;
-        float y1InnerControl1 = (control1.y + ny * innerOffset) * currentCoordinateScaleFactor;
-        float x1InnerControl2 = (control2.x + nx * innerOffset) * currentCoordinateScaleFactor;
-        float y1InnerControl2 = (control2.y + ny * innerOffset) * currentCoordinateScaleFactor;
-        float x1InnerEnd = (end.x + nx * innerOffset) * currentCoordinateScaleFactor;
-        float y1InnerEnd = (end.y + ny * innerOffset) * currentCoordinateScaleFactor;
+        float x1InnerStart = (start.x + nx * innerOffset) * buildInputs.coordinateScale;
+        float y1InnerStart = (start.y + ny * innerOffset) * buildInputs.coordinateScale;
+        float x1InnerControl1 = (control1.x + nx * innerOffset) * buildInputs.coordinateScale;
+        float y1InnerControl1 = (control1.y + ny * innerOffset) * buildInputs.coordinateScale;
+        float x1InnerControl2 = (control2.x + nx * innerOffset) * buildInputs.coordinateScale;
+        float y1InnerControl2 = (control2.y + ny * innerOffset) * buildInputs.coordinateScale;
+        float x1InnerEnd = (end.x + nx * innerOffset) * buildInputs.coordinateScale;
+        float y1InnerEnd = (end.y + ny * innerOffset) * buildInputs.coordinateScale;
 
         // Нижняя внутренняя кривая
-        float x2InnerStart = (start.x - nx * innerOffset) * currentCoordinateScaleFactor;
-        float y2InnerStart = (start.y - ny * innerOffset) * currentCoordinateScaleFactor;
-        float x2InnerControl1 = (control1.x - nx * innerOffset) * currentCoordinateScaleFactor;
-        float y2InnerControl1 = (control1.y - ny * innerOffset) * currentCoordinateScaleFactor;
-        float x2InnerControl2 = (control2.x - nx * innerOffset) * currentCoordinateScaleFactor;
-        float y2InnerControl2 = (control2.y - ny * innerOffset) * currentCoordinateScaleFactor;
-        float x2InnerEnd = (end.x - nx * innerOffset) * currentCoordinateScaleFactor;
-        float y2InnerEnd = (end.y - ny * innerOffset) * currentCoordinateScaleFactor;
+        float x2InnerStart = (start.x - nx * innerOffset) * buildInputs.coordinateScale;
+        float y2InnerStart = (start.y - ny * innerOffset) * buildInputs.coordinateScale;
+        float x2InnerControl1 = (control1.x - nx * innerOffset) * buildInputs.coordinateScale;
+        float y2InnerControl1 = (control1.y - ny * innerOffset) * buildInputs.coordinateScale;
+        float x2InnerControl2 = (control2.x - nx * innerOffset) * buildInputs.coordinateScale;
+        float y2InnerControl2 = (control2.y - ny * innerOffset) * buildInputs.coordinateScale;
+        float x2InnerEnd = (end.x - nx * innerOffset) * buildInputs.coordinateScale;
+        float y2InnerEnd = (end.y - ny * innerOffset) * buildInputs.coordinateScale;
 
         // Создаем замкнутый четырехугольник для внутренней кривой
         innerPath.moveTo(x1InnerStart, y1InnerStart);
@@ -5262,30 +6082,30 @@ public class MetroMapView extends View {
         // Устанавливаем цвет для внутренней кривой
         Paint whitePaint = new Paint();
 
-        whitePaint.setColor(mapStationFillColor);
+        whitePaint.setColor(buildInputs.stationFillColor);
         whitePaint.setStyle(Paint.Style.FILL);
 
         // Добавляем внешний и внутренний пути в кэш
-        pathCache.linesPaths.add(new LinePath(outerPath, startStation.getColor(), innerPath, whitePaint));
+        buildCache.linesPaths.add(new LinePath(outerPath, buildInputs.color(startStation), innerPath, whitePaint));
     }
 
     
     private void addDoubleQuadrilateralBezierPathToCachePolygonalOutline(Station startStation, Point start, Point control1, Point control2, Point end) {
-        float outerOffset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+        float outerOffset = buildInputs.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
         float innerOffset = DOUBLE_LINE_GAP / 2;
         
-        Path outerPath = createDoublePolygonalOutline(start, control1, control2, end, outerOffset);
-        Path innerPath = createDoublePolygonalOutline(start, control1, control2, end, innerOffset);
+        Path outerPath = createDoublePolygonalOutline(buildInputs, start, control1, control2, end, outerOffset);
+        Path innerPath = createDoublePolygonalOutline(buildInputs, start, control1, control2, end, innerOffset);
         
         Paint whitePaint = new Paint();
-        whitePaint.setColor(mapStationFillColor);
+        whitePaint.setColor(buildInputs.stationFillColor);
         whitePaint.setStyle(Paint.Style.FILL);
         
-        pathCache.linesPaths.add(new LinePath(outerPath, startStation.getColor(), innerPath, whitePaint));
+        buildCache.linesPaths.add(new LinePath(outerPath, buildInputs.color(startStation), innerPath, whitePaint));
     }
     
     private void addDoubleQuadrilateralBezierPathToCacheParallelPaths(Station startStation, Point start, Point control1, Point control2, Point end) {
-        float offset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+        float offset = buildInputs.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
         
         // Вычисляем нормали в ключевых точках
         PointF normalStart = calculateBezierNormal(0, start, control1, control2, end);
@@ -5294,8 +6114,8 @@ public class MetroMapView extends View {
         PointF normalControl2 = calculateBezierNormal(0.67f, start, control1, control2, end);
         
         // Создаем два параллельных пути
-        Path path1 = createParallelBezierPath(start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, offset);
-        Path path2 = createParallelBezierPath(start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, -offset);
+        Path path1 = createParallelBezierPath(buildInputs, start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, offset);
+        Path path2 = createParallelBezierPath(buildInputs, start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, -offset);
         
         // Создаем заливку между путями через дискретизацию
         Path fillPath = new Path();
@@ -5306,10 +6126,10 @@ public class MetroMapView extends View {
             PointF point = calculateBezierPoint(t, start, control1, control2, end);
             PointF normal = calculateBezierNormal(t, start, control1, control2, end);
             
-            float scaledX = point.x * currentCoordinateScaleFactor;
-            float scaledY = point.y * currentCoordinateScaleFactor;
-            float scaledOffsetX = normal.x * offset * currentCoordinateScaleFactor;
-            float scaledOffsetY = normal.y * offset * currentCoordinateScaleFactor;
+            float scaledX = point.x * buildInputs.coordinateScale;
+            float scaledY = point.y * buildInputs.coordinateScale;
+            float scaledOffsetX = normal.x * offset * buildInputs.coordinateScale;
+            float scaledOffsetY = normal.y * offset * buildInputs.coordinateScale;
             
             path1Points.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
             path2Points.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -5327,37 +6147,37 @@ public class MetroMapView extends View {
         }
         
         Paint whitePaint = new Paint();
-        whitePaint.setColor(mapStationFillColor);
+        whitePaint.setColor(buildInputs.stationFillColor);
         whitePaint.setStyle(Paint.Style.FILL);
         
         // Используем fillPath как внешний контур, path2 как внутренний
-        pathCache.linesPaths.add(new LinePath(fillPath, startStation.getColor(), path2, whitePaint));
+        buildCache.linesPaths.add(new LinePath(fillPath, buildInputs.color(startStation), path2, whitePaint));
     }
 
     private void addDoubleStraightLineToCache(Station station1, Station station2, Path linePath) {
 
         if (LINE_RENDERING_METHOD == LineRenderingMethod.POLYGONAL_OUTLINE) {
             // Для POLYGONAL_OUTLINE используем тот же подход, что и для кривых
-            Point start = new Point(station1.getX(), station1.getY());
-            Point end = new Point(station2.getX(), station2.getY());
+            Point start = new Point(buildInputs.x(station1), buildInputs.y(station1));
+            Point end = new Point(buildInputs.x(station2), buildInputs.y(station2));
             
-            float outerOffset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+            float outerOffset = buildInputs.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
             float innerOffset = DOUBLE_LINE_GAP / 2;
             
-            Path outerPath = createDoubleStraightLinePolygonalOutline(start, end, outerOffset);
-            Path innerPath = createDoubleStraightLinePolygonalOutline(start, end, innerOffset);
+            Path outerPath = createDoubleStraightLinePolygonalOutline(buildInputs, start, end, outerOffset);
+            Path innerPath = createDoubleStraightLinePolygonalOutline(buildInputs, start, end, innerOffset);
             
             Paint whitePaint = new Paint();
-            whitePaint.setColor(mapStationFillColor);
+            whitePaint.setColor(buildInputs.stationFillColor);
             whitePaint.setStyle(Paint.Style.FILL);
             
-            pathCache.linesPaths.add(new LinePath(outerPath, station1.getColor(), innerPath, whitePaint));
+            buildCache.linesPaths.add(new LinePath(outerPath, buildInputs.color(station1), innerPath, whitePaint));
         } else {
             // Для других методов используем простой четырехугольник
-            float x1 = station1.getX() * currentCoordinateScaleFactor;
-            float y1 = station1.getY() * currentCoordinateScaleFactor;
-            float x2 = station2.getX() * currentCoordinateScaleFactor;
-            float y2 = station2.getY() * currentCoordinateScaleFactor;
+            float x1 = buildInputs.x(station1) * buildInputs.coordinateScale;
+            float y1 = buildInputs.y(station1) * buildInputs.coordinateScale;
+            float x2 = buildInputs.x(station2) * buildInputs.coordinateScale;
+            float y2 = buildInputs.y(station2) * buildInputs.coordinateScale;
 
             // Вычисляем перпендикулярный вектор для смещения
             float dx = x2 - x1;
@@ -5390,21 +6210,21 @@ public class MetroMapView extends View {
             // Устанавливаем цвет для внутренней линии
             Paint whitePaint = new Paint();
 
-            whitePaint.setColor(mapStationFillColor);
+            whitePaint.setColor(buildInputs.stationFillColor);
             whitePaint.setStyle(Paint.Style.STROKE);
             whitePaint.setStrokeWidth(6);
 
             // Добавляем внешний и внутренний пути в кэш
-            pathCache.linesPaths.add(new LinePath(outerPath, station1.getColor(), innerPath, whitePaint));
+            buildCache.linesPaths.add(new LinePath(outerPath, buildInputs.color(station1), innerPath, whitePaint));
 
         }
     }
 
     private void addQuadrilateralBezierPathToCache(Station startStation, Station endStation, List<Point> intermediatePoints, Path linePath) {
-        Point start = new Point(startStation.getX(), startStation.getY());
+        Point start = new Point(buildInputs.x(startStation), buildInputs.y(startStation));
         Point control1 = intermediatePoints.get(0);
         Point control2 = intermediatePoints.get(1);
-        Point end = new Point(endStation.getX(), endStation.getY());
+        Point end = new Point(buildInputs.x(endStation), buildInputs.y(endStation));
 
         
         switch (LINE_RENDERING_METHOD) {
@@ -5412,7 +6232,7 @@ public class MetroMapView extends View {
                 addQuadrilateralBezierPathToCacheFixedStrokeWidth(start, control1, control2, end, linePath);
                 break;
             case POLYGONAL_OUTLINE:
-                Path outlinePath = createPolygonalOutline(start, control1, control2, end, getAdjustedLineWidth(LINE_WIDTH));
+                Path outlinePath = createPolygonalOutline(buildInputs, start, control1, control2, end, buildInputs.adjustedLineWidth(LINE_WIDTH));
                 linePath.addPath(outlinePath);
                 break;
             case PARALLEL_PATHS:
@@ -5422,7 +6242,7 @@ public class MetroMapView extends View {
     }
     
     private void addQuadrilateralBezierPathToCacheFixedStrokeWidth(Point start, Point control1, Point control2, Point end, Path linePath) {
-        float offset = getAdjustedLineWidth(LINE_WIDTH) / 2;
+        float offset = buildInputs.adjustedLineWidth(LINE_WIDTH) / 2;
         float dx = end.x - start.x;
         float dy = end.y - start.y;
         float length = (float) Math.sqrt(dx * dx + dy * dy);
@@ -5432,24 +6252,24 @@ public class MetroMapView extends View {
         float ny = -dx / length;
 
         // Верхняя кривая
-        float x1Start = (start.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Start = (start.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1Control1 = (control1.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Control1 = (control1.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1Control2 = (control2.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Control2 = (control2.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1End = (end.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1End = (end.y + ny * offset) * currentCoordinateScaleFactor;
+        float x1Start = (start.x + nx * offset) * buildInputs.coordinateScale;
+        float y1Start = (start.y + ny * offset) * buildInputs.coordinateScale;
+        float x1Control1 = (control1.x + nx * offset) * buildInputs.coordinateScale;
+        float y1Control1 = (control1.y + ny * offset) * buildInputs.coordinateScale;
+        float x1Control2 = (control2.x + nx * offset) * buildInputs.coordinateScale;
+        float y1Control2 = (control2.y + ny * offset) * buildInputs.coordinateScale;
+        float x1End = (end.x + nx * offset) * buildInputs.coordinateScale;
+        float y1End = (end.y + ny * offset) * buildInputs.coordinateScale;
 
         // Нижняя кривая
-        float x2Start = (start.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Start = (start.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2Control1 = (control1.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Control1 = (control1.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2Control2 = (control2.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Control2 = (control2.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2End = (end.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2End = (end.y - ny * offset) * currentCoordinateScaleFactor;
+        float x2Start = (start.x - nx * offset) * buildInputs.coordinateScale;
+        float y2Start = (start.y - ny * offset) * buildInputs.coordinateScale;
+        float x2Control1 = (control1.x - nx * offset) * buildInputs.coordinateScale;
+        float y2Control1 = (control1.y - ny * offset) * buildInputs.coordinateScale;
+        float x2Control2 = (control2.x - nx * offset) * buildInputs.coordinateScale;
+        float y2Control2 = (control2.y - ny * offset) * buildInputs.coordinateScale;
+        float x2End = (end.x - nx * offset) * buildInputs.coordinateScale;
+        float y2End = (end.y - ny * offset) * buildInputs.coordinateScale;
 
         // Создаем замкнутый четырехугольный путь
         linePath.moveTo(x1Start, y1Start);
@@ -5467,11 +6287,11 @@ public class MetroMapView extends View {
         Station endStation = station2;
         
         // Пробуем получить intermediatePoints в прямом направлении
-        List<Point> intermediatePoints = startStation.getIntermediatePoints(endStation);
+        List<Point> intermediatePoints = buildInputs.intermediatePoints(startStation, endStation);
         
         // Если не найдены, пробуем в обратном направлении (для обратной совместимости)
         if (intermediatePoints == null || intermediatePoints.isEmpty()) {
-            intermediatePoints = endStation.getIntermediatePoints(startStation);
+            intermediatePoints = buildInputs.intermediatePoints(endStation, startStation);
             // Если найдены в обратном направлении, меняем станции местами
             if (intermediatePoints != null && !intermediatePoints.isEmpty()) {
                 Station temp = startStation;
@@ -5505,14 +6325,14 @@ public class MetroMapView extends View {
     }
 
     private LinePath buildRouteDoubleStraightLinePath(Station startStation, Station endStation, String color) {
-        MapPathCache originalCache = pathCache;
-        MapPathCache tempCache = new MapPathCache();
-        pathCache = tempCache;
+        MapPathCache originalCache = buildCache;
+        MapPathCache tempCache = new MapPathCache(buildInputs.coordinateScale);
+        buildCache = tempCache;
         try {
             Path dummy = new Path();
             addDoubleStraightLineToCache(startStation, endStation, dummy);
         } finally {
-            pathCache = originalCache;
+            buildCache = originalCache;
         }
         if (!tempCache.linesPaths.isEmpty()) {
             LinePath generated = tempCache.linesPaths.get(tempCache.linesPaths.size() - 1);
@@ -5524,14 +6344,14 @@ public class MetroMapView extends View {
     }
 
     private LinePath buildRouteDoubleBezierPath(Station startStation, Station endStation, List<Point> intermediatePoints, String color) {
-        MapPathCache originalCache = pathCache;
-        MapPathCache tempCache = new MapPathCache();
-        pathCache = tempCache;
+        MapPathCache originalCache = buildCache;
+        MapPathCache tempCache = new MapPathCache(buildInputs.coordinateScale);
+        buildCache = tempCache;
         try {
             Path dummy = new Path();
             addDoubleQuadrilateralBezierPathToCache(startStation, endStation, intermediatePoints, dummy);
         } finally {
-            pathCache = originalCache;
+            buildCache = originalCache;
         }
         if (!tempCache.linesPaths.isEmpty()) {
             LinePath generated = tempCache.linesPaths.get(tempCache.linesPaths.size() - 1);
@@ -5599,8 +6419,8 @@ public class MetroMapView extends View {
 
     private void drawMapObjects(Canvas canvas) {
         if (mapObjects != null) {
-            for (MapObject mapObject : mapObjects) {
-                drawMapObject(canvas, mapObject);
+            for (int i = 0; i < mapObjects.size(); i++) {
+                drawMapObject(canvas, mapObjects.get(i));
             }
         }
     }
@@ -5608,10 +6428,7 @@ public class MetroMapView extends View {
     private void drawMapObject(Canvas canvas, MapObject mapObject) {
         float objectX = mapObject.getPosition().x * currentCoordinateScaleFactor;
         float objectY = mapObject.getPosition().y * currentCoordinateScaleFactor;
-        Paint objectPaint = new Paint();
-        objectPaint.setColor(Color.BLACK);
-        objectPaint.setStyle(Paint.Style.FILL);
-        objectPaint.setTextSize(20);
+        Paint objectPaint = mapObjectPaint;
         if (mapObject.getType().equals("airport")) {
             canvas.drawText("✈", objectX - 12, objectY + 12, objectPaint);
         } else if (mapObject.getType().equals("train_station")) {
@@ -5623,39 +6440,86 @@ public class MetroMapView extends View {
     private void drawGrayedMap(Canvas canvas) {
         Set<String> drawnConnections = new HashSet<>();
         Paint grayedLinePaint = new Paint(grayedPaint);
+        grayedLinePaint.setColor(buildInputs.grayedColor);
         grayedLinePaint.setStrokeWidth(9);
 
         // Отрисовка серых линий для пригорода, если выбрана карта метро, речного трамвая или трамваев
-        if (!isSuburbanMap && suburbanLines != null) {
-            for (Line line : suburbanLines) {
-                drawGrayedLines(canvas, line, drawnConnections, grayedLinePaint, suburbanStations);
+        if (!buildInputs.isSuburbanMap && buildInputs.suburbanLines != null) {
+            for (Line line : buildInputs.suburbanLines) {
+                drawGrayedLines(buildInputs, canvas, line, drawnConnections, grayedLinePaint, buildInputs.suburbanStations, null, false);
             }
         }
 
         // Отрисовка серых линий для речного трамвая, если выбрана карта метро, пригорода или трамваев
-        if (!isRiverTramMap && riverTramLines != null) {
-            for (Line line : riverTramLines) {
-                drawGrayedLines(canvas, line, drawnConnections, grayedLinePaint, riverTramStations);
+        if (!buildInputs.isRiverTramMap && buildInputs.riverTramLines != null) {
+            for (Line line : buildInputs.riverTramLines) {
+                drawGrayedLines(buildInputs, canvas, line, drawnConnections, grayedLinePaint, buildInputs.riverTramStations, null, false);
             }
         }
 
         // Отрисовка серых линий для метро, если выбрана карта пригорода, речного трамвая или трамваев
-        if (!isMetroMap && lines != null) {
-            for (Line line : lines) {
-                drawGrayedLines(canvas, line, drawnConnections, grayedLinePaint, stations);
+        if (!buildInputs.isMetroMap && buildInputs.lines != null) {
+            for (Line line : buildInputs.lines) {
+                drawGrayedLines(buildInputs, canvas, line, drawnConnections, grayedLinePaint, buildInputs.stations, null, false);
             }
         }
 
         // Отрисовка серых линий для трамваев, если выбрана карта метро, пригорода или речного трамвая
-        if (!isTramMap && tramLines != null) {
-            for (Line line : tramLines) {
-                drawGrayedLines(canvas, line, drawnConnections, grayedLinePaint, tramStations);
+        if (!buildInputs.isTramMap && buildInputs.tramLines != null) {
+            for (Line line : buildInputs.tramLines) {
+                drawGrayedLines(buildInputs, canvas, line, drawnConnections, grayedLinePaint, buildInputs.tramStations, null, false);
+            }
+        }
+    }
+
+    /**
+     * Изохрона поверх текущего слоя: перегоны, у которых хотя бы одна станция вне изохроны, серые.
+     */
+    private void drawIsochroneOverlay(Canvas canvas) {
+        // Слой рисуется на каждом кадре по текущим координатам станций
+        PathCacheInputs overlayInputs = new PathCacheInputs(this, currentCoordinateScaleFactor, isTramMap);
+        Set<String> drawnConnections = new HashSet<>();
+        Paint grayedLinePaint = new Paint(grayedPaint);
+        grayedLinePaint.setColor(overlayInputs.grayedColor);
+        grayedLinePaint.setStrokeWidth(linePaint.getStrokeWidth());
+        for (Line line : getActiveLines()) {
+            drawGrayedLines(overlayInputs, canvas, line, drawnConnections, grayedLinePaint, null, isochroneStationIds, true);
+        }
+    }
+
+    /**
+     * Задевает ли перегон видимую область. Кривая перегона не выходит за прямоугольник станций
+     * и промежуточных точек, а visibleViewport и так взят с запасом больше толщины линии.
+     */
+    private boolean isConnectionVisible(PathCacheInputs in, Station station1, Station station2) {
+        if (visibleViewport.isEmpty()) {
+            return true;
+        }
+        float left = Math.min(in.x(station1), in.x(station2));
+        float top = Math.min(in.y(station1), in.y(station2));
+        float right = Math.max(in.x(station1), in.x(station2));
+        float bottom = Math.max(in.y(station1), in.y(station2));
+        List<Point> intermediatePoints = in.intermediatePoints(station1, station2);
+        if (intermediatePoints != null) {
+            for (int i = 0; i < intermediatePoints.size(); i++) {
+                Point point = intermediatePoints.get(i);
+                left = Math.min(left, point.x);
+                top = Math.min(top, point.y);
+                right = Math.max(right, point.x);
+                bottom = Math.max(bottom, point.y);
             }
         }
+        return left <= visibleViewport.right && right >= visibleViewport.left
+                && top <= visibleViewport.bottom && bottom >= visibleViewport.top;
     }
 
-    private void drawGrayedLines(Canvas canvas, Line line,
-                                 Set<String> drawnConnections, Paint grayedLinePaint, List<Station> grayedStations) {
+    /**
+     * @param reachableStationIds если задан, пропускаются перегоны, у которых обе станции в этом наборе
+     * @param cullToViewport      пропускать перегоны вне видимой области; false при записи в Picture
+     */
+    private void drawGrayedLines(PathCacheInputs in, Canvas canvas, Line line,
+                                 Set<String> drawnConnections, Paint grayedLinePaint, List<Station> grayedStations,
+                                 Set<String> reachableStationIds, boolean cullToViewport) {
 
         if (line == null) return;
         List<Station> lineStations = line.getStations();
@@ -5674,8 +6538,10 @@ public class MetroMapView extends View {
                             neighborStation.getId()) < 0
                             ? station.getId() + "-" + neighborStation.getId()
                             : neighborStation.getId() + "-" + station.getId();
-                    if (!drawnConnections.contains(connectionKey)) {
-                        drawLineWithIntermediatePoints(canvas, station,
+                    if (!drawnConnections.contains(connectionKey)
+                            && !isReachableConnection(reachableStationIds, station, neighborStation)
+                            && (!cullToViewport || isConnectionVisible(in, station, neighborStation))) {
+                        drawLineWithIntermediatePoints(in, canvas, station,
                                 neighborStation, line.getLineType(), grayedLinePaint);
                         drawnConnections.add(connectionKey);
                     }
@@ -5693,14 +6559,21 @@ public class MetroMapView extends View {
                     lastStation.getId()) < 0
                     ? firstStation.getId() + "-" + lastStation.getId()
                     : lastStation.getId() + "-" + firstStation.getId();
-            if (!drawnConnections.contains(connectionKey)) {
-                drawLineWithIntermediatePoints(canvas, firstStation,
+            if (!drawnConnections.contains(connectionKey)
+                    && !isReachableConnection(reachableStationIds, firstStation, lastStation)
+                    && (!cullToViewport || isConnectionVisible(in, firstStation, lastStation))) {
+                drawLineWithIntermediatePoints(in, canvas, firstStation,
                         lastStation, line.getLineType(), grayedLinePaint);
                 drawnConnections.add(connectionKey);
             }
         }
     }
 
+    private static boolean isReachableConnection(Set<String> reachableStationIds, Station from, Station to) {
+        return reachableStationIds != null && reachableStationIds.contains(from.getId())
+                && reachableStationIds.contains(to.getId());
+    }
+
     // Аниматоры для translateX, translateY и scale
     private ValueAnimator translateXAnimator;
     private ValueAnimator translateYAnimator;
@@ -5869,7 +6742,6 @@ public class MetroMapView extends View {
             translateY = centerScreenY - newCenterWorldYScaled * scaleFactor;
 
             updateTransformMatrix();
-            updatePathCache();
             needsRedraw = true;
             invalidate();
         });
@@ -5886,9 +6758,15 @@ public class MetroMapView extends View {
                 currentCoordinateScaleFactor = targetScale;
                 coordinateScaleCompensation = 1.0f;
                 updateTransformMatrix();
+                requestPathCacheBuild();
             }
         });
 
+        // Кэши собираются после смены масштаба, а пока прежний снимок рисуется с поправкой масштаба.
+        // Результат уже идущей сборки не нужен: масштаб меняется под ней
+        cancelPathCacheBuilds();
+        mapCacheVersion++;
+        routeCacheVersion++;
         coordinateScaleAnimator.start();
     }
 
@@ -5979,25 +6857,25 @@ public class MetroMapView extends View {
         }
     }
 
-    private void drawLineWithIntermediatePoints(Canvas canvas, Station station1, Station station2, String lineType, Paint paint) {
+    private void drawLineWithIntermediatePoints(PathCacheInputs in, Canvas canvas, Station station1, Station station2, String lineType, Paint paint) {
         Station startStation = station1.getId().compareTo(station2.getId()) < 0 ? station1 : station2;
         Station endStation = station1.getId().compareTo(station2.getId()) < 0 ? station2 : station1;
-        List<Point> intermediatePoints = startStation.getIntermediatePoints(endStation);
+        List<Point> intermediatePoints = in.intermediatePoints(startStation, endStation);
         paint.setAntiAlias(true);
         
         if (intermediatePoints == null || intermediatePoints.isEmpty()) {
             if (lineType.equals("double")) {
-                Point start = new Point(startStation.getX(), startStation.getY());
-                Point end = new Point(endStation.getX(), endStation.getY());
+                Point start = new Point(in.x(startStation), in.y(startStation));
+                Point end = new Point(in.x(endStation), in.y(endStation));
                 
-                float outerOffset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+                float outerOffset = in.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
                 float innerOffset = DOUBLE_LINE_GAP / 2;
                 
-                Path outerPath = createDoubleStraightLinePolygonalOutline(start, end, outerOffset);
-                Path innerPath = createDoubleStraightLinePolygonalOutline(start, end, innerOffset);
+                Path outerPath = createDoubleStraightLinePolygonalOutline(in, start, end, outerOffset);
+                Path innerPath = createDoubleStraightLinePolygonalOutline(in, start, end, innerOffset);
                 
                 Paint fillPaint = new Paint();
-                fillPaint.setColor(mapStationFillColor);
+                fillPaint.setColor(in.stationFillColor);
                 fillPaint.setStyle(Paint.Style.FILL);
                 fillPaint.setAntiAlias(true);
                 
@@ -6005,22 +6883,22 @@ public class MetroMapView extends View {
                 canvas.drawPath(outerPath, paint);
                 canvas.drawPath(innerPath, fillPaint);
             } else {
-                Point start = new Point(startStation.getX(), startStation.getY());
-                Point end = new Point(endStation.getX(), endStation.getY());
-                Path path = createStraightLinePolygonalOutline(start, end, getAdjustedLineWidth(LINE_WIDTH));
+                Point start = new Point(in.x(startStation), in.y(startStation));
+                Point end = new Point(in.x(endStation), in.y(endStation));
+                Path path = createStraightLinePolygonalOutline(in, start, end, in.adjustedLineWidth(LINE_WIDTH));
                 paint.setStyle(Paint.Style.FILL);
                 canvas.drawPath(path, paint);
             }
         } else if (intermediatePoints.size() == 1) {
-            Point start = new Point(startStation.getX(), startStation.getY());
+            Point start = new Point(in.x(startStation), in.y(startStation));
             Point middle = new Point(intermediatePoints.get(0).x, intermediatePoints.get(0).y);
-            Point end = new Point(endStation.getX(), endStation.getY());
+            Point end = new Point(in.x(endStation), in.y(endStation));
             
             Path path = new Path();
             List<PointF> leftPoints = new ArrayList<>();
             List<PointF> rightPoints = new ArrayList<>();
             
-            float halfWidth = getAdjustedLineWidth(LINE_WIDTH) / 2;
+            float halfWidth = in.adjustedLineWidth(LINE_WIDTH) / 2;
             
             float dx1 = middle.x - start.x;
             float dy1 = middle.y - start.y;
@@ -6033,10 +6911,10 @@ public class MetroMapView extends View {
                     float pointX = start.x + t * (middle.x - start.x);
                     float pointY = start.y + t * (middle.y - start.y);
                     
-                    float scaledX = pointX * currentCoordinateScaleFactor;
-                    float scaledY = pointY * currentCoordinateScaleFactor;
-                    float scaledOffsetX = nx1 * halfWidth * currentCoordinateScaleFactor;
-                    float scaledOffsetY = ny1 * halfWidth * currentCoordinateScaleFactor;
+                    float scaledX = pointX * in.coordinateScale;
+                    float scaledY = pointY * in.coordinateScale;
+                    float scaledOffsetX = nx1 * halfWidth * in.coordinateScale;
+                    float scaledOffsetY = ny1 * halfWidth * in.coordinateScale;
                     
                     leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
                     rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6054,10 +6932,10 @@ public class MetroMapView extends View {
                     float pointX = middle.x + t * (end.x - middle.x);
                     float pointY = middle.y + t * (end.y - middle.y);
                     
-                    float scaledX = pointX * currentCoordinateScaleFactor;
-                    float scaledY = pointY * currentCoordinateScaleFactor;
-                    float scaledOffsetX = nx2 * halfWidth * currentCoordinateScaleFactor;
-                    float scaledOffsetY = ny2 * halfWidth * currentCoordinateScaleFactor;
+                    float scaledX = pointX * in.coordinateScale;
+                    float scaledY = pointY * in.coordinateScale;
+                    float scaledOffsetX = nx2 * halfWidth * in.coordinateScale;
+                    float scaledOffsetY = ny2 * halfWidth * in.coordinateScale;
                     
                     leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
                     rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6078,14 +6956,14 @@ public class MetroMapView extends View {
             paint.setStyle(Paint.Style.FILL);
             canvas.drawPath(path, paint);
         } else if (intermediatePoints.size() == 2) {
-            Point start = new Point(startStation.getX(), startStation.getY());
+            Point start = new Point(in.x(startStation), in.y(startStation));
             Point control1 = intermediatePoints.get(0);
             Point control2 = intermediatePoints.get(1);
-            Point end = new Point(endStation.getX(), endStation.getY());
+            Point end = new Point(in.x(endStation), in.y(endStation));
             if (lineType.equals("double")) {
-                drawDoubleBezierCurve(canvas, start, control1, control2, end, paint);
+                drawDoubleBezierCurve(in, canvas, start, control1, control2, end, paint);
             } else {
-                drawBezierCurve(canvas, start, control1, control2, end, paint);
+                drawBezierCurve(in, canvas, start, control1, control2, end, paint);
             }
         }
     }
@@ -6111,48 +6989,48 @@ public class MetroMapView extends View {
         canvas.drawLine(x1, y1, x2, y2, whitePaint);
     }
 
-    private void drawBezierCurve(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+    private void drawBezierCurve(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
 
         switch (LINE_RENDERING_METHOD) {
             case FIXED_STROKE_WIDTH:
-                drawBezierCurveFixedStrokeWidth(canvas, start, control1, control2, end, paint);
+                drawBezierCurveFixedStrokeWidth(in, canvas, start, control1, control2, end, paint);
                 break;
             case POLYGONAL_OUTLINE:
-                drawBezierCurvePolygonalOutline(canvas, start, control1, control2, end, paint);
+                drawBezierCurvePolygonalOutline(in, canvas, start, control1, control2, end, paint);
                 break;
             case PARALLEL_PATHS:
-                drawBezierCurveParallelPaths(canvas, start, control1, control2, end, paint);
+                drawBezierCurveParallelPaths(in, canvas, start, control1, control2, end, paint);
                 break;
         }
     }
     
-    private void drawBezierCurveFixedStrokeWidth(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+    private void drawBezierCurveFixedStrokeWidth(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
         Path path = new Path();
         paint.setStyle(Paint.Style.STROKE);
 
-        paint.setStrokeWidth(getAdjustedLineWidth(LINE_WIDTH));
-        path.moveTo(start.x * currentCoordinateScaleFactor, start.y * currentCoordinateScaleFactor);
+        paint.setStrokeWidth(in.adjustedLineWidth(LINE_WIDTH));
+        path.moveTo(start.x * in.coordinateScale, start.y * in.coordinateScale);
         path.cubicTo(
-                control1.x * currentCoordinateScaleFactor, control1.y * currentCoordinateScaleFactor,
-                control2.x * currentCoordinateScaleFactor, control2.y * currentCoordinateScaleFactor,
-                end.x * currentCoordinateScaleFactor, end.y * currentCoordinateScaleFactor
+                control1.x * in.coordinateScale, control1.y * in.coordinateScale,
+                control2.x * in.coordinateScale, control2.y * in.coordinateScale,
+                end.x * in.coordinateScale, end.y * in.coordinateScale
         );
         canvas.drawPath(path, paint);
     }
 
     
-    private void drawBezierCurvePolygonalOutline(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
-        Path outlinePath = createPolygonalOutline(start, control1, control2, end, getAdjustedLineWidth(LINE_WIDTH));
+    private void drawBezierCurvePolygonalOutline(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+        Path outlinePath = createPolygonalOutline(in, start, control1, control2, end, in.adjustedLineWidth(LINE_WIDTH));
         paint.setStyle(Paint.Style.FILL);
         canvas.drawPath(outlinePath, paint);
     }
     
-    private void drawBezierCurveParallelPaths(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+    private void drawBezierCurveParallelPaths(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
         // Для одинарных линий вариант 3 аналогичен варианту 1
-        drawBezierCurveFixedStrokeWidth(canvas, start, control1, control2, end, paint);
+        drawBezierCurveFixedStrokeWidth(in, canvas, start, control1, control2, end, paint);
     }
     
-    private Path createPolygonalOutline(Point start, Point control1, Point control2, Point end, float width) {
+    private Path createPolygonalOutline(PathCacheInputs in, Point start, Point control1, Point control2, Point end, float width) {
         Path path = new Path();
         List<PointF> leftPoints = new ArrayList<>();
         List<PointF> rightPoints = new ArrayList<>();
@@ -6163,10 +7041,10 @@ public class MetroMapView extends View {
             PointF point = calculateBezierPoint(t, start, control1, control2, end);
             PointF normal = calculateBezierNormal(t, start, control1, control2, end);
             
-            float scaledX = point.x * currentCoordinateScaleFactor;
-            float scaledY = point.y * currentCoordinateScaleFactor;
-            float scaledOffsetX = normal.x * halfWidth * currentCoordinateScaleFactor;
-            float scaledOffsetY = normal.y * halfWidth * currentCoordinateScaleFactor;
+            float scaledX = point.x * in.coordinateScale;
+            float scaledY = point.y * in.coordinateScale;
+            float scaledOffsetX = normal.x * halfWidth * in.coordinateScale;
+            float scaledOffsetY = normal.y * halfWidth * in.coordinateScale;
             
             leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
             rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6186,7 +7064,7 @@ public class MetroMapView extends View {
         return path;
     }
     
-    private Path createStraightLinePolygonalOutline(Point start, Point end, float width) {
+    private Path createStraightLinePolygonalOutline(PathCacheInputs in, Point start, Point end, float width) {
         Path path = new Path();
         List<PointF> leftPoints = new ArrayList<>();
         List<PointF> rightPoints = new ArrayList<>();
@@ -6208,10 +7086,10 @@ public class MetroMapView extends View {
             float pointX = start.x + t * (end.x - start.x);
             float pointY = start.y + t * (end.y - start.y);
             
-            float scaledX = pointX * currentCoordinateScaleFactor;
-            float scaledY = pointY * currentCoordinateScaleFactor;
-            float scaledOffsetX = nx * halfWidth * currentCoordinateScaleFactor;
-            float scaledOffsetY = ny * halfWidth * currentCoordinateScaleFactor;
+            float scaledX = pointX * in.coordinateScale;
+            float scaledY = pointY * in.coordinateScale;
+            float scaledOffsetX = nx * halfWidth * in.coordinateScale;
+            float scaledOffsetY = ny * halfWidth * in.coordinateScale;
             
             leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
             rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6231,7 +7109,7 @@ public class MetroMapView extends View {
         return path;
     }
     
-    private Path createDoubleStraightLinePolygonalOutline(Point start, Point end, float offset) {
+    private Path createDoubleStraightLinePolygonalOutline(PathCacheInputs in, Point start, Point end, float offset) {
         Path path = new Path();
         List<PointF> leftPoints = new ArrayList<>();
         List<PointF> rightPoints = new ArrayList<>();
@@ -6251,10 +7129,10 @@ public class MetroMapView extends View {
             float pointX = start.x + t * (end.x - start.x);
             float pointY = start.y + t * (end.y - start.y);
             
-            float scaledX = pointX * currentCoordinateScaleFactor;
-            float scaledY = pointY * currentCoordinateScaleFactor;
-            float scaledOffsetX = nx * offset * currentCoordinateScaleFactor;
-            float scaledOffsetY = ny * offset * currentCoordinateScaleFactor;
+            float scaledX = pointX * in.coordinateScale;
+            float scaledY = pointY * in.coordinateScale;
+            float scaledOffsetX = nx * offset * in.coordinateScale;
+            float scaledOffsetY = ny * offset * in.coordinateScale;
             
             leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
             rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6274,28 +7152,28 @@ public class MetroMapView extends View {
         return path;
     }
 
-    private void drawDoubleBezierCurve(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+    private void drawDoubleBezierCurve(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
 
         switch (LINE_RENDERING_METHOD) {
             case FIXED_STROKE_WIDTH:
-                drawDoubleBezierCurveFixedStrokeWidth(canvas, start, control1, control2, end, paint);
+                drawDoubleBezierCurveFixedStrokeWidth(in, canvas, start, control1, control2, end, paint);
                 break;
             case POLYGONAL_OUTLINE:
-                drawDoubleBezierCurvePolygonalOutline(canvas, start, control1, control2, end, paint);
+                drawDoubleBezierCurvePolygonalOutline(in, canvas, start, control1, control2, end, paint);
                 break;
             case PARALLEL_PATHS:
-                drawDoubleBezierCurveParallelPaths(canvas, start, control1, control2, end, paint);
+                drawDoubleBezierCurveParallelPaths(in, canvas, start, control1, control2, end, paint);
                 break;
         }
     }
     
-    private void drawDoubleBezierCurveFixedStrokeWidth(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+    private void drawDoubleBezierCurveFixedStrokeWidth(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
         Path path1 = new Path();
         Path path2 = new Path();
         Path fillPath = new Path();
 
-        paint.setStrokeWidth(getAdjustedLineWidth(DOUBLE_LINE_WIDTH));
-        float offset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+        paint.setStrokeWidth(in.adjustedLineWidth(DOUBLE_LINE_WIDTH));
+        float offset = in.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
         float dx = end.x - start.x;
         float dy = end.y - start.y;
         float length = (float) Math.sqrt(dx * dx + dy * dy);
@@ -6303,22 +7181,22 @@ public class MetroMapView extends View {
         if (length == 0) return;
         float nx = dy / length;
         float ny = -dx / length;
-        float x1Start = (start.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Start = (start.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1Control1 = (control1.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Control1 = (control1.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1Control2 = (control2.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1Control2 = (control2.y + ny * offset) * currentCoordinateScaleFactor;
-        float x1End = (end.x + nx * offset) * currentCoordinateScaleFactor;
-        float y1End = (end.y + ny * offset) * currentCoordinateScaleFactor;
-        float x2Start = (start.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Start = (start.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2Control1 = (control1.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Control1 = (control1.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2Control2 = (control2.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2Control2 = (control2.y - ny * offset) * currentCoordinateScaleFactor;
-        float x2End = (end.x - nx * offset) * currentCoordinateScaleFactor;
-        float y2End = (end.y - ny * offset) * currentCoordinateScaleFactor;
+        float x1Start = (start.x + nx * offset) * in.coordinateScale;
+        float y1Start = (start.y + ny * offset) * in.coordinateScale;
+        float x1Control1 = (control1.x + nx * offset) * in.coordinateScale;
+        float y1Control1 = (control1.y + ny * offset) * in.coordinateScale;
+        float x1Control2 = (control2.x + nx * offset) * in.coordinateScale;
+        float y1Control2 = (control2.y + ny * offset) * in.coordinateScale;
+        float x1End = (end.x + nx * offset) * in.coordinateScale;
+        float y1End = (end.y + ny * offset) * in.coordinateScale;
+        float x2Start = (start.x - nx * offset) * in.coordinateScale;
+        float y2Start = (start.y - ny * offset) * in.coordinateScale;
+        float x2Control1 = (control1.x - nx * offset) * in.coordinateScale;
+        float y2Control1 = (control1.y - ny * offset) * in.coordinateScale;
+        float x2Control2 = (control2.x - nx * offset) * in.coordinateScale;
+        float y2Control2 = (control2.y - ny * offset) * in.coordinateScale;
+        float x2End = (end.x - nx * offset) * in.coordinateScale;
+        float y2End = (end.y - ny * offset) * in.coordinateScale;
         path1.moveTo(x1Start, y1Start);
         path1.cubicTo(x1Control1, y1Control1, x1Control2, y1Control2, x1End, y1End);
         path2.moveTo(x2Start, y2Start);
@@ -6330,7 +7208,7 @@ public class MetroMapView extends View {
         fillPath.close();
         Paint fillPaint = new Paint();
 
-        fillPaint.setColor(mapStationFillColor);
+        fillPaint.setColor(in.stationFillColor);
         fillPaint.setStyle(Paint.Style.FILL);
         canvas.drawPath(fillPath, fillPaint);
 
@@ -6340,15 +7218,15 @@ public class MetroMapView extends View {
     }
 
     
-    private void drawDoubleBezierCurvePolygonalOutline(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
-        float outerOffset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+    private void drawDoubleBezierCurvePolygonalOutline(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+        float outerOffset = in.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
         float innerOffset = DOUBLE_LINE_GAP / 2;
         
-        Path outerPath = createDoublePolygonalOutline(start, control1, control2, end, outerOffset);
-        Path innerPath = createDoublePolygonalOutline(start, control1, control2, end, innerOffset);
+        Path outerPath = createDoublePolygonalOutline(in, start, control1, control2, end, outerOffset);
+        Path innerPath = createDoublePolygonalOutline(in, start, control1, control2, end, innerOffset);
         
         Paint fillPaint = new Paint();
-        fillPaint.setColor(mapStationFillColor);
+        fillPaint.setColor(in.stationFillColor);
         fillPaint.setStyle(Paint.Style.FILL);
         
         // Рисуем внешний контур цветом линии
@@ -6359,9 +7237,9 @@ public class MetroMapView extends View {
         canvas.drawPath(innerPath, fillPaint);
     }
     
-    private void drawDoubleBezierCurveParallelPaths(Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
+    private void drawDoubleBezierCurveParallelPaths(PathCacheInputs in, Canvas canvas, Point start, Point control1, Point control2, Point end, Paint paint) {
         // Для варианта 3 используем более точное вычисление нормалей в контрольных точках
-        float offset = getAdjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
+        float offset = in.adjustedLineWidth(DOUBLE_LINE_WIDTH) / 2 + DOUBLE_LINE_GAP / 2;
         
         // Вычисляем нормали в ключевых точках
         PointF normalStart = calculateBezierNormal(0, start, control1, control2, end);
@@ -6370,8 +7248,8 @@ public class MetroMapView extends View {
         PointF normalControl2 = calculateBezierNormal(0.67f, start, control1, control2, end);
         
         // Создаем два параллельных пути с правильным смещением
-        Path path1 = createParallelBezierPath(start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, offset);
-        Path path2 = createParallelBezierPath(start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, -offset);
+        Path path1 = createParallelBezierPath(in, start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, offset);
+        Path path2 = createParallelBezierPath(in, start, control1, control2, end, normalStart, normalControl1, normalControl2, normalEnd, -offset);
         
         // Создаем заливку между путями через дискретизацию
         Path fillPath = new Path();
@@ -6382,10 +7260,10 @@ public class MetroMapView extends View {
             PointF point = calculateBezierPoint(t, start, control1, control2, end);
             PointF normal = calculateBezierNormal(t, start, control1, control2, end);
             
-            float scaledX = point.x * currentCoordinateScaleFactor;
-            float scaledY = point.y * currentCoordinateScaleFactor;
-            float scaledOffsetX = normal.x * offset * currentCoordinateScaleFactor;
-            float scaledOffsetY = normal.y * offset * currentCoordinateScaleFactor;
+            float scaledX = point.x * in.coordinateScale;
+            float scaledY = point.y * in.coordinateScale;
+            float scaledOffsetX = normal.x * offset * in.coordinateScale;
+            float scaledOffsetY = normal.y * offset * in.coordinateScale;
             
             path1Points.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
             path2Points.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6403,32 +7281,32 @@ public class MetroMapView extends View {
         }
         
         Paint fillPaint = new Paint();
-        fillPaint.setColor(mapStationFillColor);
+        fillPaint.setColor(in.stationFillColor);
         fillPaint.setStyle(Paint.Style.FILL);
         canvas.drawPath(fillPath, fillPaint);
         
         paint.setStyle(Paint.Style.STROKE);
-        paint.setStrokeWidth(getAdjustedLineWidth(DOUBLE_LINE_WIDTH));
+        paint.setStrokeWidth(in.adjustedLineWidth(DOUBLE_LINE_WIDTH));
         canvas.drawPath(path1, paint);
         canvas.drawPath(path2, paint);
     }
     
-    private Path createDoublePolygonalOutline(Point start, Point control1, Point control2, Point end, float offset) {
+    private Path createDoublePolygonalOutline(PathCacheInputs in, Point start, Point control1, Point control2, Point end, float offset) {
         Path path = new Path();
         List<PointF> leftPoints = new ArrayList<>();
         List<PointF> rightPoints = new ArrayList<>();
         
-        float halfWidth = getAdjustedLineWidth(LINE_WIDTH) / 2;
+        float halfWidth = in.adjustedLineWidth(LINE_WIDTH) / 2;
         
         for (float t = 0; t <= 1; t += BEZIER_SEGMENT_STEP) {
             PointF point = calculateBezierPoint(t, start, control1, control2, end);
             PointF normal = calculateBezierNormal(t, start, control1, control2, end);
             
-            float scaledX = point.x * currentCoordinateScaleFactor;
-            float scaledY = point.y * currentCoordinateScaleFactor;
+            float scaledX = point.x * in.coordinateScale;
+            float scaledY = point.y * in.coordinateScale;
             // offset уже включает половину ширины линии, поэтому используем его напрямую
-            float scaledOffsetX = normal.x * offset * currentCoordinateScaleFactor;
-            float scaledOffsetY = normal.y * offset * currentCoordinateScaleFactor;
+            float scaledOffsetX = normal.x * offset * in.coordinateScale;
+            float scaledOffsetY = normal.y * offset * in.coordinateScale;
             
             leftPoints.add(new PointF(scaledX + scaledOffsetX, scaledY + scaledOffsetY));
             rightPoints.add(new PointF(scaledX - scaledOffsetX, scaledY - scaledOffsetY));
@@ -6448,19 +7326,19 @@ public class MetroMapView extends View {
         return path;
     }
     
-    private Path createParallelBezierPath(Point start, Point control1, Point control2, Point end, 
+    private Path createParallelBezierPath(PathCacheInputs in, Point start, Point control1, Point control2, Point end, 
                                           PointF normalStart, PointF normalControl1, PointF normalControl2, PointF normalEnd, 
                                           float offset) {
         Path path = new Path();
         
-        float x1Start = (start.x + normalStart.x * offset) * currentCoordinateScaleFactor;
-        float y1Start = (start.y + normalStart.y * offset) * currentCoordinateScaleFactor;
-        float x1Control1 = (control1.x + normalControl1.x * offset) * currentCoordinateScaleFactor;
-        float y1Control1 = (control1.y + normalControl1.y * offset) * currentCoordinateScaleFactor;
-        float x1Control2 = (control2.x + normalControl2.x * offset) * currentCoordinateScaleFactor;
-        float y1Control2 = (control2.y + normalControl2.y * offset) * currentCoordinateScaleFactor;
-        float x1End = (end.x + normalEnd.x * offset) * currentCoordinateScaleFactor;
-        float y1End = (end.y + normalEnd.y * offset) * currentCoordinateScaleFactor;
+        float x1Start = (start.x + normalStart.x * offset) * in.coordinateScale;
+        float y1Start = (start.y + normalStart.y * offset) * in.coordinateScale;
+        float x1Control1 = (control1.x + normalControl1.x * offset) * in.coordinateScale;
+        float y1Control1 = (control1.y + normalControl1.y * offset) * in.coordinateScale;
+        float x1Control2 = (control2.x + normalControl2.x * offset) * in.coordinateScale;
+        float y1Control2 = (control2.y + normalControl2.y * offset) * in.coordinateScale;
+        float x1End = (end.x + normalEnd.x * offset) * in.coordinateScale;
+        float y1End = (end.y + normalEnd.y * offset) * in.coordinateScale;
         
         path.moveTo(x1Start, y1Start);
         path.cubicTo(x1Control1, y1Control1, x1Control2, y1Control2, x1End, y1End);
@@ -6575,39 +7453,64 @@ public class MetroMapView extends View {
         }
     }
 
-    private void drawPartialCircleWithColor(Canvas canvas, float centerX, float centerY, float radius, float strokeWidth, List<Float> angles, String color) {
+    private void drawPartialCircleWithColor(Canvas canvas, float centerX, float centerY, float radius, float strokeWidth, List<Float> angles, int color) {
 
         if (angles == null || angles.size() < 2) {
             return;
         }
-        Paint circleOutlinePaint = new Paint();
-
-        circleOutlinePaint.setColor(parseColorSafely(color, mapTransferColor));
-        circleOutlinePaint.setStyle(Paint.Style.STROKE);
-        circleOutlinePaint.setStrokeWidth(strokeWidth);
+        partialCirclePaint.setColor(color);
+        partialCirclePaint.setStrokeWidth(strokeWidth);
 
         float sweepAngle = angles.get(0);
         if (Float.isNaN(sweepAngle) || Math.abs(sweepAngle) < 1f || Math.abs(sweepAngle) >= 359f) {
             return;
         }
         float startAngle = angles.get(1);
-        RectF rectF = new RectF(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
-        canvas.drawArc(rectF, startAngle, sweepAngle, false, circleOutlinePaint);
+        partialCircleRect.set(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+        canvas.drawArc(partialCircleRect, startAngle, sweepAngle, false, partialCirclePaint);
+    }
+
+    /**
+     * Переход между линиями одним отрезком: две половины отрезка с градиентом к смешанному цвету в середине.
+     * Кисти с шейдерами строятся при сборке кэша, один раз на отрезок.
+     */
+    private CrossSegmentStroke newCrossSegmentStroke(PointF a, PointF b, String colorStart, String colorEnd) {
+        float cx = (a.x + b.x) / 2f;
+        float cy = (a.y + b.y) / 2f;
+        int startColor = parseColorSafely(colorStart, mapTextColor);
+        int endColor = parseColorSafely(colorEnd, mapTextColor);
+        int midBlend = ColorUtils.blendARGB(startColor, endColor, 0.5f);
+
+        // Левая половина A->mid: требуется инвертировать — от colorEnd к смешанному
+        Paint firstHalfPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        firstHalfPaint.setStyle(Paint.Style.STROKE);
+        firstHalfPaint.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
+        firstHalfPaint.setShader(new LinearGradient(a.x, a.y, cx, cy, endColor, midBlend, Shader.TileMode.CLAMP));
+
+        // Правая половина mid->B: инвертировать — от смешанного к colorStart
+        Paint secondHalfPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        secondHalfPaint.setStyle(Paint.Style.STROKE);
+        secondHalfPaint.setStrokeWidth(Math.max(transferPaint.getStrokeWidth(), 6f));
+        secondHalfPaint.setShader(new LinearGradient(cx, cy, b.x, b.y, midBlend, startColor, Shader.TileMode.CLAMP));
+        return new CrossSegmentStroke(a, b, firstHalfPaint, secondHalfPaint);
+    }
+
+    private void drawCrossSegmentStroke(Canvas canvas, CrossSegmentStroke s) {
+        float cx = (s.a.x + s.b.x) / 2f;
+        float cy = (s.a.y + s.b.y) / 2f;
+        canvas.drawLine(s.a.x, s.a.y, cx, cy, s.firstHalfPaint);
+        canvas.drawLine(cx, cy, s.b.x, s.b.y, s.secondHalfPaint);
     }
 
     // Метод для отрисовки тёмного оверлея
     private void applyDarkOverlay(Canvas canvas, int saveCount) {
-        Paint overlayPaint = new Paint();
-        overlayPaint.setColor(Color.argb(150, 0, 0, 0)); // Полупрозрачный черный цвет
-        overlayPaint.setStyle(Paint.Style.FILL);
-
         // Восстанавливаем состояние canvas до исходного
         canvas.restoreToCount(saveCount);
         // Сохраняем новое состояние
         saveCount = canvas.save();
 
         // Рисуем затемнение на всей области canvas
-        canvas.drawRect(0, 0, getWidth(), getHeight(), overlayPaint);
+        canvas.drawRect(0, 0, getWidth(), getHeight(), darkOverlayPaint);
 
         // Применяем трансформацию для последующей отрисовки маршрута
         canvas.concat(transformMatrix);
@@ -6627,18 +7530,20 @@ public class MetroMapView extends View {
     }
 
     private void updateVisibleViewport() {
-        float[] points = {
-                0, 0,
-                getWidth(), getHeight()
-        };
+        float[] points = viewportPoints;
+        points[0] = 0;
+        points[1] = 0;
+        points[2] = getWidth();
+        points[3] = getHeight();
 
         // Convert screen coordinates to map coordinates
-        Matrix inverse = new Matrix();
+        Matrix inverse = viewportInverse;
         transformMatrix.invert(inverse);
         inverse.mapPoints(points);
 
         // Добавляем отступы к видимой области
         float padding = 100; // Отступ в пикселях
+        screenViewport.set(points[0], points[1], points[2], points[3]);
         visibleViewport.set(
                 (points[0] / currentCoordinateScaleFactor) - padding,
                 (points[1] / currentCoordinateScaleFactor) - padding,
@@ -6647,22 +7552,152 @@ public class MetroMapView extends View {
         );
     }
 
-    public Station findStationAt(float x, float y) {
-        List<Station> activeStations = getActiveStations();
-        for (Station station : activeStations) {
-            // Проверяем, попадает ли точка в область станции
-            float stationX = station.getX();
-            float stationY = station.getY();
-            float radius = CLICK_RADIUS;
-            if (isTramMap) {
-                radius = CLICK_RADIUS / 2.0f;
+    /**
+     * Переводит точку экрана в схемные координаты карты, в которых ищут станции (findStationAt).
+     */
+    public PointF toMapCoordinates(float screenX, float screenY) {
+        float[] point = {screenX, screenY};
+        Matrix inverse = new Matrix();
+        transformMatrix.invert(inverse);
+        inverse.mapPoints(point);
+        return new PointF(point[0] / currentCoordinateScaleFactor, point[1] / currentCoordinateScaleFactor);
+    }
+
+    /**
+     * Переносит станцию активного слоя в точку схемных координат. Кэш путей не собирается заново:
+     * в рабочем потоке перестраиваются только круг станции, её перегоны и зависящие от неё переходы
+     * в копии последнего целиком собранного кэша.
+     */
+    public void moveStation(Station station, int x, int y) {
+        if (station.getX() == x && station.getY() == y) {
+            return;
+        }
+        station.setX(x);
+        station.setY(y);
+        // Сетка слоя не строится заново: станция переходит в ячейку по новым координатам
+        for (StationGrid grid : stationGrids) {
+            if (grid != null) {
+                grid.move(station);
             }
+        }
+        // Правка применима, пока после полной сборки менялись только координаты станций
+        boolean editable = mapCacheVersion == editableMapVersion;
+        mapCacheVersion++;
+        if (editable) {
+            movedStations.add(station);
+            editableMapVersion = mapCacheVersion;
+        }
+        if (route != null && route.contains(station)) {
+            routeCacheVersion++;
+        }
+        requestPathCacheBuild();
+        invalidate();
+    }
 
-            if (Math.abs(stationX - x) < radius && Math.abs(stationY - y) < radius) {
-                return station;
+    /**
+     * Перестраивает в копии кэша (copyForEdit) круги перенесённых станций, их перегоны и зависящие от них переходы.
+     */
+    private void updateStationsGeometry(List<Station> moved) {
+        boolean transfersChanged = false;
+        for (Station station : moved) {
+            String stationId = station.getId();
+            Integer index = buildCache.stationPathIndex.get(stationId);
+            if (index != null) {
+                buildCache.stationsPaths.set(index, buildStationPath(station));
+            }
+
+            // Перегоны станции строятся заново, их куски линий складываются из путей перегонов
+            List<LineSegmentPart> segmentParts = buildCache.segmentsByStation.get(stationId);
+            if (segmentParts != null) {
+                Set<LinePath> chunks = Collections.newSetFromMap(new IdentityHashMap<LinePath, Boolean>());
+                for (LineSegmentPart part : segmentParts) {
+                    List<LinePath> linePaths = buildSegmentPath(part);
+                    // Новые LinePath встают на место прежних, чтобы порядок отрисовки не менялся
+                    buildCache.linesPaths.subList(buildCache.linesPaths.size() - linePaths.size(), buildCache.linesPaths.size()).clear();
+                    int at = part.linePaths.isEmpty() ? -1 : indexOfIdentity(buildCache.linesPaths, part.linePaths.get(0));
+                    for (LinePath old : part.linePaths) {
+                        buildCache.linesPaths.remove(indexOfIdentity(buildCache.linesPaths, old));
+                    }
+                    buildCache.linesPaths.addAll(at >= 0 ? at : buildCache.linesPaths.size(), linePaths);
+                    part.linePaths = linePaths;
+                    chunks.add(part.chunk);
+                }
+                for (LinePath chunk : chunks) {
+                    chunk.path.reset();
+                    for (LineSegmentPart part : chunk.parts) {
+                        chunk.path.addPath(part.path);
+                    }
+                }
+            }
+            for (Map.Entry<String, SegmentInfo> entry : buildCache.segmentInfos.entrySet()) {
+                SegmentInfo segmentInfo = entry.getValue();
+                if (stationId.equals(segmentInfo.station1.getId()) || stationId.equals(segmentInfo.station2.getId())) {
+                    // Трамвайная карта рисует перегоны, а не linesPaths: LinePath двойной линии не нужны.
+                    // Перегон заменяется новым: прежний остаётся у показанного снимка
+                    int linesCount = buildCache.linesPaths.size();
+                    Path basePath = new Path();
+                    createBasePathForSegment(segmentInfo.station1, segmentInfo.station2,
+                            segmentInfo.intermediatePoints, segmentInfo.lineType, basePath);
+                    buildCache.linesPaths.subList(linesCount, buildCache.linesPaths.size()).clear();
+                    entry.setValue(new SegmentInfo(segmentInfo.segmentKey, segmentInfo.station1, segmentInfo.station2,
+                            segmentInfo.lines, basePath, segmentInfo.intermediatePoints, segmentInfo.lineType));
+                }
+            }
+
+            for (TransferPart part : buildCache.transferParts) {
+                if (transferDependsOn(part.transfer, stationId)) {
+                    part.geometry = buildTransferGeometry(part.transfer);
+                    transfersChanged = true;
+                }
             }
+
+            // Серые слои от станции активного слоя не зависят, границы карты только расширяются
+            float margin = 100f;
+            float stationX = buildInputs.x(station) * buildInputs.coordinateScale;
+            float stationY = buildInputs.y(station) * buildInputs.coordinateScale;
+            buildCache.mapBounds.union(stationX - margin, stationY - margin, stationX + margin, stationY + margin);
         }
-        return null;
+        if (transfersChanged) {
+            mergeTransferGeometry();
+        }
+        buildPathTiles();
+    }
+
+    private static int indexOfIdentity(List<LinePath> linePaths, LinePath linePath) {
+        for (int i = 0; i < linePaths.size(); i++) {
+            if (linePaths.get(i) == linePath) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Station findStationAt(float x, float y) {
+        float radius = CLICK_RADIUS;
+        if (isTramMap) {
+            radius = CLICK_RADIUS / 2.0f;
+        }
+        return getActiveStationGrid().findAt(x, y, radius);
+    }
+
+    /**
+     * Добавляет в out станции активного слоя в прямоугольнике схемных координат, в порядке списка станций.
+     */
+    public void findStationsInRect(RectF rect, List<Station> out) {
+        getActiveStationGrid().findInRect(rect.left, rect.top, rect.right, rect.bottom, out);
+    }
+
+    private StationGrid getActiveStationGrid() {
+        int layer = isMetroMap ? 0 : isSuburbanMap ? 1 : isRiverTramMap ? 2 : isTramMap ? 3 : -1;
+        if (layer < 0) {
+            return StationGrid.EMPTY;
+        }
+        StationGrid grid = stationGrids[layer];
+        if (grid == null) {
+            grid = StationGrid.build(getActiveStations());
+            stationGrids[layer] = grid;
+        }
+        return grid;
     }
 
     private List<Station> getActiveStations() {
@@ -6819,10 +7854,10 @@ public class MetroMapView extends View {
                     String neighborId = neighbor.getStation().getId();
                     if (neighborId != null && neighborId.equals(station2Id)) {
                         List<Line> allLines = new ArrayList<>();
-                        if (lines != null) allLines.addAll(lines);
-                        if (suburbanLines != null) allLines.addAll(suburbanLines);
-                        if (riverTramLines != null) allLines.addAll(riverTramLines);
-                        if (tramLines != null) allLines.addAll(tramLines);
+                        if (buildInputs.lines != null) allLines.addAll(buildInputs.lines);
+                        if (buildInputs.suburbanLines != null) allLines.addAll(buildInputs.suburbanLines);
+                        if (buildInputs.riverTramLines != null) allLines.addAll(buildInputs.riverTramLines);
+                        if (buildInputs.tramLines != null) allLines.addAll(buildInputs.tramLines);
                         
                         for (Line line : allLines) {
                             if (line == null || line.getStations() == null) {
@@ -6860,10 +7895,10 @@ public class MetroMapView extends View {
         }
         
         List<Line> allLines = new ArrayList<>();
-        if (lines != null) allLines.addAll(lines);
-        if (suburbanLines != null) allLines.addAll(suburbanLines);
-        if (riverTramLines != null) allLines.addAll(riverTramLines);
-        if (tramLines != null) allLines.addAll(tramLines);
+        if (buildInputs.lines != null) allLines.addAll(buildInputs.lines);
+        if (buildInputs.suburbanLines != null) allLines.addAll(buildInputs.suburbanLines);
+        if (buildInputs.riverTramLines != null) allLines.addAll(buildInputs.riverTramLines);
+        if (buildInputs.tramLines != null) allLines.addAll(buildInputs.tramLines);
         
         for (Line line : allLines) {
             if (line == null || line.getStations() == null) {
@@ -7002,8 +8037,6 @@ public class MetroMapView extends View {
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         if (w > 0 && h > 0) {
-            bufferBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-            bufferCanvas = new Canvas(bufferBitmap);
             transformMatrix = new Matrix();
             needsRedraw = true;
         }
@@ -7032,12 +8065,51 @@ public class MetroMapView extends View {
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        for (Bitmap bitmap : cacheBitmaps.values()) {
-            if (bitmap != null && !bitmap.isRecycled()) {
-                bitmap.recycle();
-            }
+        mapTiles.clear();
+        // Узлы создаются только на API 29+
+        if (staticLayerNodes != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            staticLayerNodes.discard();
+        }
+        invalidateStaticLayers();
+        // Сборки для окна больше не нужны; после возврата onDraw запросит устаревшие кэши снова
+        cancelPathCacheBuilds();
+    }
+
+    /**
+     * Отбрасывает растровые тайлы статических слоёв, чтобы освободить их память; вызывается,
+     * когда активность с картой остановлена. Тайлы строятся заново при следующем кадре.
+     */
+    public void releaseTileCache() {
+        mapTiles.clear();
+        // Picture пересоздаётся вместе с тайлами: без неё кэш ничего не рисует
+        staticLayerDirty = true;
+    }
+
+    /**
+     * Отбрасывает тайлы, когда системе не хватает памяти или интерфейс приложения скрыт.
+     *
+     * @param level уровень из {@link ComponentCallbacks2#onTrimMemory}
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            releaseTileCache();
         }
-        cacheBitmaps.clear();
+    }
+
+    /**
+     * Включает воспроизведение статических слоёв из RenderNode (API 29+, аппаратный холст);
+     * выключенные слои рисуются прежним путём — из тайлов или векторно. Нужно для сравнения путей.
+     * Аппаратный холст использует только один из двух путей: тайлы строятся, лишь пока узлы выключены.
+     */
+    public void setRenderNodeLayersEnabled(boolean enabled) {
+        if (renderNodeLayersEnabled == enabled) {
+            return;
+        }
+        renderNodeLayersEnabled = enabled;
+        if (!enabled && staticLayerNodes != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            staticLayerNodes.discard();
+        }
+        invalidate();
     }
 
     public void setEditMode(boolean editMode) {
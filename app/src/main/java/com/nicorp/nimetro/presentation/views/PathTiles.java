@@ -0,0 +1,188 @@
+package com.nicorp.nimetro.presentation.views;
+
+import java.util.Arrays;
+
+/**
+ * Пространственные тайлы над элементами кэша путей карты (линии, станции с подписями, трамвайные перегоны).
+ *
+ * Строится по прямоугольникам элементов в координатах кэша и на каждый кадр отдаёт номера элементов,
+ * пересекающих видимую область. Элемент лежит во всех тайлах, которые задевает его прямоугольник;
+ * у тайла хранится объединение прямоугольников его элементов, поэтому тайл, чьё содержимое не видно,
+ * отбрасывается одной проверкой. Номера отдаются по возрастанию — порядок отрисовки, а с ним
+ * и наложение путей друг на друга, остаются прежними. Рабочие массивы принадлежат индексу,
+ * поэтому запросы делаются из одного потока — потока отрисовки.
+ */
+final class PathTiles {
+    static final PathTiles EMPTY = build(new float[0]);
+
+    // Не меньше MIN_TILE_SIZE и не больше MAX_TILES_PER_SIDE тайлов по стороне
+    private static final float MIN_TILE_SIZE = 256f;
+    private static final int MAX_TILES_PER_SIDE = 32;
+
+    // по четыре числа на элемент: left, top, right, bottom; left > right — элемент ничего не рисует
+    private final float[] bounds;
+    private final float originX;
+    private final float originY;
+    private final float tileSize;
+    private final int columns;
+    private final int rows;
+    // элементы тайла t — tileItems[tileStarts[t] .. tileStarts[t + 1])
+    private final int[] tileStarts;
+    private final int[] tileItems;
+    private final float[] tileBounds;
+    // отметка последнего запроса, в котором элемент уже найден (элемент бывает в нескольких тайлах)
+    private final int[] stamps;
+    private int stamp;
+    private int[] visible;
+    private int visibleCount;
+
+    private PathTiles(float[] bounds) {
+        this.bounds = bounds;
+        int count = bounds.length / 4;
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            if (isEmpty(i)) {
+                continue;
+            }
+            minX = Math.min(minX, bounds[4 * i]);
+            minY = Math.min(minY, bounds[4 * i + 1]);
+            maxX = Math.max(maxX, bounds[4 * i + 2]);
+            maxY = Math.max(maxY, bounds[4 * i + 3]);
+        }
+        if (minX > maxX) {
+            minX = minY = maxX = maxY = 0;
+        }
+        float width = maxX - minX;
+        float height = maxY - minY;
+        originX = minX;
+        originY = minY;
+        tileSize = Math.max(MIN_TILE_SIZE, Math.max(width, height) / MAX_TILES_PER_SIDE);
+        columns = (int) (width / tileSize) + 1;
+        rows = (int) (height / tileSize) + 1;
+
+        int tileCount = columns * rows;
+        tileStarts = new int[tileCount + 1];
+        for (int i = 0; i < count; i++) {
+            if (isEmpty(i)) {
+                continue;
+            }
+            for (int r = row(bounds[4 * i + 1]); r <= row(bounds[4 * i + 3]); r++) {
+                for (int c = column(bounds[4 * i]); c <= column(bounds[4 * i + 2]); c++) {
+                    tileStarts[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int t = 0; t < tileCount; t++) {
+            tileStarts[t + 1] += tileStarts[t];
+        }
+        tileItems = new int[tileStarts[tileCount]];
+        tileBounds = new float[4 * tileCount];
+        for (int t = 0; t < tileCount; t++) {
+            tileBounds[4 * t] = Float.POSITIVE_INFINITY;
+            tileBounds[4 * t + 1] = Float.POSITIVE_INFINITY;
+            tileBounds[4 * t + 2] = Float.NEGATIVE_INFINITY;
+            tileBounds[4 * t + 3] = Float.NEGATIVE_INFINITY;
+        }
+        int[] next = Arrays.copyOf(tileStarts, tileCount);
+        for (int i = 0; i < count; i++) {
+            if (isEmpty(i)) {
+                continue;
+            }
+            for (int r = row(bounds[4 * i + 1]); r <= row(bounds[4 * i + 3]); r++) {
+                for (int c = column(bounds[4 * i]); c <= column(bounds[4 * i + 2]); c++) {
+                    int t = r * columns + c;
+                    tileItems[next[t]++] = i;
+                    tileBounds[4 * t] = Math.min(tileBounds[4 * t], bounds[4 * i]);
+                    tileBounds[4 * t + 1] = Math.min(tileBounds[4 * t + 1], bounds[4 * i + 1]);
+                    tileBounds[4 * t + 2] = Math.max(tileBounds[4 * t + 2], bounds[4 * i + 2]);
+                    tileBounds[4 * t + 3] = Math.max(tileBounds[4 * t + 3], bounds[4 * i + 3]);
+                }
+            }
+        }
+        stamps = new int[count];
+        visible = new int[Math.max(16, Math.min(count, 256))];
+    }
+
+    /**
+     * @param bounds по четыре числа на элемент (left, top, right, bottom) в координатах кэша;
+     *               элемент с left > right не попадает ни в один тайл
+     */
+    static PathTiles build(float[] bounds) {
+        return new PathTiles(bounds);
+    }
+
+    int size() {
+        return bounds.length / 4;
+    }
+
+    /**
+     * Находит элементы, чей прямоугольник пересекает заданный (границы включительно).
+     *
+     * @return число найденных элементов; их номера по возрастанию — {@link #visibleAt(int)}
+     */
+    int query(float left, float top, float right, float bottom) {
+        visibleCount = 0;
+        if (left > right || top > bottom || tileItems.length == 0) {
+            return 0;
+        }
+        if (++stamp == 0) {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        int fromColumn = column(left);
+        int toColumn = column(right);
+        int toRow = row(bottom);
+        for (int r = row(top); r <= toRow; r++) {
+            for (int c = fromColumn; c <= toColumn; c++) {
+                int t = r * columns + c;
+                if (!intersects(tileBounds, t, left, top, right, bottom)) {
+                    continue;
+                }
+                for (int k = tileStarts[t]; k < tileStarts[t + 1]; k++) {
+                    int i = tileItems[k];
+                    if (stamps[i] == stamp || !intersects(bounds, i, left, top, right, bottom)) {
+                        continue;
+                    }
+                    stamps[i] = stamp;
+                    if (visibleCount == visible.length) {
+                        visible = Arrays.copyOf(visible, visibleCount * 2);
+                    }
+                    visible[visibleCount++] = i;
+                }
+            }
+        }
+        Arrays.sort(visible, 0, visibleCount);
+        return visibleCount;
+    }
+
+    /**
+     * @return номер k-го по порядку элемента из последнего {@link #query}
+     */
+    int visibleAt(int k) {
+        return visible[k];
+    }
+
+    private boolean isEmpty(int i) {
+        return !(bounds[4 * i] <= bounds[4 * i + 2] && bounds[4 * i + 1] <= bounds[4 * i + 3]);
+    }
+
+    private static boolean intersects(float[] rects, int i, float left, float top, float right, float bottom) {
+        return rects[4 * i] <= right && rects[4 * i + 2] >= left
+                && rects[4 * i + 1] <= bottom && rects[4 * i + 3] >= top;
+    }
+
+    private int column(float x) {
+        return clamp((int) Math.floor((x - originX) / tileSize), columns);
+    }
+
+    private int row(float y) {
+        return clamp((int) Math.floor((y - originY) / tileSize), rows);
+    }
+
+    private static int clamp(int value, int limit) {
+        return value < 0 ? 0 : value >= limit ? limit - 1 : value;
+    }
+}
@@ -0,0 +1,86 @@
+package com.nicorp.nimetro.presentation.views;
+
+import android.graphics.Canvas;
+import android.graphics.RecordingCanvas;
+import android.graphics.RectF;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+/**
+ * Статические слои карты в виде RenderNode — по узлу на слой, в порядке отрисовки.
+ *
+ * Слои записываются один раз в потоке отрисовки и на каждом кадре воспроизводятся аппаратным
+ * рендерером целиком: при панорамировании и масштабе меняется только матрица холста, а не тысячи
+ * вызовов drawPath. Узлы рисуются только на аппаратном холсте; запись устаревает вместе с кэшем путей
+ * и темой, и тогда её нужно сделать заново через {@link #record}.
+ */
+@RequiresApi(Build.VERSION_CODES.Q)
+final class StaticLayerNodes {
+
+    /**
+     * Рисует один слой на холсте записи в координатах кэша.
+     */
+    interface LayerPainter {
+        void drawLayer(Canvas canvas, int layer);
+    }
+
+    private final RenderNode[] nodes;
+    private final RectF bounds = new RectF(); // bounds.left/top — начало координат узлов
+    private boolean recorded;
+
+    StaticLayerNodes(String... layerNames) {
+        nodes = new RenderNode[layerNames.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new RenderNode(layerNames[i]);
+        }
+    }
+
+    boolean isRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Записывает все слои заново; запись сдвинута так, чтобы bounds.left/top пришлись на начало узлов.
+     */
+    void record(RectF bounds, LayerPainter painter) {
+        this.bounds.set(bounds);
+        int width = (int) Math.ceil(bounds.width());
+        int height = (int) Math.ceil(bounds.height());
+        for (int layer = 0; layer < nodes.length; layer++) {
+            RenderNode node = nodes[layer];
+            node.setPosition(0, 0, width, height);
+            RecordingCanvas recording = node.beginRecording(width, height);
+            try {
+                recording.translate(-bounds.left, -bounds.top);
+                painter.drawLayer(recording, layer);
+            } finally {
+                node.endRecording();
+            }
+        }
+        recorded = true;
+    }
+
+    /**
+     * Воспроизводит слои на аппаратном холсте в координатах кэша.
+     */
+    void draw(Canvas canvas) {
+        int saveCount = canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+        for (RenderNode node : nodes) {
+            canvas.drawRenderNode(node);
+        }
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Освобождает записанные списки отрисовки; до новой записи узлы не рисуются.
+     */
+    void discard() {
+        for (RenderNode node : nodes) {
+            node.discardDisplayList();
+        }
+        recorded = false;
+    }
+}
@@ -0,0 +1,212 @@
+package com.nicorp.nimetro.presentation.views;
+
+import com.nicorp.nimetro.domain.entities.Station;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Равномерная сетка станций одного слоя карты по схемным координатам x/y.
+ *
+ * Строится по списку станций слоя и заменяет линейный проход по списку при попадании касанием
+ * и при выборе станций в прямоугольнике. Ячейки хранятся в массивах (номера станций подряд
+ * по ячейкам), поэтому запросы не создают объектов. Как и линейный проход, оба запроса
+ * соблюдают порядок списка: при попадании в несколько станций возвращается первая по списку,
+ * станции в прямоугольнике перечисляются в порядке списка.
+ */
+final class StationGrid {
+    static final StationGrid EMPTY = build(Collections.<Station>emptyList());
+
+    // Размер ячейки — примерно одна станция на ячейку, но не меньше MIN_CELL_SIZE
+    // и не больше MAX_CELLS_PER_SIDE ячеек по стороне
+    private static final float MIN_CELL_SIZE = 16f;
+    private static final int MAX_CELLS_PER_SIDE = 256;
+
+    private final List<Station> stations;
+    private final float originX;
+    private final float originY;
+    private final float cellSize;
+    private final int columns;
+    private final int rows;
+    // станции ячейки c — cellStations[cellStarts[c] .. cellStarts[c + 1]), по возрастанию номера
+    private final int[] cellStarts;
+    private final int[] cellStations;
+    private final int[] stationX;
+    private final int[] stationY;
+    private int[] found = new int[16];
+
+    private StationGrid(List<Station> stations) {
+        this.stations = stations;
+        int count = stations.size();
+        stationX = new int[count];
+        stationY = new int[count];
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            Station station = stations.get(i);
+            stationX[i] = station.getX();
+            stationY[i] = station.getY();
+            minX = Math.min(minX, stationX[i]);
+            minY = Math.min(minY, stationY[i]);
+            maxX = Math.max(maxX, stationX[i]);
+            maxY = Math.max(maxY, stationY[i]);
+        }
+        if (count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        float width = maxX - minX + 1;
+        float height = maxY - minY + 1;
+        float size = Math.max(MIN_CELL_SIZE, (float) Math.sqrt(width * height / Math.max(1, count)));
+        size = Math.max(size, Math.max(width, height) / MAX_CELLS_PER_SIDE);
+        originX = minX;
+        originY = minY;
+        cellSize = size;
+        columns = (int) (width / size) + 1;
+        rows = (int) (height / size) + 1;
+
+        cellStarts = new int[columns * rows + 1];
+        int[] cells = new int[count];
+        for (int i = 0; i < count; i++) {
+            cells[i] = row(stationY[i]) * columns + column(stationX[i]);
+            cellStarts[cells[i] + 1]++;
+        }
+        for (int c = 0; c < columns * rows; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        cellStations = new int[count];
+        int[] next = Arrays.copyOf(cellStarts, columns * rows);
+        for (int i = 0; i < count; i++) {
+            cellStations[next[cells[i]]++] = i;
+        }
+    }
+
+    static StationGrid build(List<Station> stations) {
+        return new StationGrid(stations != null ? stations : Collections.<Station>emptyList());
+    }
+
+    List<Station> getStations() {
+        return stations;
+    }
+
+    /**
+     * @return первая по списку станция, у которой |x - stationX| < radius и |y - stationY| < radius, или null
+     */
+    Station findAt(float x, float y, float radius) {
+        int best = Integer.MAX_VALUE;
+        int fromColumn = column(x - radius);
+        int toColumn = column(x + radius);
+        int toRow = row(y + radius);
+        for (int r = row(y - radius); r <= toRow; r++) {
+            for (int c = fromColumn; c <= toColumn; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                    int i = cellStations[k];
+                    if (i >= best) {
+                        break;
+                    }
+                    if (Math.abs(stationX[i] - x) < radius && Math.abs(stationY[i] - y) < radius) {
+                        best = i;
+                        break;
+                    }
+                }
+            }
+        }
+        return best != Integer.MAX_VALUE ? stations.get(best) : null;
+    }
+
+    /**
+     * Добавляет в out станции, лежащие в прямоугольнике (границы включительно), в порядке списка.
+     * Сетка хранит рабочий массив, поэтому вызывается из одного потока — потока отрисовки.
+     */
+    void findInRect(float left, float top, float right, float bottom, List<Station> out) {
+        if (left > right || top > bottom || stations.isEmpty()) {
+            return;
+        }
+        int count = 0;
+        int fromColumn = column(left);
+        int toColumn = column(right);
+        int toRow = row(bottom);
+        for (int r = row(top); r <= toRow; r++) {
+            for (int c = fromColumn; c <= toColumn; c++) {
+                int cell = r * columns + c;
+                for (int k = cellStarts[cell]; k < cellStarts[cell + 1]; k++) {
+                    int i = cellStations[k];
+                    if (stationX[i] >= left && stationX[i] <= right && stationY[i] >= top && stationY[i] <= bottom) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = i;
+                    }
+                }
+            }
+        }
+        Arrays.sort(found, 0, count);
+        for (int k = 0; k < count; k++) {
+            out.add(stations.get(found[k]));
+        }
+    }
+
+    /**
+     * Переносит станцию в ячейку по её текущим координатам, не перестраивая сетку: номера станций
+     * между старой и новой ячейкой сдвигаются на одну позицию. Станция за границами сетки ложится
+     * в крайнюю ячейку, как и координаты запросов за границами, поэтому запросы остаются точными.
+     *
+     * @return false, если станции нет в списке сетки
+     */
+    boolean move(Station station) {
+        int index = -1;
+        for (int i = 0; i < stations.size(); i++) {
+            if (stations.get(i) == station) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+        int from = row(stationY[index]) * columns + column(stationX[index]);
+        stationX[index] = station.getX();
+        stationY[index] = station.getY();
+        int to = row(stationY[index]) * columns + column(stationX[index]);
+        if (from == to) {
+            return true;
+        }
+        int position = cellStarts[from];
+        while (cellStations[position] != index) {
+            position++;
+        }
+        int insert = cellStarts[to];
+        while (insert < cellStarts[to + 1] && cellStations[insert] < index) {
+            insert++;
+        }
+        if (from < to) {
+            System.arraycopy(cellStations, position + 1, cellStations, position, insert - position - 1);
+            cellStations[insert - 1] = index;
+            for (int c = from + 1; c <= to; c++) {
+                cellStarts[c]--;
+            }
+        } else {
+            System.arraycopy(cellStations, insert, cellStations, insert + 1, position - insert);
+            cellStations[insert] = index;
+            for (int c = to + 1; c <= from; c++) {
+                cellStarts[c]++;
+            }
+        }
+        return true;
+    }
+
+    private int column(float x) {
+        return clamp((int) Math.floor((x - originX) / cellSize), columns);
+    }
+
+    private int row(float y) {
+        return clamp((int) Math.floor((y - originY) / cellSize), rows);
+    }
+
+    private static int clamp(int value, int limit) {
+        return value < 0 ? 0 : value >= limit ? limit - 1 : value;
+    }
+}
@@ -42,6 +42,8 @@ import com.nicorp.nimetro.R;
 import com.nicorp.nimetro.domain.entities.Line;
 import com.nicorp.nimetro.domain.entities.Station;
 import com.nicorp.nimetro.domain.entities.Transfer;
+import com.nicorp.nimetro.domain.routing.RoutingEngine;
+import com.nicorp.nimetro.domain.routing.StationLocator;
 import com.nicorp.nimetro.presentation.activities.MainActivity;
 
 import java.util.ArrayList;
@@ -68,6 +70,8 @@ public class StationTrackingService extends Service implements RecognitionListen
     private Station currentStation;
     private Station previousStation;
     private List<Station> route;
+    // Станции маршрута с координатами; строится при получении маршрута
+    private StationLocator routeLocator = StationLocator.EMPTY;
     private List<Transfer> transfers = new ArrayList<>();
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
@@ -240,6 +244,7 @@ public class StationTrackingService extends Service implements RecognitionListen
 
         if (intent != null && intent.hasExtra("route")) {
             route = intent.getParcelableArrayListExtra("route");
+            routeLocator = StationLocator.build(route);
             lines = intent.getParcelableArrayListExtra("lines");
             if (lines == null) {
                 lines = new ArrayList<>();
@@ -455,6 +460,15 @@ public class StationTrackingService extends Service implements RecognitionListen
         if (current == null || next == null) {
             return 2;
         }
+        int graphTime = RoutingEngine.getInstance().getTravelTime(current, next);
+        if (graphTime > 0) {
+            return graphTime;
+        }
+        // Станции могут быть и не соседними, если часть маршрута пропущена
+        int shortestTime = RoutingEngine.getInstance().getShortestTravelTime(current, next);
+        if (shortestTime > 0) {
+            return shortestTime;
+        }
         List<Station.Neighbor> neighbors = current.getNeighbors();
         if (neighbors != null) {
             for (Station.Neighbor neighbor : neighbors) {
@@ -628,18 +642,7 @@ public class StationTrackingService extends Service implements RecognitionListen
     }
 
     private Station findNearestStation(double latitude, double longitude) {
-        Station nearestStation = null;
-        double minDistance = Double.MAX_VALUE;
-
-        for (Station station : route) {
-            double distance = station.distanceTo(latitude, longitude);
-            if (distance < minDistance) {
-                minDistance = distance;
-                nearestStation = station;
-            }
-        }
-
-        return nearestStation;
+        return routeLocator.findNearest(latitude, longitude);
     }
 
     @Nullable
@@ -0,0 +1,179 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.domain.entities.Transfer;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Загружает карту из assets так же, как MainActivity.loadMetroData: по экземпляру станции
+ * на каждое вхождение в линию, соседи привязываются к первому экземпляру с таким ID,
+ * ссылки TR_* в переходах разворачиваются в станции связанных переходов.
+ * Общий для unit-тестов и инструментальных замеров (src/sharedTest).
+ */
+public final class MetroMapFixture {
+    // Порядок слоёв совпадает с порядком линий в MainActivity.compileRoutingGraph
+    private static final String[] LAYERS = {"metro_map", "suburban_map", "rivertram_map", "tram_map"};
+
+    public final List<Station> stations = new ArrayList<>();
+    public final List<Line> lines = new ArrayList<>();
+    public final List<Transfer> transfers = new ArrayList<>();
+
+    private MetroMapFixture() {
+    }
+
+    public static MetroMapFixture load(String fileName) throws IOException {
+        Path path = Paths.get("src/main/assets/raw", fileName);
+        if (!Files.exists(path)) {
+            path = Paths.get("app/src/main/assets/raw", fileName);
+        }
+        try (Reader reader = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Читает карту из reader, например из assets на устройстве; reader не закрывается.
+     */
+    public static MetroMapFixture load(Reader reader) {
+        JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+        MetroMapFixture fixture = new MetroMapFixture();
+        List<JsonObject> layers = new ArrayList<>();
+        for (String layerName : LAYERS) {
+            JsonObject layer = root.has(layerName) ? root.getAsJsonObject(layerName) : null;
+            if (layer != null) {
+                layers.add(layer);
+                fixture.loadLayer(layer);
+            }
+        }
+        for (JsonObject layer : layers) {
+            fixture.addNeighbors(layer);
+        }
+        return fixture;
+    }
+
+    public TransitGraph compile() {
+        return TransitGraph.compile(stations, lines, transfers);
+    }
+
+    private void loadLayer(JsonObject layer) {
+        List<Station> layerStations = new ArrayList<>();
+        for (JsonElement lineElement : layer.getAsJsonArray("lines")) {
+            JsonObject lineObject = lineElement.getAsJsonObject();
+            boolean isCircle = lineObject.has("isCircle") && lineObject.get("isCircle").getAsBoolean();
+            Line line = new Line(lineObject.get("id").getAsString(), lineObject.get("name").getAsString(),
+                    lineObject.get("color").getAsString(), isCircle, "single", null,
+                    optString(lineObject, "displayNumber"), optString(lineObject, "displayShape"));
+            for (JsonElement stationElement : lineObject.getAsJsonArray("stations")) {
+                JsonObject stationObject = stationElement.getAsJsonObject();
+                Station station = new Station(stationObject.get("id").getAsString(),
+                        stationObject.get("name").getAsString(),
+                        stationObject.get("x").getAsInt(), stationObject.get("y").getAsInt(),
+                        null, line.getColor(), null, 0);
+                line.getStations().add(station);
+                layerStations.add(station);
+            }
+            lines.add(line);
+        }
+        stations.addAll(layerStations);
+
+        if (!layer.has("transfers")) {
+            return;
+        }
+        Map<String, Transfer> transfersById = new HashMap<>();
+        List<JsonObject> linkTransfers = new ArrayList<>();
+        for (JsonElement transferElement : layer.getAsJsonArray("transfers")) {
+            JsonObject transferObject = transferElement.getAsJsonObject();
+            List<Station> transferStations = new ArrayList<>();
+            boolean hasLink = false;
+            for (JsonElement token : transferObject.getAsJsonArray("stations")) {
+                String id = token.getAsString();
+                hasLink |= id.startsWith("TR_");
+                Station station = findStationById(id, layerStations);
+                if (station != null) {
+                    transferStations.add(station);
+                }
+            }
+            if (hasLink) {
+                linkTransfers.add(transferObject);
+                continue;
+            }
+            Transfer transfer = new Transfer(optString(transferObject, "id"), transferStations,
+                    transferTime(transferObject), "regular", null, new ArrayList<>());
+            transfers.add(transfer);
+            if (transfer.getId() != null) {
+                transfersById.put(transfer.getId(), transfer);
+            }
+        }
+        for (JsonObject transferObject : linkTransfers) {
+            List<Station> combined = new ArrayList<>();
+            for (JsonElement token : transferObject.getAsJsonArray("stations")) {
+                String id = token.getAsString();
+                if (id.startsWith("TR_")) {
+                    Transfer linked = transfersById.get(id);
+                    if (linked != null) {
+                        combined.addAll(linked.getStations());
+                    }
+                } else {
+                    Station station = findStationById(id, layerStations);
+                    if (station != null) {
+                        combined.add(station);
+                    }
+                }
+            }
+            transfers.add(new Transfer(optString(transferObject, "id"), combined,
+                    transferTime(transferObject), "regular", null, new ArrayList<>()));
+        }
+    }
+
+    private void addNeighbors(JsonObject layer) {
+        for (JsonElement lineElement : layer.getAsJsonArray("lines")) {
+            for (JsonElement stationElement : lineElement.getAsJsonObject().getAsJsonArray("stations")) {
+                JsonObject stationObject = stationElement.getAsJsonObject();
+                Station station = findStationById(stationObject.get("id").getAsString(), stations);
+                if (station == null || !stationObject.has("neighbors")) {
+                    continue;
+                }
+                for (JsonElement neighborElement : stationObject.getAsJsonArray("neighbors")) {
+                    JsonArray neighbor = neighborElement.getAsJsonArray();
+                    Station neighborStation = findStationById(neighbor.get(0).getAsString(), stations);
+                    if (neighborStation != null) {
+                        station.addNeighbor(new Station.Neighbor(neighborStation, neighbor.get(1).getAsInt()));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Station findStationById(String id, List<Station> stations) {
+        for (Station station : stations) {
+            if (station.getId().equals(id)) {
+                return station;
+            }
+        }
+        return null;
+    }
+
+    private static String optString(JsonObject object, String name) {
+        return object.has(name) && !object.get(name).isJsonNull() ? object.get(name).getAsString() : null;
+    }
+
+    private static int transferTime(JsonObject transferObject) {
+        return transferObject.has("time") ? transferObject.get("time").getAsInt() : 3;
+    }
+}
@@ -0,0 +1,94 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.routing.ContractionHierarchy;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ContractionHierarchyTest {
+    private static TransitGraph graph;
+    private static TransitRouter router;
+    private static ContractionHierarchy hierarchy;
+
+    @BeforeClass
+    public static void buildHierarchy() throws Exception {
+        graph = MetroMapFixture.load("metromap_1.json").compile();
+        router = new TransitRouter(graph.getNetwork());
+        hierarchy = ContractionHierarchy.build(graph.getNetwork());
+    }
+
+    @Test
+    public void matchesDijkstraTimeAndHopsOnEveryStationPair() {
+        assertSameRoutes(hierarchy);
+    }
+
+    @Test
+    public void savedHierarchyIsReadBackForTheSameGraph() throws IOException {
+        ContractionHierarchy restored = ContractionHierarchy.readFrom(
+                new ByteArrayInputStream(write(hierarchy)), graph.getNetwork());
+        assertNotNull(restored);
+        assertSameRoutes(restored);
+    }
+
+    @Test
+    public void savedHierarchyIsRejectedForAnotherGraph() throws IOException {
+        TransitGraph other = MetroMapFixture.load("metromap_2.json").compile();
+        assertNotEquals(ContractionHierarchy.fingerprint(graph.getNetwork()),
+                ContractionHierarchy.fingerprint(other.getNetwork()));
+        assertNull(ContractionHierarchy.readFrom(new ByteArrayInputStream(write(hierarchy)), other.getNetwork()));
+    }
+
+    private static byte[] write(ContractionHierarchy source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.writeTo(out);
+        return out.toByteArray();
+    }
+
+    // Среди равноценных маршрутов иерархия может выбрать другой, поэтому сравниваются время и число перегонов
+    private static void assertSameRoutes(ContractionHierarchy tested) {
+        int stationCount = graph.getStationCount();
+        for (int start = 0; start < stationCount; start++) {
+            for (int end = 0; end < stationCount; end++) {
+                int[] expected = router.findRoute(start, end, RouteStrategy.FASTEST, -1,
+                        TransitRouter.Algorithm.DIJKSTRA);
+                int[] actual = tested.findRoute(start, end, -1);
+                String pair = graph.getStation(start).getId() + " -> " + graph.getStation(end).getId();
+                if (expected == null) {
+                    assertNull(pair, actual);
+                    continue;
+                }
+                assertNotNull(pair, actual);
+                assertEquals(pair + " time", routeTime(expected), routeTime(actual));
+                assertEquals(pair + " hops", expected.length, actual.length);
+                assertEquals(pair + " start", start, graph.getStateStation(actual[0]));
+                assertEquals(pair + " end", end, graph.getStateStation(actual[actual.length - 1]));
+            }
+        }
+    }
+
+    // Время маршрута по самым быстрым рёбрам между соседними состояниями
+    private static int routeTime(int[] route) {
+        int time = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            int best = Integer.MAX_VALUE;
+            for (int edge = graph.getEdgeStart(route[i]); edge < graph.getEdgeEnd(route[i]); edge++) {
+                if (graph.getEdgeTarget(edge) == route[i + 1]) {
+                    best = Math.min(best, graph.getEdgeTime(edge));
+                }
+            }
+            time += best;
+        }
+        return time;
+    }
+}
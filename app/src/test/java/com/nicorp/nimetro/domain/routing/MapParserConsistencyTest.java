@@ -0,0 +1,74 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.TransitNetwork;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Сервер строит граф из JSON карты через {@link MapParser}, приложение — из своих объектов станций
+ * (см. {@link MetroMapFixture}). Маршруты совпадают, только пока оба пути дают один и тот же граф.
+ */
+public class MapParserConsistencyTest {
+    private static final String[] MAPS = {"metromap_1.json", "metromap_2.json", "metromap_3.json",
+            "metromap_4.json", "metromap_5.json"};
+
+    @Test
+    public void parserBuildsTheSameNetworkAsTheApp() throws IOException {
+        for (String fileName : MAPS) {
+            TransitNetwork app = MetroMapFixture.load(fileName).compile().getNetwork();
+            TransitNetwork server = MapParser.parse(readMap(fileName));
+            assertEquals(fileName + " stations", app.getStationCount(), server.getStationCount());
+            assertEquals(fileName + " states", app.getStateCount(), server.getStateCount());
+            assertEquals(fileName, describe(app), describe(server));
+        }
+    }
+
+    private static Map<String, Object> readMap(String fileName) throws IOException {
+        Path path = Paths.get("src/main/assets/raw", fileName);
+        if (!Files.exists(path)) {
+            path = Paths.get("app/src/main/assets/raw", fileName);
+        }
+        try (Reader reader = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, new TypeToken<Map<String, Object>>() { }.getType());
+        }
+    }
+
+    // Рёбра по ID станций и линий: нумерация состояний у двух графов может различаться
+    private static List<String> describe(TransitNetwork network) {
+        List<String> edges = new ArrayList<>();
+        for (int state = 0; state < network.getStateCount(); state++) {
+            String from = describeState(network, state);
+            for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                edges.add(from + " -> " + describeState(network, network.getEdgeTarget(edge))
+                        + " " + network.getEdgeTime(edge));
+            }
+            if (network.getEdgeStart(state) == network.getEdgeEnd(state)) {
+                edges.add(from);
+            }
+        }
+        Collections.sort(edges);
+        return edges;
+    }
+
+    private static String describeState(TransitNetwork network, int state) {
+        return network.getStationId(network.getStateStation(state)) + "/"
+                + network.getLineId(network.getStateLineKey(state));
+    }
+}
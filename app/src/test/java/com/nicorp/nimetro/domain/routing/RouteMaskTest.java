@@ -0,0 +1,192 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.routing.RouteClosures;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RouteMaskTest {
+    private static TransitGraph graph;
+    private static TransitRouter router;
+    // Закрытия, выбранные по графу и проверяемые независимо от маски роутера
+    private static int closedStation;
+    private static String closedLineId;
+    private static int segmentFrom;
+    private static int segmentTo;
+
+    @BeforeClass
+    public static void closeParts() throws Exception {
+        graph = MetroMapFixture.load("metromap_1.json").compile();
+        closedLineId = graph.getLine(0).getId();
+
+        // Пересадочная станция с наибольшим числом состояний
+        closedStation = 0;
+        for (int station = 1; station < graph.getStationCount(); station++) {
+            if (stateCount(station) > stateCount(closedStation)) {
+                closedStation = station;
+            }
+        }
+        // Перегон другой линии в стороне от закрытой станции
+        segmentFrom = -1;
+        for (int state = 0; state < graph.getStateCount() && segmentFrom < 0; state++) {
+            for (int edge = graph.getEdgeStart(state); edge < graph.getEdgeEnd(state); edge++) {
+                int next = graph.getEdgeTarget(edge);
+                int from = graph.getStateStation(state);
+                int to = graph.getStateStation(next);
+                if (from != to && from != closedStation && to != closedStation
+                        && !isOnClosedLine(state) && !isOnClosedLine(next)) {
+                    segmentFrom = from;
+                    segmentTo = to;
+                    break;
+                }
+            }
+        }
+        assertTrue(segmentFrom >= 0);
+
+        RouteClosures closures = new RouteClosures(
+                Collections.singletonList(graph.getStation(closedStation).getId()),
+                Collections.singletonList(closedLineId),
+                Collections.singletonList(new RouteClosures.Segment(
+                        graph.getStation(segmentFrom).getId(), graph.getStation(segmentTo).getId())));
+        router = new TransitRouter(graph.getNetwork());
+        router.setClosures(closures);
+        assertTrue(router.hasClosures());
+    }
+
+    @Test
+    public void closuresMissingFromGraphLeaveRouterOpen() {
+        TransitRouter open = new TransitRouter(graph.getNetwork());
+        open.setClosures(RouteClosures.NONE);
+        assertFalse(open.hasClosures());
+        open.setClosures(new RouteClosures(Collections.singletonList("no-such-station"), null, null));
+        assertFalse(open.hasClosures());
+    }
+
+    @Test
+    public void routesNeverUseClosedPartsAndStayFastest() {
+        int stationCount = graph.getStationCount();
+        int routes = 0;
+        for (int start = 0; start < stationCount; start++) {
+            long[] expected = openWeights(start);
+            for (int end = 0; end < stationCount; end++) {
+                String pair = graph.getStation(start).getId() + " -> " + graph.getStation(end).getId();
+                int[] fastest = router.findRoute(start, end, RouteStrategy.FASTEST, -1);
+                long best = Long.MAX_VALUE;
+                for (int state = graph.getFirstState(end); state < graph.getStateLimit(end); state++) {
+                    best = Math.min(best, expected[state]);
+                }
+                if (best == Long.MAX_VALUE) {
+                    assertNull(pair, fastest);
+                    continue;
+                }
+                assertNotNull(pair, fastest);
+                assertOpen(pair, fastest);
+                assertEquals(pair + " weight", best,
+                        (long) router.routeTime(fastest) * graph.getStateCount() + fastest.length - 1);
+                routes++;
+
+                int[] fewestTransfers = router.findRoute(start, end, RouteStrategy.MIN_TRANSFERS, -1);
+                assertNotNull(pair, fewestTransfers);
+                assertOpen(pair, fewestTransfers);
+                if (start % 4 == 0 && end % 4 == 0) {
+                    List<int[]> pareto = router.findParetoRoutes(start, end, -1, 1.5f);
+                    for (int[] route : pareto) {
+                        assertOpen(pair, route);
+                    }
+                    for (int[] route : router.findAlternativeRoutes(start, end, pareto, 3, -1, 1.5f, 0.67f)) {
+                        assertOpen(pair, route);
+                    }
+                }
+            }
+        }
+        assertTrue("expected open pairs to stay connected", routes > 0);
+    }
+
+    @Test
+    public void isochroneSkipsClosedStation() {
+        for (int start = 0; start < graph.getStationCount(); start++) {
+            if (start != closedStation) {
+                assertEquals(-1, router.findTravelTimes(start, 10_000)[closedStation]);
+            }
+        }
+    }
+
+    private static void assertOpen(String pair, int[] route) {
+        for (int i = 0; i < route.length; i++) {
+            assertFalse(pair + " passes the closed station", graph.getStateStation(route[i]) == closedStation);
+            assertFalse(pair + " rides the closed line", isOnClosedLine(route[i]));
+            if (i > 0) {
+                assertFalse(pair + " uses the closed segment", isClosedSegment(route[i - 1], route[i]));
+            }
+        }
+    }
+
+    /**
+     * Дейкстра по открытой части графа; вес — время * число состояний + число перегонов, как у поиска.
+     */
+    private static long[] openWeights(int start) {
+        long[] weights = new long[graph.getStateCount()];
+        Arrays.fill(weights, Long.MAX_VALUE);
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int state = graph.getFirstState(start); state < graph.getStateLimit(start); state++) {
+            if (!isClosedState(state)) {
+                weights[state] = 0;
+                queue.add(new long[]{0, state});
+            }
+        }
+        BitSet settled = new BitSet();
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int state = (int) entry[1];
+            if (settled.get(state)) {
+                continue;
+            }
+            settled.set(state);
+            for (int edge = graph.getEdgeStart(state); edge < graph.getEdgeEnd(state); edge++) {
+                int next = graph.getEdgeTarget(edge);
+                if (isClosedState(next) || isClosedSegment(state, next)) {
+                    continue;
+                }
+                long weight = entry[0] + (long) graph.getEdgeTime(edge) * graph.getStateCount() + 1;
+                if (weight < weights[next]) {
+                    weights[next] = weight;
+                    queue.add(new long[]{weight, next});
+                }
+            }
+        }
+        return weights;
+    }
+
+    private static boolean isClosedState(int state) {
+        return graph.getStateStation(state) == closedStation || isOnClosedLine(state);
+    }
+
+    private static boolean isOnClosedLine(int state) {
+        int line = graph.getStateLine(state);
+        return line != TransitGraph.NO_LINE && closedLineId.equals(graph.getLine(line).getId());
+    }
+
+    private static boolean isClosedSegment(int fromState, int toState) {
+        int from = graph.getStateStation(fromState);
+        int to = graph.getStateStation(toState);
+        return (from == segmentFrom && to == segmentTo) || (from == segmentTo && to == segmentFrom);
+    }
+
+    private static int stateCount(int station) {
+        return graph.getStateLimit(station) - graph.getFirstState(station);
+    }
+}
@@ -0,0 +1,172 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RouteRequestSchedulerTest {
+    private static final int BURST = 20;
+
+    private static TransitGraph graph;
+    private static TransitRouter router;
+
+    // Очередь вместо главного потока: тест сам «прокручивает» доставленные результаты
+    private final BlockingQueue<Runnable> mainThread = new LinkedBlockingQueue<>();
+    private final List<Exception> errors = new CopyOnWriteArrayList<>();
+    private RouteRequestScheduler scheduler;
+
+    @BeforeClass
+    public static void loadMap() throws Exception {
+        graph = MetroMapFixture.load("metromap_1.json").compile();
+        router = new TransitRouter(graph.getNetwork());
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = new RouteRequestScheduler(mainThread::add, errors::add);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void burstOfRouteChangesRunsFirstAndLatestOnlyAndDeliversLatest() throws Exception {
+        CountDownLatch workerBusy = new CountDownLatch(1);
+        CountDownLatch releaseWorker = new CountDownLatch(1);
+        List<Integer> started = new CopyOnWriteArrayList<>();
+        List<int[]> delivered = new ArrayList<>();
+        int stationCount = graph.getStationCount();
+        int lastStart = 0;
+        int lastEnd = 0;
+
+        for (int i = 0; i < BURST; i++) {
+            int start = i % stationCount;
+            int end = (stationCount - 1 - i * 7 % stationCount + stationCount) % stationCount;
+            boolean first = i == 0;
+            submitRoute(i, start, end, started, first ? workerBusy : null, first ? releaseWorker : null, delivered);
+            if (first) {
+                // Первый запрос занимает рабочий поток, остальные приходят, пока он считается
+                assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+            }
+            lastStart = start;
+            lastEnd = end;
+        }
+        releaseWorker.countDown();
+
+        Runnable delivery = mainThread.poll(5, TimeUnit.SECONDS);
+        assertNotNull("latest route was not delivered", delivery);
+        delivery.run();
+        assertNull("stale routes must not be delivered", mainThread.poll(200, TimeUnit.MILLISECONDS));
+
+        // Ожидавшие запросы заменялись новыми и не выполнялись
+        assertEquals(Arrays.asList(0, BURST - 1), started);
+        assertEquals(1, delivered.size());
+        assertArrayEquals(router.findRoute(lastStart, lastEnd, RouteStrategy.FASTEST, -1), delivered.get(0));
+    }
+
+    /**
+     * @param started  получает номер запроса при начале вычисления
+     * @param busy     если задан, отмечается при начале вычисления
+     * @param release  если задан, вычисление ждёт его, занимая рабочий поток
+     */
+    private void submitRoute(int number, int start, int end, List<Integer> started, CountDownLatch busy,
+                             CountDownLatch release, List<int[]> delivered) {
+        scheduler.submit(Arrays.asList(start, end), () -> {
+            started.add(number);
+            if (busy != null) {
+                busy.countDown();
+            }
+            if (release != null) {
+                release.await();
+            }
+            return router.findRoute(start, end, RouteStrategy.FASTEST, -1);
+        }, delivered::add);
+    }
+
+    @Test
+    public void identicalRequestRunsOnceAndReachesLatestCallback() throws Exception {
+        CountDownLatch releaseWorker = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        List<String> delivered = new ArrayList<>();
+
+        for (int i = 0; i < BURST; i++) {
+            String name = "callback " + i;
+            scheduler.submit(Arrays.asList(0, 1), () -> {
+                runs.incrementAndGet();
+                releaseWorker.await();
+                return "route";
+            }, result -> delivered.add(name + ": " + result));
+        }
+        releaseWorker.countDown();
+
+        Runnable delivery = mainThread.poll(5, TimeUnit.SECONDS);
+        assertNotNull(delivery);
+        delivery.run();
+        assertNull(mainThread.poll(200, TimeUnit.MILLISECONDS));
+
+        assertEquals(1, runs.get());
+        assertEquals(Arrays.asList("callback " + (BURST - 1) + ": route"), delivered);
+    }
+
+    @Test
+    public void failedRequestReportsErrorAndDeliversNull() throws Exception {
+        IllegalStateException failure = new IllegalStateException("no graph");
+        List<Object> delivered = new ArrayList<>();
+
+        scheduler.submit("route", () -> {
+            throw failure;
+        }, delivered::add);
+
+        Runnable delivery = mainThread.poll(5, TimeUnit.SECONDS);
+        assertNotNull(delivery);
+        delivery.run();
+
+        assertEquals(Arrays.asList(failure), errors);
+        assertEquals(1, delivered.size());
+        assertNull(delivered.get(0));
+    }
+
+    @Test
+    public void cancelDropsRunningRequest() throws Exception {
+        CountDownLatch workerBusy = new CountDownLatch(1);
+        CountDownLatch releaseWorker = new CountDownLatch(1);
+        List<Object> delivered = new ArrayList<>();
+
+        scheduler.submit("route", () -> {
+            workerBusy.countDown();
+            releaseWorker.await();
+            return "route";
+        }, delivered::add);
+        assertTrue(workerBusy.await(5, TimeUnit.SECONDS));
+        scheduler.cancel();
+        releaseWorker.countDown();
+
+        Runnable delivery = mainThread.poll(200, TimeUnit.MILLISECONDS);
+        if (delivery != null) {
+            delivery.run();
+        }
+        assertTrue(delivered.isEmpty());
+    }
+}
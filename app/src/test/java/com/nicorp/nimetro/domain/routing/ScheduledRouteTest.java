@@ -0,0 +1,221 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Facilities;
+import com.nicorp.nimetro.domain.entities.RouteStation;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.ServiceSchedule;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScheduledRouteTest {
+    private static final int NOON = 12 * 60;
+    private static final int NIGHT = 2 * 60;
+    private static final int OPENING = 6 * 60;
+    private static final int HEADWAY = 4;
+
+    private static MetroMapFixture fixture;
+    private static TransitGraph graph;
+    private static TransitRouter router;
+    // Все станции работают с 6:00 до 1:00, интервал движения — HEADWAY минут
+    private static ServiceSchedule schedule;
+
+    @BeforeClass
+    public static void loadMap() throws Exception {
+        fixture = MetroMapFixture.load("metromap_1.json");
+        for (Station station : fixture.stations) {
+            station.setFacilities(new Facilities("6:00 - 1:00", 0, 0, new String[0]));
+        }
+        graph = fixture.compile();
+        router = new TransitRouter(graph.getNetwork());
+        schedule = ServiceSchedule.build(graph.getNetwork(), graph.getStateSchedules(),
+                Collections.<String, Integer>emptyMap(), HEADWAY);
+    }
+
+    @AfterClass
+    public static void clearEngine() {
+        RoutingEngine.getInstance().clear();
+    }
+
+    @Test
+    public void matchesFastestRouteWhenOpenWithoutWaits() {
+        ServiceSchedule noWaits = ServiceSchedule.build(graph.getNetwork(), graph.getStateSchedules(),
+                Collections.<String, Integer>emptyMap(), 0);
+        int stationCount = graph.getStationCount();
+        for (int start = 0; start < stationCount; start++) {
+            for (int end = 0; end < stationCount; end++) {
+                String pair = pair(start, end);
+                int[] fastest = router.findRoute(start, end, RouteStrategy.FASTEST, -1,
+                        TransitRouter.Algorithm.DIJKSTRA);
+                TransitRouter.TimedPath scheduled = router.findScheduledRoute(start, end, NOON, noWaits);
+                if (fastest == null) {
+                    assertNull(pair, scheduled);
+                    continue;
+                }
+                assertNotNull(pair, scheduled);
+                assertEquals(pair + " time", router.routeTime(fastest),
+                        scheduled.times[scheduled.times.length - 1] - NOON);
+                assertEquals(pair + " hops", fastest.length, scheduled.path.length);
+                assertEquals(pair + " start", start, graph.getStateStation(scheduled.path[0]));
+                assertEquals(pair + " end", end, graph.getStateStation(scheduled.path[scheduled.path.length - 1]));
+                assertTimes(pair, scheduled, NOON, noWaits);
+                assertTrue(pair, router.isInService(fastest, NOON, schedule));
+            }
+        }
+    }
+
+    @Test
+    public void nightRoutesWaitForOpeningAndTrains() {
+        int stationCount = graph.getStationCount();
+        for (int start = 0; start < stationCount; start++) {
+            for (int end = 0; end < stationCount; end++) {
+                String pair = pair(start, end);
+                int[] fastest = router.findRoute(start, end, RouteStrategy.FASTEST, -1);
+                TransitRouter.TimedPath night = router.findScheduledRoute(start, end, NIGHT, schedule);
+                if (fastest == null) {
+                    assertNull(pair, night);
+                    continue;
+                }
+                assertNotNull(pair, night);
+                assertTimes(pair, night, NIGHT, schedule);
+                TransitRouter.TimedPath morning = router.findScheduledRoute(start, end, OPENING, schedule);
+                int nightArrival = night.times[night.times.length - 1];
+                int morningArrival = morning.times[morning.times.length - 1];
+                // Выехав раньше, нельзя приехать позже, а ожидания не делают маршрут быстрее статического
+                assertTrue(pair, nightArrival <= morningArrival);
+                assertTrue(pair, morningArrival - OPENING >= router.routeTime(fastest));
+                if (night.boardingTime >= 0) {
+                    assertTrue(pair, night.boardingTime >= OPENING + HEADWAY / 2);
+                }
+                assertEquals(pair, !hasRide(fastest), router.isInService(fastest, NIGHT, schedule));
+            }
+        }
+    }
+
+    @Test
+    public void variantsShowScheduledRouteOnceAndOnlyOpenLines() {
+        RoutingEngine engine = RoutingEngine.getInstance();
+        engine.setLineHeadways(Collections.<String, Integer>emptyMap());
+        engine.loadMap(fixture.stations, fixture.lines, fixture.transfers);
+        int stationCount = graph.getStationCount();
+        for (int start = 0; start < stationCount; start += 3) {
+            for (int end = 1; end < stationCount; end += 3) {
+                Station from = graph.getStation(start);
+                Station to = graph.getStation(end);
+                String pair = pair(start, end);
+                RouteVariants plain = engine.findRouteVariants(from, to, 1.2f, 4);
+                if (plain.isEmpty()) {
+                    continue;
+                }
+                RouteVariants noon = engine.findRouteVariants(from, to, 1.2f, 4, NOON);
+                assertVariants(pair, noon);
+                // Днём всё открыто: статические варианты остаются на месте
+                assertEquals(pair, plain.getRoutes(),
+                        noon.getRoutes().subList(noon.getParetoStart(), noon.getRoutes().size()));
+                assertEquals(pair, plain.getParetoCount(), noon.getParetoCount());
+
+                RouteVariants night = engine.findRouteVariants(from, to, 1.2f, 4, NIGHT);
+                assertVariants(pair, night);
+                // Ночью всё закрыто: кроме маршрута с учётом времени остаются только переходы пешком
+                for (List<RouteStation> route : night.getRoutes()) {
+                    if (!route.equals(night.getScheduledRoute().getRoute())) {
+                        assertFalse(pair + " offers a closed line at night", hasRide(route));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void assertVariants(String pair, RouteVariants variants) {
+        ScheduledRoute scheduled = variants.getScheduledRoute();
+        assertNotNull(pair, scheduled);
+        int copies = 0;
+        for (int i = 0; i < variants.getRoutes().size(); i++) {
+            List<RouteStation> route = variants.getRoutes().get(i);
+            if (route.equals(scheduled.getRoute())) {
+                copies++;
+            }
+            for (int j = 0; j < i; j++) {
+                assertFalse(pair + " duplicates page " + j, route.equals(variants.getRoutes().get(j)));
+            }
+        }
+        assertEquals(pair, 1, copies);
+        if (variants.getParetoStart() == 1) {
+            assertSame(pair, scheduled.getRoute(), variants.getRoutes().get(0));
+        }
+        assertTrue(pair, variants.getParetoStart() + variants.getParetoCount() <= variants.getRoutes().size());
+    }
+
+    /**
+     * Пересчитывает времена прибытия по пути: поездка ждёт открытия станции, а при посадке —
+     * ещё и поезда; переход пешком от расписания не зависит.
+     */
+    private static void assertTimes(String pair, TransitRouter.TimedPath timed, int departureTime,
+                                    ServiceSchedule serviceSchedule) {
+        assertEquals(pair, departureTime, timed.times[0]);
+        int time = departureTime;
+        int boardingTime = -1;
+        boolean onBoard = false;
+        for (int i = 0; i + 1 < timed.path.length; i++) {
+            int state = timed.path[i];
+            boolean ride = isRide(state, timed.path[i + 1]);
+            int leaveTime = time;
+            if (ride) {
+                leaveTime = serviceSchedule.nextDeparture(state, time);
+                if (!onBoard || leaveTime != time) {
+                    leaveTime += serviceSchedule.getBoardingWait(state);
+                }
+                if (boardingTime < 0) {
+                    boardingTime = leaveTime;
+                }
+            }
+            time = leaveTime + router.routeTime(new int[]{state, timed.path[i + 1]});
+            onBoard = ride;
+            assertEquals(pair + " arrival " + i, time, timed.times[i + 1]);
+        }
+        assertEquals(pair + " boarding", boardingTime, timed.boardingTime);
+    }
+
+    private static boolean hasRide(int[] path) {
+        for (int i = 0; i + 1 < path.length; i++) {
+            if (isRide(path[i], path[i + 1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasRide(List<RouteStation> route) {
+        for (int i = 0; i + 1 < route.size(); i++) {
+            if (route.get(i).getLine() != null && route.get(i).getLine() == route.get(i + 1).getLine()
+                    && !route.get(i).getStation().getId().equals(route.get(i + 1).getStation().getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRide(int from, int to) {
+        int fromLine = graph.getStateLine(from);
+        int toLine = graph.getStateLine(to);
+        return fromLine != TransitGraph.NO_LINE && toLine != TransitGraph.NO_LINE
+                && !graph.isLineChange(fromLine, toLine) && graph.getStateStation(from) != graph.getStateStation(to);
+    }
+
+    private static String pair(int start, int end) {
+        return graph.getStation(start).getId() + " -> " + graph.getStation(end).getId();
+    }
+}
@@ -0,0 +1,94 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Facilities;
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.routing.ServiceSchedule;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceScheduleTest {
+    private static final int[] ALWAYS_OPEN = {-1, -1};
+
+    private static TransitGraph graph;
+    private static ServiceSchedule schedule;
+    // Состояния станций с расписанием 6:00 - 1:00 и без расписания
+    private static int nightState;
+    private static int openState;
+
+    @BeforeClass
+    public static void buildSchedule() throws Exception {
+        MetroMapFixture fixture = MetroMapFixture.load("metromap_1.json");
+        Station closedAtNight = fixture.stations.get(0);
+        closedAtNight.setFacilities(new Facilities("6:00 - 1:00", 0, 0, new String[0]));
+        graph = fixture.compile();
+        schedule = ServiceSchedule.build(graph.getNetwork(), graph.getStateSchedules(),
+                Collections.singletonMap(graph.getLine(0).getId(), 6), 10);
+
+        nightState = -1;
+        openState = -1;
+        for (int state = 0; state < graph.getStateCount(); state++) {
+            if (graph.getStateStationInstance(state) == closedAtNight) {
+                nightState = state;
+            } else if (openState < 0 && graph.getStateStationInstance(state) != null) {
+                openState = state;
+            }
+        }
+        assertTrue(nightState >= 0 && openState >= 0);
+    }
+
+    @Test
+    public void parsesServiceWindow() {
+        assertArrayEquals(new int[]{330, 1440}, ServiceSchedule.parseWindow("5:30 - 0:00"));
+        assertArrayEquals(new int[]{360, 1500}, ServiceSchedule.parseWindow("6:00-1:00"));
+        assertArrayEquals(new int[]{345, 1439}, ServiceSchedule.parseWindow("Вход: 5:45 – 23:59"));
+        assertArrayEquals(new int[]{0, 1440}, ServiceSchedule.parseWindow("0:00 - 24:00"));
+    }
+
+    @Test
+    public void unknownWindowMeansAlwaysOpen() {
+        assertArrayEquals(ALWAYS_OPEN, ServiceSchedule.parseWindow(null));
+        assertArrayEquals(ALWAYS_OPEN, ServiceSchedule.parseWindow(""));
+        assertArrayEquals(ALWAYS_OPEN, ServiceSchedule.parseWindow("круглосуточно"));
+        assertArrayEquals(ALWAYS_OPEN, ServiceSchedule.parseWindow("5:00 - 5:00"));
+        assertArrayEquals(ALWAYS_OPEN, ServiceSchedule.parseWindow("24:00 - 1:00"));
+        assertArrayEquals(ALWAYS_OPEN, ServiceSchedule.parseWindow("5:00 - 24:30"));
+    }
+
+    @Test
+    public void nextDepartureWaitsForOpening() {
+        assertEquals(720, schedule.nextDeparture(nightState, 720));
+        assertEquals(360, schedule.nextDeparture(nightState, 360));
+        assertEquals(360, schedule.nextDeparture(nightState, 120));
+        // Конец работы не включается
+        assertEquals(360, schedule.nextDeparture(nightState, 60));
+        assertEquals(1439, schedule.nextDeparture(nightState, 1439));
+        assertEquals(1337, schedule.nextDeparture(openState, 1337));
+    }
+
+    @Test
+    public void nextDepartureContinuesAfterMidnight() {
+        // Работа прошлого дня продолжается до 1:00
+        assertEquals(30, schedule.nextDeparture(nightState, 30));
+        assertEquals(1470, schedule.nextDeparture(nightState, 1470));
+        assertEquals(1440 + 360, schedule.nextDeparture(nightState, 1440 + 90));
+        assertEquals(2 * 1440 + 360, schedule.nextDeparture(nightState, 1440 + 1500));
+    }
+
+    @Test
+    public void boardingWaitIsHalfTheHeadway() {
+        String firstLineId = graph.getLine(0).getId();
+        for (int state = 0; state < graph.getStateCount(); state++) {
+            Line line = graph.getLine(graph.getStateLine(state));
+            int expected = line == null ? 0 : firstLineId.equals(line.getId()) ? 3 : 5;
+            assertEquals(expected, schedule.getBoardingWait(state));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Station;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StationLocatorTest {
+    private static final int QUERIES = 500;
+
+    private static List<Station> stations;
+    private static List<Station> located;
+    private static StationLocator locator;
+
+    @BeforeClass
+    public static void buildIndex() {
+        Random random = new Random(42);
+        stations = new ArrayList<>();
+        // Город и несколько станций на других материках: индекс не должен зависеть от центра карты
+        for (int i = 0; i < 400; i++) {
+            stations.add(station("c" + i, 55.5 + random.nextDouble() * 0.5, 37.3 + random.nextDouble() * 0.6));
+        }
+        for (int i = 0; i < 40; i++) {
+            stations.add(station("w" + i, random.nextDouble() * 160 - 80, random.nextDouble() * 360 - 180));
+        }
+        // Станции в одной точке: раньше идёт та, что раньше в списке
+        for (int i = 0; i < 5; i++) {
+            stations.add(station("d" + i, 55.75, 37.62));
+        }
+        // Без координат в индекс не попадают
+        stations.add(station("z0", 0, 37.6));
+        stations.add(station("z1", 55.7, 0));
+
+        located = new ArrayList<>();
+        for (Station station : stations) {
+            if (station.getLatitude() != 0.0 && station.getLongitude() != 0.0) {
+                located.add(station);
+            }
+        }
+        locator = StationLocator.build(stations.subList(0, 200), null, stations.subList(200, stations.size()));
+    }
+
+    @Test
+    public void skipsStationsWithoutCoordinates() {
+        assertEquals(located.size(), locator.size());
+        assertNull(StationLocator.EMPTY.findNearest(55.7, 37.6));
+    }
+
+    @Test
+    public void nearestMatchesLinearScan() {
+        Random random = new Random(7);
+        for (int i = 0; i < QUERIES; i++) {
+            double latitude = i % 5 == 0 ? random.nextDouble() * 180 - 90 : 55.4 + random.nextDouble() * 0.7;
+            double longitude = i % 5 == 0 ? random.nextDouble() * 360 - 180 : 37.2 + random.nextDouble() * 0.8;
+            int k = 1 + i % 8;
+            List<Station> expected = linearScan(latitude, longitude, Double.MAX_VALUE);
+            assertEquals("query " + i, expected.subList(0, k), locator.findNearest(latitude, longitude, k));
+            assertSame("query " + i, expected.get(0), locator.findNearest(latitude, longitude));
+        }
+        List<Station> tied = locator.findNearest(55.75, 37.62, 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("d" + i, tied.get(i).getId());
+        }
+    }
+
+    @Test
+    public void withinRadiusMatchesLinearScan() {
+        Random random = new Random(11);
+        for (int i = 0; i < QUERIES; i++) {
+            double latitude = 55.4 + random.nextDouble() * 0.7;
+            double longitude = 37.2 + random.nextDouble() * 0.8;
+            double radiusKm = i % 10 == 0 ? 5000 : random.nextDouble() * 3;
+            assertEquals("query " + i, linearScan(latitude, longitude, radiusKm),
+                    locator.findWithin(latitude, longitude, radiusKm));
+        }
+    }
+
+    /**
+     * Прежний линейный поиск: станции не дальше radiusKm по формуле гаверсинусов, от ближней к дальней,
+     * при равном расстоянии — в порядке списка.
+     */
+    private static List<Station> linearScan(double latitude, double longitude, double radiusKm) {
+        List<Station> result = new ArrayList<>();
+        for (Station station : located) {
+            if (station.distanceTo(latitude, longitude) <= radiusKm) {
+                result.add(station);
+            }
+        }
+        // Сортировка устойчива, поэтому равные расстояния остаются в порядке списка
+        Collections.sort(result, (a, b) -> Double.compare(a.distanceTo(latitude, longitude),
+                b.distanceTo(latitude, longitude)));
+        return result;
+    }
+
+    private static Station station(String id, double latitude, double longitude) {
+        Station station = new Station(id, id, 0, 0, null, "#000000", null, 0);
+        station.setLatitude(latitude);
+        station.setLongitude(longitude);
+        return station;
+    }
+}
@@ -0,0 +1,360 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class TransitRouterTest {
+    // Множитель времени в весах проверки: больше любого числа перегонов
+    private static final long STATE_LIMIT = 1L << 32;
+    // Значения ползунка изохроны в карточке станции: от 0 до 60 минут
+    private static final int[] ISOCHRONE_MINUTES = {0, 5, 15, 30, 60};
+    // Изохрона пересчитывается на каждое движение ползунка, поэтому поиск должен укладываться в несколько мс
+    private static final long ISOCHRONE_BUDGET_NANOS = 5_000_000L;
+
+    private static TransitGraph graph;
+    private static TransitRouter router;
+
+    @BeforeClass
+    public static void loadMap() throws Exception {
+        graph = MetroMapFixture.load("metromap_1.json").compile();
+        router = new TransitRouter(graph.getNetwork());
+    }
+
+    @Test
+    public void aStarMatchesDijkstraOnEveryStationPair() {
+        int stationCount = graph.getStationCount();
+        int routes = 0;
+        for (int start = 0; start < stationCount; start++) {
+            for (int end = 0; end < stationCount; end++) {
+                int[] dijkstra = router.findRoute(start, end, RouteStrategy.FASTEST, -1,
+                        TransitRouter.Algorithm.DIJKSTRA);
+                int[] aStar = router.findRoute(start, end, RouteStrategy.FASTEST, -1,
+                        TransitRouter.Algorithm.A_STAR);
+                assertArrayEquals(graph.getStation(start).getId() + " -> " + graph.getStation(end).getId()
+                        + ": " + Arrays.toString(dijkstra) + " vs " + Arrays.toString(aStar), dijkstra, aStar);
+                if (aStar != null) {
+                    routes++;
+                }
+            }
+        }
+        assertTrue("expected most station pairs to be connected", routes > stationCount * stationCount / 2);
+    }
+
+    @Test
+    public void fastestRouteAllocatesOnlyThePathAfterWarmup() {
+        Object threads = ManagementFactory.getThreadMXBean();
+        assumeTrue("JVM does not count allocated bytes", threads instanceof ThreadMXBean
+                && ((ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+        ThreadMXBean allocations = (ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+        int stationCount = graph.getStationCount();
+        int[] starts = new int[256];
+        int[] ends = new int[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = (i * 37) % stationCount;
+            ends[i] = (i * 101 + 13) % stationCount;
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < starts.length; i++) {
+                router.findRoute(starts[i], ends[i], RouteStrategy.FASTEST, -1);
+            }
+        }
+
+        long pathBytes = 0;
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < starts.length; i++) {
+            int[] path = router.findRoute(starts[i], ends[i], RouteStrategy.FASTEST, -1);
+            if (path != null) {
+                // заголовок массива и выравнивание до 8 байт — с запасом для любой раскладки объектов
+                pathBytes += 24 + 4L * path.length + 8;
+            }
+        }
+        long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+        // Рабочие массивы одного запроса — несколько массивов размером с граф, больше всех путей вместе
+        assertTrue("allocated " + allocated + " bytes for " + starts.length + " queries, paths take at most "
+                + pathBytes, allocated <= pathBytes + 1024);
+    }
+
+    @Test
+    public void paretoRoutesMatchBruteForceFrontOnEveryStationPair() {
+        int stationCount = graph.getStationCount();
+        int levels = TransitRouter.MAX_TRANSFERS + 1;
+        for (int start = 0; start < stationCount; start++) {
+            long[] weights = layeredWeights(start);
+            for (int end = 0; end < stationCount; end++) {
+                String pair = graph.getStation(start).getId() + " -> " + graph.getStation(end).getId();
+                // Лучший вес с ровно t пересадками; в фронт входит t, если он быстрее всех с меньшим числом
+                List<long[]> front = new ArrayList<>();
+                long bestWithFewer = Long.MAX_VALUE;
+                for (int transfers = 0; transfers < levels; transfers++) {
+                    long best = Long.MAX_VALUE;
+                    for (int state = graph.getFirstState(end); state < graph.getStateLimit(end); state++) {
+                        best = Math.min(best, weights[state * levels + transfers]);
+                    }
+                    if (best < bestWithFewer) {
+                        front.add(0, new long[]{best, transfers});
+                        bestWithFewer = best;
+                    }
+                }
+
+                List<int[]> routes = router.findParetoRoutes(start, end, -1, 0);
+                assertEquals(pair + " route count", front.size(), routes.size());
+                for (int i = 0; i < routes.size(); i++) {
+                    int[] route = routes.get(i);
+                    assertEquals(pair + " start", start, graph.getStateStation(route[0]));
+                    assertEquals(pair + " end", end, graph.getStateStation(route[route.length - 1]));
+                    assertEquals(pair + " weight of route " + i, front.get(i)[0], weight(route));
+                    assertEquals(pair + " transfers of route " + i, front.get(i)[1], transfers(route));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void alternativeRoutesRespectTimeLimitAndOverlap() {
+        int stationCount = graph.getStationCount();
+        float maxTimeRatio = 1.5f;
+        float maxOverlap = 0.67f;
+        int found = 0;
+        for (int start = 0; start < stationCount; start += 3) {
+            for (int end = 0; end < stationCount; end += 5) {
+                List<int[]> known = router.findParetoRoutes(start, end, -1, maxTimeRatio);
+                if (known.isEmpty() || start == end) {
+                    continue;
+                }
+                String pair = graph.getStation(start).getId() + " -> " + graph.getStation(end).getId();
+                int fastestTime = routeTime(known.get(0));
+                List<int[]> accepted = new ArrayList<>(known);
+                for (int[] route : router.findAlternativeRoutes(start, end, known, 3, -1, maxTimeRatio, maxOverlap)) {
+                    assertEquals(pair + " start", start, graph.getStateStation(route[0]));
+                    assertEquals(pair + " end", end, graph.getStateStation(route[route.length - 1]));
+                    int time = routeTime(route);
+                    assertTrue(pair + " time " + time, time <= Math.floor(fastestTime * (double) maxTimeRatio));
+                    for (int[] other : accepted) {
+                        assertFalse(pair + " duplicates a shown route", Arrays.equals(route, other));
+                        if (time > 0) {
+                            assertTrue(pair + " overlaps a shown route",
+                                    sharedTime(route, other) <= time * maxOverlap);
+                        }
+                    }
+                    accepted.add(route);
+                    found++;
+                }
+            }
+        }
+        assertTrue("expected some alternatives", found > 0);
+    }
+
+    @Test
+    public void alternativeRoutesRespectMaxTime() {
+        int stationCount = graph.getStationCount();
+        int found = 0;
+        for (int start = 0; start < stationCount; start += 3) {
+            for (int end = 0; end < stationCount; end += 5) {
+                List<int[]> known = router.findParetoRoutes(start, end, -1, 0);
+                if (known.isEmpty() || start == end) {
+                    continue;
+                }
+                // Ограничение строже, чем maxTimeRatio: без него часть альтернатив была бы медленнее
+                int maxTime = routeTime(known.get(0)) + 2;
+                for (int[] route : router.findAlternativeRoutes(start, end, known.subList(0, 1), 3, maxTime, 2f,
+                        0.67f)) {
+                    String pair = graph.getStation(start).getId() + " -> " + graph.getStation(end).getId();
+                    assertTrue(pair + " time " + routeTime(route), routeTime(route) <= maxTime);
+                    found++;
+                }
+            }
+        }
+        assertTrue("expected some alternatives", found > 0);
+    }
+
+    @Test
+    public void travelTimesMatchBoundedDijkstra() {
+        int stationCount = graph.getStationCount();
+        int reached = 0;
+        for (int start = 0; start < stationCount; start += stationCount / 7 + 1) {
+            for (int maxTime : ISOCHRONE_MINUTES) {
+                int[] expected = boundedTravelTimes(start, maxTime);
+                assertArrayEquals(graph.getStation(start).getId() + " within " + maxTime + " min",
+                        expected, router.findTravelTimes(start, maxTime));
+                for (int time : expected) {
+                    if (time > 0) {
+                        reached++;
+                    }
+                }
+            }
+        }
+        assertTrue("expected isochrones beyond the start stations", reached > 0);
+    }
+
+    @Test
+    public void travelTimesForTheLongestSliderValueTakeAFewMilliseconds() {
+        int stationCount = graph.getStationCount();
+        int maxTime = ISOCHRONE_MINUTES[ISOCHRONE_MINUTES.length - 1];
+        for (int round = 0; round < 5; round++) {
+            for (int start = 0; start < stationCount; start++) {
+                router.findTravelTimes(start, maxTime);
+            }
+        }
+
+        long[] nanos = new long[stationCount];
+        for (int start = 0; start < stationCount; start++) {
+            long before = System.nanoTime();
+            router.findTravelTimes(start, maxTime);
+            nanos[start] = System.nanoTime() - before;
+        }
+        Arrays.sort(nanos);
+        // Медиана: отдельные замеры может растянуть сборщик мусора или планировщик
+        long median = nanos[stationCount / 2];
+        assertTrue("median isochrone search took " + median / 1000 + " µs",
+                median <= ISOCHRONE_BUDGET_NANOS);
+    }
+
+    /**
+     * Дейкстра по состояниям, не идущая дальше maxTime: время до каждой станции — минимум по её состояниям.
+     */
+    private static int[] boundedTravelTimes(int start, int maxTime) {
+        int[] stateTimes = new int[graph.getStateCount()];
+        Arrays.fill(stateTimes, Integer.MAX_VALUE);
+        PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Integer.compare(a[0], b[0]));
+        for (int state = graph.getFirstState(start); state < graph.getStateLimit(start); state++) {
+            stateTimes[state] = 0;
+            queue.add(new int[]{0, state});
+        }
+        while (!queue.isEmpty()) {
+            int[] entry = queue.poll();
+            int state = entry[1];
+            if (entry[0] != stateTimes[state]) {
+                continue;
+            }
+            for (int edge = graph.getEdgeStart(state); edge < graph.getEdgeEnd(state); edge++) {
+                int next = graph.getEdgeTarget(edge);
+                int nextTime = entry[0] + graph.getEdgeTime(edge);
+                if (nextTime <= maxTime && nextTime < stateTimes[next]) {
+                    stateTimes[next] = nextTime;
+                    queue.add(new int[]{nextTime, next});
+                }
+            }
+        }
+        int[] stationTimes = new int[graph.getStationCount()];
+        Arrays.fill(stationTimes, -1);
+        for (int state = 0; state < stateTimes.length; state++) {
+            int station = graph.getStateStation(state);
+            if (stateTimes[state] != Integer.MAX_VALUE
+                    && (stationTimes[station] < 0 || stateTimes[state] < stationTimes[station])) {
+                stationTimes[station] = stateTimes[state];
+            }
+        }
+        return stationTimes;
+    }
+
+    /**
+     * Дейкстра по меткам (состояние, пересадки) без отсечений: вес каждой метки от начальной станции.
+     * Вес — время * STATE_LIMIT + число перегонов: тот же порядок, что у поиска с его hopScale.
+     */
+    private static long[] layeredWeights(int start) {
+        int levels = TransitRouter.MAX_TRANSFERS + 1;
+        long[] weights = new long[graph.getStateCount() * levels];
+        Arrays.fill(weights, Long.MAX_VALUE);
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> Long.compare(a[0], b[0]));
+        for (int state = graph.getFirstState(start); state < graph.getStateLimit(start); state++) {
+            weights[state * levels] = 0;
+            queue.add(new long[]{0, state * levels});
+        }
+        while (!queue.isEmpty()) {
+            long[] entry = queue.poll();
+            int label = (int) entry[1];
+            if (entry[0] != weights[label]) {
+                continue;
+            }
+            int state = label / levels;
+            int transfers = label % levels;
+            for (int edge = graph.getEdgeStart(state); edge < graph.getEdgeEnd(state); edge++) {
+                int next = graph.getEdgeTarget(edge);
+                int nextTransfers = graph.getNetwork().isLineChange(state, next)
+                        ? Math.min(transfers + 1, TransitRouter.MAX_TRANSFERS) : transfers;
+                long nextWeight = entry[0] + (long) graph.getEdgeTime(edge) * STATE_LIMIT + 1;
+                int nextLabel = next * levels + nextTransfers;
+                if (nextWeight < weights[nextLabel]) {
+                    weights[nextLabel] = nextWeight;
+                    queue.add(new long[]{nextWeight, nextLabel});
+                }
+            }
+        }
+        return weights;
+    }
+
+    private static long weight(int[] route) {
+        return (long) routeTime(route) * STATE_LIMIT + route.length - 1;
+    }
+
+    private static int transfers(int[] route) {
+        int transfers = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            if (graph.getNetwork().isLineChange(route[i], route[i + 1])) {
+                transfers = Math.min(transfers + 1, TransitRouter.MAX_TRANSFERS);
+            }
+        }
+        return transfers;
+    }
+
+    // Время маршрута на рёбрах, по которым проходит другой маршрут
+    private static int sharedTime(int[] route, int[] other) {
+        BitSet otherEdges = new BitSet();
+        for (int i = 0; i + 1 < other.length; i++) {
+            otherEdges.set(fastestEdge(other[i], other[i + 1]));
+        }
+        int shared = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            int edge = fastestEdge(route[i], route[i + 1]);
+            if (otherEdges.get(edge)) {
+                shared += graph.getEdgeTime(edge);
+            }
+        }
+        return shared;
+    }
+
+    private static int fastestEdge(int from, int to) {
+        int best = -1;
+        for (int edge = graph.getEdgeStart(from); edge < graph.getEdgeEnd(from); edge++) {
+            if (graph.getEdgeTarget(edge) == to && (best < 0 || graph.getEdgeTime(edge) < graph.getEdgeTime(best))) {
+                best = edge;
+            }
+        }
+        return best;
+    }
+
+    // Время маршрута по самым быстрым рёбрам между соседними состояниями
+    private static int routeTime(int[] route) {
+        int time = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            int best = Integer.MAX_VALUE;
+            for (int edge = graph.getEdgeStart(route[i]); edge < graph.getEdgeEnd(route[i]); edge++) {
+                if (graph.getEdgeTarget(edge) == route[i + 1]) {
+                    best = Math.min(best, graph.getEdgeTime(edge));
+                }
+            }
+            time += best;
+        }
+        return time;
+    }
+}
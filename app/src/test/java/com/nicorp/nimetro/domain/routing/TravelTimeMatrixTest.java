@@ -0,0 +1,99 @@
+package com.nicorp.nimetro.domain.routing;
+
+import com.nicorp.nimetro.domain.entities.Line;
+import com.nicorp.nimetro.domain.entities.Station;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TravelTimeMatrixTest {
+    // Слой матрицы — первые линии метро; поиск от его станций всё равно идёт по всему графу
+    private static final int LAYER_LINES = 3;
+
+    private static TransitGraph graph;
+    private static TransitRouter router;
+    private static List<Station> layer;
+    private static TravelTimeMatrix matrix;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void buildMatrix() throws Exception {
+        MetroMapFixture fixture = MetroMapFixture.load("metromap_1.json");
+        graph = fixture.compile();
+        router = new TransitRouter(graph.getNetwork());
+        layer = new ArrayList<>();
+        for (Line line : fixture.lines.subList(0, LAYER_LINES)) {
+            layer.addAll(line.getStations());
+        }
+        matrix = TravelTimeMatrix.build(graph, layer);
+    }
+
+    @Test
+    public void timesMatchFastestRoutes() {
+        assertSameTimes(matrix);
+    }
+
+    @Test
+    public void savedMatrixIsMappedBackWithTheSameTimes() throws IOException {
+        TravelTimeMatrix mapped = TravelTimeMatrix.map(write(matrix), graph, layer);
+        assertNotNull(mapped);
+        assertSameTimes(mapped);
+    }
+
+    @Test
+    public void savedMatrixIsRejectedForAnotherGraph() throws IOException {
+        TransitGraph other = MetroMapFixture.load("metromap_2.json").compile();
+        assertNull(TravelTimeMatrix.map(write(matrix), other, layer));
+    }
+
+    @Test
+    public void savedMatrixIsRejectedForAnotherLayer() throws IOException {
+        List<Station> otherLayer = new ArrayList<>();
+        for (Station station : layer) {
+            if (!station.getId().equals(layer.get(0).getId())) {
+                otherLayer.add(station);
+            }
+        }
+        assertNull(TravelTimeMatrix.map(write(matrix), graph, otherLayer));
+    }
+
+    private File write(TravelTimeMatrix source) throws IOException {
+        File file = folder.newFile("travel_times.bin");
+        try (OutputStream out = new FileOutputStream(file)) {
+            source.writeTo(out);
+        }
+        return file;
+    }
+
+    private static void assertSameTimes(TravelTimeMatrix tested) {
+        for (Station from : layer) {
+            int start = graph.getStationIndex(from.getId());
+            for (Station to : layer) {
+                int end = graph.getStationIndex(to.getId());
+                if (start == end) {
+                    continue;
+                }
+                int[] route = router.findRoute(start, end, RouteStrategy.FASTEST, -1, TransitRouter.Algorithm.DIJKSTRA);
+                int expected = route != null ? router.routeTime(route) : -1;
+                assertEquals(from.getId() + " -> " + to.getId(), expected, tested.getTime(start, end));
+            }
+        }
+    }
+}
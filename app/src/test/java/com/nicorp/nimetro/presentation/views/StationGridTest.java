@@ -0,0 +1,134 @@
+package com.nicorp.nimetro.presentation.views;
+
+import com.nicorp.nimetro.domain.entities.Station;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StationGridTest {
+    private static final int QUERIES = 2000;
+
+    private static List<Station> stations;
+    private static StationGrid grid;
+
+    @BeforeClass
+    public static void buildGrid() {
+        Random random = new Random(3);
+        stations = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            stations.add(new Station("s" + i, "s" + i, random.nextInt(4000) - 500, random.nextInt(3000) - 200,
+                    null, "#000000", null, 0));
+        }
+        // Станции в одной точке и вплотную: побеждает первая по списку
+        for (int i = 0; i < 4; i++) {
+            stations.add(new Station("d" + i, "d" + i, 1000 + i % 2, 1000, null, "#000000", null, 0));
+        }
+        grid = StationGrid.build(stations);
+    }
+
+    @Test
+    public void emptyGridFindsNothing() {
+        assertNull(StationGrid.EMPTY.findAt(0, 0, 100));
+        List<Station> found = new ArrayList<>();
+        StationGrid.build(null).findInRect(-100, -100, 100, 100, found);
+        assertTrue(found.isEmpty());
+    }
+
+    @Test
+    public void findAtMatchesLinearScan() {
+        Random random = new Random(5);
+        for (int i = 0; i < QUERIES; i++) {
+            float x = random.nextFloat() * 4400 - 700;
+            float y = random.nextFloat() * 3400 - 400;
+            float radius = 5 + random.nextFloat() * 60;
+            assertSame("query " + i, linearFindAt(x, y, radius), grid.findAt(x, y, radius));
+        }
+        assertEquals("d0", grid.findAt(1000.5f, 1000, 10).getId());
+    }
+
+    @Test
+    public void findInRectMatchesLinearScan() {
+        Random random = new Random(9);
+        List<Station> found = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            float left = random.nextFloat() * 4400 - 700;
+            float top = random.nextFloat() * 3400 - 400;
+            float right = left + random.nextFloat() * (i % 10 == 0 ? 5000 : 400);
+            float bottom = top + random.nextFloat() * (i % 10 == 0 ? 5000 : 400);
+            found.clear();
+            grid.findInRect(left, top, right, bottom, found);
+            assertEquals("query " + i, linearFindInRect(left, top, right, bottom), found);
+        }
+        found.clear();
+        grid.findInRect(10, 10, 0, 0, found);
+        assertEquals(Collections.emptyList(), found);
+    }
+
+    @Test
+    public void movedStationsAreFoundAtTheirNewPlace() {
+        Random random = new Random(11);
+        List<Station> moving = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            moving.add(new Station("m" + i, "m" + i, random.nextInt(2000), random.nextInt(2000),
+                    null, "#000000", null, 0));
+        }
+        StationGrid movingGrid = StationGrid.build(moving);
+        List<Station> found = new ArrayList<>();
+        for (int i = 0; i < QUERIES; i++) {
+            Station station = moving.get(random.nextInt(moving.size()));
+            // Иногда уводим станцию за исходные границы сетки
+            int spread = i % 10 == 0 ? 3000 : 2000;
+            station.setX(random.nextInt(spread) - (spread - 2000) / 2);
+            station.setY(random.nextInt(spread) - (spread - 2000) / 2);
+            assertTrue(movingGrid.move(station));
+
+            float x = station.getX() + random.nextFloat() * 20 - 10;
+            float y = station.getY() + random.nextFloat() * 20 - 10;
+            assertSame("move " + i, linearFindAt(moving, x, y, 15), movingGrid.findAt(x, y, 15));
+            found.clear();
+            movingGrid.findInRect(x - 300, y - 300, x + 300, y + 300, found);
+            assertEquals("move " + i, linearFindInRect(moving, x - 300, y - 300, x + 300, y + 300), found);
+        }
+        assertFalse(movingGrid.move(stations.get(0)));
+    }
+
+    // Прежний линейный проход по списку станций слоя
+    private static Station linearFindAt(float x, float y, float radius) {
+        return linearFindAt(stations, x, y, radius);
+    }
+
+    private static Station linearFindAt(List<Station> stations, float x, float y, float radius) {
+        for (Station station : stations) {
+            if (Math.abs(station.getX() - x) < radius && Math.abs(station.getY() - y) < radius) {
+                return station;
+            }
+        }
+        return null;
+    }
+
+    private static List<Station> linearFindInRect(float left, float top, float right, float bottom) {
+        return linearFindInRect(stations, left, top, right, bottom);
+    }
+
+    private static List<Station> linearFindInRect(List<Station> stations, float left, float top,
+                                                  float right, float bottom) {
+        List<Station> result = new ArrayList<>();
+        for (Station station : stations) {
+            if (station.getX() >= left && station.getX() <= right && station.getY() >= top && station.getY() <= bottom) {
+                result.add(station);
+            }
+        }
+        return result;
+    }
+}
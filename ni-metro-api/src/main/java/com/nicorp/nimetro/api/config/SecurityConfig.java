@@ -3,6 +3,7 @@ package com.nicorp.nimetro.api.config;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -31,6 +32,8 @@ public class SecurityConfig {
             .cors(cors -> cors.configurationSource(corsConfigurationSource()))
             .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
+                // A batch keeps routing threads busy for a long time, so it is for API key holders only
+                .requestMatchers(HttpMethod.POST, "/api/v1/maps/*/routes:batch").authenticated()
                 // Public endpoints
                 .requestMatchers("/api/v1/maps/**").permitAll()
                 .requestMatchers("/api/v1/notifications/**").permitAll()
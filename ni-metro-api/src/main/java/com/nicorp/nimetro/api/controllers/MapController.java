@@ -1,13 +1,19 @@
 package com.nicorp.nimetro.api.controllers;
 
+import com.nicorp.nimetro.api.dto.BatchRouteRequest;
 import com.nicorp.nimetro.api.dto.MapListItemResponse;
 import com.nicorp.nimetro.api.dto.MapResponse;
+import com.nicorp.nimetro.api.dto.RoutePairRequest;
 import com.nicorp.nimetro.api.entities.MapEntity;
+import com.nicorp.nimetro.api.services.BatchRouteService;
 import com.nicorp.nimetro.api.services.MapService;
+import com.nicorp.nimetro.api.services.RouteGraphCache;
+import com.nicorp.nimetro.routing.TransitRouter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.UUID;
@@ -19,6 +25,8 @@ import java.util.stream.Collectors;
 public class MapController {
     
     private final MapService mapService;
+    private final BatchRouteService batchRouteService;
+    private final RouteGraphCache routeGraphCache;
     
     @GetMapping
     public ResponseEntity<List<MapListItemResponse>> getAllMaps() {
@@ -44,6 +52,26 @@ public class MapController {
             .orElse(ResponseEntity.notFound().build());
     }
     
+    /**
+     * Computes routes for many (from, to, strategy) pairs and streams them as NDJSON in request order.
+     */
+    @PostMapping(value = "/{id}/routes:batch", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> findRoutesBatch(@PathVariable UUID id, @RequestBody BatchRouteRequest request) {
+        List<RoutePairRequest> pairs = request != null ? request.getPairs() : null;
+        if (pairs == null || pairs.isEmpty() || pairs.size() > batchRouteService.getMaxPairs()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return mapService.getMapById(id)
+            .map(map -> {
+                TransitRouter router = batchRouteService.prepareRouter(map);
+                StreamingResponseBody body = out -> batchRouteService.writeRoutes(router, pairs, out);
+                return ResponseEntity.ok()
+                    .header("X-Map-Version", RouteGraphCache.versionToken(map))
+                    .body(body);
+            })
+            .orElse(ResponseEntity.notFound().build());
+    }
+    
     @PostMapping
     public ResponseEntity<MapResponse> createMap(@RequestBody MapEntity map) {
         MapEntity created = mapService.createMap(map);
@@ -61,6 +89,7 @@ public class MapController {
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteMap(@PathVariable UUID id) {
         if (mapService.deleteMap(id)) {
+            routeGraphCache.evict(id);
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -0,0 +1,16 @@
+package com.nicorp.nimetro.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchRouteRequest {
+    private List<RoutePairRequest> pairs;
+}
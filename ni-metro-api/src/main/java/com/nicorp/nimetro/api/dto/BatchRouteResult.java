@@ -0,0 +1,27 @@
+package com.nicorp.nimetro.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchRouteResult {
+    private Integer index;
+    private String from;
+    private String to;
+    private String strategy;
+    private Boolean found;
+    private Integer time;
+    private Integer transfers;
+    private List<String> stations;
+    private List<String> lines;
+    private String error;
+}
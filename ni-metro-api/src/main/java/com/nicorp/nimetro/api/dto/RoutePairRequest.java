@@ -0,0 +1,16 @@
+package com.nicorp.nimetro.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoutePairRequest {
+    private String from;
+    private String to;
+    private String strategy;
+}
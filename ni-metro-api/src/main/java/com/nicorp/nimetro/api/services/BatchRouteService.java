@@ -0,0 +1,113 @@
+package com.nicorp.nimetro.api.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nicorp.nimetro.api.dto.BatchRouteResult;
+import com.nicorp.nimetro.api.dto.RoutePairRequest;
+import com.nicorp.nimetro.api.entities.MapEntity;
+import com.nicorp.nimetro.routing.RoutePath;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitRouter;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Computes many routes over one map and writes them as NDJSON, one result object per line.
+ *
+ * Pairs are solved in chunks on a dedicated fork-join pool, so a large batch does not occupy the
+ * common pool used by the rest of the application. Each chunk is written and flushed as soon as it
+ * is done, in request order, so the client can consume results while later chunks are computed.
+ */
+@Service
+@RequiredArgsConstructor
+public class BatchRouteService {
+    
+    private static final int CHUNK_SIZE = 512;
+    private static final byte NEWLINE = '\n';
+    
+    private final RouteGraphCache routeGraphCache;
+    private final ObjectMapper objectMapper;
+    private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    
+    @Getter
+    @Value("${routing.batch.max-pairs:1000}")
+    private int maxPairs;
+    
+    /**
+     * Compiles (or takes from the cache) the map's router before anything is streamed, so a broken
+     * map fails the request instead of the middle of the response.
+     */
+    public TransitRouter prepareRouter(MapEntity map) {
+        return routeGraphCache.getRouter(map);
+    }
+    
+    public void writeRoutes(TransitRouter router, List<RoutePairRequest> pairs, OutputStream out) throws IOException {
+        for (int chunkStart = 0; chunkStart < pairs.size(); chunkStart += CHUNK_SIZE) {
+            BatchRouteResult[] results = solveChunk(router, pairs, chunkStart, Math.min(pairs.size(), chunkStart + CHUNK_SIZE));
+            for (BatchRouteResult result : results) {
+                out.write(objectMapper.writeValueAsBytes(result));
+                out.write(NEWLINE);
+            }
+            out.flush();
+        }
+    }
+    
+    private BatchRouteResult[] solveChunk(TransitRouter router, List<RoutePairRequest> pairs, int from, int to) throws IOException {
+        BatchRouteResult[] results = new BatchRouteResult[to - from];
+        try {
+            // The router keeps its working arrays per thread, so the pool's workers share it as is
+            pool.submit(() -> IntStream.range(0, results.length).parallel().forEach(i ->
+                results[i] = solve(router, from + i, pairs.get(from + i))
+            )).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch routing interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Batch routing failed", e.getCause());
+        }
+        return results;
+    }
+    
+    private BatchRouteResult solve(TransitRouter router, int index, RoutePairRequest pair) {
+        BatchRouteResult.BatchRouteResultBuilder result = BatchRouteResult.builder().index(index);
+        if (pair == null) {
+            return result.found(false).error("Empty pair").build();
+        }
+        result.from(pair.getFrom()).to(pair.getTo());
+        RouteStrategy strategy;
+        try {
+            strategy = RouteStrategy.parse(pair.getStrategy());
+        } catch (IllegalArgumentException e) {
+            return result.strategy(pair.getStrategy()).found(false).error("Unknown strategy").build();
+        }
+        result.strategy(strategy.name());
+        if (pair.getFrom() == null || pair.getTo() == null) {
+            return result.found(false).error("Both from and to are required").build();
+        }
+        RoutePath path = router.findRoute(pair.getFrom(), pair.getTo(), strategy);
+        if (path == null) {
+            return result.found(false).build();
+        }
+        return result
+            .found(true)
+            .time(path.getTime())
+            .transfers(path.getTransfers())
+            .stations(path.getStationIds())
+            .lines(path.getLineIds())
+            .build();
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
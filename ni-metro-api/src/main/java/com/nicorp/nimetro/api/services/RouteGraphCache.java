@@ -0,0 +1,49 @@
+package com.nicorp.nimetro.api.services;
+
+import com.nicorp.nimetro.api.entities.MapEntity;
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.TransitRouter;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routers over compiled graphs by map id.
+ *
+ * A router is safe to share between request threads, so one per map also keeps its landmark
+ * bounds computed once. An entry is tagged with the map's version and update time, so an edited map
+ * is recompiled on its next request and the stale router is replaced rather than kept next to the new one.
+ */
+@Component
+public class RouteGraphCache {
+    
+    private final Map<UUID, CachedGraph> graphs = new ConcurrentHashMap<>();
+    
+    public TransitRouter getRouter(MapEntity map) {
+        String token = versionToken(map);
+        CachedGraph cached = graphs.get(map.getId());
+        if (cached != null && cached.token().equals(token)) {
+            return cached.router();
+        }
+        // compute keeps concurrent first requests for a map from compiling it twice
+        return graphs.compute(map.getId(), (id, current) ->
+            current != null && current.token().equals(token)
+                ? current
+                : new CachedGraph(token, new TransitRouter(MapParser.parse(map.getData())))
+        ).router();
+    }
+    
+    public void evict(UUID mapId) {
+        graphs.remove(mapId);
+    }
+    
+    public static String versionToken(MapEntity map) {
+        return Objects.toString(map.getVersion(), "") + "@" + Objects.toString(map.getUpdatedAt(), "");
+    }
+    
+    private record CachedGraph(String token, TransitRouter router) {
+    }
+}
@@ -0,0 +1,180 @@
+package com.nicorp.nimetro.api.controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nicorp.nimetro.api.config.SecurityConfig;
+import com.nicorp.nimetro.api.dto.BatchRouteRequest;
+import com.nicorp.nimetro.api.dto.BatchRouteResult;
+import com.nicorp.nimetro.api.dto.RoutePairRequest;
+import com.nicorp.nimetro.api.entities.MapEntity;
+import com.nicorp.nimetro.api.entities.UserEntity;
+import com.nicorp.nimetro.api.services.ApiKeyService;
+import com.nicorp.nimetro.api.services.BatchRouteService;
+import com.nicorp.nimetro.api.services.MapService;
+import com.nicorp.nimetro.api.services.RouteGraphCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(MapController.class)
+@Import({SecurityConfig.class, BatchRouteService.class, RouteGraphCache.class})
+class MapControllerBatchTest {
+    
+    private static final String API_KEY = "test-key";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @MockBean
+    private MapService mapService;
+
+    // Required by the API key filter the security config installs
+    @MockBean
+    private ApiKeyService apiKeyService;
+    
+    @BeforeEach
+    void setUpApiKey() {
+        UserEntity user = UserEntity.builder().username("editor").role(UserEntity.UserRole.editor).build();
+        when(apiKeyService.getUserByApiKey(API_KEY)).thenReturn(Optional.of(user));
+    }
+
+    @Test
+    void streamsOneResultPerPairInRequestOrder() throws Exception {
+        MapEntity map = oneLineMap();
+        when(mapService.getMapById(map.getId())).thenReturn(Optional.of(map));
+        BatchRouteRequest batch = BatchRouteRequest.builder()
+            .pairs(List.of(
+                RoutePairRequest.builder().from("A").to("C").strategy("fastest").build(),
+                RoutePairRequest.builder().from("A").to("Z").build()))
+            .build();
+
+        MvcResult started = mockMvc.perform(post("/api/v1/maps/{id}/routes:batch", map.getId())
+                .header("X-API-Key", API_KEY)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(batch)))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        String body = mockMvc.perform(asyncDispatch(started))
+            .andExpect(status().isOk())
+            .andExpect(header().string("X-Map-Version", RouteGraphCache.versionToken(map)))
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+
+        BatchRouteResult found = objectMapper.readValue(lines[0], BatchRouteResult.class);
+        assertEquals(0, found.getIndex());
+        assertTrue(found.getFound());
+        assertEquals("FASTEST", found.getStrategy());
+        assertEquals(4, found.getTime());
+        assertEquals(0, found.getTransfers());
+        assertEquals(List.of("A", "B", "C"), found.getStations());
+
+        BatchRouteResult unknown = objectMapper.readValue(lines[1], BatchRouteResult.class);
+        assertEquals(1, unknown.getIndex());
+        assertEquals("Z", unknown.getTo());
+        assertFalse(unknown.getFound());
+        assertNull(unknown.getStations());
+        assertNull(unknown.getError());
+    }
+
+    @Test
+    void rejectsEmptyBatch() throws Exception {
+        mockMvc.perform(post("/api/v1/maps/{id}/routes:batch", UUID.randomUUID())
+                .header("X-API-Key", API_KEY)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"pairs\":[]}"))
+            .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void rejectsBatchOverPairLimit() throws Exception {
+        List<RoutePairRequest> pairs = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            pairs.add(RoutePairRequest.builder().from("A").to("C").build());
+        }
+        mockMvc.perform(post("/api/v1/maps/{id}/routes:batch", UUID.randomUUID())
+                .header("X-API-Key", API_KEY)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(BatchRouteRequest.builder().pairs(pairs).build())))
+            .andExpect(status().isBadRequest());
+    }
+    
+    @Test
+    void rejectsBatchWithoutApiKey() throws Exception {
+        MapEntity map = oneLineMap();
+        when(mapService.getMapById(map.getId())).thenReturn(Optional.of(map));
+        BatchRouteRequest batch = BatchRouteRequest.builder()
+            .pairs(List.of(RoutePairRequest.builder().from("A").to("C").build()))
+            .build();
+        mockMvc.perform(post("/api/v1/maps/{id}/routes:batch", map.getId())
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(batch)))
+            .andExpect(status().isForbidden());
+    }
+
+    /**
+     * Metro line 1: A - B - C, 2 minutes between neighbours.
+     */
+    private static MapEntity oneLineMap() {
+        List<Object> stations = new ArrayList<>();
+        stations.add(station("A", neighbor("B")));
+        stations.add(station("B", neighbor("A"), neighbor("C")));
+        stations.add(station("C", neighbor("B")));
+        Map<String, Object> line = new HashMap<>();
+        line.put("id", "1");
+        line.put("stations", stations);
+        Map<String, Object> metro = new HashMap<>();
+        metro.put("lines", List.of(line));
+        Map<String, Object> data = new HashMap<>();
+        data.put("metro_map", metro);
+        return MapEntity.builder()
+            .id(UUID.randomUUID())
+            .name("Test")
+            .fileName("test.json")
+            .version("1")
+            .data(data)
+            .updatedAt(LocalDateTime.of(2024, 1, 1, 0, 0))
+            .build();
+    }
+
+    private static Map<String, Object> station(String id, Object... neighbors) {
+        Map<String, Object> station = new HashMap<>();
+        station.put("id", id);
+        station.put("neighbors", List.of(neighbors));
+        return station;
+    }
+
+    private static List<Object> neighbor(String id) {
+        return List.of(id, 2);
+    }
+}
@@ -0,0 +1,37 @@
+package com.nicorp.nimetro.benchmarks;
+
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+
+/**
+ * All-pairs sweep: travel times from every station to every other, one full search per source
+ * station.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class AllPairsBenchmark {
+    private TransitRouter router;
+
+    @Setup
+    public void setUp() throws IOException {
+        router = new TransitRouter(MapParser.parse(BenchmarkMaps.parseJson(BenchmarkMaps.readMapJson())));
+    }
+
+    @Benchmark
+    public void travelTimes(Blackhole blackhole) {
+        int stationCount = router.getNetwork().getStationCount();
+        for (int station = 0; station < stationCount; station++) {
+            blackhole.consume(router.findTravelTimes(station, Integer.MAX_VALUE - 1));
+        }
+    }
+}
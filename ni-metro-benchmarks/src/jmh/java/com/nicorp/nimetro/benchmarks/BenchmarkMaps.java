@@ -0,0 +1,38 @@
+package com.nicorp.nimetro.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+/**
+ * The map every benchmark runs against: {@code app/src/main/assets/raw/metromap_1.json}, passed
+ * in by the build as the {@code nimetro.map} system property.
+ */
+final class BenchmarkMaps {
+    static final String MAP_PROPERTY = "nimetro.map";
+
+    private static final Gson GSON = new Gson();
+    private static final Type MAP_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+
+    private BenchmarkMaps() {
+    }
+
+    static String readMapJson() throws IOException {
+        String path = System.getProperty(MAP_PROPERTY);
+        if (path == null) {
+            throw new IllegalStateException("Set -D" + MAP_PROPERTY + " to the map JSON file");
+        }
+        return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+    }
+
+    static Map<String, Object> parseJson(String json) {
+        return GSON.fromJson(json, MAP_TYPE);
+    }
+}
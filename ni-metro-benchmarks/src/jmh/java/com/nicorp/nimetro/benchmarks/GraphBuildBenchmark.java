@@ -0,0 +1,34 @@
+package com.nicorp.nimetro.benchmarks;
+
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.TransitNetwork;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Adjacency build alone: neighbor and transfer resolution and the CSR arrays, from an already
+ * parsed JSON tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class GraphBuildBenchmark {
+    private Map<String, Object> mapData;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapData = BenchmarkMaps.parseJson(BenchmarkMaps.readMapJson());
+    }
+
+    @Benchmark
+    public TransitNetwork buildGraph() {
+        return MapParser.parse(mapData);
+    }
+}
@@ -0,0 +1,54 @@
+package com.nicorp.nimetro.benchmarks;
+
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Isochrone queries as the station card's reachability slider sends them: one time-bounded search
+ * per slider value, over a fixed set of start stations from a seeded random. The slider goes up to
+ * 60 minutes and recomputes on every move, so a query has to stay within a few milliseconds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class IsochroneBenchmark {
+    private static final int START_COUNT = 64;
+    private static final long START_SEED = 42;
+
+    @Param({"15", "30", "60"})
+    public int maxTime;
+
+    private TransitRouter router;
+    private int[] starts;
+
+    @Setup
+    public void setUp() throws IOException {
+        router = new TransitRouter(MapParser.parse(BenchmarkMaps.parseJson(BenchmarkMaps.readMapJson())));
+        starts = new int[START_COUNT];
+        Random random = new Random(START_SEED);
+        for (int i = 0; i < START_COUNT; i++) {
+            starts[i] = random.nextInt(router.getNetwork().getStationCount());
+        }
+    }
+
+    /** Reported time is per query. */
+    @Benchmark
+    @OperationsPerInvocation(START_COUNT)
+    public void travelTimes(Blackhole blackhole) {
+        for (int start : starts) {
+            blackhole.consume(router.findTravelTimes(start, maxTime));
+        }
+    }
+}
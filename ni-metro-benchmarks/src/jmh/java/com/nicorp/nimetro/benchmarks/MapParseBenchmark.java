@@ -0,0 +1,41 @@
+package com.nicorp.nimetro.benchmarks;
+
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.TransitNetwork;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Full map load from JSON text: the equivalent of the app's {@code loadMapData} followed by
+ * {@code addNeighbors} and the graph compilation, as done by {@link MapParser}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+public class MapParseBenchmark {
+    private String json;
+
+    @Setup
+    public void setUp() throws IOException {
+        json = BenchmarkMaps.readMapJson();
+    }
+
+    /** JSON text to maps and lists only. */
+    @Benchmark
+    public Map<String, Object> parseJson() {
+        return BenchmarkMaps.parseJson(json);
+    }
+
+    /** JSON text to the routing graph. */
+    @Benchmark
+    public TransitNetwork parseMap() {
+        return MapParser.parse(BenchmarkMaps.parseJson(json));
+    }
+}
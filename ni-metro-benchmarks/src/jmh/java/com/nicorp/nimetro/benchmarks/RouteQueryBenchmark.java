@@ -0,0 +1,67 @@
+package com.nicorp.nimetro.benchmarks;
+
+import com.nicorp.nimetro.routing.MapParser;
+import com.nicorp.nimetro.routing.RoutePath;
+import com.nicorp.nimetro.routing.RouteStrategy;
+import com.nicorp.nimetro.routing.TransitNetwork;
+import com.nicorp.nimetro.routing.TransitRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Single route queries over a fixed set of connected station pairs. The pairs come from a seeded
+ * random, so every run and every fork asks the same questions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class RouteQueryBenchmark {
+    private static final int PAIR_COUNT = 64;
+    private static final long PAIR_SEED = 42;
+
+    @Param({"FASTEST", "MIN_TRANSFERS"})
+    public String strategy;
+
+    private TransitRouter router;
+    private RouteStrategy routeStrategy;
+    private String[] from;
+    private String[] to;
+
+    @Setup
+    public void setUp() throws IOException {
+        TransitNetwork network = MapParser.parse(BenchmarkMaps.parseJson(BenchmarkMaps.readMapJson()));
+        router = new TransitRouter(network);
+        routeStrategy = RouteStrategy.valueOf(strategy);
+        from = new String[PAIR_COUNT];
+        to = new String[PAIR_COUNT];
+        Random random = new Random(PAIR_SEED);
+        // Layers of a map need not be connected; only pairs with a route are kept
+        for (int i = 0; i < PAIR_COUNT; ) {
+            from[i] = network.getStationId(random.nextInt(network.getStationCount()));
+            to[i] = network.getStationId(random.nextInt(network.getStationCount()));
+            if (router.findRoute(from[i], to[i], routeStrategy) != null) {
+                i++;
+            }
+        }
+    }
+
+    /** Reported time is per query. */
+    @Benchmark
+    @OperationsPerInvocation(PAIR_COUNT)
+    public void findRoute(Blackhole blackhole) {
+        for (int i = 0; i < PAIR_COUNT; i++) {
+            RoutePath path = router.findRoute(from[i], to[i], routeStrategy);
+            blackhole.consume(path);
+        }
+    }
+}
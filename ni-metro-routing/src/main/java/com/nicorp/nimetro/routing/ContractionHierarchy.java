@@ -0,0 +1,629 @@
+package com.nicorp.nimetro.routing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy for fastest-route queries.
+ *
+ * States of the network are "contracted" one by one in order of importance: removing a state adds
+ * shortcut edges between its neighbors wherever the shortest path between them would get longer without
+ * it. Afterwards every shortest path first goes up in rank and then down, and a query is a bidirectional
+ * Dijkstra over edges leading to higher-ranked states only.
+ *
+ * Weights are those of {@link TransitRouter} in fastest-route mode, time * hopScale + 1, so a route found
+ * has the same time and hop count. Of several equally good routes a different one than Dijkstra's may
+ * be chosen.
+ *
+ * Preprocessing runs once per map; the result is saved with {@link #writeTo} and read back on the next
+ * start with {@link #readFrom}. A saved hierarchy carries a fingerprint of the network and is rejected
+ * if the map has changed since.
+ */
+public final class ContractionHierarchy {
+    private static final int FORMAT_MAGIC = 0x4E4D4348; // "NMCH"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+    // Witness search limit: when it is hit, a redundant shortcut is added, which does not affect exactness
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+    private static final int NO_VIA = -1;
+
+    private final TransitNetwork network;
+    private final long fingerprint;
+    private volatile RouteTrace trace;
+
+    // edges to higher-ranked states in travel direction (search from the start)
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final int[] upWeights;
+    private final int[] upVias;
+
+    // incoming edges from higher-ranked states (search from the end); the target is the source of the edge
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final int[] downWeights;
+    private final int[] downVias;
+
+    private ContractionHierarchy(TransitNetwork network, long fingerprint,
+                                 int[] upOffsets, int[] upTargets, int[] upWeights, int[] upVias,
+                                 int[] downOffsets, int[] downSources, int[] downWeights, int[] downVias) {
+        this.network = network;
+        this.fingerprint = fingerprint;
+        this.upOffsets = upOffsets;
+        this.upTargets = upTargets;
+        this.upWeights = upWeights;
+        this.upVias = upVias;
+        this.downOffsets = downOffsets;
+        this.downSources = downSources;
+        this.downWeights = downWeights;
+        this.downVias = downVias;
+    }
+
+    public TransitNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Attaches search tracing; has effect only with {@link RouteTrace#ENABLED}.
+     * The extra value of EXPAND events is 0 for the search from the start, 1 for the one from the end.
+     */
+    public void setTrace(RouteTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Builds the hierarchy of the network. Takes noticeable time; do not call on a UI thread.
+     */
+    public static ContractionHierarchy build(TransitNetwork network) {
+        return new Builder(network).build();
+    }
+
+    /**
+     * Finds the fastest route between stations.
+     *
+     * @param maxTime limit on the real travel time, -1 for no limit
+     * @return states of the route, or null if there is no route
+     */
+    public int[] findRoute(int startStation, int endStation, int maxTime) {
+        if (startStation == TransitNetwork.NO_STATION || endStation == TransitNetwork.NO_STATION) {
+            return null;
+        }
+        int stateCount = network.getStateCount();
+        int[] forwardDistances = new int[stateCount];
+        int[] backwardDistances = new int[stateCount];
+        // for each state, the hierarchy edge it was reached by
+        int[] forwardEdges = new int[stateCount];
+        int[] backwardEdges = new int[stateCount];
+        int[] forwardParents = new int[stateCount];
+        int[] backwardParents = new int[stateCount];
+        Arrays.fill(forwardDistances, UNREACHED);
+        Arrays.fill(backwardDistances, UNREACHED);
+        StateQueue forwardQueue = new StateQueue(64);
+        StateQueue backwardQueue = new StateQueue(64);
+
+        for (int state = network.getFirstState(startStation); state < network.getStateLimit(startStation); state++) {
+            forwardDistances[state] = 0;
+            forwardParents[state] = -1;
+            forwardQueue.push(0, state);
+        }
+        for (int state = network.getFirstState(endStation); state < network.getStateLimit(endStation); state++) {
+            backwardDistances[state] = 0;
+            backwardParents[state] = -1;
+            backwardQueue.push(0, state);
+        }
+
+        RouteTrace queryTrace = RouteTrace.ENABLED ? trace : null;
+        if (RouteTrace.ENABLED && queryTrace != null) {
+            queryTrace.query(startStation, endStation);
+        }
+
+        int best = UNREACHED;
+        int meeting = -1;
+        while (!forwardQueue.isEmpty() || !backwardQueue.isEmpty()) {
+            // The searches alternate; each stops once its smallest key is not below the best route
+            if (!forwardQueue.isEmpty()) {
+                long entry = forwardQueue.pop();
+                int state = StateQueue.state(entry);
+                int distance = StateQueue.key(entry);
+                if (distance >= best) {
+                    forwardQueue.clear();
+                } else if (distance == forwardDistances[state]) {
+                    if (RouteTrace.ENABLED && queryTrace != null) {
+                        queryTrace.record(RouteTrace.EVENT_EXPAND, state, distance, 0);
+                    }
+                    if (backwardDistances[state] != UNREACHED && distance + backwardDistances[state] < best) {
+                        best = distance + backwardDistances[state];
+                        meeting = state;
+                    }
+                    relax(state, distance, upOffsets, upTargets, upWeights,
+                            forwardDistances, forwardEdges, forwardParents, forwardQueue);
+                }
+            }
+            if (!backwardQueue.isEmpty()) {
+                long entry = backwardQueue.pop();
+                int state = StateQueue.state(entry);
+                int distance = StateQueue.key(entry);
+                if (distance >= best) {
+                    backwardQueue.clear();
+                } else if (distance == backwardDistances[state]) {
+                    if (RouteTrace.ENABLED && queryTrace != null) {
+                        queryTrace.record(RouteTrace.EVENT_EXPAND, state, distance, 1);
+                    }
+                    if (forwardDistances[state] != UNREACHED && distance + forwardDistances[state] < best) {
+                        best = distance + forwardDistances[state];
+                        meeting = state;
+                    }
+                    relax(state, distance, downOffsets, downSources, downWeights,
+                            backwardDistances, backwardEdges, backwardParents, backwardQueue);
+                }
+            }
+        }
+        if (meeting < 0) {
+            return null;
+        }
+        if (RouteTrace.ENABLED && queryTrace != null) {
+            queryTrace.record(RouteTrace.EVENT_TARGET, meeting, best, 0);
+        }
+
+        int[] path = unpack(meeting, forwardEdges, forwardParents, backwardEdges, backwardParents);
+        if (maxTime > 0 && realTime(path) > maxTime) {
+            // The fastest route exceeds the limit, so every route does
+            return null;
+        }
+        return path;
+    }
+
+    private static void relax(int state, int distance, int[] offsets, int[] targets, int[] weights,
+                              int[] distances, int[] edges, int[] parents, StateQueue queue) {
+        for (int edge = offsets[state]; edge < offsets[state + 1]; edge++) {
+            int next = targets[edge];
+            int newDistance = distance + weights[edge];
+            if (newDistance < distances[next]) {
+                distances[next] = newDistance;
+                edges[next] = edge;
+                parents[next] = state;
+                queue.push(newDistance, next);
+            }
+        }
+    }
+
+    private int[] unpack(int meeting, int[] forwardEdges, int[] forwardParents,
+                         int[] backwardEdges, int[] backwardParents) {
+        IntList path = new IntList();
+        // The half from the start is collected backwards, then reversed
+        IntList upward = new IntList();
+        for (int state = meeting; forwardParents[state] >= 0; state = forwardParents[state]) {
+            upward.add(forwardEdges[state]);
+        }
+        int startState = meeting;
+        while (forwardParents[startState] >= 0) {
+            startState = forwardParents[startState];
+        }
+        path.add(startState);
+        for (int i = upward.size - 1; i >= 0; i--) {
+            int edge = upward.values[i];
+            int from = path.values[path.size - 1];
+            appendUnpacked(from, upTargets[edge], upVias[edge], path);
+        }
+        for (int state = meeting; backwardParents[state] >= 0; state = backwardParents[state]) {
+            int edge = backwardEdges[state];
+            appendUnpacked(state, backwardParents[state], downVias[edge], path);
+        }
+        return Arrays.copyOf(path.values, path.size);
+    }
+
+    /**
+     * Appends the states of edge from → to, without from, to the path, unpacking shortcuts.
+     */
+    private void appendUnpacked(int from, int to, int via, IntList path) {
+        if (via == NO_VIA) {
+            path.add(to);
+            return;
+        }
+        // Shortcut from → to via via consists of edges from → via and via → to;
+        // via was contracted before both ends, so both edges are stored at via
+        int first = findEdge(downOffsets, downSources, via, from);
+        int second = findEdge(upOffsets, upTargets, via, to);
+        appendUnpacked(from, via, downVias[first], path);
+        appendUnpacked(via, to, upVias[second], path);
+    }
+
+    private static int findEdge(int[] offsets, int[] targets, int state, int target) {
+        for (int edge = offsets[state]; edge < offsets[state + 1]; edge++) {
+            if (targets[edge] == target) {
+                return edge;
+            }
+        }
+        throw new IllegalStateException("Missing hierarchy edge " + state + " -> " + target);
+    }
+
+    private int realTime(int[] path) {
+        int time = 0;
+        for (int i = 1; i < path.length; i++) {
+            int best = UNREACHED;
+            for (int edge = network.getEdgeStart(path[i - 1]); edge < network.getEdgeEnd(path[i - 1]); edge++) {
+                if (network.getEdgeTarget(edge) == path[i] && network.getEdgeTime(edge) < best) {
+                    best = network.getEdgeTime(edge);
+                }
+            }
+            time += best;
+        }
+        return time;
+    }
+
+    /**
+     * Fingerprint of the network: changes with any change of states, edges or segment times.
+     */
+    public static long fingerprint(TransitNetwork network) {
+        long hash = 1125899906842597L;
+        hash = 31 * hash + network.getStationCount();
+        hash = 31 * hash + network.getStateCount();
+        hash = 31 * hash + network.getEdgeCount();
+        for (int state = 0; state < network.getStateCount(); state++) {
+            hash = 31 * hash + network.getStateStation(state);
+            hash = 31 * hash + network.getEdgeEnd(state);
+            hash = 31 * hash + network.getStationId(network.getStateStation(state)).hashCode();
+        }
+        for (int edge = 0; edge < network.getEdgeCount(); edge++) {
+            hash = 31 * hash + network.getEdgeTarget(edge);
+            hash = 31 * hash + network.getEdgeTime(edge);
+        }
+        return hash;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(FORMAT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(fingerprint);
+        writeArray(out, upOffsets);
+        writeArray(out, upTargets);
+        writeArray(out, upWeights);
+        writeArray(out, upVias);
+        writeArray(out, downOffsets);
+        writeArray(out, downSources);
+        writeArray(out, downWeights);
+        writeArray(out, downVias);
+        out.flush();
+    }
+
+    /**
+     * Reads a saved hierarchy.
+     *
+     * @return the hierarchy, or null if the data is stale (built for another network or format version)
+     */
+    public static ContractionHierarchy readFrom(InputStream inputStream, TransitNetwork network) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        if (in.readInt() != FORMAT_MAGIC || in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        long storedFingerprint = in.readLong();
+        if (storedFingerprint != fingerprint(network)) {
+            return null;
+        }
+        int[] upOffsets = readArray(in);
+        int[] upTargets = readArray(in);
+        int[] upWeights = readArray(in);
+        int[] upVias = readArray(in);
+        int[] downOffsets = readArray(in);
+        int[] downSources = readArray(in);
+        int[] downWeights = readArray(in);
+        int[] downVias = readArray(in);
+        int stateCount = network.getStateCount();
+        if (upOffsets.length != stateCount + 1 || downOffsets.length != stateCount + 1) {
+            return null;
+        }
+        return new ContractionHierarchy(network, storedFingerprint,
+                upOffsets, upTargets, upWeights, upVias, downOffsets, downSources, downWeights, downVias);
+    }
+
+    private static void writeArray(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readArray(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Corrupted hierarchy data");
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    /**
+     * Contracts states in order of edge difference (shortcuts added minus edges removed), corrected by
+     * the number of neighbors already contracted so that contraction spreads evenly over the network.
+     */
+    private static final class Builder {
+        private final TransitNetwork network;
+        private final int stateCount;
+        private final int hopScale;
+
+        // current graph of the states not yet contracted
+        private final EdgeList[] outEdges;
+        private final EdgeList[] inEdges;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+
+        // resulting hierarchy edges: each state keeps the edges to states contracted after it
+        private final EdgeList[] upEdges;
+        private final EdgeList[] downEdges;
+
+        // witness search buffers
+        private final int[] witnessDistances;
+        private final IntList witnessTouched = new IntList();
+        private final IntList priorityShortcuts = new IntList();
+        private final StateQueue witnessQueue;
+
+        Builder(TransitNetwork network) {
+            this.network = network;
+            this.stateCount = network.getStateCount();
+            this.hopScale = Math.max(1, stateCount);
+            outEdges = new EdgeList[stateCount];
+            inEdges = new EdgeList[stateCount];
+            upEdges = new EdgeList[stateCount];
+            downEdges = new EdgeList[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                outEdges[state] = new EdgeList();
+                inEdges[state] = new EdgeList();
+            }
+            contracted = new boolean[stateCount];
+            contractedNeighbors = new int[stateCount];
+            witnessDistances = new int[stateCount];
+            Arrays.fill(witnessDistances, UNREACHED);
+            witnessQueue = new StateQueue(64);
+
+            for (int state = 0; state < stateCount; state++) {
+                for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                    int target = network.getEdgeTarget(edge);
+                    if (target != state) {
+                        addEdge(state, target, network.getEdgeTime(edge) * hopScale + 1, NO_VIA);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy build() {
+            StateQueue order = new StateQueue(stateCount);
+            int[] priorities = new int[stateCount];
+            for (int state = 0; state < stateCount; state++) {
+                priorities[state] = priority(state);
+                order.push(priorityKey(priorities[state]), state);
+            }
+
+            IntList shortcuts = new IntList();
+            while (!order.isEmpty()) {
+                long entry = order.pop();
+                int state = StateQueue.state(entry);
+                if (contracted[state] || StateQueue.key(entry) != priorityKey(priorities[state])) {
+                    continue;
+                }
+                // Lazy update: if the priority has grown, the state goes back into the queue
+                int current = priority(state);
+                if (current != priorities[state]) {
+                    priorities[state] = current;
+                    order.push(priorityKey(current), state);
+                    continue;
+                }
+                shortcuts.size = 0;
+                findShortcuts(state, shortcuts);
+                contract(state, shortcuts);
+                EdgeList out = upEdges[state];
+                for (int i = 0; i < out.size; i++) {
+                    contractedNeighbors[out.targets[i]]++;
+                }
+                EdgeList in = downEdges[state];
+                for (int i = 0; i < in.size; i++) {
+                    contractedNeighbors[in.targets[i]]++;
+                }
+            }
+
+            int[] upOffsets = new int[stateCount + 1];
+            int[] downOffsets = new int[stateCount + 1];
+            for (int state = 0; state < stateCount; state++) {
+                upOffsets[state + 1] = upOffsets[state] + upEdges[state].size;
+                downOffsets[state + 1] = downOffsets[state] + downEdges[state].size;
+            }
+            int[] upTargets = new int[upOffsets[stateCount]];
+            int[] upWeights = new int[upTargets.length];
+            int[] upVias = new int[upTargets.length];
+            int[] downSources = new int[downOffsets[stateCount]];
+            int[] downWeights = new int[downSources.length];
+            int[] downVias = new int[downSources.length];
+            for (int state = 0; state < stateCount; state++) {
+                upEdges[state].copyTo(upTargets, upWeights, upVias, upOffsets[state]);
+                downEdges[state].copyTo(downSources, downWeights, downVias, downOffsets[state]);
+            }
+            return new ContractionHierarchy(network, fingerprint(network),
+                    upOffsets, upTargets, upWeights, upVias, downOffsets, downSources, downWeights, downVias);
+        }
+
+        // The priority may be negative, while queue keys compare as unsigned
+        private int priorityKey(int priority) {
+            return priority + stateCount * 4;
+        }
+
+        private int priority(int state) {
+            priorityShortcuts.size = 0;
+            findShortcuts(state, priorityShortcuts);
+            int added = priorityShortcuts.size / 4;
+            int removed = outEdges[state].size + inEdges[state].size;
+            return added - removed + contractedNeighbors[state];
+        }
+
+        /**
+         * Collects the shortcuts needed to contract the state: (from, to, weight, via) quadruples.
+         */
+        private void findShortcuts(int via, IntList shortcuts) {
+            EdgeList in = inEdges[via];
+            EdgeList out = outEdges[via];
+            if (in.size == 0 || out.size == 0) {
+                return;
+            }
+            int maxOut = 0;
+            for (int j = 0; j < out.size; j++) {
+                maxOut = Math.max(maxOut, out.weights[j]);
+            }
+            for (int i = 0; i < in.size; i++) {
+                int from = in.targets[i];
+                int inWeight = in.weights[i];
+                witnessSearch(from, via, inWeight + maxOut);
+                for (int j = 0; j < out.size; j++) {
+                    int to = out.targets[j];
+                    if (to == from) {
+                        continue;
+                    }
+                    int weight = inWeight + out.weights[j];
+                    if (witnessDistances[to] > weight) {
+                        shortcuts.add(from);
+                        shortcuts.add(to);
+                        shortcuts.add(weight);
+                        shortcuts.add(via);
+                    }
+                }
+                resetWitness();
+            }
+        }
+
+        private void witnessSearch(int source, int excluded, int limit) {
+            witnessDistances[source] = 0;
+            witnessTouched.add(source);
+            witnessQueue.clear();
+            witnessQueue.push(0, source);
+            int settled = 0;
+            while (!witnessQueue.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                long entry = witnessQueue.pop();
+                int state = StateQueue.state(entry);
+                int distance = StateQueue.key(entry);
+                if (distance > witnessDistances[state]) {
+                    continue;
+                }
+                if (distance > limit) {
+                    break;
+                }
+                settled++;
+                EdgeList edges = outEdges[state];
+                for (int i = 0; i < edges.size; i++) {
+                    int next = edges.targets[i];
+                    if (next == excluded) {
+                        continue;
+                    }
+                    int newDistance = distance + edges.weights[i];
+                    if (newDistance < witnessDistances[next]) {
+                        if (witnessDistances[next] == UNREACHED) {
+                            witnessTouched.add(next);
+                        }
+                        witnessDistances[next] = newDistance;
+                        witnessQueue.push(newDistance, next);
+                    }
+                }
+            }
+        }
+
+        private void resetWitness() {
+            for (int i = 0; i < witnessTouched.size; i++) {
+                witnessDistances[witnessTouched.values[i]] = UNREACHED;
+            }
+            witnessTouched.size = 0;
+        }
+
+        private void contract(int state, IntList shortcuts) {
+            // Edges to neighbors not yet contracted become hierarchy edges of this state
+            upEdges[state] = outEdges[state];
+            downEdges[state] = inEdges[state];
+            contracted[state] = true;
+            EdgeList out = outEdges[state];
+            for (int i = 0; i < out.size; i++) {
+                inEdges[out.targets[i]].remove(state);
+            }
+            EdgeList in = inEdges[state];
+            for (int i = 0; i < in.size; i++) {
+                outEdges[in.targets[i]].remove(state);
+            }
+            outEdges[state] = null;
+            inEdges[state] = null;
+            for (int i = 0; i < shortcuts.size; i += 4) {
+                addEdge(shortcuts.values[i], shortcuts.values[i + 1], shortcuts.values[i + 2],
+                        shortcuts.values[i + 3]);
+            }
+        }
+
+        private void addEdge(int from, int to, int weight, int via) {
+            outEdges[from].put(to, weight, via);
+            inEdges[to].put(from, weight, via);
+        }
+    }
+
+    /**
+     * Edge list of one state; only the lightest edge between two states is kept.
+     */
+    private static final class EdgeList {
+        int[] targets = new int[4];
+        int[] weights = new int[4];
+        int[] vias = new int[4];
+        int size;
+
+        void put(int target, int weight, int via) {
+            for (int i = 0; i < size; i++) {
+                if (targets[i] == target) {
+                    if (weight < weights[i]) {
+                        weights[i] = weight;
+                        vias[i] = via;
+                    }
+                    return;
+                }
+            }
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                vias = Arrays.copyOf(vias, size * 2);
+            }
+            targets[size] = target;
+            weights[size] = weight;
+            vias[size] = via;
+            size++;
+        }
+
+        void remove(int target) {
+            for (int i = 0; i < size; i++) {
+                if (targets[i] == target) {
+                    size--;
+                    targets[i] = targets[size];
+                    weights[i] = weights[size];
+                    vias[i] = vias[size];
+                    return;
+                }
+            }
+        }
+
+        void copyTo(int[] targetsOut, int[] weightsOut, int[] viasOut, int offset) {
+            System.arraycopy(targets, 0, targetsOut, offset, size);
+            System.arraycopy(weights, 0, weightsOut, offset, size);
+            System.arraycopy(vias, 0, viasOut, offset, size);
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.Arrays;
+
+/**
+ * Indexed 4-ary heap of network states with decrease-key.
+ *
+ * Unlike {@link StateQueue}, a state is in the heap at most once: pushing it again with a smaller key
+ * moves the existing entry up, so the heap never holds more entries than there are states and its
+ * arrays are allocated once. Entries are packed into a long as in StateQueue (key in the upper
+ * 32 bits): of equal keys the lower state comes out first.
+ */
+final class IndexedStateHeap {
+    private static final int ARITY = 4;
+
+    private final long[] heap;
+    // position of each state in the heap, -1 if it is not in the heap
+    private final int[] positions;
+    private int size;
+
+    IndexedStateHeap(int stateCount) {
+        heap = new long[Math.max(1, stateCount)];
+        positions = new int[Math.max(1, stateCount)];
+        Arrays.fill(positions, -1);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empties the heap in time proportional to the entries still in it.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[state(heap[i])] = -1;
+        }
+        size = 0;
+    }
+
+    /**
+     * Adds the state or decreases its key; a larger key for a state already in the heap is ignored.
+     */
+    void update(int key, int state) {
+        long entry = ((long) key << 32) | (state & 0xFFFFFFFFL);
+        int i = positions[state];
+        if (i < 0) {
+            i = size++;
+        } else if (heap[i] <= entry) {
+            return;
+        }
+        siftUp(i, entry);
+    }
+
+    /**
+     * @return key of the smallest entry; the heap must not be empty
+     */
+    int peekKey() {
+        return (int) (heap[0] >>> 32);
+    }
+
+    /**
+     * Removes the smallest entry.
+     *
+     * @return its state
+     */
+    int pop() {
+        int top = state(heap[0]);
+        positions[top] = -1;
+        long last = heap[--size];
+        if (size > 0) {
+            siftDown(last);
+        }
+        return top;
+    }
+
+    private void siftUp(int i, long entry) {
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            positions[state(heap[i])] = i;
+            i = parent;
+        }
+        heap[i] = entry;
+        positions[state(entry)] = i;
+    }
+
+    private void siftDown(long entry) {
+        int i = 0;
+        while (true) {
+            int first = i * ARITY + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + ARITY, size);
+            int child = first;
+            for (int c = first + 1; c < last; c++) {
+                if (heap[c] < heap[child]) {
+                    child = c;
+                }
+            }
+            if (entry <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            positions[state(heap[i])] = i;
+            i = child;
+        }
+        heap[i] = entry;
+        positions[state(entry)] = i;
+    }
+
+    private static int state(long entry) {
+        return (int) entry;
+    }
+}
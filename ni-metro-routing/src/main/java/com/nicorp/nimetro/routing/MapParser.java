@@ -0,0 +1,275 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link TransitNetwork} from map JSON already read into maps and lists
+ * (as produced by Jackson or Gson), with the same semantics as the Android client's map loading.
+ *
+ * Neighbor links of a station all go to its first listing; transfers name station listings within
+ * their layer, and transfers that reference other transfers ({@code TR_*} tokens) take over their
+ * stations. A transfer does not duplicate a link already given by neighbors.
+ */
+public final class MapParser {
+    // Layers in the order the client searches them for a station's lines
+    private static final String[] LAYERS = {"metro_map", "suburban_map", "rivertram_map", "tram_map"};
+    // The client attaches neighbor links in this order, which decides which of two links to a station is kept
+    private static final String[] NEIGHBOR_LAYERS = {"metro_map", "suburban_map", "tram_map", "rivertram_map"};
+    private static final String LINKED_TRANSFER_PREFIX = "TR_";
+    private static final int DEFAULT_TRANSFER_TIME = 3;
+    private static final int CIRCLE_CLOSING_TIME = 2;
+
+    private MapParser() {
+    }
+
+    /**
+     * @param mapData the whole map object with metro_map, suburban_map, rivertram_map and tram_map layers
+     */
+    public static TransitNetwork parse(Map<String, Object> mapData) {
+        TransitNetwork.Builder builder = new TransitNetwork.Builder();
+
+        // 1. Station listings; the first listing of an id is the station
+        List<Instance> instances = new ArrayList<>();
+        Map<String, List<Instance>> layerInstances = new HashMap<>();
+        Map<String, Instance> firstById = new HashMap<>();
+        for (String layer : LAYERS) {
+            List<Instance> layerList = new ArrayList<>();
+            layerInstances.put(layer, layerList);
+            for (Map<String, Object> line : asMapList(layerOf(mapData, layer).get("lines"))) {
+                String lineId = asString(line.get("id"));
+                for (Map<String, Object> station : asMapList(line.get("stations"))) {
+                    String stationId = asString(station.get("id"));
+                    if (stationId == null) {
+                        continue;
+                    }
+                    int stationIndex = builder.addStation(stationId);
+                    if (lineId != null) {
+                        builder.addStationLine(stationIndex, lineId);
+                    }
+                    Instance instance = new Instance(stationId, stationIndex);
+                    instances.add(instance);
+                    layerList.add(instance);
+                    if (!firstById.containsKey(stationId)) {
+                        firstById.put(stationId, instance);
+                    }
+                }
+            }
+        }
+
+        // 2. Neighbor links
+        for (String layer : NEIGHBOR_LAYERS) {
+            for (Map<String, Object> line : asMapList(layerOf(mapData, layer).get("lines"))) {
+                List<Map<String, Object>> lineStations = asMapList(line.get("stations"));
+                for (Map<String, Object> station : lineStations) {
+                    Instance instance = firstById.get(asString(station.get("id")));
+                    if (instance == null) {
+                        continue;
+                    }
+                    for (Object neighbor : asList(station.get("neighbors"))) {
+                        List<Object> pair = asList(neighbor);
+                        Instance target = pair.size() >= 2 ? firstById.get(asString(pair.get(0))) : null;
+                        if (target != null && pair.get(1) instanceof Number) {
+                            instance.neighbors.add(new int[]{target.station, ((Number) pair.get(1)).intValue()});
+                        }
+                    }
+                    if (Boolean.TRUE.equals(station.get("_belongsToCircle")) && lineStations.size() > 1) {
+                        Instance first = firstById.get(asString(lineStations.get(0).get("id")));
+                        Instance last = firstById.get(asString(lineStations.get(lineStations.size() - 1).get("id")));
+                        if (first != null && last != null) {
+                            closeCircle(first, last);
+                            closeCircle(last, first);
+                        }
+                    }
+                }
+            }
+        }
+
+        // 3. Transfers, checked against the neighbor links they would duplicate
+        for (String layer : LAYERS) {
+            for (Transfer transfer : parseTransfers(layerOf(mapData, layer), layerInstances.get(layer))) {
+                addTransferLinks(transfer);
+            }
+        }
+
+        for (Instance instance : instances) {
+            int handle = builder.addInstance(instance.station);
+            for (int[] link : instance.neighbors) {
+                builder.addLink(handle, link[0], link[1]);
+            }
+            for (int[] link : instance.transferLinks) {
+                builder.addLink(handle, link[0], link[1]);
+            }
+        }
+        return builder.build();
+    }
+
+    private static void closeCircle(Instance from, Instance to) {
+        if (!from.hasNeighbor(to.station)) {
+            from.neighbors.add(new int[]{to.station, CIRCLE_CLOSING_TIME});
+        }
+    }
+
+    /**
+     * Transfers of one layer: plain transfers first, then the ones referencing other transfers.
+     */
+    private static List<Transfer> parseTransfers(Map<String, Object> layerData, List<Instance> layerList) {
+        List<Transfer> transfers = new ArrayList<>();
+        Map<String, Transfer> transfersById = new HashMap<>();
+        List<Map<String, Object>> linkTransfers = new ArrayList<>();
+        for (Map<String, Object> transferData : asMapList(layerData.get("transfers"))) {
+            boolean hasLink = false;
+            List<Instance> stations = new ArrayList<>();
+            for (Object token : asList(transferData.get("stations"))) {
+                String id = asString(token);
+                if (id != null && id.startsWith(LINKED_TRANSFER_PREFIX)) {
+                    hasLink = true;
+                }
+                Instance instance = findInstance(layerList, id);
+                if (instance != null) {
+                    stations.add(instance);
+                }
+            }
+            if (hasLink) {
+                linkTransfers.add(transferData);
+            } else {
+                register(new Transfer(stations, transferTime(transferData)), asString(transferData.get("id")),
+                        transfers, transfersById);
+            }
+        }
+        for (Map<String, Object> transferData : linkTransfers) {
+            List<Instance> combined = new ArrayList<>();
+            for (Object token : asList(transferData.get("stations"))) {
+                String id = asString(token);
+                if (id != null && id.startsWith(LINKED_TRANSFER_PREFIX)) {
+                    Transfer linked = transfersById.get(id);
+                    if (linked != null) {
+                        combined.addAll(linked.stations);
+                    }
+                } else {
+                    Instance instance = findInstance(layerList, id);
+                    if (instance != null) {
+                        combined.add(instance);
+                    }
+                }
+            }
+            register(new Transfer(combined, transferTime(transferData)), asString(transferData.get("id")),
+                    transfers, transfersById);
+        }
+        return transfers;
+    }
+
+    private static void register(Transfer transfer, String id, List<Transfer> transfers,
+                                 Map<String, Transfer> transfersById) {
+        transfers.add(transfer);
+        if (id != null) {
+            transfersById.put(id, transfer);
+        }
+    }
+
+    private static int transferTime(Map<String, Object> transferData) {
+        Object time = transferData.get("time");
+        return time instanceof Number ? ((Number) time).intValue() : DEFAULT_TRANSFER_TIME;
+    }
+
+    private static Instance findInstance(List<Instance> instances, String stationId) {
+        for (Instance instance : instances) {
+            if (instance.stationId.equals(stationId)) {
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    private static void addTransferLinks(Transfer transfer) {
+        List<Instance> stations = transfer.stations;
+        if (stations.size() < 2) {
+            return;
+        }
+        int cost = Math.max(1, transfer.time);
+        for (int i = 0; i < stations.size(); i++) {
+            Instance from = stations.get(i);
+            for (int j = 0; j < stations.size(); j++) {
+                Instance to = stations.get(j);
+                if (i != j && !from.hasNeighbor(to.station)) {
+                    from.transferLinks.add(new int[]{to.station, cost});
+                }
+            }
+        }
+    }
+
+    private static Map<String, Object> layerOf(Map<String, Object> mapData, String layer) {
+        Map<String, Object> layerData = mapData != null ? asMap(mapData.get(layer)) : null;
+        return layerData != null ? layerData : Collections.<String, Object>emptyMap();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> asMap(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object value) {
+        return value instanceof List ? (List<Object>) value : Collections.emptyList();
+    }
+
+    private static List<Map<String, Object>> asMapList(Object value) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Object item : asList(value)) {
+            Map<String, Object> map = asMap(item);
+            if (map != null) {
+                result.add(map);
+            }
+        }
+        return result;
+    }
+
+    private static String asString(Object value) {
+        // Numeric ids read as doubles (Gson) must match the client's reading of them: 1, not 1.0
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (number == Math.rint(number) && !Double.isInfinite(number)) {
+                return Long.toString((long) number);
+            }
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    private static final class Transfer {
+        private final List<Instance> stations;
+        private final int time;
+
+        private Transfer(List<Instance> stations, int time) {
+            this.stations = stations;
+            this.time = time;
+        }
+    }
+
+    /**
+     * One listing of a station on a line. Only the first listing of a station gets neighbor links;
+     * transfers attach to the listing they name. Links are {target station, time}.
+     */
+    private static final class Instance {
+        private final String stationId;
+        private final int station;
+        private final List<int[]> neighbors = new ArrayList<>();
+        private final List<int[]> transferLinks = new ArrayList<>();
+
+        private Instance(String stationId, int station) {
+            this.stationId = stationId;
+            this.station = station;
+        }
+
+        private boolean hasNeighbor(int targetStation) {
+            for (int[] link : neighbors) {
+                if (link[0] == targetStation) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
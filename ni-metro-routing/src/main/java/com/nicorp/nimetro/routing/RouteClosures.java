@@ -0,0 +1,68 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Closed stations, lines and segments by id, for example from today's service notices.
+ *
+ * Independent of any network, so the same closures can be applied again after the map changes
+ * (see {@link TransitRouter#setClosures}). Immutable and safe to pass between threads.
+ */
+public final class RouteClosures {
+    public static final RouteClosures NONE = new RouteClosures(null, null, null);
+
+    private final Set<String> stationIds;
+    private final Set<String> lineIds;
+    private final List<Segment> segments;
+
+    /**
+     * @param segments segments or transfers between neighboring stations; closed in both directions
+     */
+    public RouteClosures(Collection<String> stationIds, Collection<String> lineIds, Collection<Segment> segments) {
+        this.stationIds = stationIds != null
+                ? Collections.unmodifiableSet(new LinkedHashSet<>(stationIds)) : Collections.<String>emptySet();
+        this.lineIds = lineIds != null
+                ? Collections.unmodifiableSet(new LinkedHashSet<>(lineIds)) : Collections.<String>emptySet();
+        this.segments = segments != null
+                ? Collections.unmodifiableList(new ArrayList<>(segments)) : Collections.<Segment>emptyList();
+    }
+
+    public Set<String> getStationIds() {
+        return stationIds;
+    }
+
+    public Set<String> getLineIds() {
+        return lineIds;
+    }
+
+    public List<Segment> getSegments() {
+        return segments;
+    }
+
+    public boolean isEmpty() {
+        return stationIds.isEmpty() && lineIds.isEmpty() && segments.isEmpty();
+    }
+
+    public static final class Segment {
+        private final String fromStationId;
+        private final String toStationId;
+
+        public Segment(String fromStationId, String toStationId) {
+            this.fromStationId = fromStationId;
+            this.toStationId = toStationId;
+        }
+
+        public String getFromStationId() {
+            return fromStationId;
+        }
+
+        public String getToStationId() {
+            return toStationId;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.BitSet;
+
+/**
+ * Closures laid over a compiled network as a mask; the network itself is not rebuilt.
+ *
+ * A closed station and the states of a closed line can be neither the start, the end nor an
+ * intermediate vertex of a route, and a closed edge cannot be used. Applying closures costs
+ * O(number of closures): stations and lines are marked by index, and for a segment only the edges
+ * of its stations are scanned. The bit sets grow as they are marked, so the network is never walked.
+ */
+final class RouteMask {
+    private final TransitNetwork network;
+    private final BitSet closedStations = new BitSet();
+    // by line key: a line is closed in every layer
+    private final BitSet closedLineKeys = new BitSet();
+    private final BitSet closedEdges = new BitSet();
+
+    private RouteMask(TransitNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * @return the mask, or null if nothing is closed or none of the closures is in this network
+     */
+    static RouteMask compile(TransitNetwork network, RouteClosures closures) {
+        if (network == null || closures == null || closures.isEmpty()) {
+            return null;
+        }
+        RouteMask mask = new RouteMask(network);
+        boolean closed = false;
+        for (String stationId : closures.getStationIds()) {
+            int station = network.getStationIndex(stationId);
+            if (station != TransitNetwork.NO_STATION) {
+                mask.closedStations.set(station);
+                closed = true;
+            }
+        }
+        for (String lineId : closures.getLineIds()) {
+            int lineKey = network.getLineKey(lineId);
+            if (lineKey != TransitNetwork.NO_LINE) {
+                mask.closedLineKeys.set(lineKey);
+                closed = true;
+            }
+        }
+        for (RouteClosures.Segment segment : closures.getSegments()) {
+            int from = network.getStationIndex(segment.getFromStationId());
+            int to = network.getStationIndex(segment.getToStationId());
+            if (from != TransitNetwork.NO_STATION && to != TransitNetwork.NO_STATION) {
+                closed |= mask.closeEdges(from, to);
+                closed |= mask.closeEdges(to, from);
+            }
+        }
+        return closed ? mask : null;
+    }
+
+    private boolean closeEdges(int fromStation, int toStation) {
+        boolean closed = false;
+        for (int state = network.getFirstState(fromStation); state < network.getStateLimit(fromStation); state++) {
+            for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                if (network.getStateStation(network.getEdgeTarget(edge)) == toStation) {
+                    closedEdges.set(edge);
+                    closed = true;
+                }
+            }
+        }
+        return closed;
+    }
+
+    TransitNetwork getNetwork() {
+        return network;
+    }
+
+    boolean isStateClosed(int state) {
+        if (closedStations.get(network.getStateStation(state))) {
+            return true;
+        }
+        int lineKey = network.getStateLineKey(state);
+        return lineKey != TransitNetwork.NO_LINE && closedLineKeys.get(lineKey);
+    }
+
+    /**
+     * @return true if the edge cannot be used: the edge itself or the state it leads to is closed
+     */
+    boolean isEdgeClosed(int edge) {
+        return closedEdges.get(edge) || isStateClosed(network.getEdgeTarget(edge));
+    }
+}
@@ -0,0 +1,39 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.List;
+
+/**
+ * A found route: stations in travel order with the line used at each of them.
+ */
+public final class RoutePath {
+    private final List<String> stationIds;
+    private final List<String> lineIds;
+    private final int time;
+    private final int transfers;
+
+    public RoutePath(List<String> stationIds, List<String> lineIds, int time, int transfers) {
+        this.stationIds = stationIds;
+        this.lineIds = lineIds;
+        this.time = time;
+        this.transfers = transfers;
+    }
+
+    public List<String> getStationIds() {
+        return stationIds;
+    }
+
+    /**
+     * @return line id at each station; null for a station that is on no line
+     */
+    public List<String> getLineIds() {
+        return lineIds;
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    public int getTransfers() {
+        return transfers;
+    }
+}
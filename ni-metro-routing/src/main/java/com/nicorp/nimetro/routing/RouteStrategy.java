@@ -0,0 +1,24 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.Locale;
+
+/**
+ * What a route search minimizes; the names match the client's route variants.
+ */
+public enum RouteStrategy {
+    /** Least travel time, then fewest stops. */
+    FASTEST,
+    /** Fewest line changes, then least travel time. */
+    MIN_TRANSFERS;
+
+    /**
+     * @return the strategy with the given name (case-insensitive), FASTEST for null
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static RouteStrategy parse(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return FASTEST;
+        }
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,104 @@
+package com.nicorp.nimetro.routing;
+
+/**
+ * Route search tracing for debugging.
+ *
+ * Switched on by the compile-time constant {@link #ENABLED}: calls are wrapped in
+ * {@code if (RouteTrace.ENABLED)}, and when it is false the compiler drops them together with their
+ * arguments, so a build without tracing pays nothing. During a search events are written into a ring
+ * buffer of ints without building strings; text is produced only by {@link #dump}.
+ */
+public final class RouteTrace {
+    public static final boolean ENABLED = false;
+
+    public static final int EVENT_QUERY = 0;
+    public static final int EVENT_EXPAND = 1;
+    public static final int EVENT_TARGET = 2;
+
+    private static final int RECORD_SIZE = 4;
+    private static final String[] EVENT_NAMES = {"QUERY", "EXPAND", "TARGET"};
+
+    // records of RECORD_SIZE ints: event, state (start station for QUERY), key, extra value
+    private final int[] buffer;
+    private int next;
+    private long recorded;
+
+    public RouteTrace(int capacity) {
+        buffer = new int[Math.max(1, capacity) * RECORD_SIZE];
+    }
+
+    /**
+     * Start of a query: the start and end stations.
+     */
+    public void query(int startStation, int endStation) {
+        record(EVENT_QUERY, startStation, endStation, 0);
+    }
+
+    /**
+     * @param extra additional value of the event, for example the transfer count of a label
+     */
+    public synchronized void record(int event, int state, int key, int extra) {
+        buffer[next] = event;
+        buffer[next + 1] = state;
+        buffer[next + 2] = key;
+        buffer[next + 3] = extra;
+        next += RECORD_SIZE;
+        if (next == buffer.length) {
+            next = 0;
+        }
+        recorded++;
+    }
+
+    public synchronized void clear() {
+        next = 0;
+        recorded = 0;
+    }
+
+    /**
+     * Recorded events from oldest to newest; if the buffer overflowed, the oldest events are lost.
+     */
+    public synchronized String dump(TransitNetwork network) {
+        int capacity = buffer.length / RECORD_SIZE;
+        int count = (int) Math.min(recorded, capacity);
+        StringBuilder builder = new StringBuilder();
+        builder.append("RouteTrace: ").append(recorded).append(" events, last ").append(count).append('\n');
+        int position = recorded > capacity ? next : 0;
+        for (int i = 0; i < count; i++) {
+            int event = buffer[position];
+            int state = buffer[position + 1];
+            builder.append(EVENT_NAMES[event]).append(' ');
+            if (event == EVENT_QUERY) {
+                appendStation(builder, network, state);
+                builder.append(" -> ");
+                appendStation(builder, network, buffer[position + 2]);
+            } else {
+                appendState(builder, network, state);
+                builder.append(" key=").append(buffer[position + 2]).append(" extra=").append(buffer[position + 3]);
+            }
+            builder.append('\n');
+            position += RECORD_SIZE;
+            if (position == buffer.length) {
+                position = 0;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendStation(StringBuilder builder, TransitNetwork network, int station) {
+        if (network == null || station < 0 || station >= network.getStationCount()) {
+            builder.append('#').append(station);
+            return;
+        }
+        builder.append(network.getStationId(station));
+    }
+
+    private static void appendState(StringBuilder builder, TransitNetwork network, int state) {
+        if (network == null || state < 0 || state >= network.getStateCount()) {
+            builder.append('#').append(state);
+            return;
+        }
+        appendStation(builder, network, network.getStateStation(state));
+        String lineId = network.getLineId(network.getStateLineKey(state));
+        builder.append(" line=").append(lineId != null ? lineId : "-");
+    }
+}
@@ -0,0 +1,119 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opening hours and headways for route searches that depend on the departure time.
+ *
+ * Opening hours are given per state — the listing of a station on a line, as in the map's
+ * {@code schedule} field (e.g. "5:30 - 0:00") — so each line of an interchange can keep its own hours.
+ * A closing time not after the opening time means service past midnight. An empty or unrecognized
+ * schedule means round-the-clock service. All times are minutes from midnight of the departure day
+ * and may run past the day.
+ */
+public final class ServiceSchedule {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    private static final Pattern WINDOW_PATTERN =
+            Pattern.compile("(\\d{1,2}):(\\d{2})\\s*[-–—]\\s*(\\d{1,2}):(\\d{2})");
+    private static final int ALWAYS_OPEN = -1;
+
+    private final TransitNetwork network;
+    // state -> start and end of service; the end may be past the day
+    private final int[] stateOpen;
+    private final int[] stateClose;
+    // line key -> average wait for a train when boarding (half the headway)
+    private final int[] lineBoardingWaits;
+
+    private ServiceSchedule(TransitNetwork network, int[] stateOpen, int[] stateClose, int[] lineBoardingWaits) {
+        this.network = network;
+        this.stateOpen = stateOpen;
+        this.stateClose = stateClose;
+        this.lineBoardingWaits = lineBoardingWaits;
+    }
+
+    /**
+     * @param stateSchedules   opening hours text of each state of the network; null entries mean always open
+     * @param headwaysByLineId headway of a line in minutes by line id
+     * @param defaultHeadway   headway of the lines missing from headwaysByLineId
+     */
+    public static ServiceSchedule build(TransitNetwork network, String[] stateSchedules,
+                                        Map<String, Integer> headwaysByLineId, int defaultHeadway) {
+        int stateCount = network.getStateCount();
+        int[] stateOpen = new int[stateCount];
+        int[] stateClose = new int[stateCount];
+        // Most stations share one schedule, so each distinct text is parsed once
+        Map<String, int[]> parsed = new HashMap<>();
+        for (int state = 0; state < stateCount; state++) {
+            String schedule = stateSchedules != null ? stateSchedules[state] : null;
+            int[] window = schedule != null ? parsed.get(schedule) : null;
+            if (window == null) {
+                window = parseWindow(schedule);
+                if (schedule != null) {
+                    parsed.put(schedule, window);
+                }
+            }
+            stateOpen[state] = window[0];
+            stateClose[state] = window[1];
+        }
+
+        int[] lineBoardingWaits = new int[network.getLineKeyCount()];
+        for (int lineKey = 0; lineKey < lineBoardingWaits.length; lineKey++) {
+            Integer headway = headwaysByLineId != null ? headwaysByLineId.get(network.getLineId(lineKey)) : null;
+            lineBoardingWaits[lineKey] = Math.max(0, headway != null ? headway : defaultHeadway) / 2;
+        }
+        return new ServiceSchedule(network, stateOpen, stateClose, lineBoardingWaits);
+    }
+
+    /**
+     * @return start and end of service in minutes, or {ALWAYS_OPEN, ALWAYS_OPEN}
+     */
+    public static int[] parseWindow(String schedule) {
+        Matcher matcher = schedule != null ? WINDOW_PATTERN.matcher(schedule) : null;
+        if (matcher == null || !matcher.find()) {
+            return new int[]{ALWAYS_OPEN, ALWAYS_OPEN};
+        }
+        int open = Integer.parseInt(matcher.group(1)) * 60 + Integer.parseInt(matcher.group(2));
+        int close = Integer.parseInt(matcher.group(3)) * 60 + Integer.parseInt(matcher.group(4));
+        if (open >= MINUTES_PER_DAY || close > MINUTES_PER_DAY || open == close) {
+            return new int[]{ALWAYS_OPEN, ALWAYS_OPEN};
+        }
+        if (close < open) {
+            close += MINUTES_PER_DAY;
+        }
+        return new int[]{open, close};
+    }
+
+    public TransitNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * @return the earliest time not before time when a train leaves from the state
+     */
+    public int nextDeparture(int state, int time) {
+        int open = stateOpen[state];
+        if (open == ALWAYS_OPEN) {
+            return time;
+        }
+        int close = stateClose[state];
+        int dayStart = Math.floorDiv(time, MINUTES_PER_DAY) * MINUTES_PER_DAY;
+        int minute = time - dayStart;
+        // Service of the previous day may run past midnight
+        if ((minute >= open && minute < close) || minute + MINUTES_PER_DAY < close) {
+            return time;
+        }
+        return minute < open ? dayStart + open : dayStart + MINUTES_PER_DAY + open;
+    }
+
+    /**
+     * @return average wait for a train when boarding at the state, in minutes
+     */
+    public int getBoardingWait(int state) {
+        int lineKey = network.getStateLineKey(state);
+        return lineKey == TransitNetwork.NO_LINE ? 0 : lineBoardingWaits[lineKey];
+    }
+}
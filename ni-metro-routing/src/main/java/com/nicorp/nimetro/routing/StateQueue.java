@@ -0,0 +1,75 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of network states with lazy deletion.
+ *
+ * The key and the state are packed into one long (key in the upper 32 bits), so of equal keys
+ * the lower state comes out first and a push allocates nothing. Public so that callers running
+ * many searches in a row (such as a travel time matrix) can reuse one queue.
+ */
+public final class StateQueue {
+    private long[] heap;
+    private int size;
+
+    public StateQueue(int initialCapacity) {
+        heap = new long[Math.max(16, initialCapacity)];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void push(int key, int state) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        long entry = ((long) key << 32) | (state & 0xFFFFFFFFL);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= entry) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * Removes the smallest entry; read its key and state with {@link #key(long)} and {@link #state(long)}.
+     */
+    public long pop() {
+        long top = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (last <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    public static int key(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    public static int state(long entry) {
+        return (int) entry;
+    }
+}
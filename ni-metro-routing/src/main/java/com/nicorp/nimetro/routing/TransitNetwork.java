@@ -0,0 +1,337 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routing graph in CSR (compressed sparse row) form, independent of how the map was loaded.
+ *
+ * Vertices are (station, line) states: a station on several lines has one state per line, and lines
+ * of different layers with the same id count as one line. A link between stations stays on the
+ * current line when the next station has it and otherwise leads to every state of the next station.
+ * Stations, lines and states are numbered, so searches work on primitive arrays only. The network is
+ * immutable and can be shared between threads.
+ */
+public final class TransitNetwork {
+    public static final int NO_LINE = -1;
+    public static final int NO_STATION = -1;
+
+    private final String[] stationIds;
+    private final Map<String, Integer> stationIndexById;
+    private final String[] lineIds;
+    private final Map<String, Integer> lineKeyById;
+
+    // station -> its states (one per line), states of a station are contiguous
+    private final int[] stationStateOffsets;
+    private final int[] stateStation;
+    private final int[] stateLineKey;
+
+    // edges between states
+    private final int[] edgeOffsets;
+    private final int[] edgeTargets;
+    private final int[] edgeTimes;
+
+    // edges between stations (neighbors and transfers), used for segment times
+    private final int[] stationEdgeOffsets;
+    private final int[] stationEdgeTargets;
+    private final int[] stationEdgeTimes;
+
+    private TransitNetwork(String[] stationIds, Map<String, Integer> stationIndexById,
+                           String[] lineIds, Map<String, Integer> lineKeyById,
+                           int[] stationStateOffsets, int[] stateStation, int[] stateLineKey,
+                           int[] edgeOffsets, int[] edgeTargets, int[] edgeTimes,
+                           int[] stationEdgeOffsets, int[] stationEdgeTargets, int[] stationEdgeTimes) {
+        this.stationIds = stationIds;
+        this.stationIndexById = stationIndexById;
+        this.lineIds = lineIds;
+        this.lineKeyById = lineKeyById;
+        this.stationStateOffsets = stationStateOffsets;
+        this.stateStation = stateStation;
+        this.stateLineKey = stateLineKey;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeTargets = edgeTargets;
+        this.edgeTimes = edgeTimes;
+        this.stationEdgeOffsets = stationEdgeOffsets;
+        this.stationEdgeTargets = stationEdgeTargets;
+        this.stationEdgeTimes = stationEdgeTimes;
+    }
+
+    public int getStationCount() {
+        return stationIds.length;
+    }
+
+    public int getStateCount() {
+        return stateStation.length;
+    }
+
+    public int getLineKeyCount() {
+        return lineIds.length;
+    }
+
+    public int getEdgeCount() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * @return station index or {@link #NO_STATION} if the network has no such station
+     */
+    public int getStationIndex(String stationId) {
+        Integer index = stationId != null ? stationIndexById.get(stationId) : null;
+        return index != null ? index : NO_STATION;
+    }
+
+    public String getStationId(int station) {
+        return stationIds[station];
+    }
+
+    /**
+     * @return key of the line with this id or {@link #NO_LINE} if the network has no such line
+     */
+    public int getLineKey(String lineId) {
+        Integer key = lineId != null ? lineKeyById.get(lineId) : null;
+        return key != null ? key : NO_LINE;
+    }
+
+    public String getLineId(int lineKey) {
+        return lineKey == NO_LINE ? null : lineIds[lineKey];
+    }
+
+    public int getFirstState(int station) {
+        return stationStateOffsets[station];
+    }
+
+    public int getStateLimit(int station) {
+        return stationStateOffsets[station + 1];
+    }
+
+    public int getStateStation(int state) {
+        return stateStation[state];
+    }
+
+    /**
+     * @return line key of the state or {@link #NO_LINE} for a station that is on no line
+     */
+    public int getStateLineKey(int state) {
+        return stateLineKey[state];
+    }
+
+    /**
+     * @return true if moving between the states' lines counts as a transfer
+     */
+    public boolean isLineChange(int fromState, int toState) {
+        int fromLine = stateLineKey[fromState];
+        int toLine = stateLineKey[toState];
+        return fromLine != NO_LINE && toLine != NO_LINE && fromLine != toLine;
+    }
+
+    public int getEdgeStart(int state) {
+        return edgeOffsets[state];
+    }
+
+    public int getEdgeEnd(int state) {
+        return edgeOffsets[state + 1];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    public int getEdgeTime(int edge) {
+        return edgeTimes[edge];
+    }
+
+    /**
+     * @return time of the direct segment or transfer between the stations, or -1 if they are not linked
+     */
+    public int getTravelTime(int fromStation, int toStation) {
+        for (int e = stationEdgeOffsets[fromStation]; e < stationEdgeOffsets[fromStation + 1]; e++) {
+            if (stationEdgeTargets[e] == toStation) {
+                return stationEdgeTimes[e];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Collects stations, their lines and links, then compiles the network.
+     *
+     * Links belong to station instances — listings of a station on a line — in the order they are
+     * added. A station with one instance keeps its links as they are; a station listed several times
+     * gets the links of all instances merged, keeping the first link to each target.
+     */
+    public static final class Builder {
+        private final List<String> stationIds = new ArrayList<>();
+        private final Map<String, Integer> stationIndexById = new HashMap<>();
+        private final List<String> lineIds = new ArrayList<>();
+        private final Map<String, Integer> lineKeyById = new HashMap<>();
+        private final List<List<Integer>> stationLineKeys = new ArrayList<>();
+        private final List<List<Integer>> stationInstances = new ArrayList<>();
+        // instance -> links as {target station, time}
+        private final List<List<int[]>> instanceLinks = new ArrayList<>();
+
+        /**
+         * @return index of the station, added if it is new
+         */
+        public int addStation(String stationId) {
+            Integer index = stationIndexById.get(stationId);
+            if (index == null) {
+                index = stationIds.size();
+                stationIndexById.put(stationId, index);
+                stationIds.add(stationId);
+                stationLineKeys.add(new ArrayList<>(1));
+                stationInstances.add(new ArrayList<>(1));
+            }
+            return index;
+        }
+
+        /**
+         * @return index of the station or {@link #NO_STATION} if it has not been added
+         */
+        public int getStationIndex(String stationId) {
+            Integer index = stationId != null ? stationIndexById.get(stationId) : null;
+            return index != null ? index : NO_STATION;
+        }
+
+        /**
+         * Adds the next line of a station; its states follow the order of the calls.
+         *
+         * @return key of the line; a line the station already has is not added again
+         */
+        public int addStationLine(int station, String lineId) {
+            Integer key = lineKeyById.get(lineId);
+            if (key == null) {
+                key = lineIds.size();
+                lineKeyById.put(lineId, key);
+                lineIds.add(lineId);
+            }
+            List<Integer> keys = stationLineKeys.get(station);
+            if (!keys.contains(key)) {
+                keys.add(key);
+            }
+            return key;
+        }
+
+        /**
+         * @return handle of a new instance of the station
+         */
+        public int addInstance(int station) {
+            int instance = instanceLinks.size();
+            instanceLinks.add(new ArrayList<>());
+            stationInstances.get(station).add(instance);
+            return instance;
+        }
+
+        public void addLink(int instance, int targetStation, int time) {
+            instanceLinks.get(instance).add(new int[]{targetStation, time});
+        }
+
+        public TransitNetwork build() {
+            int stationCount = stationIds.size();
+
+            // 1. Links between stations
+            int[] stationEdgeOffsets = new int[stationCount + 1];
+            List<List<int[]>> adjacency = new ArrayList<>(stationCount);
+            for (int s = 0; s < stationCount; s++) {
+                List<Integer> instances = stationInstances.get(s);
+                List<int[]> links;
+                if (instances.size() == 1) {
+                    links = instanceLinks.get(instances.get(0));
+                } else {
+                    links = new ArrayList<>();
+                    Set<Integer> addedTargets = new HashSet<>();
+                    for (int instance : instances) {
+                        for (int[] link : instanceLinks.get(instance)) {
+                            if (addedTargets.add(link[0])) {
+                                links.add(link);
+                            }
+                        }
+                    }
+                }
+                adjacency.add(links);
+                stationEdgeOffsets[s + 1] = stationEdgeOffsets[s] + links.size();
+            }
+            int[] stationEdgeTargets = new int[stationEdgeOffsets[stationCount]];
+            int[] stationEdgeTimes = new int[stationEdgeOffsets[stationCount]];
+            for (int s = 0; s < stationCount; s++) {
+                int e = stationEdgeOffsets[s];
+                for (int[] link : adjacency.get(s)) {
+                    stationEdgeTargets[e] = link[0];
+                    stationEdgeTimes[e] = link[1];
+                    e++;
+                }
+            }
+
+            // 2. States (station, line)
+            int[] stationStateOffsets = new int[stationCount + 1];
+            for (int s = 0; s < stationCount; s++) {
+                stationStateOffsets[s + 1] = stationStateOffsets[s] + Math.max(1, stationLineKeys.get(s).size());
+            }
+            int stateCount = stationStateOffsets[stationCount];
+            int[] stateStation = new int[stateCount];
+            int[] stateLineKey = new int[stateCount];
+            for (int s = 0; s < stationCount; s++) {
+                List<Integer> keys = stationLineKeys.get(s);
+                int state = stationStateOffsets[s];
+                if (keys.isEmpty()) {
+                    stateStation[state] = s;
+                    stateLineKey[state] = NO_LINE;
+                    continue;
+                }
+                for (int i = 0; i < keys.size(); i++, state++) {
+                    stateStation[state] = s;
+                    stateLineKey[state] = keys.get(i);
+                }
+            }
+
+            // 3. Edges between states: stay on the current line if the next station has it,
+            // otherwise go to every state of the next station
+            int[] edgeOffsets = new int[stateCount + 1];
+            int[] edgeTargets = new int[16];
+            int[] edgeTimes = new int[16];
+            int edgeCount = 0;
+            for (int state = 0; state < stateCount; state++) {
+                int station = stateStation[state];
+                int lineKey = stateLineKey[state];
+                for (int e = stationEdgeOffsets[station]; e < stationEdgeOffsets[station + 1]; e++) {
+                    int target = stationEdgeTargets[e];
+                    int sameLineState = findState(stationStateOffsets, stateLineKey, target, lineKey);
+                    int from = sameLineState >= 0 ? sameLineState : stationStateOffsets[target];
+                    int to = sameLineState >= 0 ? sameLineState + 1 : stationStateOffsets[target + 1];
+                    for (int targetState = from; targetState < to; targetState++) {
+                        if (edgeCount == edgeTargets.length) {
+                            edgeTargets = Arrays.copyOf(edgeTargets, edgeCount * 2);
+                            edgeTimes = Arrays.copyOf(edgeTimes, edgeCount * 2);
+                        }
+                        edgeTargets[edgeCount] = targetState;
+                        edgeTimes[edgeCount] = stationEdgeTimes[e];
+                        edgeCount++;
+                    }
+                }
+                edgeOffsets[state + 1] = edgeCount;
+            }
+
+            return new TransitNetwork(stationIds.toArray(new String[0]), new HashMap<>(stationIndexById),
+                    lineIds.toArray(new String[0]), new HashMap<>(lineKeyById),
+                    stationStateOffsets, stateStation, stateLineKey,
+                    edgeOffsets, Arrays.copyOf(edgeTargets, edgeCount), Arrays.copyOf(edgeTimes, edgeCount),
+                    stationEdgeOffsets, stationEdgeTargets, stationEdgeTimes);
+        }
+
+        private static int findState(int[] stationStateOffsets, int[] stateLineKey, int station, int lineKey) {
+            if (lineKey == NO_LINE) {
+                return -1;
+            }
+            for (int state = stationStateOffsets[station]; state < stationStateOffsets[station + 1]; state++) {
+                if (stateLineKey[state] == lineKey) {
+                    return state;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,825 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Route searches over a {@link TransitNetwork}: the fastest route by Dijkstra or A*, and the set of
+ * Pareto-optimal routes by travel time and transfer count by a multi-criteria search.
+ *
+ * Distances and predecessors live in int arrays indexed by state, so a query allocates nothing per
+ * vertex. The fastest-route search takes its arrays and indexed heap from a per-thread buffer
+ * (see {@link SearchScratch}) and after the first query on a thread allocates only the route itself.
+ * A query does not depend on earlier ones, and one router can serve several threads at once.
+ *
+ * In fastest-route mode an edge weighs time * hopScale + 1: of routes with equal time the one with fewer
+ * hops wins, and of those the predecessor with the lower state number. The route is therefore unique,
+ * and Dijkstra and A* return the same route.
+ *
+ * The fewest-transfer route is the last route of the Pareto set: fewest transfers first, then least
+ * time. Alternative routes are found by the penalty method: the fastest-route search is repeated with
+ * the edges of routes already found made slower.
+ *
+ * The route for a given departure time uses opening hours and headways ({@link ServiceSchedule}) in the
+ * same A*, with edge weights depending on the time the state is reached.
+ *
+ * Closed stations, lines and segments are laid over the network as a mask (see {@link #setClosures}) and
+ * apply to every kind of search; without closures the checks cost nothing.
+ *
+ * Searches work on state paths: int arrays of states from start to end. {@link #toRoutePath} turns one
+ * into station and line ids; the Android client maps states to its own station objects instead.
+ */
+public class TransitRouter {
+    /**
+     * Transfer counts told apart by the multi-criteria search; routes with more transfers count
+     * as routes with MAX_TRANSFERS transfers.
+     */
+    public static final int MAX_TRANSFERS = 15;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+    // Percentage by which an edge of a found route gets slower when searching for alternatives
+    private static final int ALTERNATIVE_PENALTY_PERCENT = 50;
+    // Search attempts per requested alternative: some of the routes found are rejected
+    private static final int ALTERNATIVE_ATTEMPTS = 3;
+
+    public enum Algorithm {
+        DIJKSTRA,
+        /**
+         * A* with the landmark lower bound; used for the fastest route only.
+         */
+        A_STAR
+    }
+
+    private final TransitNetwork network;
+    private final TravelTimeLowerBound lowerBound;
+    // Working arrays of the fastest-route search, one set per thread
+    private final ThreadLocal<SearchScratch> scratches;
+    private volatile RouteTrace trace;
+    private volatile RouteMask mask;
+
+    /**
+     * Precomputes the landmark bound, which takes a few searches over the whole network.
+     */
+    public TransitRouter(TransitNetwork network) {
+        this.network = network;
+        this.lowerBound = new TravelTimeLowerBound(network);
+        this.scratches = ThreadLocal.withInitial(
+                () -> new SearchScratch(network.getStateCount(), network.getStationCount()));
+    }
+
+    public TransitNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Attaches search tracing; has effect only with {@link RouteTrace#ENABLED}.
+     */
+    public void setTrace(RouteTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Sets the closures for subsequent queries; queries already running search without them.
+     * Ids missing from this network are skipped.
+     *
+     * @param closures closures or null / {@link RouteClosures#NONE} to open everything
+     */
+    public void setClosures(RouteClosures closures) {
+        this.mask = RouteMask.compile(network, closures);
+    }
+
+    /**
+     * @return true if some of the current closures apply to this network
+     */
+    public boolean hasClosures() {
+        return mask != null;
+    }
+
+    /**
+     * Route between stations given by id, as station and line ids.
+     *
+     * @return the route, or null if either station is missing from the network or there is no route
+     */
+    public RoutePath findRoute(String fromStationId, String toStationId, RouteStrategy strategy) {
+        int[] path = findRoute(network.getStationIndex(fromStationId), network.getStationIndex(toStationId),
+                strategy, -1);
+        return path != null ? toRoutePath(path) : null;
+    }
+
+    /**
+     * Finds a route between stations. The fastest route is searched with A*,
+     * the fewest-transfer route with {@link #findParetoRoutes}.
+     *
+     * @param maxTime limit on the real travel time (without penalties), -1 for no limit
+     * @return states of the route, or null if there is no route
+     */
+    public int[] findRoute(int startStation, int endStation, RouteStrategy strategy, int maxTime) {
+        return findRoute(startStation, endStation, strategy, maxTime, Algorithm.A_STAR);
+    }
+
+    public int[] findRoute(int startStation, int endStation, RouteStrategy strategy, int maxTime,
+                           Algorithm algorithm) {
+        if (startStation == TransitNetwork.NO_STATION || endStation == TransitNetwork.NO_STATION
+                || !lowerBound.mayReach(startStation, endStation)) {
+            return null;
+        }
+        if (strategy == RouteStrategy.MIN_TRANSFERS) {
+            List<int[]> routes = findParetoRoutes(startStation, endStation, maxTime, 0);
+            return routes.isEmpty() ? null : routes.get(routes.size() - 1);
+        }
+        return findFastest(startStation, endStation, maxTime, algorithm == Algorithm.A_STAR, null, mask);
+    }
+
+    /**
+     * @param edgeTimes edge times for the search, or null for the real times; never below the real times,
+     *                  or the A* bound stops being admissible. maxTime is checked against the real time.
+     */
+    private int[] findFastest(int startStation, int endStation, int maxTime, boolean useHeuristic, int[] edgeTimes,
+                              RouteMask queryMask) {
+        int hopScale = hopScale();
+        RouteTrace queryTrace = RouteTrace.ENABLED ? trace : null;
+        if (RouteTrace.ENABLED && queryTrace != null) {
+            queryTrace.query(startStation, endStation);
+        }
+        SearchScratch scratch = scratches.get();
+        scratch.begin(useHeuristic);
+        IndexedStateHeap queue = scratch.queue;
+
+        // The start station may be on several lines, so the search starts from all its states
+        for (int state = network.getFirstState(startStation); state < network.getStateLimit(startStation); state++) {
+            if (queryMask != null && queryMask.isStateClosed(state)) {
+                continue;
+            }
+            scratch.reach(state, 0, 0, -1, -1);
+            queue.update(estimate(scratch, startStation, endStation, hopScale), state);
+        }
+
+        int endState = -1;
+        while (!queue.isEmpty()) {
+            int current = queue.pop();
+            int currentStation = network.getStateStation(current);
+            int currentDistance = scratch.distances[current];
+            if (currentStation == endStation) {
+                if (RouteTrace.ENABLED && queryTrace != null) {
+                    queryTrace.record(RouteTrace.EVENT_TARGET, current, currentDistance, 0);
+                }
+                endState = current;
+                break;
+            }
+            if (RouteTrace.ENABLED && queryTrace != null) {
+                queryTrace.record(RouteTrace.EVENT_EXPAND, current, currentDistance, 0);
+            }
+
+            int currentRealTime = scratch.realTimes[current];
+            for (int edge = network.getEdgeStart(current); edge < network.getEdgeEnd(current); edge++) {
+                if (queryMask != null && queryMask.isEdgeClosed(edge)) {
+                    continue;
+                }
+                int next = network.getEdgeTarget(edge);
+                int edgeTime = network.getEdgeTime(edge);
+                int newRealTime = currentRealTime + edgeTime;
+                if (maxTime > 0 && newRealTime > maxTime) {
+                    continue;
+                }
+                int searchTime = edgeTimes != null ? edgeTimes[edge] : edgeTime;
+                int newDistance = currentDistance + searchTime * hopScale + 1;
+                int nextDistance = scratch.distance(next);
+                if (newDistance < nextDistance) {
+                    scratch.reach(next, newDistance, newRealTime, current, edge);
+                    queue.update(newDistance + estimate(scratch, network.getStateStation(next), endStation, hopScale),
+                            next);
+                } else if (newDistance == nextDistance && current < scratch.previous[next]) {
+                    // Weights are positive, so every equal predecessor is settled before next
+                    scratch.previous[next] = current;
+                    scratch.previousEdges[next] = edge;
+                }
+            }
+        }
+
+        if (endState < 0) {
+            return null;
+        }
+        int length = 0;
+        for (int state = endState; state >= 0; state = scratch.previous[state]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int state = endState; state >= 0; state = scratch.previous[state]) {
+            path[--length] = state;
+        }
+        return path;
+    }
+
+    /**
+     * Finds in one pass every route that cannot be improved in both travel time and transfer count.
+     *
+     * Labels are (state, transfer count) pairs weighing time * hopScale + hops; labels are settled by
+     * increasing weight, and a label is dropped if its state already has a label no heavier with no more
+     * transfers. The first label at the end station is the fastest route, each next accepted one a route
+     * with fewer transfers. As in A*, the lower bound of the time to the end station is added to a label's
+     * priority: the order of labels of one state does not change, and labels that cannot meet the time
+     * limit are dropped at once.
+     *
+     * @param maxTime      limit on the real travel time, -1 for no limit
+     * @param maxTimeRatio how many times slower than the fastest a route may be, 0 for no limit
+     * @return routes from the fastest to the one with fewest transfers; empty if there is no route
+     */
+    public List<int[]> findParetoRoutes(int startStation, int endStation, int maxTime, float maxTimeRatio) {
+        List<int[]> routes = new ArrayList<>();
+        if (startStation == TransitNetwork.NO_STATION || endStation == TransitNetwork.NO_STATION
+                || !lowerBound.mayReach(startStation, endStation)) {
+            return routes;
+        }
+        RouteMask queryMask = mask;
+        int levels = MAX_TRANSFERS + 1;
+        int labelCount = network.getStateCount() * levels;
+        int hopScale = hopScale();
+        RouteTrace queryTrace = RouteTrace.ENABLED ? trace : null;
+        if (RouteTrace.ENABLED && queryTrace != null) {
+            queryTrace.query(startStation, endStation);
+        }
+        // label = state * levels + transfer count
+        int[] weights = new int[labelCount];
+        int[] previous = new int[labelCount];
+        int[] estimates = new int[network.getStationCount()];
+        Arrays.fill(weights, UNREACHED);
+        Arrays.fill(estimates, -1);
+        StateQueue queue = new StateQueue(network.getStateCount());
+
+        int startEstimate = estimate(estimates, startStation, endStation, hopScale);
+        for (int state = network.getFirstState(startStation); state < network.getStateLimit(startStation); state++) {
+            if (queryMask != null && queryMask.isStateClosed(state)) {
+                continue;
+            }
+            weights[state * levels] = 0;
+            previous[state * levels] = -1;
+            queue.push(startEstimate, state * levels);
+        }
+
+        // Weight below (maxTime + 1) * hopScale <=> real time not above maxTime
+        long weightLimit = maxTime > 0 ? (long) (maxTime + 1) * hopScale : Long.MAX_VALUE;
+        // Labels with this many transfers or more are already dominated by a route found
+        int transferLimit = levels;
+        List<Integer> targetLabels = new ArrayList<>();
+        int lastTargetWeight = -1;
+        while (!queue.isEmpty()) {
+            long entry = queue.pop();
+            int label = StateQueue.state(entry);
+            int state = label / levels;
+            int transfers = label % levels;
+            int weight = weights[label];
+            int priority = StateQueue.key(entry);
+            // Labels pushed before the time limit was known are checked here
+            if (priority != weight + estimate(estimates, network.getStateStation(state), endStation, hopScale)
+                    || priority >= weightLimit || transfers >= transferLimit
+                    || isDominated(weights, state * levels, transfers - 1, weight)) {
+                continue;
+            }
+            if (network.getStateStation(state) == endStation) {
+                if (RouteTrace.ENABLED && queryTrace != null) {
+                    queryTrace.record(RouteTrace.EVENT_TARGET, state, weight, transfers);
+                }
+                if (targetLabels.isEmpty() && maxTimeRatio > 0) {
+                    long ratioLimit = ((long) Math.floor(weight / hopScale * (double) maxTimeRatio) + 1) * hopScale;
+                    weightLimit = Math.min(weightLimit, ratioLimit);
+                }
+                // A route of the same weight but with fewer transfers replaces the previous one
+                if (weight == lastTargetWeight) {
+                    targetLabels.remove(targetLabels.size() - 1);
+                }
+                targetLabels.add(label);
+                lastTargetWeight = weight;
+                transferLimit = transfers;
+                continue;
+            }
+            if (RouteTrace.ENABLED && queryTrace != null) {
+                queryTrace.record(RouteTrace.EVENT_EXPAND, state, weight, transfers);
+            }
+
+            for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                if (queryMask != null && queryMask.isEdgeClosed(edge)) {
+                    continue;
+                }
+                int next = network.getEdgeTarget(edge);
+                int newWeight = weight + network.getEdgeTime(edge) * hopScale + 1;
+                int nextEstimate = estimate(estimates, network.getStateStation(next), endStation, hopScale);
+                if (newWeight + (long) nextEstimate >= weightLimit) {
+                    continue;
+                }
+                int newTransfers = transfers;
+                if (network.isLineChange(state, next) && newTransfers < MAX_TRANSFERS) {
+                    newTransfers++;
+                }
+                if (newTransfers >= transferLimit || isDominated(weights, next * levels, newTransfers, newWeight)) {
+                    continue;
+                }
+                int newLabel = next * levels + newTransfers;
+                weights[newLabel] = newWeight;
+                previous[newLabel] = label;
+                queue.push(newWeight + nextEstimate, newLabel);
+            }
+        }
+
+        for (int targetLabel : targetLabels) {
+            int length = 0;
+            for (int label = targetLabel; label >= 0; label = previous[label]) {
+                length++;
+            }
+            int[] path = new int[length];
+            for (int label = targetLabel; label >= 0; label = previous[label]) {
+                path[--length] = label / levels;
+            }
+            routes.add(path);
+        }
+        return routes;
+    }
+
+    /**
+     * Finds routes clearly different from the known ones by the penalty method: the edges of known and
+     * found routes get slower, and the fastest route is searched again. A route is accepted if it meets
+     * the time limit and shares at most maxOverlap of its time with each accepted route.
+     *
+     * @param knownRoutes  routes already shown, the fastest first
+     * @param maxTime      limit on the real travel time, -1 for no limit
+     * @param maxTimeRatio how many times slower than the fastest a route may be, 0 for no limit
+     * @param maxOverlap   share of a route's time allowed on the edges of any accepted route
+     * @return up to count new routes in the order found
+     */
+    public List<int[]> findAlternativeRoutes(int startStation, int endStation, List<int[]> knownRoutes, int count,
+                                             int maxTime, float maxTimeRatio, float maxOverlap) {
+        List<int[]> alternatives = new ArrayList<>();
+        if (count <= 0 || knownRoutes.isEmpty()) {
+            return alternatives;
+        }
+        RouteMask queryMask = mask;
+        int fastestTime = routeTime(knownRoutes.get(0));
+        long timeLimit = maxTimeRatio > 0 ? (long) Math.floor(fastestTime * (double) maxTimeRatio) : Long.MAX_VALUE;
+        if (maxTime > 0) {
+            timeLimit = Math.min(timeLimit, maxTime);
+        }
+        // The search drops what cannot meet the limit, so a slow route does not use up an attempt
+        int searchLimit = timeLimit > 0 && timeLimit < Integer.MAX_VALUE ? (int) timeLimit : -1;
+        int[] edgeTimes = new int[network.getEdgeCount()];
+        for (int edge = 0; edge < edgeTimes.length; edge++) {
+            edgeTimes[edge] = network.getEdgeTime(edge);
+        }
+        List<BitSet> acceptedEdges = new ArrayList<>();
+        for (int[] route : knownRoutes) {
+            acceptedEdges.add(penalize(route, fastestEdges(route), edgeTimes));
+        }
+
+        for (int attempt = 0; attempt < count * ALTERNATIVE_ATTEMPTS && alternatives.size() < count; attempt++) {
+            int[] route = findFastest(startStation, endStation, searchLimit, true, edgeTimes, queryMask);
+            if (route == null) {
+                break;
+            }
+            // A rejected route is penalized too, so the next attempt finds another one
+            BitSet routeEdges = penalize(route, searchedEdges(route), edgeTimes);
+            // The route is judged as shown to the passenger: by the fastest of parallel edges
+            int time = routeTime(route);
+            if (time <= timeLimit && isDiverse(fastestEdges(route), time, acceptedEdges, maxOverlap)) {
+                alternatives.add(route);
+                acceptedEdges.add(routeEdges);
+            }
+        }
+        return alternatives;
+    }
+
+    /**
+     * Makes the edges the route travels ALTERNATIVE_PENALTY_PERCENT slower (at least a minute for non-zero
+     * ones).
+     *
+     * @param edges edge of each hop of the route
+     * @return every edge between adjacent states of the route, parallel ones included: a route over a
+     *         parallel edge is the same route to the passenger
+     */
+    private BitSet penalize(int[] route, int[] edges, int[] edgeTimes) {
+        BitSet segments = new BitSet(edgeTimes.length);
+        for (int i = 0; i < edges.length; i++) {
+            int edge = edges[i];
+            int time = network.getEdgeTime(edge);
+            edgeTimes[edge] += (time * ALTERNATIVE_PENALTY_PERCENT + 99) / 100;
+            for (int parallel = network.getEdgeStart(route[i]); parallel < network.getEdgeEnd(route[i]); parallel++) {
+                if (network.getEdgeTarget(parallel) == route[i + 1]) {
+                    segments.set(parallel);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private boolean isDiverse(int[] edges, int time, List<BitSet> acceptedEdges, float maxOverlap) {
+        for (BitSet accepted : acceptedEdges) {
+            int sharedTime = 0;
+            int sharedHops = 0;
+            for (int edge : edges) {
+                if (accepted.get(edge)) {
+                    sharedTime += network.getEdgeTime(edge);
+                    sharedHops++;
+                }
+            }
+            // A route of zero-time edges only is compared by hop count
+            boolean same = time > 0 ? sharedTime > time * maxOverlap : sharedHops == edges.length;
+            if (same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Edges of a route as the real edge times give it: of parallel edges the search takes the fastest.
+     */
+    private int[] fastestEdges(int[] route) {
+        int[] edges = new int[Math.max(0, route.length - 1)];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = findEdge(route[i], route[i + 1]);
+        }
+        return edges;
+    }
+
+    /**
+     * Edges by which the last fastest-route search of this thread reached the states of its route. With
+     * penalties that may be a slower parallel edge, not the one {@link #findEdge} picks.
+     */
+    private int[] searchedEdges(int[] route) {
+        SearchScratch scratch = scratches.get();
+        int[] edges = new int[route.length - 1];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = scratch.previousEdges[route[i + 1]];
+        }
+        return edges;
+    }
+
+    /**
+     * Edge between adjacent states of a route; of parallel edges the search takes the fastest.
+     */
+    private int findEdge(int from, int to) {
+        int best = -1;
+        for (int edge = network.getEdgeStart(from); edge < network.getEdgeEnd(from); edge++) {
+            if (network.getEdgeTarget(edge) == to && (best < 0 || network.getEdgeTime(edge) < network.getEdgeTime(best))) {
+                best = edge;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return real travel time of the route in minutes
+     */
+    public int routeTime(int[] route) {
+        int time = 0;
+        for (int i = 0; i + 1 < route.length; i++) {
+            time += network.getEdgeTime(findEdge(route[i], route[i + 1]));
+        }
+        return time;
+    }
+
+    /**
+     * Fastest route for a given departure time: a ride along a line can start only while the departure
+     * station is open, otherwise the passenger waits for the opening; boarding a line adds the average
+     * wait for a train. Walking transfers do not depend on the schedule.
+     *
+     * Each state has two labels, "on board" and "at the station": staying on the train means no wait.
+     * Arrival time never decreases when a state is reached later, so like plain A* the search settles
+     * each label once, and the lower bound without waits stays admissible.
+     * A label weighs (time since departure) * hopScale + hops, as in the fastest-route search.
+     *
+     * @param departureTime departure time in minutes from midnight
+     * @return the route with arrival times, or null if it cannot be travelled within a day of departure
+     */
+    public TimedPath findScheduledRoute(int startStation, int endStation, int departureTime, ServiceSchedule schedule) {
+        if (startStation == TransitNetwork.NO_STATION || endStation == TransitNetwork.NO_STATION
+                || !lowerBound.mayReach(startStation, endStation)) {
+            return null;
+        }
+        RouteMask queryMask = mask;
+        // label = state * 2, plus 1 when the passenger is on board
+        int labelCount = network.getStateCount() * 2;
+        int hopScale = Math.max(1, labelCount);
+        int[] distances = new int[labelCount];
+        int[] previous = new int[labelCount];
+        int[] estimates = new int[network.getStationCount()];
+        Arrays.fill(distances, UNREACHED);
+        Arrays.fill(previous, -1);
+        Arrays.fill(estimates, -1);
+        StateQueue queue = new StateQueue(labelCount);
+
+        for (int state = network.getFirstState(startStation); state < network.getStateLimit(startStation); state++) {
+            if (queryMask != null && queryMask.isStateClosed(state)) {
+                continue;
+            }
+            distances[state * 2] = 0;
+            queue.push(estimate(estimates, startStation, endStation, hopScale), state * 2);
+        }
+
+        int endLabel = -1;
+        while (!queue.isEmpty()) {
+            long entry = queue.pop();
+            int label = StateQueue.state(entry);
+            int current = label >> 1;
+            int currentStation = network.getStateStation(current);
+            int currentDistance = distances[label];
+            if (StateQueue.key(entry) > currentDistance + estimate(estimates, currentStation, endStation, hopScale)) {
+                continue;
+            }
+            if (currentStation == endStation) {
+                endLabel = label;
+                break;
+            }
+            boolean onBoard = (label & 1) != 0;
+            int time = departureTime + currentDistance / hopScale;
+            int hops = currentDistance % hopScale;
+
+            for (int edge = network.getEdgeStart(current); edge < network.getEdgeEnd(current); edge++) {
+                if (queryMask != null && queryMask.isEdgeClosed(edge)) {
+                    continue;
+                }
+                int next = network.getEdgeTarget(edge);
+                boolean ride = isRide(current, next);
+                int leaveTime = time;
+                if (ride) {
+                    leaveTime = schedule.nextDeparture(current, time);
+                    if (!onBoard || leaveTime != time) {
+                        leaveTime += schedule.getBoardingWait(current);
+                    }
+                }
+                int elapsed = leaveTime + network.getEdgeTime(edge) - departureTime;
+                if (elapsed > ServiceSchedule.MINUTES_PER_DAY) {
+                    continue;
+                }
+                int nextLabel = next * 2 + (ride ? 1 : 0);
+                int newDistance = elapsed * hopScale + hops + 1;
+                if (newDistance < distances[nextLabel]) {
+                    distances[nextLabel] = newDistance;
+                    previous[nextLabel] = label;
+                    queue.push(newDistance + estimate(estimates, network.getStateStation(next), endStation, hopScale),
+                            nextLabel);
+                } else if (newDistance == distances[nextLabel] && label < previous[nextLabel]) {
+                    previous[nextLabel] = label;
+                }
+            }
+        }
+
+        if (endLabel < 0) {
+            return null;
+        }
+        int length = 0;
+        for (int label = endLabel; label >= 0; label = previous[label]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int[] times = new int[length];
+        int boardingTime = -1;
+        for (int label = endLabel; label >= 0; label = previous[label]) {
+            length--;
+            path[length] = label >> 1;
+            times[length] = departureTime + distances[label] / hopScale;
+            // The path is walked from the end, so the first boarding is what remains
+            if ((label & 1) != 0 && previous[label] >= 0 && (previous[label] & 1) == 0) {
+                boardingTime = times[length] - network.getEdgeTime(findEdge(previous[label] >> 1, label >> 1));
+            }
+        }
+        return new TimedPath(path, times, boardingTime);
+    }
+
+    /**
+     * @return true if, departing at departureTime, every ride of the route starts while its departure
+     * station is open, so there is no waiting for a line to open
+     */
+    public boolean isInService(int[] route, int departureTime, ServiceSchedule schedule) {
+        int time = departureTime;
+        boolean onBoard = false;
+        for (int i = 0; i + 1 < route.length; i++) {
+            boolean ride = isRide(route[i], route[i + 1]);
+            if (ride) {
+                if (schedule.nextDeparture(route[i], time) != time) {
+                    return false;
+                }
+                if (!onBoard) {
+                    time += schedule.getBoardingWait(route[i]);
+                }
+            }
+            time += network.getEdgeTime(findEdge(route[i], route[i + 1]));
+            onBoard = ride;
+        }
+        return true;
+    }
+
+    // A ride is a segment between different stations of one line, anything else is a walk
+    private boolean isRide(int from, int to) {
+        int fromLine = network.getStateLineKey(from);
+        return fromLine != TransitNetwork.NO_LINE && fromLine == network.getStateLineKey(to)
+                && network.getStateStation(to) != network.getStateStation(from);
+    }
+
+    /**
+     * Route as states with the arrival time at each state in minutes from midnight.
+     */
+    public static final class TimedPath {
+        public final int[] path;
+        public final int[] times;
+        // departure of the first train, -1 for a route without rides
+        public final int boardingTime;
+
+        TimedPath(int[] path, int[] times, int boardingTime) {
+            this.path = path;
+            this.times = times;
+            this.boardingTime = boardingTime;
+        }
+    }
+
+    /**
+     * Isochrone: times to every station reachable from the start within maxTime minutes.
+     * It is a single search bounded by time, so it never leaves the isochrone.
+     *
+     * @return time to each station of the network by its index, -1 if not reachable within maxTime
+     */
+    public int[] findTravelTimes(int startStation, int maxTime) {
+        int[] stationTimes = new int[network.getStationCount()];
+        Arrays.fill(stationTimes, -1);
+        if (startStation == TransitNetwork.NO_STATION || maxTime < 0) {
+            return stationTimes;
+        }
+        int[] stateTimes = new int[network.getStateCount()];
+        searchTravelTimes(network, startStation, maxTime, mask, stateTimes, new StateQueue(16));
+        for (int state = 0; state < stateTimes.length; state++) {
+            int time = stateTimes[state];
+            int station = network.getStateStation(state);
+            if (time != UNREACHED && (stationTimes[station] < 0 || time < stationTimes[station])) {
+                stationTimes[station] = time;
+            }
+        }
+        return stationTimes;
+    }
+
+    /**
+     * Least travel times from a station to every state of the whole network, ignoring closures;
+     * for precomputed tables such as a travel time matrix. States farther than maxTime are left at
+     * {@link Integer#MAX_VALUE}.
+     *
+     * @param stateTimes receives the times, one per state of the network
+     * @param queue      working queue, reused between calls
+     */
+    public static void searchTravelTimes(TransitNetwork network, int startStation, int maxTime, int[] stateTimes,
+                                         StateQueue queue) {
+        searchTravelTimes(network, startStation, maxTime, null, stateTimes, queue);
+    }
+
+    /**
+     * Search from all states of the station at once by the real edge times, with no transfer limit.
+     * States farther than maxTime are left at {@link #UNREACHED}.
+     *
+     * @param queryMask closures, or null to search the whole network
+     */
+    private static void searchTravelTimes(TransitNetwork network, int startStation, int maxTime,
+                                          RouteMask queryMask, int[] stateTimes, StateQueue queue) {
+        Arrays.fill(stateTimes, UNREACHED);
+        queue.clear();
+        for (int state = network.getFirstState(startStation); state < network.getStateLimit(startStation); state++) {
+            if (queryMask != null && queryMask.isStateClosed(state)) {
+                continue;
+            }
+            stateTimes[state] = 0;
+            queue.push(0, state);
+        }
+        while (!queue.isEmpty()) {
+            long entry = queue.pop();
+            int state = StateQueue.state(entry);
+            int time = StateQueue.key(entry);
+            if (time > stateTimes[state]) {
+                continue;
+            }
+            for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                if (queryMask != null && queryMask.isEdgeClosed(edge)) {
+                    continue;
+                }
+                int next = network.getEdgeTarget(edge);
+                int nextTime = time + network.getEdgeTime(edge);
+                if (nextTime <= maxTime && nextTime < stateTimes[next]) {
+                    stateTimes[next] = nextTime;
+                    queue.push(nextTime, next);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the state has a label no heavier than weight with at most maxTransfers transfers
+     */
+    private static boolean isDominated(int[] weights, int firstLabel, int maxTransfers, int weight) {
+        for (int transfers = 0; transfers <= maxTransfers; transfers++) {
+            if (weights[firstLabel + transfers] <= weight) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A simple route has fewer hops than there are states, so in the weight time * hopScale + hops
+     * time always outweighs hops.
+     */
+    private int hopScale() {
+        return Math.max(1, network.getStateCount());
+    }
+
+    /**
+     * The bound is a multiple of hopScale and an edge weight is not, so a state and its predecessor on a
+     * shortest path never share an A* priority, and the predecessor is settled first.
+     */
+    private int estimate(int[] estimates, int station, int endStation, int hopScale) {
+        if (estimates == null) {
+            return 0;
+        }
+        if (estimates[station] < 0) {
+            estimates[station] = lowerBound.estimate(station, endStation) * hopScale;
+        }
+        return estimates[station];
+    }
+
+    private int estimate(SearchScratch scratch, int station, int endStation, int hopScale) {
+        if (!scratch.useHeuristic) {
+            return 0;
+        }
+        if (scratch.estimateStamps[station] != scratch.epoch) {
+            scratch.estimateStamps[station] = scratch.epoch;
+            scratch.estimates[station] = lowerBound.estimate(station, endStation) * hopScale;
+        }
+        return scratch.estimates[station];
+    }
+
+    /**
+     * Station and line ids of a state path, with its real travel time and transfer count.
+     */
+    public RoutePath toRoutePath(int[] path) {
+        List<String> stationIds = new ArrayList<>(path.length);
+        List<String> lineIds = new ArrayList<>(path.length);
+        int transfers = 0;
+        for (int i = 0; i < path.length; i++) {
+            int state = path[i];
+            stationIds.add(network.getStationId(network.getStateStation(state)));
+            lineIds.add(network.getLineId(network.getStateLineKey(state)));
+            if (i > 0 && network.isLineChange(path[i - 1], state)) {
+                transfers++;
+            }
+        }
+        return new RoutePath(stationIds, lineIds, routeTime(path), transfers);
+    }
+
+    /**
+     * Working arrays of one thread's fastest-route searches. Instead of clearing the arrays before each
+     * query, values are stamped with the query number (epoch), and a value with another epoch counts as
+     * unset. So a query after the first one on a thread allocates nothing but the route and spends no time
+     * clearing network-sized arrays.
+     */
+    private static final class SearchScratch {
+        final int[] distances;
+        final int[] realTimes;
+        final int[] previous;
+        // edge from previous[state] to the state
+        final int[] previousEdges;
+        final int[] stamps;
+        final int[] estimates;
+        final int[] estimateStamps;
+        final IndexedStateHeap queue;
+        int epoch;
+        boolean useHeuristic;
+
+        SearchScratch(int stateCount, int stationCount) {
+            distances = new int[stateCount];
+            realTimes = new int[stateCount];
+            previous = new int[stateCount];
+            previousEdges = new int[stateCount];
+            stamps = new int[stateCount];
+            estimates = new int[stationCount];
+            estimateStamps = new int[stationCount];
+            queue = new IndexedStateHeap(stateCount);
+        }
+
+        void begin(boolean useHeuristic) {
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                Arrays.fill(estimateStamps, 0);
+                epoch = 0;
+            }
+            epoch++;
+            this.useHeuristic = useHeuristic;
+            queue.clear();
+        }
+
+        int distance(int state) {
+            return stamps[state] == epoch ? distances[state] : UNREACHED;
+        }
+
+        void reach(int state, int distance, int realTime, int previousState, int previousEdge) {
+            stamps[state] = epoch;
+            distances[state] = distance;
+            realTimes[state] = realTime;
+            previous[state] = previousState;
+            previousEdges[state] = previousEdge;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.nicorp.nimetro.routing;
+
+import java.util.Arrays;
+
+/**
+ * Landmark (ALT) lower bound of travel time for A*.
+ *
+ * For a few stations L far from each other, the times d(L, v) and d(v, L) to and from every station
+ * are precomputed. By the triangle inequality d(v, t) >= d(L, t) - d(L, v) and
+ * d(v, t) >= d(v, L) - d(t, L); the bound is the maximum over all landmarks.
+ * It is admissible and consistent: h(u) <= time(u, v) + h(v) for every edge of the network.
+ *
+ * A straight-line bound over the map's x/y coordinates is not used: the metro map is not to scale,
+ * the "fastest" segment on the map is dozens of times faster than a typical one, and such a bound
+ * prunes almost nothing.
+ */
+final class TravelTimeLowerBound {
+    private static final int LANDMARK_COUNT = 8;
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    // weakly connected component of each station: there is no route between components
+    private final int[] stationComponent;
+    private final int landmarkCount;
+    // per station: landmarkCount times from the landmarks, then landmarkCount times to them
+    private final int[] landmarkTimes;
+
+    TravelTimeLowerBound(TransitNetwork network) {
+        int stationCount = network.getStationCount();
+        int[][] forward = buildStationAdjacency(network, false);
+        int[][] backward = buildStationAdjacency(network, true);
+        stationComponent = buildComponents(forward, backward);
+
+        // Landmarks are picked greedily: the first is the station farthest from an arbitrary one,
+        // each next is the station farthest from those already picked
+        int[][] fromTimes = new int[LANDMARK_COUNT][];
+        int[][] toTimes = new int[LANDMARK_COUNT][];
+        int count = 0;
+        int[] nearestLandmark = stationCount > 0 ? shortestTimes(forward, 0) : new int[0];
+        while (count < LANDMARK_COUNT) {
+            int landmark = -1;
+            for (int s = 0; s < stationCount; s++) {
+                if (nearestLandmark[s] != UNREACHED
+                        && (landmark < 0 || nearestLandmark[s] > nearestLandmark[landmark])) {
+                    landmark = s;
+                }
+            }
+            if (landmark < 0 || (count > 0 && nearestLandmark[landmark] == 0)) {
+                break;
+            }
+            int[] from = shortestTimes(forward, landmark);
+            fromTimes[count] = from;
+            toTimes[count] = shortestTimes(backward, landmark);
+            count++;
+            for (int s = 0; s < stationCount; s++) {
+                if (count == 1 || from[s] < nearestLandmark[s]) {
+                    nearestLandmark[s] = from[s];
+                }
+            }
+        }
+
+        landmarkCount = count;
+        landmarkTimes = new int[stationCount * landmarkCount * 2];
+        for (int s = 0; s < stationCount; s++) {
+            int base = s * landmarkCount * 2;
+            for (int k = 0; k < landmarkCount; k++) {
+                landmarkTimes[base + k] = fromTimes[k][s];
+                landmarkTimes[base + landmarkCount + k] = toTimes[k][s];
+            }
+        }
+    }
+
+    /**
+     * @return false if there is certainly no route between the stations
+     */
+    boolean mayReach(int station, int targetStation) {
+        return stationComponent[station] == stationComponent[targetStation];
+    }
+
+    /**
+     * @return lower bound of the travel time from the station to the target station in minutes
+     */
+    int estimate(int station, int targetStation) {
+        int bound = 0;
+        int base = station * landmarkCount * 2;
+        int targetBase = targetStation * landmarkCount * 2;
+        for (int k = 0; k < landmarkCount; k++) {
+            // Stations unreachable from the landmark (or that cannot reach it) do not bound anything
+            int fromStation = landmarkTimes[base + k];
+            int fromTarget = landmarkTimes[targetBase + k];
+            if (fromStation != UNREACHED && fromTarget != UNREACHED && fromTarget - fromStation > bound) {
+                bound = fromTarget - fromStation;
+            }
+            int toStation = landmarkTimes[base + landmarkCount + k];
+            int toTarget = landmarkTimes[targetBase + landmarkCount + k];
+            if (toStation != UNREACHED && toTarget != UNREACHED && toStation - toTarget > bound) {
+                bound = toStation - toTarget;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Neighboring stations along the network's edges; along incoming edges for reverse.
+     * Each entry is a (station, time) pair in adjacent array elements.
+     */
+    private static int[][] buildStationAdjacency(TransitNetwork network, boolean reverse) {
+        int stationCount = network.getStationCount();
+        int[] sizes = new int[stationCount];
+        for (int state = 0; state < network.getStateCount(); state++) {
+            for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                int owner = reverse ? network.getStateStation(network.getEdgeTarget(edge)) : network.getStateStation(state);
+                sizes[owner] += 2;
+            }
+        }
+        int[][] adjacency = new int[stationCount][];
+        for (int s = 0; s < stationCount; s++) {
+            adjacency[s] = new int[sizes[s]];
+            sizes[s] = 0;
+        }
+        for (int state = 0; state < network.getStateCount(); state++) {
+            int from = network.getStateStation(state);
+            for (int edge = network.getEdgeStart(state); edge < network.getEdgeEnd(state); edge++) {
+                int to = network.getStateStation(network.getEdgeTarget(edge));
+                int owner = reverse ? to : from;
+                adjacency[owner][sizes[owner]++] = reverse ? from : to;
+                adjacency[owner][sizes[owner]++] = network.getEdgeTime(edge);
+            }
+        }
+        return adjacency;
+    }
+
+    private static int[] buildComponents(int[][] forward, int[][] backward) {
+        int[] component = new int[forward.length];
+        Arrays.fill(component, -1);
+        int[] stack = new int[forward.length];
+        int count = 0;
+        for (int s = 0; s < forward.length; s++) {
+            if (component[s] >= 0) {
+                continue;
+            }
+            int size = 0;
+            stack[size++] = s;
+            component[s] = count;
+            while (size > 0) {
+                int station = stack[--size];
+                size = pushUnvisited(forward[station], component, count, stack, size);
+                size = pushUnvisited(backward[station], component, count, stack, size);
+            }
+            count++;
+        }
+        return component;
+    }
+
+    private static int pushUnvisited(int[] edges, int[] component, int current, int[] stack, int size) {
+        for (int i = 0; i < edges.length; i += 2) {
+            if (component[edges[i]] < 0) {
+                component[edges[i]] = current;
+                stack[size++] = edges[i];
+            }
+        }
+        return size;
+    }
+
+    private static int[] shortestTimes(int[][] adjacency, int source) {
+        int[] times = new int[adjacency.length];
+        Arrays.fill(times, UNREACHED);
+        times[source] = 0;
+        StateQueue queue = new StateQueue(adjacency.length);
+        queue.push(0, source);
+        while (!queue.isEmpty()) {
+            long entry = queue.pop();
+            int station = StateQueue.state(entry);
+            int time = StateQueue.key(entry);
+            if (time > times[station]) {
+                continue;
+            }
+            int[] edges = adjacency[station];
+            for (int i = 0; i < edges.length; i += 2) {
+                int next = edges[i];
+                int nextTime = time + edges[i + 1];
+                if (nextTime < times[next]) {
+                    times[next] = nextTime;
+                    queue.push(nextTime, next);
+                }
+            }
+        }
+        return times;
+    }
+}
@@ -0,0 +1,103 @@
+package com.nicorp.nimetro.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MapParserTest {
+
+    /**
+     * Two lines sharing station C, with a 3 minute transfer between B and X:
+     * A - B - C - D on line 1 (2 minutes each), X - C - Y on line 2 (5 minutes each).
+     */
+    private static Map<String, Object> twoLineMap() {
+        List<Object> lines = new ArrayList<>();
+        lines.add(line("1",
+                station("A", neighbor("B", 2)),
+                station("B", neighbor("A", 2), neighbor("C", 2)),
+                station("C", neighbor("B", 2), neighbor("D", 2)),
+                station("D", neighbor("C", 2))));
+        lines.add(line("2",
+                station("X", neighbor("C", 5)),
+                station("C", neighbor("X", 5), neighbor("Y", 5)),
+                station("Y", neighbor("C", 5))));
+        Map<String, Object> transfer = new HashMap<>();
+        transfer.put("stations", Arrays.<Object>asList("B", "X"));
+        transfer.put("time", 3);
+        Map<String, Object> metro = new HashMap<>();
+        metro.put("lines", lines);
+        metro.put("transfers", Arrays.<Object>asList(transfer));
+        Map<String, Object> map = new HashMap<>();
+        map.put("metro_map", metro);
+        return map;
+    }
+
+    private static Map<String, Object> line(String id, Object... stations) {
+        Map<String, Object> line = new HashMap<>();
+        line.put("id", id);
+        line.put("stations", Arrays.asList(stations));
+        return line;
+    }
+
+    private static Map<String, Object> station(String id, Object... neighbors) {
+        Map<String, Object> station = new HashMap<>();
+        station.put("id", id);
+        station.put("neighbors", Arrays.asList(neighbors));
+        return station;
+    }
+
+    private static List<Object> neighbor(String id, int time) {
+        return Arrays.<Object>asList(id, time);
+    }
+
+    @Test
+    public void sharedStationGetsStatePerLine() {
+        TransitNetwork network = MapParser.parse(twoLineMap());
+
+        assertEquals(6, network.getStationCount());
+        int c = network.getStationIndex("C");
+        assertEquals(2, network.getStateLimit(c) - network.getFirstState(c));
+        assertEquals(TransitNetwork.NO_STATION, network.getStationIndex("Z"));
+        assertEquals(3, network.getTravelTime(network.getStationIndex("B"), network.getStationIndex("X")));
+    }
+
+    @Test
+    public void fastestRouteTakesTransfer() {
+        TransitRouter router = new TransitRouter(MapParser.parse(twoLineMap()));
+
+        RoutePath path = router.findRoute("A", "X", RouteStrategy.FASTEST);
+
+        assertNotNull(path);
+        assertEquals(Arrays.asList("A", "B", "X"), path.getStationIds());
+        assertEquals(5, path.getTime());
+        assertEquals(1, path.getTransfers());
+    }
+
+    @Test
+    public void minTransfersRouteStaysOnSharedStation() {
+        TransitRouter router = new TransitRouter(MapParser.parse(twoLineMap()));
+
+        RoutePath fastest = router.findRoute("A", "Y", RouteStrategy.FASTEST);
+        RoutePath minTransfers = router.findRoute("A", "Y", RouteStrategy.MIN_TRANSFERS);
+
+        assertEquals(Arrays.asList("A", "B", "C", "Y"), minTransfers.getStationIds());
+        assertEquals(1, minTransfers.getTransfers());
+        assertTrue(fastest.getTime() <= minTransfers.getTime());
+    }
+
+    @Test
+    public void unknownStationHasNoRoute() {
+        TransitRouter router = new TransitRouter(MapParser.parse(twoLineMap()));
+
+        assertNull(router.findRoute("A", "Z", RouteStrategy.FASTEST));
+    }
+}
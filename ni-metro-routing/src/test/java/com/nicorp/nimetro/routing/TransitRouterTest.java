@@ -0,0 +1,70 @@
+package com.nicorp.nimetro.routing;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class TransitRouterTest {
+
+    /**
+     * One line: A and B are linked twice, 2 minutes each way, and through D, 1 + 1 minutes.
+     */
+    private static TransitNetwork parallelLinksNetwork() {
+        TransitNetwork.Builder builder = new TransitNetwork.Builder();
+        int a = builder.addStation("A");
+        int b = builder.addStation("B");
+        int d = builder.addStation("D");
+        for (int station : new int[]{a, b, d}) {
+            builder.addStationLine(station, "1");
+        }
+        int aInstance = builder.addInstance(a);
+        builder.addLink(aInstance, b, 2);
+        builder.addLink(aInstance, b, 2);
+        builder.addLink(aInstance, d, 1);
+        int bInstance = builder.addInstance(b);
+        builder.addLink(bInstance, a, 2);
+        builder.addLink(bInstance, d, 1);
+        int dInstance = builder.addInstance(d);
+        builder.addLink(dInstance, a, 1);
+        builder.addLink(dInstance, b, 1);
+        return builder.build();
+    }
+
+    @Test
+    public void alternativeSearchPenalizesTheParallelEdgeItTook() {
+        TransitRouter router = new TransitRouter(parallelLinksNetwork());
+        TransitNetwork network = router.getNetwork();
+        int a = network.getStationIndex("A");
+        int b = network.getStationIndex("B");
+        List<int[]> known = router.findParetoRoutes(a, b, -1, 0);
+        assertEquals(1, known.size());
+        assertEquals(2, known.get(0).length);
+
+        // The first search takes the other A - B link; unless that link is penalized, every attempt does
+        List<int[]> alternatives = router.findAlternativeRoutes(a, b, known, 1, -1, 2f, 0.5f);
+        assertEquals(1, alternatives.size());
+        int[] route = alternatives.get(0);
+        String[] stations = new String[route.length];
+        for (int i = 0; i < route.length; i++) {
+            stations[i] = network.getStationId(network.getStateStation(route[i]));
+        }
+        assertArrayEquals(new String[]{"A", "D", "B"}, stations);
+    }
+
+    @Test
+    public void alternativeSearchKeepsToMaxTime() {
+        TransitRouter router = new TransitRouter(parallelLinksNetwork());
+        TransitNetwork network = router.getNetwork();
+        int a = network.getStationIndex("A");
+        int b = network.getStationIndex("B");
+        List<int[]> known = router.findParetoRoutes(a, b, -1, 0);
+        assertNotNull(router.findRoute(a, b, RouteStrategy.FASTEST, 2));
+
+        // Every route takes 2 minutes, so a 1 minute limit leaves nothing
+        assertEquals(0, router.findAlternativeRoutes(a, b, known, 1, 1, 2f, 0.5f).size());
+    }
+}